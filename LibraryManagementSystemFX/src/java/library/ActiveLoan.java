@@ -0,0 +1,37 @@
+package library;
+
+import java.time.LocalDate;
+
+/**
+ * DTO for a loan that has not been returned yet: who has the book and when it is due.
+ */
+public final class ActiveLoan {
+
+    private final int bookId;
+    private final int memberId;
+    private final LocalDate borrowDate;
+    private final LocalDate dueDate;
+
+    public ActiveLoan(int bookId, int memberId, LocalDate borrowDate, LocalDate dueDate) {
+        this.bookId = bookId;
+        this.memberId = memberId;
+        this.borrowDate = borrowDate;
+        this.dueDate = dueDate;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public int getMemberId() {
+        return memberId;
+    }
+
+    public LocalDate getBorrowDate() {
+        return borrowDate;
+    }
+
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
+}
@@ -1,20 +1,27 @@
 package library;
 
 import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Domain entity representing a library book.
  * Implements Borrowable: books are the items borrowed and returned.
  * coverPath: file path to cover image (stored as TEXT in SQLite, not BLOB).
+ * A title can have several copies (each with a barcode in book_copies); the book is
+ * available while at least one copy is on the shelf.
  */
 public class Book implements Borrowable, Identifiable {
 
     private final int id;
     private final String title;
     private final String author;
-    private boolean available = true;
+    private volatile int copies = 1;
+    /** Copies on the shelf; moved with compare-and-set, never below 0 or above copies. */
+    private final AtomicInteger availableCopies = new AtomicInteger(1);
     /** File path to cover image (TEXT in DB). Null or empty = no cover. */
-    private String coverPath;
+    private volatile String coverPath;
+    /** Row version as last read or written; every write bumps it, and a save from an older version is refused. */
+    private volatile int version;
 
     public Book(int id, String title, String author) {
         this.id = id;
@@ -25,12 +32,12 @@ public class Book implements Borrowable, Identifiable {
 
     @Override
     public void borrow() {
-        this.available = false;
+        takeCopy();
     }
 
     @Override
     public void returnItem() {
-        this.available = true;
+        returnCopy();
     }
 
     @Override
@@ -51,12 +58,59 @@ public class Book implements Borrowable, Identifiable {
         return author;
     }
 
+    /** O(1): at least one copy is on the shelf. */
     public boolean isAvailable() {
-        return available;
+        return availableCopies.get() > 0;
     }
 
+    /** Puts every copy on the shelf, or takes every copy off it. */
     public void setAvailable(boolean available) {
-        this.available = available;
+        availableCopies.set(available ? copies : 0);
+    }
+
+    public int getCopies() {
+        return copies;
+    }
+
+    /** Used when loading book from database; set the available count after this. */
+    public void setCopies(int copies) {
+        if (copies < 1) {
+            throw new IllegalArgumentException("A book has at least one copy.");
+        }
+        this.copies = copies;
+        availableCopies.accumulateAndGet(copies, Math::min);
+    }
+
+    public int getAvailableCopies() {
+        return availableCopies.get();
+    }
+
+    public void setAvailableCopies(int available) {
+        availableCopies.set(Math.max(0, Math.min(copies, available)));
+    }
+
+    /** Takes one copy off the shelf. @return false if none was left */
+    public boolean takeCopy() {
+        int left;
+        do {
+            left = availableCopies.get();
+            if (left == 0) {
+                return false;
+            }
+        } while (!availableCopies.compareAndSet(left, left - 1));
+        return true;
+    }
+
+    /** Puts one copy back. @return false if every copy was already in */
+    public boolean returnCopy() {
+        int left;
+        do {
+            left = availableCopies.get();
+            if (left >= copies) {
+                return false;
+            }
+        } while (!availableCopies.compareAndSet(left, left + 1));
+        return true;
     }
 
     /** Path to cover image file (TEXT in DB). */
@@ -67,4 +121,13 @@ public class Book implements Borrowable, Identifiable {
     public void setCoverPath(String coverPath) {
         this.coverPath = coverPath;
     }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /** Used when loading book from database. */
+    public void setVersion(int version) {
+        this.version = version;
+    }
 }
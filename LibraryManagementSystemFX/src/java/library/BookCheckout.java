@@ -0,0 +1,17 @@
+package library;
+
+import java.sql.SQLException;
+
+/**
+ * Atomic availability changes for books, so concurrent desks cannot both lend the same copy.
+ * Implemented by stores that can do a compare-and-set (SQLiteBookHandler); reached
+ * through decorators with DataHandler.unwrap.
+ */
+public interface BookCheckout {
+
+    /** Takes one copy off the shelf if one is left. @return false if every copy was already out */
+    boolean markBorrowedIfAvailable(int bookId) throws SQLException;
+
+    /** Puts one copy back if any is out. @return false if every copy was already in */
+    boolean markAvailableIfBorrowed(int bookId) throws SQLException;
+}
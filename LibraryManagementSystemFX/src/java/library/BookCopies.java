@@ -0,0 +1,19 @@
+package library;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Copy-level inventory: the barcoded copies behind one catalog title.
+ * Implemented by SQLiteBookHandler; reached through decorators with DataHandler.unwrap.
+ */
+public interface BookCopies {
+
+    /** Registers copies with the given barcodes and puts them on the shelf. */
+    void addCopies(int bookId, List<String> barcodes) throws SQLException;
+
+    /** Title a scanned barcode belongs to, or -1. */
+    int findBookIdByBarcode(String barcode) throws SQLException;
+
+    List<String> barcodesFor(int bookId) throws SQLException;
+}
@@ -0,0 +1,165 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks multi-copy titles: added copies are found by barcode, concurrent checkouts claim
+ * exactly as many loans as there are copies, and returns put copies back on the shelf, in
+ * SQLite and in CompactCatalog. Editing a title leaves its copies alone. Stores outside
+ * the database must undo their count when a unit of work rolls back, and a member must
+ * lose a fine assessed in it. Runs against a throwaway database; exits with status 1 on
+ * the first failed check.
+ */
+public class BookCopiesTest {
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-copies-");
+        try {
+            MemberRepository members = new MemberRepository(new SQLiteMemberHandler());
+            BookRepository books = new BookRepository(new SQLiteBookHandler());
+            LibraryService service = new LibraryService(members, books);
+
+            Book dune = new Book(1, "Dune", "Frank Herbert");
+            service.addBook(dune);
+            service.addCopies(dune, List.of("DUNE-0002", "DUNE-0003"));
+            check("three copies on the shelf", dune.getCopies() == 3 && dune.getAvailableCopies() == 3);
+            check("barcode lookup", books.findBookIdByBarcode("DUNE-0003") == 1 && books.findBookIdByBarcode("NONE") == -1);
+
+            int desks = 8;
+            List<Member> borrowers = new ArrayList<>();
+            for (int id = 1; id <= desks; id++) {
+                Member member = new Member(id, "Member " + id, "pw");
+                service.registerMember(member);
+                borrowers.add(member);
+            }
+            AtomicInteger lent = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (Member member : borrowers) {
+                Thread desk = new Thread(() -> {
+                    try {
+                        start.await();
+                        if (service.tryBorrowBook(member, dune, LocalDate.now().plusDays(14)).getStatus()
+                                == CheckoutResult.Status.BORROWED) {
+                            lent.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                threads.add(desk);
+                desk.start();
+            }
+            start.countDown();
+            for (Thread desk : threads) {
+                desk.join();
+            }
+            Book stored = find(books.findAll(), 1);
+            check("exactly three of " + desks + " checkouts succeed (" + lent.get() + ")", lent.get() == 3);
+            check("no copy left", stored.getAvailableCopies() == 0 && !stored.isAvailable() && dune.getAvailableCopies() == 0);
+            check("three open loans in the log", service.getCirculationLog().current().getOpenLoans(1).size() == 3);
+
+            Member holder = borrowers.stream().filter(m -> !m.getBorrowedBooks().isEmpty()).findFirst().orElseThrow();
+            service.returnBook(holder, dune);
+            stored = find(books.findAll(), 1);
+            check("return puts one copy back", stored.getAvailableCopies() == 1 && stored.isAvailable()
+                    && dune.getAvailableCopies() == 1);
+            check("the returning member's loan closed", service.getCirculationLog().current().getOpenLoans(1).stream()
+                    .noneMatch(loan -> loan.getMemberId() == holder.getId()));
+
+            // An edit carries a title and stale counts; only the title may change
+            Book edited = new Book(1, "Dune (Ace, 1965)", "Frank Herbert");
+            edited.setVersion(find(books.findAll(), 1).getVersion());
+            service.updateBook(edited);
+            stored = find(books.findAll(), 1);
+            check("editing a title keeps copies, barcodes and loans", stored.getTitle().equals("Dune (Ace, 1965)")
+                    && stored.getCopies() == 3 && stored.getAvailableCopies() == 1
+                    && books.findBookIdByBarcode("DUNE-0002") == 1
+                    && service.getCirculationLog().current().getOpenLoans(1).size() == 2);
+            boolean staleRefused = false;
+            try {
+                service.updateBook(new Book(1, "Dune", "Frank Herbert"));
+            } catch (IllegalStateException e) {
+                staleRefused = true;
+            }
+            check("an edit from a stale copy is refused", staleRefused
+                    && find(books.findAll(), 1).getTitle().equals("Dune (Ace, 1965)"));
+
+            checkRollback();
+            checkFineRollback(service);
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        CompactCatalog compact = new CompactCatalog();
+        Book emma = new Book(2, "Emma", "Jane Austen");
+        emma.setCopies(2);
+        emma.setAvailableCopies(2);
+        compact.saveData(List.of(emma));
+        check("compact catalog: two checkouts, not three", compact.markBorrowedIfAvailable(2)
+                && compact.markBorrowedIfAvailable(2) && !compact.markBorrowedIfAvailable(2));
+        check("compact catalog: counts in the view", compact.markAvailableIfBorrowed(2)
+                && compact.findById(2).getAvailableCopies() == 1 && compact.findById(2).getCopies() == 2);
+
+        TestSupport.finish("book copies");
+    }
+
+    /** Neither the in-memory handler nor CompactCatalog is in the transaction; both must follow its rollback. */
+    private static void checkRollback() throws SQLException {
+        DatabaseHandler<Book> memory = new DatabaseHandler<>(Book::getId);
+        BookRepository inMemory = new BookRepository(memory);
+        Book emma = new Book(2, "Emma", "Jane Austen");
+        inMemory.save(emma);
+        CompactCatalog columns = new CompactCatalog();
+        Book persuasion = new Book(3, "Persuasion", "Jane Austen");
+        columns.saveData(List.of(persuasion));
+        BookRepository compact = new BookRepository(columns);
+
+        try {
+            UnitOfWork.execute(() -> {
+                inMemory.markBorrowedIfAvailable(emma);
+                inMemory.addCopies(emma, List.of("EMMA-0002"));
+                compact.markBorrowedIfAvailable(persuasion);
+                throw new SQLException("abandoned");
+            });
+        } catch (SQLException expected) {
+            // the unit rolled back
+        }
+        Book storedEmma = find(memory.readData(), 2);
+        check("rollback: in-memory checkout and copies undone", emma.getCopies() == 1 && emma.isAvailable()
+                && storedEmma.getCopies() == 1 && storedEmma.isAvailable());
+        check("rollback: compact catalog checkout undone", columns.findById(3).isAvailable() && persuasion.isAvailable());
+
+        UnitOfWork.execute(() -> compact.markBorrowedIfAvailable(persuasion));
+        check("commit: compact catalog checkout kept", !columns.findById(3).isAvailable() && !persuasion.isAvailable());
+    }
+
+    /** A fine assessed inside a unit that later rolls back (a refused return, say) is not kept. */
+    private static void checkFineRollback(LibraryService service) {
+        Member cat = new Member(30, "Cat", "pw");
+        service.registerMember(cat);
+        cat.borrowBook(new BorrowedBook(new Book(99, "Late", "Nobody"), LocalDate.now().minusDays(18),
+                LocalDate.now().minusDays(4), null));
+        try {
+            UnitOfWork.execute(() -> {
+                service.updateMemberFines(cat);
+                throw new SQLException("abandoned");
+            });
+        } catch (SQLException expected) {
+            // the unit rolled back
+        }
+        check("rollback: fine assessed in the unit undone", cat.getBalance() == 0.0);
+    }
+
+    private static Book find(List<Book> books, int id) {
+        return books.stream().filter(b -> b.getId() == id).findFirst().orElse(null);
+    }
+}
@@ -1,8 +1,7 @@
 package library;
 
-import java.util.ArrayList;
+import java.sql.SQLException;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Repository for managing Book persistence.
@@ -17,16 +16,9 @@ public class BookRepository {
         this.dataHandler = dataHandler;
     }
 
+    /** Inserts or updates one book; every DataHandler saves by id, so the rest is left alone. */
     public void save(Book book) {
-        List<Book> all = new ArrayList<>(dataHandler.readData());
-
-        // Remove existing instance if present
-        all = all.stream()
-                .filter(b -> b.getId() != book.getId())
-                .collect(Collectors.toList());
-
-        all.add(book);
-        dataHandler.saveData(all);
+        dataHandler.saveData(List.of(book));
     }
 
     public void deleteData(int id) {
@@ -36,4 +28,109 @@ public class BookRepository {
     public List<Book> findAll() {
         return dataHandler.readData();
     }
+
+    /** The book with id, or null. Reads the whole store; meant for occasional lookups. */
+    public Book findById(int id) {
+        for (Book book : dataHandler.readData()) {
+            if (book.getId() == id) {
+                return book;
+            }
+        }
+        return null;
+    }
+
+    public List<Book> findPage(int offset, int limit) {
+        return dataHandler.readPage(offset, limit);
+    }
+
+    /**
+     * Takes one copy of the book for a loan in one atomic step.
+     * Stores without BookCheckout (the in-memory handler) compare-and-set the shared Book's
+     * counter, and put the copy back if the unit of work rolls back; otherwise the store
+     * decides and the Book's counter follows once the unit of work commits.
+     * @return false if every copy was already out
+     */
+    public boolean markBorrowedIfAvailable(Book book) throws SQLException {
+        BookCheckout checkout = dataHandler.unwrap(BookCheckout.class);
+        if (checkout != null) {
+            if (!checkout.markBorrowedIfAvailable(book.getId())) {
+                return false;
+            }
+            afterRowCommit(book, book::takeCopy);
+            return true;
+        }
+        if (!book.takeCopy()) {
+            return false;
+        }
+        UnitOfWork.onRollback(() -> {
+            book.returnCopy();
+            dataHandler.saveData(List.of(book));
+        });
+        dataHandler.saveData(List.of(book));
+        return true;
+    }
+
+    /** Puts one copy back. @return false if every copy was already in */
+    public boolean markAvailableIfBorrowed(Book book) throws SQLException {
+        BookCheckout checkout = dataHandler.unwrap(BookCheckout.class);
+        if (checkout != null) {
+            if (!checkout.markAvailableIfBorrowed(book.getId())) {
+                return false;
+            }
+            afterRowCommit(book, book::returnCopy);
+            return true;
+        }
+        if (!book.returnCopy()) {
+            return false;
+        }
+        UnitOfWork.onRollback(() -> {
+            book.takeCopy();
+            dataHandler.saveData(List.of(book));
+        });
+        dataHandler.saveData(List.of(book));
+        return true;
+    }
+
+    /**
+     * Adds barcoded copies of a title. Stores without BookCopies only keep the count.
+     */
+    public void addCopies(Book book, List<String> barcodes) throws SQLException {
+        if (barcodes.isEmpty()) {
+            return;
+        }
+        BookCopies copies = dataHandler.unwrap(BookCopies.class);
+        Runnable addToShelf = () -> {
+            book.setCopies(book.getCopies() + barcodes.size());
+            book.setAvailableCopies(book.getAvailableCopies() + barcodes.size());
+        };
+        if (copies != null) {
+            copies.addCopies(book.getId(), barcodes);
+            afterRowCommit(book, addToShelf);
+            return;
+        }
+        addToShelf.run();
+        UnitOfWork.onRollback(() -> {
+            book.setCopies(book.getCopies() - barcodes.size());
+            book.setAvailableCopies(book.getAvailableCopies() - barcodes.size());
+            dataHandler.saveData(List.of(book));
+        });
+        dataHandler.saveData(List.of(book));
+    }
+
+    /**
+     * Applies a change the store made to the book's row once it commits. The store bumped
+     * the row's version too, so the Book follows; otherwise its next save would be refused.
+     */
+    private static void afterRowCommit(Book book, Runnable change) {
+        UnitOfWork.afterCommit(() -> {
+            change.run();
+            book.setVersion(book.getVersion() + 1);
+        });
+    }
+
+    /** Title id for a scanned barcode, or -1 (also when the store keeps no barcodes). */
+    public int findBookIdByBarcode(String barcode) throws SQLException {
+        BookCopies copies = dataHandler.unwrap(BookCopies.class);
+        return copies != null ? copies.findBookIdByBarcode(barcode) : -1;
+    }
 }
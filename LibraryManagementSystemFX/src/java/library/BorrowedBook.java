@@ -11,7 +11,7 @@ public class BorrowedBook {
     private final Book book;
     private final LocalDate borrowDate;
     private final LocalDate dueDate;
-    private LocalDate returnDate;
+    private volatile LocalDate returnDate;
 
     public BorrowedBook(Book book, LocalDate dueDate) {
         if (book == null) {
@@ -0,0 +1,92 @@
+package library;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One library branch with its own SQLite file, i.e. one shard.
+ * A branch owns a fixed block of ids, ID_SPAN wide, for its books and members, so the
+ * owner of any row follows from its id alone: branch 0 holds ids below ID_SPAN (every id a
+ * single-branch library.db already has), branch 1 the next block, and so on.
+ * Loans, holds and the circulation log of a branch live in its file with its books.
+ */
+public final class Branch {
+
+    /** Ids owned by each branch. */
+    public static final int ID_SPAN = 100_000_000;
+    /** Branches that fit in the positive int ids. */
+    public static final int MAX_BRANCHES = Integer.MAX_VALUE / ID_SPAN;
+
+    private final int index;
+    private final String name;
+    private final String databasePath;
+
+    public Branch(int index, String name, String databasePath) {
+        if (index < 0 || index >= MAX_BRANCHES) {
+            throw new IllegalArgumentException("Branch index must be 0.." + (MAX_BRANCHES - 1));
+        }
+        this.index = index;
+        this.name = name;
+        this.databasePath = new File(databasePath).getAbsolutePath();
+    }
+
+    /**
+     * Branches for the given names: the first keeps the main library.db, each other one
+     * gets branch-&lt;name&gt;.db beside it.
+     */
+    public static List<Branch> forNames(List<String> names) {
+        List<Branch> branches = new ArrayList<>(names.size());
+        String dir = SQLiteConnectionManager.getDatabaseDirectory();
+        for (int i = 0; i < names.size(); i++) {
+            String path = i == 0 ? SQLiteConnectionManager.getDatabasePath()
+                    : new File(dir, "branch-" + names.get(i) + ".db").getPath();
+            branches.add(new Branch(i, names.get(i), path));
+        }
+        return branches;
+    }
+
+    /** Index of the branch owning id. */
+    public static int indexOf(int id) {
+        return Math.max(0, id) / ID_SPAN;
+    }
+
+    /** Runs work against this branch's file; units of work begun inside it commit there. */
+    public <T> T call(UnitOfWork.Work<T> work) throws SQLException {
+        return SQLiteConnectionManager.callOnDatabase(databasePath, work);
+    }
+
+    public void execute(UnitOfWork.Action action) throws SQLException {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public boolean owns(int id) {
+        return indexOf(id) == index;
+    }
+
+    /** Smallest id this branch owns; new rows take ids from here up. */
+    public int firstId() {
+        return index == 0 ? 1 : index * ID_SPAN;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDatabasePath() {
+        return databasePath;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + databasePath + ")";
+    }
+}
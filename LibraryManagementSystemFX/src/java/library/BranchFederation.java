@@ -0,0 +1,172 @@
+package library;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Several branches, one SQLite file each, seen as one library.
+ * books() and members() route writes to the owning branch and read all of them; search,
+ * counts and reports run on every branch in parallel and are merged here, so head office
+ * queries take about as long as the slowest branch rather than the sum of them.
+ * Circulation stays inside a branch: run it with branch.call on the service for that
+ * branch, with a member and a book the branch owns.
+ */
+public class BranchFederation implements AutoCloseable {
+
+    private final List<Branch> branches;
+    private final ExecutorService executor;
+    private final ShardedDataHandler<Book> books;
+    private final ShardedDataHandler<Member> members;
+    private final Map<Integer, LibraryService> services = new ConcurrentHashMap<>();
+
+    public BranchFederation(List<Branch> branches) {
+        if (branches.isEmpty()) {
+            throw new IllegalArgumentException("At least one branch is needed.");
+        }
+        this.branches = List.copyOf(branches);
+        this.executor = Executors.newFixedThreadPool(
+                Math.min(branches.size(), Runtime.getRuntime().availableProcessors() * 2), r -> {
+                    Thread t = new Thread(r, "library-branch-query");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.books = new ShardedDataHandler<>(this.branches, new SQLiteBookHandler(), Book::getId, executor);
+        this.members = new ShardedDataHandler<>(this.branches, new SQLiteMemberHandler(), Member::getId, executor);
+    }
+
+    public List<Branch> getBranches() {
+        return branches;
+    }
+
+    /** Branch owning a book or member id. */
+    public Branch branchOf(int id) {
+        return books.owner(id);
+    }
+
+    public DataHandler<Book> books() {
+        return books;
+    }
+
+    public DataHandler<Member> members() {
+        return members;
+    }
+
+    /**
+     * The LibraryService for one branch; it keeps that branch's hold queues and log state,
+     * so call it inside branch.call.
+     */
+    public LibraryService serviceFor(Branch branch) {
+        return services.computeIfAbsent(branch.getIndex(),
+                index -> new LibraryService(new MemberRepository(members), new BookRepository(books)));
+    }
+
+    /**
+     * The limit best matches for query across all branches: each branch ranks its own
+     * matches and sends its top ones, and those short lists are merged.
+     */
+    public List<Book> search(String query, int limit) {
+        String q = query.toLowerCase(Locale.ROOT);
+        SQLiteBookHandler handler = new SQLiteBookHandler();
+        List<List<Hit>> perBranch = books.fanOut("search", () -> topHits(handler.search(query), q, limit));
+        List<Hit> merged = new ArrayList<>();
+        for (List<Hit> hits : perBranch) {
+            if (hits != null) {
+                merged.addAll(hits);
+            }
+        }
+        List<Book> results = new ArrayList<>();
+        for (Hit hit : topHits(merged, limit)) {
+            results.add(hit.book);
+        }
+        return results;
+    }
+
+    public int countBooks() {
+        return count("books");
+    }
+
+    public int countMembers() {
+        return count("members");
+    }
+
+    /** Totals over every branch. */
+    public LibraryReport getReport() {
+        return new LibraryReport(countBooks(), countMembers());
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private int count(String table) {
+        int total = 0;
+        for (Integer rows : books.fanOut("count", () -> {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        })) {
+            total += rows != null ? rows : 0;
+        }
+        return total;
+    }
+
+    /** A match and how well it matches: title over author, whole over prefix over substring. */
+    private static final class Hit {
+        static final Comparator<Hit> BEST_FIRST =
+                Comparator.comparingInt((Hit hit) -> -hit.score).thenComparingInt(hit -> hit.book.getId());
+
+        final Book book;
+        final int score;
+
+        Hit(Book book, int score) {
+            this.book = book;
+            this.score = score;
+        }
+    }
+
+    static int score(Book book, String lowerQuery) {
+        String title = book.getTitle().toLowerCase(Locale.ROOT);
+        int score = title.equals(lowerQuery) ? 8 : title.startsWith(lowerQuery) ? 6 : title.contains(lowerQuery) ? 4 : 0;
+        String author = book.getAuthor().toLowerCase(Locale.ROOT);
+        return score + (author.equals(lowerQuery) ? 3 : author.contains(lowerQuery) ? 1 : 0);
+    }
+
+    private static List<Hit> topHits(List<Book> matches, String lowerQuery, int limit) {
+        List<Hit> hits = new ArrayList<>(matches.size());
+        for (Book book : matches) {
+            hits.add(new Hit(book, score(book, lowerQuery)));
+        }
+        return topHits(hits, limit);
+    }
+
+    /** The limit best hits, best first; a bounded heap keeps this O(n log limit). */
+    private static List<Hit> topHits(List<Hit> hits, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        PriorityQueue<Hit> worstFirst = new PriorityQueue<>(Math.min(limit, hits.size()) + 1, Hit.BEST_FIRST.reversed());
+        for (Hit hit : hits) {
+            worstFirst.add(hit);
+            if (worstFirst.size() > limit) {
+                worstFirst.poll();
+            }
+        }
+        List<Hit> best = new ArrayList<>(worstFirst);
+        best.sort(Hit.BEST_FIRST);
+        return best;
+    }
+}
@@ -0,0 +1,110 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Three branches in three files: rows land in the file of the branch owning their id,
+ * federated reads, counts and ranked search cover all of them, circulation runs inside one
+ * branch, and a unit of work refuses to reach into another branch's file.
+ * Works in a temp directory; exits with status 1 on the first failed check.
+ */
+public class BranchShardingTest {
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-branches-");
+        try (BranchFederation federation = new BranchFederation(Branch.forNames(List.of("central", "north", "south")))) {
+            Branch central = federation.getBranches().get(0);
+            Branch north = federation.getBranches().get(1);
+            Branch south = federation.getBranches().get(2);
+            BookRepository books = new BookRepository(federation.books());
+            MemberRepository members = new MemberRepository(federation.members());
+
+            List<Book> catalog = List.of(
+                    new Book(central.firstId(), "Dune Messiah", "Frank Herbert"),
+                    new Book(central.firstId() + 1, "Emma", "Jane Austen"),
+                    new Book(north.firstId(), "Children of Dune", "Frank Herbert"),
+                    new Book(north.firstId() + 1, "Persuasion", "Jane Austen"),
+                    new Book(south.firstId(), "Dune", "Frank Herbert"),
+                    new Book(south.firstId() + 1, "Sandworms", "Dune Fan"));
+            federation.books().saveData(catalog);
+            members.save(new Member(north.firstId(), "Nora", "pw"));
+            members.save(new Member(central.firstId(), "Cal", "pw"));
+
+            check("rows stored in their branch's file", rows(central, "books") == 2 && rows(north, "books") == 2
+                    && rows(south, "books") == 2 && rows(north, "members") == 1);
+            check("branch 0 keeps the main database", central.getDatabasePath().equals(SQLiteConnectionManager.getDatabasePath()));
+            check("federated read in id order", ids(books.findAll()).equals(ids(catalog)));
+            check("federated page", ids(books.findPage(1, 3)).equals(ids(catalog.subList(1, 4))));
+            check("federated counts", federation.getReport().getTotalBooks() == 6 && federation.countMembers() == 2);
+
+            List<Book> hits = federation.search("dune", 3);
+            check("ranked search across branches: " + titles(hits),
+                    titles(hits).equals(List.of("Dune", "Dune Messiah", "Children of Dune")));
+            check("search limit", federation.search("austen", 1).size() == 1);
+
+            Book children = federation.books().readData().get(2);
+            Member nora = members.findAll().stream().filter(m -> m.getId() == north.firstId()).findFirst().orElseThrow();
+            LibraryService northDesk = federation.serviceFor(north);
+            BorrowedBook loan = north.call(() -> northDesk.borrowBook(nora, children, LocalDate.now().plusDays(14)));
+            check("circulation inside a branch", loan != null && rows(north, "borrowed_books") == 1
+                    && rows(central, "borrowed_books") == 0 && !books.findById(north.firstId()).isAvailable());
+            north.execute(() -> northDesk.returnBook(nora, children));
+            check("return inside a branch", books.findById(north.firstId()).isAvailable());
+
+            boolean refused;
+            try {
+                north.execute(() -> UnitOfWork.execute(() ->
+                        federation.books().saveData(List.of(new Book(south.firstId() + 2, "Heretics of Dune", "Frank Herbert")))));
+                refused = false;
+            } catch (IllegalStateException e) {
+                refused = true;
+            }
+            check("a unit of work stays in one branch", refused && rows(south, "books") == 2);
+            check("no owner, no write", throwsIllegalArgument(() -> federation.branchOf(3 * Branch.ID_SPAN)));
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("branch sharding");
+    }
+
+    /** Counts rows straight from the branch's file, bypassing the router. */
+    private static int rows(Branch branch, String table) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + branch.getDatabasePath());
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.getInt(1);
+        }
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        List<Integer> ids = new ArrayList<>();
+        books.forEach(book -> ids.add(book.getId()));
+        return ids;
+    }
+
+    private static List<String> titles(List<Book> books) {
+        List<String> titles = new ArrayList<>();
+        books.forEach(book -> titles.add(book.getTitle()));
+        return titles;
+    }
+
+    private static boolean throwsIllegalArgument(Runnable action) {
+        try {
+            action.run();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only, memory-mapped copy of the books table for warm start.
+ * Lookups, paging and search decode straight from the mapped file, so the catalog is
+ * usable without reading the table through JDBC.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * header  magic "LMSC", format version, catalog version (long), record count,
+ *         heap length (long), CRC32 of records + heap
+ * records fixed width, sorted by id: id, copies (high 16 bits) and copies on the
+ *         shelf (low 16 bits), row version, then offset/length into the heap for
+ *         title, author and cover path
+ * heap    UTF-8 strings
+ * </pre>
+ * The catalog version is the books change counter kept by triggers in SQLite
+ * (see currentCatalogVersion); a snapshot with another version is stale. Each record
+ * keeps its row version too, so a Book served from the snapshot can still be saved.
+ */
+public final class CatalogSnapshot {
+
+    public static final String FILE_NAME = "catalog.snapshot";
+
+    private static final int MAGIC = 0x4C4D5343; // "LMSC"
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_SIZE = 40;
+    private static final int RECORD_SIZE = 36;
+    private static final int MAX_COPIES = 0xFFFF;
+
+    private final ByteBuffer buffer;
+    private final long catalogVersion;
+    private final int count;
+    private final int heapStart;
+
+    private CatalogSnapshot(ByteBuffer buffer, long catalogVersion, int count) {
+        this.buffer = buffer;
+        this.catalogVersion = catalogVersion;
+        this.count = count;
+        this.heapStart = HEADER_SIZE + count * RECORD_SIZE;
+    }
+
+    /** The snapshot file next to library.db. */
+    public static File defaultFile() {
+        return new File(SQLiteConnectionManager.getDatabaseDirectory(), FILE_NAME);
+    }
+
+    /**
+     * Maps and validates a snapshot.
+     * @throws IOException if the file is missing, truncated, of another format or fails its checksum
+     */
+    public static CatalogSnapshot open(File file) throws IOException {
+        MappedByteBuffer map;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a catalog snapshot: " + file);
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after close
+        }
+        if (map.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog snapshot: " + file);
+        }
+        if (map.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported catalog snapshot format " + map.getInt(4));
+        }
+        long catalogVersion = map.getLong(8);
+        int count = map.getInt(16);
+        long heapLength = map.getLong(20);
+        int storedCrc = map.getInt(28);
+        if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE + heapLength != map.capacity()) {
+            throw new IOException("Truncated catalog snapshot: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(map.slice(HEADER_SIZE, map.capacity() - HEADER_SIZE));
+        if ((int) crc.getValue() != storedCrc) {
+            throw new IOException("Catalog snapshot checksum mismatch: " + file);
+        }
+        return new CatalogSnapshot(map, catalogVersion, count);
+    }
+
+    public boolean isCurrent(Connection conn) throws SQLException {
+        return catalogVersion == currentCatalogVersion(conn);
+    }
+
+    /** The books change counter; moves on every insert, update and delete. */
+    public static long currentCatalogVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT value FROM change_counters WHERE name = 'books'")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Writes books (any order) as a snapshot of catalogVersion.
+     * The file is written beside the target and renamed over it when complete.
+     */
+    public static void write(File file, List<Book> books, long catalogVersion) throws IOException {
+        List<Book> sorted = new ArrayList<>(books);
+        sorted.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+
+        ByteBuffer records = ByteBuffer.allocate(Math.multiplyExact(sorted.size(), RECORD_SIZE));
+        HeapWriter heap = new HeapWriter();
+        for (Book book : sorted) {
+            records.putInt(book.getId());
+            records.putInt(Math.min(book.getCopies(), MAX_COPIES) << 16 | Math.min(book.getAvailableCopies(), MAX_COPIES));
+            records.putInt(book.getVersion());
+            heap.put(records, book.getTitle());
+            heap.put(records, book.getAuthor());
+            heap.put(records, book.getCoverPath());
+        }
+        records.flip();
+        ByteBuffer heapBytes = heap.toBuffer();
+
+        CRC32 crc = new CRC32();
+        crc.update(records.duplicate());
+        crc.update(heapBytes.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(catalogVersion).putInt(sorted.size())
+                .putLong(heapBytes.remaining()).putInt((int) crc.getValue());
+        header.rewind();
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File part = new File(file.getPath() + ".part");
+        try (RandomAccessFile raf = new RandomAccessFile(part, "rw"); FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            ByteBuffer[] parts = {header, records, heapBytes};
+            while (header.hasRemaining() || records.hasRemaining() || heapBytes.hasRemaining()) {
+                channel.write(parts);
+            }
+            channel.force(true);
+        }
+        Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public long getCatalogVersion() {
+        return catalogVersion;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** Book at position index in id order. */
+    public Book get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + count);
+        }
+        int record = HEADER_SIZE + index * RECORD_SIZE;
+        Book book = new Book(buffer.getInt(record), string(record + 12), string(record + 20));
+        int copies = buffer.getInt(record + 4);
+        book.setCopies(copies >>> 16);
+        book.setAvailableCopies(copies & MAX_COPIES);
+        book.setVersion(buffer.getInt(record + 8));
+        String coverPath = string(record + 28);
+        if (coverPath != null) {
+            book.setCoverPath(coverPath);
+        }
+        return book;
+    }
+
+    /** Binary search on the sorted ids; null if there is no such book. */
+    public Book findById(int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = buffer.getInt(HEADER_SIZE + mid * RECORD_SIZE);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return get(mid);
+            }
+        }
+        return null;
+    }
+
+    /** Books in id order, like BookRepository.findPage. */
+    public List<Book> page(int offset, int limit) {
+        int from = Math.max(0, offset);
+        int to = (int) Math.min(count, (long) from + Math.max(0, limit));
+        List<Book> books = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            books.add(get(i));
+        }
+        return books;
+    }
+
+    /** Case-insensitive substring match on title or author, at most limit results. */
+    public List<Book> search(String query, int limit) {
+        String q = query.toLowerCase(Locale.ROOT);
+        List<Book> matches = new ArrayList<>();
+        for (int i = 0; i < count && matches.size() < limit; i++) {
+            int record = HEADER_SIZE + i * RECORD_SIZE;
+            if (string(record + 12).toLowerCase(Locale.ROOT).contains(q)
+                    || string(record + 20).toLowerCase(Locale.ROOT).contains(q)) {
+                matches.add(get(i));
+            }
+        }
+        return matches;
+    }
+
+    /** Heap string referenced by the offset/length pair at pos; a length of -1 is null. */
+    private String string(int pos) {
+        int offset = buffer.getInt(pos);
+        int length = buffer.getInt(pos + 4);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(heapStart + offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Appends strings to a growing heap and writes their offset/length into the record. */
+    private static final class HeapWriter {
+        private byte[] bytes = new byte[1 << 16];
+        private int size;
+
+        void put(ByteBuffer record, String value) {
+            if (value == null) {
+                record.putInt(0).putInt(-1);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            if ((long) size + utf8.length > Integer.MAX_VALUE - HEADER_SIZE) {
+                throw new IllegalStateException("Catalog too large for a snapshot");
+            }
+            if (size + utf8.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + utf8.length));
+            }
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            record.putInt(size).putInt(utf8.length);
+            size += utf8.length;
+        }
+
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(bytes, 0, size);
+        }
+    }
+}
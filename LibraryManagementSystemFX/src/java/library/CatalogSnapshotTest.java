@@ -0,0 +1,90 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.Connection;
+import java.util.List;
+
+/**
+ * Round-trips books through a catalog snapshot, then checks that a corrupted file is
+ * rejected, that a change to the books table makes the snapshot stale and that a book
+ * read from the snapshot carries its row version, so it can still be edited.
+ * Runs against a throwaway database; exits with status 1 on the first failed check.
+ */
+public class CatalogSnapshotTest {
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-snapshot-");
+        File file = CatalogSnapshot.defaultFile();
+        try {
+            BookRepository books = new BookRepository(new SQLiteBookHandler());
+            books.save(new Book(3, "Persuasion", "Jane Austen"));
+            books.save(new Book(1, "Dune", "Frank Herbert"));
+            Book borrowed = new Book(2, "Ænéid — Book Ⅰ", "Virgil");
+            borrowed.setAvailable(false);
+            borrowed.setCoverPath("covers/aeneid.png");
+            books.save(borrowed);
+
+            CatalogSnapshotWriter writer = new CatalogSnapshotWriter(file);
+            check("first refresh writes", writer.refreshIfStale());
+            check("second refresh is a no-op", !writer.refreshIfStale());
+
+            CatalogSnapshot snapshot = CatalogSnapshot.open(file);
+            Connection conn = SQLiteConnectionManager.getConnection();
+            check("snapshot is current", snapshot.isCurrent(conn));
+            check("size", snapshot.size() == 3);
+            List<Book> page = snapshot.page(0, 10);
+            check("sorted by id", page.get(0).getId() == 1 && page.get(2).getId() == 3);
+            Book aeneid = snapshot.findById(2);
+            check("strings and flags survive", aeneid != null && aeneid.getTitle().equals("Ænéid — Book Ⅰ")
+                    && !aeneid.isAvailable() && "covers/aeneid.png".equals(aeneid.getCoverPath()));
+            check("null cover path", snapshot.findById(1).getCoverPath() == null);
+            check("missing id", snapshot.findById(4) == null);
+            check("search", snapshot.search("AUSTEN", 10).size() == 1);
+            check("paging past the end", snapshot.page(2, 10).size() == 1 && snapshot.page(5, 10).isEmpty());
+
+            books.save(new Book(4, "Emma", "Jane Austen"));
+            check("stale after a change", !snapshot.isCurrent(conn));
+            check("refresh after a change", writer.refreshIfStale());
+            check("new snapshot has the book", CatalogSnapshot.open(file).findById(4) != null);
+
+            // Warm start hands out Books from the snapshot; editing one must not look stale
+            Book dune = books.findById(1);
+            dune.setCoverPath("covers/dune.png");
+            books.save(dune);
+            books.markBorrowedIfAvailable(dune);
+            books.markAvailableIfBorrowed(dune);
+            writer.refreshIfStale();
+            Book warm = CatalogSnapshot.open(file).findById(1);
+            check("row version survives", warm.getVersion() == 3 && warm.getVersion() == dune.getVersion());
+            Book edited = new Book(1, "Dune (Ace)", "Frank Herbert");
+            edited.setCopies(warm.getCopies());
+            edited.setAvailableCopies(warm.getAvailableCopies());
+            edited.setVersion(warm.getVersion());
+            edited.setCoverPath(warm.getCoverPath());
+            TestSupport.newService().updateBook(edited);
+            check("a book from the snapshot can be edited",
+                    new SQLiteBookHandler().readData().stream().anyMatch(b -> b.getTitle().equals("Dune (Ace)")));
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(raf.length() - 1);
+                int last = raf.read();
+                raf.seek(raf.length() - 1);
+                raf.write(last ^ 0xFF);
+            }
+            try {
+                CatalogSnapshot.open(file);
+                check("corruption detected", false);
+            } catch (IOException e) {
+                check("corruption detected", e.getMessage().contains("checksum"));
+            }
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("catalog snapshot");
+    }
+}
@@ -0,0 +1,109 @@
+package library;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the catalog snapshot in step with the books table.
+ * A background thread polls the books change counter (one indexed row) and rewrites
+ * the snapshot when it has moved. The books and the counter are read in one read
+ * transaction on a dedicated connection, so the snapshot is never torn.
+ */
+public class CatalogSnapshotWriter {
+
+    private final File file;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "library-catalog-snapshot");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private long writtenVersion = -1;
+
+    public CatalogSnapshotWriter() {
+        this(CatalogSnapshot.defaultFile());
+    }
+
+    public CatalogSnapshotWriter(File file) {
+        this.file = file;
+    }
+
+    /** Checks for changes every interval, the first check after one interval (not during startup). */
+    public void scheduleRefresh(long interval, TimeUnit unit) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                refreshIfStale();
+            } catch (Exception e) {
+                System.err.println("Error writing catalog snapshot: " + e.getMessage());
+                MetricsRegistry.getDefault().recordError("CatalogSnapshotWriter.refresh", e);
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Rewrites the snapshot on the calling thread if the catalog changed since it was written.
+     * @return true if a new snapshot was written
+     */
+    public synchronized boolean refreshIfStale() throws SQLException, IOException {
+        try (Connection conn = SQLiteConnectionManager.openDedicatedConnection()) {
+            if (writtenVersion < 0 || !file.isFile()) {
+                writtenVersion = versionOnDisk();
+            }
+            if (CatalogSnapshot.currentCatalogVersion(conn) == writtenVersion) {
+                return false;
+            }
+            long version;
+            List<Book> books = new ArrayList<>();
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("BEGIN");
+                try {
+                    version = CatalogSnapshot.currentCatalogVersion(conn);
+                    try (ResultSet rs = stmt.executeQuery(
+                            "SELECT id, title, author, copies, available_copies, cover_path, version FROM books")) {
+                        while (rs.next()) {
+                            Book book = new Book(rs.getInt(1), rs.getString(2), rs.getString(3));
+                            book.setCopies(rs.getInt(4));
+                            book.setAvailableCopies(rs.getInt(5));
+                            String coverPath = rs.getString(6);
+                            if (coverPath != null && !coverPath.isBlank()) book.setCoverPath(coverPath);
+                            book.setVersion(rs.getInt(7));
+                            books.add(book);
+                        }
+                    }
+                } finally {
+                    stmt.execute("COMMIT");
+                }
+            }
+            long start = System.nanoTime();
+            CatalogSnapshot.write(file, books, version);
+            MetricsRegistry.getDefault().operation("CatalogSnapshot.write").record(System.nanoTime() - start);
+            writtenVersion = version;
+            return true;
+        }
+    }
+
+    /** Version in the existing file, or -1 if there is no usable one. */
+    private long versionOnDisk() {
+        if (!file.isFile()) {
+            return -1;
+        }
+        try {
+            return CatalogSnapshot.open(file).getCatalogVersion();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,343 @@
+package library;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Change-data capture for the warehouse: every committed change to books, members and
+ * borrowed_books, as JSON lines in rolling segment files, instead of nightly full dumps.
+ *
+ * Triggers (installed by installCapture) copy each changed row as JSON into cdc_log inside
+ * the writing transaction, whichever process writes, so a change is captured exactly when
+ * it commits. A background thread ships cdc_log in order to the current segment file, one
+ * fsync per batch, then deletes the shipped rows. The offset of a line is its cdc_log seq:
+ * it only grows, and a consumer resumes with readAfter(dir, lastOffsetSeen, limit).
+ * Segments are named after their first offset (cdc-00000000000000000001.jsonl) and a new
+ * one starts once the current one passes the segment size.
+ * Member passwords are not exported.
+ *
+ * Capture stays installed in library.db after the exporter stops, so changes made while no
+ * exporter runs are shipped on the next start. To turn CDC off, removeCapture (the HTTP
+ * server's --cdc-off=DIR) ships what is left and drops the triggers and cdc_log.
+ *
+ * A line: {"offset":7,"table":"books","op":"UPDATE","id":1,"at":"2024-05-01T09:30:12.345Z","row":{...}}
+ * where row is null for a delete.
+ */
+public class CdcExporter implements AutoCloseable {
+
+    /** Default size after which a new segment file is started. */
+    public static final long DEFAULT_SEGMENT_BYTES = 16L * 1024 * 1024;
+    /** Rows shipped per write and fsync. */
+    private static final int BATCH_ROWS = 2000;
+    private static final String SEGMENT_PREFIX = "cdc-";
+    private static final String SEGMENT_SUFFIX = ".jsonl";
+
+    /** Captured tables and the columns written as the row image. */
+    private static final Map<String, List<String>> CAPTURED_COLUMNS = Map.of(
+            "books", List.of("id", "title", "author", "available", "copies", "available_copies", "cover_path", "version"),
+            "members", List.of("id", "name", "balance", "version"),
+            "borrowed_books", List.of("id", "book_id", "member_id", "borrow_date", "due_date", "return_date"));
+
+    private final File dir;
+    private final long segmentBytes;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "library-cdc-export");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    /** Offset of the last line written and synced; -1 until recovered from the segments. */
+    private long shippedOffset = -1;
+    private FileChannel segment;
+
+    /** Exports to the cdc folder next to library.db. */
+    public CdcExporter() {
+        this(new File(SQLiteConnectionManager.getDatabaseDirectory(), "cdc"), DEFAULT_SEGMENT_BYTES);
+    }
+
+    public CdcExporter(File dir, long segmentBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Creates cdc_log and the capture triggers if missing. From then on every write to the
+     * captured tables also writes a cdc_log row, so only install it where an exporter runs,
+     * and call removeCapture when exporting stops for good (closing an exporter does not).
+     */
+    public static void installCapture() throws SQLException {
+        Connection conn = SQLiteConnectionManager.getConnection();
+        try (Statement stmt = conn.createStatement()) {
+            // AUTOINCREMENT: offsets are never reused after shipped rows are deleted
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS cdc_log (
+                    seq INTEGER PRIMARY KEY AUTOINCREMENT,
+                    table_name TEXT NOT NULL,
+                    op TEXT NOT NULL,
+                    row_id INTEGER NOT NULL,
+                    row_data TEXT,
+                    changed_at TEXT NOT NULL DEFAULT (strftime('%Y-%m-%dT%H:%M:%fZ', 'now'))
+                )
+            """);
+            for (Map.Entry<String, List<String>> table : CAPTURED_COLUMNS.entrySet()) {
+                String name = table.getKey();
+                for (String op : new String[] {"INSERT", "UPDATE", "DELETE"}) {
+                    String row = op.equals("DELETE") ? "OLD" : "NEW";
+                    String image = op.equals("DELETE") ? "NULL" : rowImage(table.getValue());
+                    stmt.execute("CREATE TRIGGER IF NOT EXISTS cdc_" + name + "_" + op.toLowerCase() + " AFTER " + op
+                            + " ON " + name + " BEGIN INSERT INTO cdc_log (table_name, op, row_id, row_data) VALUES ('"
+                            + name + "', '" + op + "', " + row + ".id, " + image + "); END");
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns capture off for every process using library.db: drops the triggers, ships what
+     * they captured before that to this exporter's segments, then drops cdc_log. Without
+     * this, capture installed once keeps logging every write whether an exporter runs or not.
+     * Safe to call when capture is not installed.
+     * @return the number of changes shipped on the way out
+     */
+    public synchronized int removeCapture() throws SQLException, IOException {
+        Connection conn = SQLiteConnectionManager.getConnection();
+        try (Statement stmt = conn.createStatement()) {
+            for (String name : CAPTURED_COLUMNS.keySet()) {
+                for (String op : new String[] {"insert", "update", "delete"}) {
+                    stmt.execute("DROP TRIGGER IF EXISTS cdc_" + name + "_" + op);
+                }
+            }
+        }
+        int shipped = isCaptureTablePresent(conn) ? shipPending() : 0;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS cdc_log");
+        }
+        closeSegment();
+        return shipped;
+    }
+
+    /** Whether cdc_log exists, i.e. capture is installed or was only partly removed. */
+    public static boolean isCaptureInstalled() throws SQLException {
+        return isCaptureTablePresent(SQLiteConnectionManager.getConnection());
+    }
+
+    private static boolean isCaptureTablePresent(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'cdc_log'")) {
+            return rs.next();
+        }
+    }
+
+    private static String rowImage(List<String> columns) {
+        StringBuilder json = new StringBuilder("json_object(");
+        for (int i = 0; i < columns.size(); i++) {
+            json.append(i > 0 ? ", '" : "'").append(columns.get(i)).append("', NEW.").append(columns.get(i));
+        }
+        return json.append(')').toString();
+    }
+
+    /** Installs capture and ships every interval on the background thread. */
+    public void start(long interval, TimeUnit unit) throws SQLException {
+        installCapture();
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                shipPending();
+            } catch (Exception e) {
+                System.err.println("Error exporting changes: " + e.getMessage());
+                MetricsRegistry.getDefault().recordError("CdcExporter.ship", e);
+                closeSegment();
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Ships everything in cdc_log on the calling thread.
+     * @return the number of changes written
+     */
+    public synchronized int shipPending() throws SQLException, IOException {
+        if (shippedOffset < 0) {
+            shippedOffset = recover();
+        }
+        int shipped = 0;
+        try (Connection conn = SQLiteConnectionManager.openDedicatedConnection()) {
+            int rows;
+            do {
+                rows = shipBatch(conn);
+                shipped += rows;
+            } while (rows == BATCH_ROWS);
+        }
+        return shipped;
+    }
+
+    private int shipBatch(Connection conn) throws SQLException, IOException {
+        StringBuilder lines = new StringBuilder();
+        long last = shippedOffset;
+        int rows = 0;
+        try (PreparedStatement select = conn.prepareStatement(
+                "SELECT seq, table_name, op, row_id, changed_at, row_data FROM cdc_log WHERE seq > ? ORDER BY seq LIMIT ?")) {
+            select.setLong(1, shippedOffset);
+            select.setInt(2, BATCH_ROWS);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    last = rs.getLong(1);
+                    lines.append("{\"offset\":").append(last).append(",\"table\":");
+                    Json.quote(rs.getString(2), lines);
+                    lines.append(",\"op\":");
+                    Json.quote(rs.getString(3), lines);
+                    lines.append(",\"id\":").append(rs.getLong(4)).append(",\"at\":");
+                    Json.quote(rs.getString(5), lines);
+                    String row = rs.getString(6);
+                    lines.append(",\"row\":").append(row != null ? row : "null").append("}\n");
+                    rows++;
+                }
+            }
+        }
+        if (rows == 0) {
+            return 0;
+        }
+        if (segment == null || segment.size() >= segmentBytes) {
+            closeSegment();
+            segment = FileChannel.open(segmentFile(shippedOffset + 1).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            segment.write(bytes);
+        }
+        segment.force(false);
+        shippedOffset = last;
+        // Durable in the segment; a crash before this delete is skipped by offset on restart
+        try (PreparedStatement delete = conn.prepareStatement("DELETE FROM cdc_log WHERE seq <= ?")) {
+            delete.setLong(1, last);
+            delete.executeUpdate();
+        }
+        return rows;
+    }
+
+    /** Offset of the last complete line on disk; cuts off a line left half written by a crash. */
+    private long recover() throws IOException {
+        Files.createDirectories(dir.toPath());
+        File[] segments = segments(dir);
+        if (segments.length == 0) {
+            return 0;
+        }
+        File newest = segments[segments.length - 1];
+        long offset = firstOffset(newest) - 1;
+        long complete = 0;
+        try (BufferedReader in = Files.newBufferedReader(newest.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            long position = 0;
+            while ((line = in.readLine()) != null) {
+                position += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (position <= newest.length()) {
+                    offset = offsetOf(line);
+                    complete = position;
+                }
+            }
+        }
+        segment = FileChannel.open(newest.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (complete < newest.length()) {
+            segment.truncate(complete);
+        }
+        return offset;
+    }
+
+    /** Offset of the last change shipped so far, or -1 before the first shipment. */
+    public synchronized long getShippedOffset() {
+        return shippedOffset;
+    }
+
+    /**
+     * Up to limit lines with an offset above offset, in order, for a consumer resuming
+     * where it left off (0 reads from the start).
+     */
+    public static List<String> readAfter(File dir, long offset, int limit) throws IOException {
+        List<String> lines = new ArrayList<>();
+        File[] segments = segments(dir);
+        int first = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (firstOffset(segments[i]) <= offset + 1) {
+                first = i;
+            }
+        }
+        for (int i = first; i < segments.length && lines.size() < limit; i++) {
+            try (BufferedReader in = Files.newBufferedReader(segments[i].toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while (lines.size() < limit && (line = in.readLine()) != null) {
+                    if (line.endsWith("}") && offsetOf(line) > offset) {
+                        lines.add(line);
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    /** Segment files, oldest first (the zero-padded names sort by offset). */
+    static File[] segments(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    private File segmentFile(long firstOffset) {
+        return new File(dir, SEGMENT_PREFIX + String.format("%020d", firstOffset) + SEGMENT_SUFFIX);
+    }
+
+    private static long firstOffset(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /** Every line starts {"offset":N, so no full parse is needed. */
+    private static long offsetOf(String line) {
+        int start = "{\"offset\":".length();
+        int end = line.indexOf(',', start);
+        return Long.parseLong(line.substring(start, end));
+    }
+
+    /** Stops the background thread; changes not yet shipped stay in cdc_log for the next run. */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeSegment();
+    }
+
+    private synchronized void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            System.err.println("Error closing change segment: " + e.getMessage());
+        }
+        segment = null;
+    }
+}
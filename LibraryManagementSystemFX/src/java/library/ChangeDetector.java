@@ -0,0 +1,123 @@
+package library;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tells in-memory views which tables changed, whichever process or connection wrote them.
+ * Each poll is one PRAGMA data_version on a connection of its own: SQLite bumps it when any
+ * other connection commits, and answering it reads no table pages, so an idle database
+ * costs next to nothing. Only when it moved are the per-table counters in change_counters
+ * (kept by triggers) read and compared, and listeners hear which tables changed.
+ */
+public class ChangeDetector implements AutoCloseable {
+
+    /** Tables with a change counter. */
+    public static final List<String> WATCHED_TABLES = List.of("books", "members", "borrowed_books", "holds");
+
+    private final List<Consumer<Set<String>>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "library-change-detector");
+        t.setDaemon(true);
+        return t;
+    });
+    private Connection connection;
+    private long dataVersion = -1;
+    private final Map<String, Long> counters = new HashMap<>();
+
+    /**
+     * Called on the detector thread with the tables changed since the previous poll.
+     * A view reloads what it shows from those tables only.
+     */
+    public void addListener(Consumer<Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    /** Polls every interval; the first poll only records where the database is now. */
+    public void start(long interval, TimeUnit unit) {
+        executor.scheduleWithFixedDelay(this::pollQuietly, 0, interval, unit);
+    }
+
+    /** Polls soon on the detector thread, e.g. right after this process wrote something. */
+    public void checkSoon() {
+        executor.execute(this::pollQuietly);
+    }
+
+    /**
+     * Polls on the calling thread and notifies listeners of any changes.
+     * @return the tables changed since the previous poll; empty on the first one
+     */
+    public synchronized Set<String> poll() throws SQLException {
+        if (connection == null) {
+            connection = SQLiteConnectionManager.openDedicatedConnection();
+        }
+        long version;
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA data_version")) {
+            version = rs.next() ? rs.getLong(1) : 0;
+        }
+        if (version == dataVersion) {
+            return Set.of();
+        }
+        boolean first = counters.isEmpty();
+        dataVersion = version;
+        Set<String> changed = new HashSet<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name, value FROM change_counters")) {
+            while (rs.next()) {
+                Long previous = counters.put(rs.getString(1), rs.getLong(2));
+                if (!first && (previous == null || previous != rs.getLong(2))) {
+                    changed.add(rs.getString(1));
+                }
+            }
+        }
+        if (!changed.isEmpty()) {
+            Set<String> tables = Set.copyOf(changed);
+            listeners.forEach(listener -> listener.accept(tables));
+        }
+        return changed;
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (SQLException e) {
+            System.err.println("Error checking for database changes: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("ChangeDetector.poll", e);
+            closeConnection();
+        } catch (RuntimeException e) {
+            System.err.println("Error in change listener: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("ChangeDetector.listener", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        closeConnection();
+    }
+
+    private synchronized void closeConnection() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+        connection = null;
+        dataVersion = -1;
+    }
+}
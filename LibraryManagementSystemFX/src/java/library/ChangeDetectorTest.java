@@ -0,0 +1,59 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes through this process and through a separate connection (standing in for another
+ * desk or a batch import) and checks that ChangeDetector reports exactly the tables that
+ * changed, and nothing while the database is idle.
+ * Runs against a throwaway database; exits with status 1 on the first failed check.
+ */
+public class ChangeDetectorTest {
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-changes-");
+        try (ChangeDetector detector = new ChangeDetector()) {
+            LibraryService service = TestSupport.newService();
+            Member ann = new Member(1, "Ann", "pw");
+            Book dune = new Book(1, "Dune", "Frank Herbert");
+            service.registerMember(ann);
+            service.addBook(dune);
+
+            List<Set<String>> heard = new ArrayList<>();
+            detector.addListener(heard::add);
+            check("first poll is the baseline", detector.poll().isEmpty());
+            check("idle database: nothing", detector.poll().isEmpty() && heard.isEmpty());
+
+            service.borrowBook(ann, dune, LocalDate.now().plusDays(14));
+            check("a borrow touches books and loans only", detector.poll().equals(Set.of("books", "borrowed_books")));
+            check("listener told once", heard.size() == 1);
+
+            try (Connection other = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+                 Statement stmt = other.createStatement()) {
+                stmt.executeUpdate("INSERT INTO members (id, name, password) VALUES (2, 'Imported', 'pw')");
+            }
+            check("another process's write is seen", detector.poll().equals(Set.of("members")));
+
+            int polls = 10_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < polls; i++) {
+                detector.poll();
+            }
+            System.out.printf("      idle poll: %.1f us%n", (System.nanoTime() - start) / 1e3 / polls);
+            check("still nothing after idle polls", heard.size() == 2);
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("change detector");
+    }
+}
@@ -0,0 +1,240 @@
+package library;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import org.sqlite.SQLiteCommitListener;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteUpdateListener;
+
+/**
+ * Row-level changes made through this process's connections, delivered once they commit.
+ * When enabled, SQLiteConnectionManager attaches every connection it opens to the default
+ * feed: SQLite's update hook reports each inserted, updated or deleted row, the changes are
+ * collected per transaction (a row inserted and then updated is one INSERT; inserted and deleted, nothing)
+ * and subscribers get the batch on their own executor after COMMIT. A rollback drops it.
+ *
+ * Only this process's writes are seen; ChangeDetector covers other processes. SQLite does
+ * not report rows removed by the truncate optimization (DELETE without WHERE) or replaced
+ * by INSERT OR REPLACE. The app itself reloads its tables through ChangeDetector, so the
+ * feed is off unless -Dlibrary.changeFeed=true; connections are then hooked as they open.
+ */
+public class ChangeFeed {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("library.changeFeed", "false"));
+    private static final ChangeFeed DEFAULT = new ChangeFeed();
+
+    /** What happened to a row. */
+    public enum Op { INSERT, UPDATE, DELETE }
+
+    /** One row of one table; rowid is the id column for books, members and borrowed_books. */
+    public static final class RowChange {
+        private final String table;
+        private final Op op;
+        private final long rowId;
+
+        public RowChange(String table, Op op, long rowId) {
+            this.table = table;
+            this.op = op;
+            this.rowId = rowId;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        public long getRowId() {
+            return rowId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RowChange)) {
+                return false;
+            }
+            RowChange other = (RowChange) o;
+            return rowId == other.rowId && op == other.op && table.equals(other.table);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(table, op, rowId);
+        }
+
+        @Override
+        public String toString() {
+            return op + " " + table + " " + rowId;
+        }
+    }
+
+    /** A registered subscriber; close it to stop deliveries. */
+    public final class Subscription implements AutoCloseable {
+        private final Set<String> tables;
+        private final Executor executor;
+        private final Consumer<List<RowChange>> subscriber;
+
+        private Subscription(Set<String> tables, Executor executor, Consumer<List<RowChange>> subscriber) {
+            this.tables = tables;
+            this.executor = executor;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+        }
+
+        private void deliver(List<RowChange> batch) {
+            List<RowChange> wanted = batch;
+            if (!tables.isEmpty()) {
+                wanted = new ArrayList<>();
+                for (RowChange change : batch) {
+                    if (tables.contains(change.table)) {
+                        wanted.add(change);
+                    }
+                }
+            }
+            if (wanted.isEmpty()) {
+                return;
+            }
+            List<RowChange> changes = List.copyOf(wanted);
+            executor.execute(() -> {
+                try {
+                    subscriber.accept(changes);
+                } catch (RuntimeException e) {
+                    System.err.println("Error in change feed subscriber: " + e.getMessage());
+                    MetricsRegistry.getDefault().recordError("ChangeFeed.subscriber", e);
+                }
+            });
+        }
+    }
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public static ChangeFeed getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Delivers each committed transaction's changes to the given tables (all tables when
+     * empty) on executor, in commit order for a single-threaded executor.
+     * Runnable::run delivers on the committing thread, right after COMMIT returns.
+     */
+    public Subscription subscribe(Set<String> tables, Executor executor, Consumer<List<RowChange>> subscriber) {
+        Subscription subscription = new Subscription(Set.copyOf(tables), executor, subscriber);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /** Whether connections are hooked; subscribers of a disabled feed hear nothing. */
+    static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /** Hooks a raw sqlite-jdbc connection; anything else (or a disabled feed) is left alone. */
+    void attach(Connection connection) {
+        if (ENABLED && connection instanceof SQLiteConnection) {
+            Transaction transaction = new Transaction((SQLiteConnection) connection);
+            ((SQLiteConnection) connection).addUpdateListener(transaction);
+            ((SQLiteConnection) connection).addCommitListener(transaction);
+        }
+    }
+
+    private void publish(List<RowChange> batch) {
+        for (Subscription subscription : subscriptions) {
+            subscription.deliver(batch);
+        }
+    }
+
+    /**
+     * Changes of the transaction open on one connection. SQLite calls the hooks on the
+     * thread running the statement, before COMMIT returns; inside a UnitOfWork on this
+     * connection the batch waits for the unit's afterCommit, so subscribers that read the
+     * rows back see them.
+     */
+    private final class Transaction implements SQLiteUpdateListener, SQLiteCommitListener {
+        private final SQLiteConnection connection;
+        /** Latest op per table and rowid, in first-change order. */
+        private final Map<String, LinkedHashMap<Long, Op>> pending = new HashMap<>();
+
+        Transaction(SQLiteConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public synchronized void onUpdate(Type type, String database, String table, long rowId) {
+            if (subscriptions.isEmpty()) {
+                return;
+            }
+            Op op = type == Type.INSERT ? Op.INSERT : type == Type.UPDATE ? Op.UPDATE : Op.DELETE;
+            Map<Long, Op> rows = pending.computeIfAbsent(table, t -> new LinkedHashMap<>());
+            Op merged = merge(rows.get(rowId), op);
+            if (merged == null) {
+                rows.remove(rowId);
+            } else {
+                rows.put(rowId, merged);
+            }
+        }
+
+        @Override
+        public void onCommit() {
+            List<RowChange> batch = drain();
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (isUnitConnection()) {
+                UnitOfWork.afterCommit(() -> publish(batch));
+            } else {
+                publish(batch);
+            }
+        }
+
+        @Override
+        public synchronized void onRollback() {
+            pending.clear();
+        }
+
+        private synchronized List<RowChange> drain() {
+            List<RowChange> batch = new ArrayList<>();
+            pending.forEach((table, rows) -> rows.forEach((rowId, op) -> batch.add(new RowChange(table, op, rowId))));
+            pending.clear();
+            return batch;
+        }
+
+        private boolean isUnitConnection() {
+            Connection unit = UnitOfWork.currentConnection();
+            try {
+                return unit != null && unit.unwrap(SQLiteConnection.class) == connection;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+    }
+
+    /** previous then next on the same row, as one change; null when they cancel out. */
+    static Op merge(Op previous, Op next) {
+        if (previous == null) {
+            return next;
+        }
+        if (previous == Op.INSERT) {
+            return next == Op.DELETE ? null : Op.INSERT;
+        }
+        if (previous == Op.DELETE && next == Op.INSERT) {
+            return Op.UPDATE;
+        }
+        return next;
+    }
+}
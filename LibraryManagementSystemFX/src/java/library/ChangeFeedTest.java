@@ -0,0 +1,135 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes through the library and checks what ChangeFeed delivers: one coalesced batch per
+ * committed transaction, after the commit is visible, nothing for rolled-back or cancelled
+ * out changes or for other processes, on the subscriber's executor and only for its tables.
+ * Needs -Dlibrary.changeFeed=true, which the pom passes. Runs against a throwaway database; exits with status 1 on the first failed check.
+ */
+public class ChangeFeedTest {
+
+    private static final Set<String> CIRCULATION_TABLES = Set.of("books", "members", "borrowed_books");
+    private static final int BULK_BOOKS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        if (!ChangeFeed.isEnabled()) {
+            TestSupport.fail("change feed is off; run with -Dlibrary.changeFeed=true");
+            TestSupport.finish("change feed");
+        }
+        File db = TestSupport.useTempDatabase("library-feed-");
+        ExecutorService background = Executors.newSingleThreadExecutor(r -> new Thread(r, "feed-subscriber"));
+        try {
+            LibraryService service = TestSupport.newService();
+            List<List<ChangeFeed.RowChange>> batches = new ArrayList<>();
+            List<Boolean> visibleOnDelivery = new ArrayList<>();
+            ChangeFeed.Subscription direct = ChangeFeed.getDefault().subscribe(CIRCULATION_TABLES, Runnable::run, batch -> {
+                batches.add(batch);
+                visibleOnDelivery.add(committedElsewhere(db, batch.get(batch.size() - 1)));
+            });
+
+            Member ann = new Member(1, "Ann", "pw");
+            Book dune = new Book(1, "Dune", "Frank Herbert");
+            service.registerMember(ann);
+            service.addBook(dune);
+            check("one batch per autocommit write", batches.equals(List.of(
+                    List.of(change("members", ChangeFeed.Op.INSERT, 1)), List.of(change("books", ChangeFeed.Op.INSERT, 1)))));
+
+            batches.clear();
+            service.borrowBook(ann, dune, LocalDate.now().plusDays(14));
+            check("a borrow is one batch: the copy and the loan", batches.size() == 1
+                    && batches.get(0).contains(change("books", ChangeFeed.Op.UPDATE, 1))
+                    && batches.get(0).stream().anyMatch(c -> c.getTable().equals("borrowed_books") && c.getOp() == ChangeFeed.Op.INSERT));
+            check("internal tables filtered out", batches.get(0).stream().allMatch(c -> CIRCULATION_TABLES.contains(c.getTable())));
+            check("delivered after the commit is visible", !visibleOnDelivery.contains(false));
+
+            batches.clear();
+            UnitOfWork.execute(() -> {
+                service.addBook(new Book(2, "Emma", "Jane Austen"));
+                service.addBook(new Book(2, "Emma", "Jane Austen (revised)"));
+                service.addBook(new Book(3, "Draft", "Nobody"));
+                service.removeBook(new Book(3, "Draft", "Nobody"));
+            });
+            check("changes to one row coalesce", batches.equals(List.of(List.of(change("books", ChangeFeed.Op.INSERT, 2)))));
+
+            batches.clear();
+            // Closed without commit: rolled back
+            UnitOfWork unit = UnitOfWork.begin();
+            try {
+                service.addBook(new Book(4, "Never", "Rolled Back"));
+            } finally {
+                unit.close();
+            }
+            check("rolled back: nothing", batches.isEmpty());
+
+            try (Connection other = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+                 Statement stmt = other.createStatement()) {
+                stmt.executeUpdate("INSERT INTO members (id, name, password) VALUES (2, 'Imported', 'pw')");
+            }
+            check("other processes: not this feed's", batches.isEmpty());
+
+            List<String> threads = new ArrayList<>();
+            ChangeFeed.Subscription members = ChangeFeed.getDefault().subscribe(Set.of("members"), background,
+                    batch -> threads.add(Thread.currentThread().getName()));
+            try {
+                service.registerMember(new Member(3, "Cat", "pw"));
+                service.addBook(new Book(5, "Books only", "Nobody"));
+                background.submit(() -> { }).get(5, TimeUnit.SECONDS);
+            } finally {
+                members.close();
+            }
+            service.registerMember(new Member(4, "Dan", "pw"));
+            background.submit(() -> { }).get(5, TimeUnit.SECONDS);
+            check("own executor, own tables, until closed", threads.equals(List.of("feed-subscriber")));
+
+            check("update then delete is a delete", ChangeFeed.merge(ChangeFeed.Op.UPDATE, ChangeFeed.Op.DELETE) == ChangeFeed.Op.DELETE);
+            check("delete then insert is an update", ChangeFeed.merge(ChangeFeed.Op.DELETE, ChangeFeed.Op.INSERT) == ChangeFeed.Op.UPDATE);
+
+            batches.clear();
+            long start = System.nanoTime();
+            UnitOfWork.execute(() -> {
+                for (int id = 100; id < 100 + BULK_BOOKS; id++) {
+                    service.addBook(new Book(id, "Bulk " + id, "Importer"));
+                }
+            });
+            System.out.printf("      %d inserts with a subscriber: %.1f ms%n", BULK_BOOKS, (System.nanoTime() - start) / 1e6);
+            check("bulk import is one batch", batches.size() == 1 && batches.get(0).size() == BULK_BOOKS);
+            direct.close();
+        } finally {
+            background.shutdown();
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("change feed");
+    }
+
+    private static ChangeFeed.RowChange change(String table, ChangeFeed.Op op, long rowId) {
+        return new ChangeFeed.RowChange(table, op, rowId);
+    }
+
+    /** Whether another connection already sees the changed row (or its absence, for a delete). */
+    private static boolean committedElsewhere(File db, ChangeFeed.RowChange change) {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + change.getTable() + " WHERE rowid = " + change.getRowId())) {
+            return (rs.getInt(1) == 1) == (change.getOp() != ChangeFeed.Op.DELETE);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package library;
+
+/**
+ * Outcome of LibraryService.tryBorrowBook. Losing a race for a book is an expected result
+ * at a busy desk, so it is reported here rather than thrown.
+ */
+public final class CheckoutResult {
+
+    public enum Status {
+        /** The loan was recorded. */
+        BORROWED,
+        /** Someone else has the book (possibly a desk that got there a moment earlier). */
+        UNAVAILABLE,
+        /** The database stayed busy through every retry; the caller may try again later. */
+        CONFLICT
+    }
+
+    private final Status status;
+    private final BorrowedBook borrowedBook;
+    private final int attempts;
+
+    private CheckoutResult(Status status, BorrowedBook borrowedBook, int attempts) {
+        this.status = status;
+        this.borrowedBook = borrowedBook;
+        this.attempts = attempts;
+    }
+
+    static CheckoutResult borrowed(BorrowedBook borrowedBook, int attempts) {
+        return new CheckoutResult(Status.BORROWED, borrowedBook, attempts);
+    }
+
+    static CheckoutResult unavailable(int attempts) {
+        return new CheckoutResult(Status.UNAVAILABLE, null, attempts);
+    }
+
+    static CheckoutResult conflict(int attempts) {
+        return new CheckoutResult(Status.CONFLICT, null, attempts);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isBorrowed() {
+        return status == Status.BORROWED;
+    }
+
+    /** The new loan, or null unless BORROWED. */
+    public BorrowedBook getBorrowedBook() {
+        return borrowedBook;
+    }
+
+    /** Conditional UPDATEs issued, including retries after SQLITE_BUSY. */
+    public int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,70 @@
+package library;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one LibraryService operation (borrow, return, fine update, report).
+ * Costs almost nothing unless a recording with library.jfc (or these events enabled) is running.
+ */
+@Name("library.Circulation")
+@Label("Circulation Operation")
+@Category({"Library", "Circulation"})
+@Description("A LibraryService operation with the member and book it touched")
+@StackTrace(false)
+public class CirculationEvent extends Event {
+
+    public static final String BORROW = "borrow";
+    public static final String RETURN = "return";
+    public static final String UPDATE_FINES = "updateFines";
+    public static final String PAY_FINE = "payFine";
+    public static final String CLEAR_FINE = "clearFine";
+    public static final String REPORT = "report";
+    public static final String PLACE_HOLD = "placeHold";
+    /** A returned copy was put aside for the next hold on the book. */
+    public static final String HOLD_READY = "holdReady";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Member Id")
+    int memberId;
+
+    @Label("Book Id")
+    int bookId;
+
+    @Label("Amount")
+    @Description("Fine amount involved, if any")
+    double amount;
+
+    @Label("Failure")
+    @Description("Exception message if the operation was rejected or failed")
+    String failure;
+
+    /** Creates and begins an event; ids of 0 mean "not applicable". */
+    public static CirculationEvent start(String operation, int memberId, int bookId) {
+        CirculationEvent event = new CirculationEvent();
+        event.operation = operation;
+        event.memberId = memberId;
+        event.bookId = bookId;
+        event.begin();
+        return event;
+    }
+
+    public void setAmount(double amount) {
+        this.amount = amount;
+    }
+
+    public void fail(Throwable error) {
+        this.failure = error.getClass().getSimpleName() + ": " + error.getMessage();
+    }
+
+    /** For expected outcomes that are reported as results rather than thrown. */
+    public void fail(String reason) {
+        this.failure = reason;
+    }
+}
@@ -0,0 +1,326 @@
+package library;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only log of circulation events in the circulation_events table.
+ * Every borrow, return and fine change is one INSERT at the end of the table (seq is the
+ * rowid and nothing is ever deleted, so it only grows), written in the same UnitOfWork as
+ * the borrowed_books and members.balance rows it explains. Those tables are the
+ * projections the rest of the app reads; the log is the record of how they got there.
+ *
+ * CirculationProjection folds the log into open loans and balances. current() keeps one
+ * up to date by applying only the entries appended since its last call, and stores a
+ * snapshot every SNAPSHOT_INTERVAL entries, so projectAt(seq) replays at most that many.
+ */
+public class CirculationLog {
+
+    /** Event types, stored by name so the table reads on its own. */
+    public enum Type {
+        BORROWED("Borrowed"),
+        RETURNED("Returned"),
+        FINE_ASSESSED("FineAssessed"),
+        FINE_PAID("FinePaid"),
+        FINE_CLEARED("FineCleared");
+
+        private final String code;
+
+        Type(String code) {
+            this.code = code;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        static Type fromCode(String code) {
+            for (Type type : values()) {
+                if (type.code.equals(code)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown circulation event type: " + code);
+        }
+    }
+
+    /** One row of the log. Book id is 0 for fine events; amount is 0 for loan events. */
+    public static final class Entry {
+        private final long seq;
+        private final Type type;
+        private final int memberId;
+        private final int bookId;
+        private final double amount;
+        private final LocalDate dueDate;
+        private final LocalDate occurredOn;
+
+        public Entry(long seq, Type type, int memberId, int bookId, double amount, LocalDate dueDate, LocalDate occurredOn) {
+            this.seq = seq;
+            this.type = type;
+            this.memberId = memberId;
+            this.bookId = bookId;
+            this.amount = amount;
+            this.dueDate = dueDate;
+            this.occurredOn = occurredOn;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getMemberId() {
+            return memberId;
+        }
+
+        public int getBookId() {
+            return bookId;
+        }
+
+        /** Change in balance for FineAssessed (may be negative), paid or cleared amount otherwise. */
+        public double getAmount() {
+            return amount;
+        }
+
+        /** Due date of a Borrowed entry, else null. */
+        public LocalDate getDueDate() {
+            return dueDate;
+        }
+
+        public LocalDate getOccurredOn() {
+            return occurredOn;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + seq + " " + occurredOn + " " + type.getCode() + " member " + memberId
+                    + (bookId != 0 ? " book " + bookId : "") + (amount != 0 ? " amount " + amount : "");
+        }
+    }
+
+    /** Entries applied between stored projection snapshots. */
+    public static final int SNAPSHOT_INTERVAL = 10_000;
+
+    private static final String COLUMNS = "seq, type, member_id, book_id, amount, due_date, occurred_on";
+    static final String APPEND_SQL = "INSERT INTO circulation_events (type, member_id, book_id, amount, due_date, occurred_on) VALUES (?, ?, ?, ?, ?, ?)";
+    static final String MEMBER_EVENTS_SQL = "SELECT " + COLUMNS + " FROM circulation_events WHERE member_id = ? ORDER BY seq";
+    static final String BOOK_EVENTS_SQL = "SELECT " + COLUMNS + " FROM circulation_events WHERE book_id = ? ORDER BY seq";
+    static final String EVENTS_AFTER_SQL = "SELECT " + COLUMNS + " FROM circulation_events WHERE seq > ? AND seq <= ? ORDER BY seq";
+    static final String SNAPSHOT_AT_SQL = "SELECT state FROM circulation_snapshots WHERE seq <= ? ORDER BY seq DESC LIMIT 1";
+
+    private CirculationProjection current = new CirculationProjection();
+    private long lastSnapshotSeq;
+
+    public long borrowed(int memberId, int bookId, LocalDate dueDate) {
+        return append(Type.BORROWED, memberId, bookId, 0, dueDate);
+    }
+
+    public long returned(int memberId, int bookId) {
+        return append(Type.RETURNED, memberId, bookId, 0, null);
+    }
+
+    /** @param change new balance minus old; fines are recomputed, so it can be negative */
+    public long fineAssessed(int memberId, double change) {
+        return append(Type.FINE_ASSESSED, memberId, 0, change, null);
+    }
+
+    public long finePaid(int memberId, double amount) {
+        return append(Type.FINE_PAID, memberId, 0, amount, null);
+    }
+
+    /** @param amount the balance that was written off */
+    public long fineCleared(int memberId, double amount) {
+        return append(Type.FINE_CLEARED, memberId, 0, amount, null);
+    }
+
+    /**
+     * Appends one entry on the current connection, i.e. inside the caller's UnitOfWork.
+     * @return its seq, or -1 if it could not be written (the unit is then rollback-only)
+     */
+    private long append(Type type, int memberId, int bookId, double amount, LocalDate dueDate) {
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(APPEND_SQL)) {
+                pstmt.setString(1, type.getCode());
+                pstmt.setInt(2, memberId);
+                pstmt.setInt(3, bookId);
+                pstmt.setDouble(4, amount);
+                if (dueDate != null) {
+                    pstmt.setString(5, dueDate.toString());
+                } else {
+                    pstmt.setNull(5, Types.VARCHAR);
+                }
+                pstmt.setString(6, LocalDate.now().toString());
+                pstmt.executeUpdate();
+            }
+            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        } catch (SQLException e) {
+            System.err.println("Error appending circulation event: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("CirculationLog.append", e);
+            UnitOfWork.markRollbackOnly(e);
+            return -1;
+        }
+    }
+
+    /** A member's whole history, oldest first. */
+    public List<Entry> eventsForMember(int memberId) {
+        return query(MEMBER_EVENTS_SQL, memberId);
+    }
+
+    /** Every borrow and return of one book, oldest first. */
+    public List<Entry> eventsForBook(int bookId) {
+        return query(BOOK_EVENTS_SQL, bookId);
+    }
+
+    /** Entries with afterSeq &lt; seq &lt;= upToSeq, oldest first. */
+    public List<Entry> eventsBetween(long afterSeq, long upToSeq) {
+        return query(EVENTS_AFTER_SQL, afterSeq, upToSeq);
+    }
+
+    /** Seq of the newest entry; 0 if the log is empty. */
+    public long lastSeq() {
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT MAX(seq) FROM circulation_events")) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading circulation log: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("CirculationLog.lastSeq", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Open loans and balances as of the newest entry. Only entries appended since the
+     * previous call are read; the first call starts from the newest stored snapshot.
+     * If the log cannot be read, the state as of the last good read is returned and the
+     * next call tries again.
+     */
+    public synchronized CirculationProjection current() {
+        if (current.getSeq() == 0) {
+            CirculationProjection stored = loadSnapshot(Long.MAX_VALUE);
+            if (stored != null) {
+                current = stored;
+                lastSnapshotSeq = stored.getSeq();
+            }
+        }
+        long newest = lastSeq();
+        try {
+            while (current.getSeq() < newest) {
+                long upTo = Math.min(newest, lastSnapshotSeq + SNAPSHOT_INTERVAL);
+                // Read the whole range first, so a failed read leaves the projection untouched
+                List<Entry> entries = read(EVENTS_AFTER_SQL, current.getSeq(), upTo);
+                for (Entry entry : entries) {
+                    current.apply(entry);
+                }
+                current.advanceTo(upTo);
+                if (upTo - lastSnapshotSeq >= SNAPSHOT_INTERVAL) {
+                    saveSnapshot(current);
+                    lastSnapshotSeq = upTo;
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading circulation log: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("CirculationLog.current", e);
+        }
+        return current.copy();
+    }
+
+    /**
+     * State as of seq: the newest snapshot at or before it, plus the entries after that.
+     * @throws IllegalStateException if the entries cannot be read
+     */
+    public CirculationProjection projectAt(long seq) {
+        CirculationProjection projection = loadSnapshot(seq);
+        if (projection == null) {
+            projection = new CirculationProjection();
+        }
+        List<Entry> entries;
+        try {
+            entries = read(EVENTS_AFTER_SQL, projection.getSeq(), seq);
+        } catch (SQLException e) {
+            MetricsRegistry.getDefault().recordError("CirculationLog.projectAt", e);
+            throw new IllegalStateException("Reading the circulation log failed: " + e.getMessage(), e);
+        }
+        for (Entry entry : entries) {
+            projection.apply(entry);
+        }
+        return projection;
+    }
+
+    /** Stores a projection so later replays can start from it. */
+    void saveSnapshot(CirculationProjection projection) {
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT OR REPLACE INTO circulation_snapshots (seq, state) VALUES (?, ?)")) {
+                pstmt.setLong(1, projection.getSeq());
+                pstmt.setBytes(2, projection.toBytes());
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException | IOException e) {
+            System.err.println("Error saving circulation snapshot: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("CirculationLog.saveSnapshot", e);
+        }
+    }
+
+    private CirculationProjection loadSnapshot(long atOrBefore) {
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(SNAPSHOT_AT_SQL)) {
+                pstmt.setLong(1, atOrBefore);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? CirculationProjection.fromBytes(rs.getBytes(1)) : null;
+                }
+            }
+        } catch (SQLException | IOException e) {
+            System.err.println("Error loading circulation snapshot: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("CirculationLog.loadSnapshot", e);
+            return null;
+        }
+    }
+
+    /** Entries for the history views; empty if the log cannot be read. */
+    private List<Entry> query(String sql, long... params) {
+        try {
+            return read(sql, params);
+        } catch (SQLException e) {
+            System.err.println("Error reading circulation log: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("CirculationLog.query", e);
+            return new ArrayList<>();
+        }
+    }
+
+    private List<Entry> read(String sql, long... params) throws SQLException {
+        List<Entry> entries = new ArrayList<>();
+        Connection conn = SQLiteConnectionManager.getConnection();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setLong(i + 1, params[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String due = rs.getString(6);
+                    entries.add(new Entry(rs.getLong(1), Type.fromCode(rs.getString(2)), rs.getInt(3), rs.getInt(4),
+                            rs.getDouble(5), due != null ? LocalDate.parse(due) : null, LocalDate.parse(rs.getString(7))));
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,142 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Runs borrows, returns and fine changes through LibraryService and checks the circulation
+ * log: one entry per change, projections that match the tables at the end and at an earlier
+ * seq, a snapshot round trip, a failed read that must not skip entries, and the backfill
+ * of a database from before the log.
+ * Runs against throwaway databases; exits with status 1 on the first failed check.
+ */
+public class CirculationLogTest {
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-events-");
+        try {
+            MemberRepository members = new MemberRepository(new SQLiteMemberHandler());
+            BookRepository books = new BookRepository(new SQLiteBookHandler());
+            LibraryService service = new LibraryService(members, books);
+            CirculationLog log = service.getCirculationLog();
+
+            Member ann = new Member(1, "Ann", "pw");
+            Member bob = new Member(2, "Bob", "pw");
+            service.registerMember(ann);
+            service.registerMember(bob);
+            Book dune = new Book(1, "Dune", "Frank Herbert");
+            Book emma = new Book(2, "Emma", "Jane Austen");
+            service.addBook(dune);
+            service.addBook(emma);
+
+            service.borrowBook(ann, dune, LocalDate.now().plusDays(7));
+            BorrowedBook late = service.borrowBook(bob, emma, LocalDate.now().plusDays(1));
+            long afterBorrows = log.lastSeq();
+            check("two Borrowed entries", afterBorrows == 2);
+            service.returnBook(ann, dune);
+
+            // Make Bob's loan four days overdue, then assess, pay part and clear the rest
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("UPDATE borrowed_books SET due_date = '" + LocalDate.now().minusDays(4) + "' WHERE book_id = 2");
+            }
+            bob.returnBook(late);
+            bob.borrowBook(new BorrowedBook(emma, late.getBorrowDate(), LocalDate.now().minusDays(4), null));
+            service.updateMemberFines(bob);
+            service.payFine(bob, 0.5);
+            service.updateMemberFines(bob); // recomputed total brings the paid 0.50 back
+            service.clearFine(bob);
+
+            List<CirculationLog.Entry> bobs = log.eventsForMember(2);
+            StringBuilder types = new StringBuilder();
+            for (CirculationLog.Entry entry : bobs) {
+                types.append(entry.getType().getCode()).append(' ');
+            }
+            check("Bob's history in order: " + types.toString().trim(),
+                    types.toString().equals("Borrowed FineAssessed FinePaid FineAssessed FineCleared "));
+            check("assessed amount", bobs.get(1).getAmount() == 2.0);
+            check("book history", log.eventsForBook(1).size() == 2
+                    && log.eventsForBook(1).get(1).getType() == CirculationLog.Type.RETURNED);
+            check("last borrower comes from the log", Integer.valueOf(1).equals(new SQLiteBorrowedBookHandler().findBorrowerIdForBook(1)));
+
+            CirculationProjection now = log.current();
+            check("open loans match borrowed_books", bookIds(now.getOpenLoans()).equals(
+                    new SQLiteBorrowedBookHandler().loadActiveLoans().keySet()) && now.getOpenLoans().size() == 1);
+            check("balances match members", now.getBalance(2) == 0.0 && members.findAll().stream().allMatch(m -> m.getBalance() == 0.0));
+
+            CirculationProjection earlier = log.projectAt(afterBorrows);
+            check("point in time: both books out", earlier.getOpenLoans().size() == 2 && earlier.getSeq() == afterBorrows);
+            CirculationProjection owing = log.projectAt(bobs.get(2).getSeq());
+            check("point in time: balance after the payment", owing.getBalance(2) == 1.5);
+
+            log.saveSnapshot(earlier);
+            CirculationProjection fromSnapshot = log.projectAt(log.lastSeq());
+            check("replay from a snapshot", bookIds(fromSnapshot.getOpenLoans()).equals(bookIds(now.getOpenLoans()))
+                    && fromSnapshot.getBalances().equals(now.getBalances()));
+            check("incremental catch-up", service.borrowBook(ann, dune, LocalDate.now().plusDays(14)) != null
+                    && log.current().getOpenLoans().size() == 2);
+
+            // A read that fails must not move the projection past the entries it missed
+            long before = log.current().getSeq();
+            service.returnBook(ann, dune);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE circulation_events RENAME COLUMN due_date TO due_on");
+            }
+            CirculationProjection unread = log.current();
+            boolean refused = false;
+            try {
+                log.projectAt(log.lastSeq());
+            } catch (IllegalStateException e) {
+                refused = true;
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE circulation_events RENAME COLUMN due_on TO due_date");
+            }
+            check("a failed read leaves the projection where it was", unread.getSeq() == before && refused
+                    && unread.getOpenLoans().size() == 2);
+            check("the next read catches up", log.current().getSeq() == log.lastSeq()
+                    && log.current().getOpenLoans().size() == 1);
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        checkBackfill();
+
+        TestSupport.finish("circulation log");
+    }
+
+    /** A database written before the log existed gets its history replayed into it on open. */
+    private static void checkBackfill() throws Exception {
+        File db = TestSupport.useTempDatabase("library-events-old-");
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE members (id INTEGER PRIMARY KEY, name TEXT NOT NULL, password TEXT NOT NULL, balance REAL NOT NULL DEFAULT 0)");
+            stmt.execute("CREATE TABLE borrowed_books (id INTEGER PRIMARY KEY, book_id INTEGER NOT NULL, member_id INTEGER NOT NULL,"
+                    + " borrow_date TEXT NOT NULL, due_date TEXT NOT NULL, return_date TEXT)");
+            stmt.execute("INSERT INTO members VALUES (7, 'Old', 'pw', 3.0)");
+            stmt.execute("INSERT INTO borrowed_books VALUES (1, 5, 7, '2024-01-01', '2024-01-15', '2024-01-10')");
+            stmt.execute("INSERT INTO borrowed_books VALUES (2, 5, 8, '2024-01-10', '2024-01-24', NULL)");
+        }
+        try {
+            CirculationProjection state = new CirculationLog().current();
+            check("backfill: open loan", state.getOpenLoans().size() == 1 && state.getOpenLoans(5).get(0).getMemberId() == 8);
+            check("backfill: balance", state.getBalance(7) == 3.0);
+            check("backfill: same-day return before the next borrow",
+                    new CirculationLog().eventsForBook(5).get(1).getType() == CirculationLog.Type.RETURNED);
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+    }
+
+    private static Set<Integer> bookIds(List<ActiveLoan> loans) {
+        return loans.stream().map(ActiveLoan::getBookId).collect(Collectors.toSet());
+    }
+}
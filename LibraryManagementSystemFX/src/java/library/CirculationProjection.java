@@ -0,0 +1,162 @@
+package library;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Current state folded from the circulation log: who has which copies of a book, and what
+ * each member owes, as of one sequence number. Built by applying entries in seq order, so the
+ * state at any earlier point is a replay that stops sooner.
+ * Not thread-safe; CirculationLog hands out copies.
+ */
+public final class CirculationProjection {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private long seq;
+    /** Open loans by book id; a title with several copies can be out to several members. */
+    private final Map<Integer, List<ActiveLoan>> openLoans = new HashMap<>();
+    private final Map<Integer, Double> balances = new HashMap<>();
+
+    public CirculationProjection() {
+    }
+
+    private CirculationProjection(CirculationProjection other) {
+        this.seq = other.seq;
+        other.openLoans.forEach((bookId, loans) -> this.openLoans.put(bookId, new ArrayList<>(loans)));
+        this.balances.putAll(other.balances);
+    }
+
+    /** Folds in one entry; entries at or below the current seq are ignored. */
+    public void apply(CirculationLog.Entry entry) {
+        if (entry.getSeq() <= seq) {
+            return;
+        }
+        int memberId = entry.getMemberId();
+        switch (entry.getType()) {
+            case BORROWED -> addLoan(new ActiveLoan(entry.getBookId(), memberId, entry.getOccurredOn(), entry.getDueDate()));
+            case RETURNED -> removeLoan(entry.getBookId(), memberId);
+            case FINE_ASSESSED -> balances.merge(memberId, entry.getAmount(), Double::sum);
+            case FINE_PAID -> balances.computeIfPresent(memberId, (id, owed) -> Math.max(0, owed - entry.getAmount()));
+            case FINE_CLEARED -> balances.remove(memberId);
+        }
+        if (balances.getOrDefault(memberId, 1.0) <= 0) {
+            balances.remove(memberId);
+        }
+        seq = entry.getSeq();
+    }
+
+    private void addLoan(ActiveLoan loan) {
+        openLoans.computeIfAbsent(loan.getBookId(), id -> new ArrayList<>(1)).add(loan);
+    }
+
+    /** Closes the member's loan of the book, or the oldest one if the member has none open. */
+    private void removeLoan(int bookId, int memberId) {
+        List<ActiveLoan> loans = openLoans.get(bookId);
+        if (loans == null) {
+            return;
+        }
+        int index = 0;
+        for (int i = 0; i < loans.size(); i++) {
+            if (loans.get(i).getMemberId() == memberId) {
+                index = i;
+                break;
+            }
+        }
+        loans.remove(index);
+        if (loans.isEmpty()) {
+            openLoans.remove(bookId);
+        }
+    }
+
+    /** Moves the seq forward past entries that do not exist (a range read up to seq found no more). */
+    void advanceTo(long seq) {
+        this.seq = Math.max(this.seq, seq);
+    }
+
+    /** Seq this state is current as of; 0 for an empty log. */
+    public long getSeq() {
+        return seq;
+    }
+
+    /** Loans not yet returned, in no particular order. */
+    public List<ActiveLoan> getOpenLoans() {
+        List<ActiveLoan> all = new ArrayList<>();
+        openLoans.values().forEach(all::addAll);
+        return all;
+    }
+
+    /** Loans of one book not yet returned, oldest first. */
+    public List<ActiveLoan> getOpenLoans(int bookId) {
+        return Collections.unmodifiableList(openLoans.getOrDefault(bookId, List.of()));
+    }
+
+    /** Members who owe something, keyed by member id. */
+    public Map<Integer, Double> getBalances() {
+        return Collections.unmodifiableMap(balances);
+    }
+
+    public double getBalance(int memberId) {
+        return balances.getOrDefault(memberId, 0.0);
+    }
+
+    CirculationProjection copy() {
+        return new CirculationProjection(this);
+    }
+
+    byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + openLoans.size() * 20 + balances.size() * 12);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(seq);
+            List<ActiveLoan> loans = getOpenLoans();
+            out.writeInt(loans.size());
+            for (ActiveLoan loan : loans) {
+                out.writeInt(loan.getBookId());
+                out.writeInt(loan.getMemberId());
+                out.writeLong(loan.getBorrowDate() != null ? loan.getBorrowDate().toEpochDay() : Long.MIN_VALUE);
+                out.writeLong(loan.getDueDate() != null ? loan.getDueDate().toEpochDay() : Long.MIN_VALUE);
+            }
+            out.writeInt(balances.size());
+            for (Map.Entry<Integer, Double> balance : balances.entrySet()) {
+                out.writeInt(balance.getKey());
+                out.writeDouble(balance.getValue());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    static CirculationProjection fromBytes(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown circulation snapshot format");
+            }
+            CirculationProjection projection = new CirculationProjection();
+            projection.seq = in.readLong();
+            for (int i = in.readInt(); i > 0; i--) {
+                int bookId = in.readInt();
+                int memberId = in.readInt();
+                LocalDate borrowed = epochDay(in.readLong());
+                LocalDate due = epochDay(in.readLong());
+                projection.addLoan(new ActiveLoan(bookId, memberId, borrowed, due));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                projection.balances.put(in.readInt(), in.readDouble());
+            }
+            return projection;
+        }
+    }
+
+    private static LocalDate epochDay(long day) {
+        return day == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(day);
+    }
+}
@@ -0,0 +1,529 @@
+package library;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory book store laid out in columns instead of one Book object per title.
+ * Rows are kept sorted by id in parallel int arrays (lookups are a binary search, so
+ * no per-row index entry is needed); titles are UTF-8 in a byte heap, authors are
+ * dictionary codes, a cover path is a dictionary-coded folder plus its file name in
+ * the heap, and availability is a bit per row. Most titles have one copy; the few with
+ * more keep their counts in a side map and their bit means "a copy is on the shelf".
+ * Book objects are built on demand as views: changing one does nothing until it is
+ * saved again (or checked out through BookCheckout).
+ *
+ * A drop-in replacement for DatabaseHandler&lt;Book&gt; using about a third of its heap
+ * for a large catalog. New books normally get the next id and are appended; a save
+ * or delete in the middle shifts the columns.
+ */
+public class CompactCatalog implements DataHandler<Book>, BookCheckout {
+
+    private static final int NO_COVER = -1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Dictionary authors = new Dictionary();
+    private final Dictionary coverFolders = new Dictionary();
+    private final ByteHeap heap = new ByteHeap();
+
+    private int size;
+    private int[] ids = new int[16];
+    private int[] titles = new int[16];
+    private int[] authorCodes = new int[16];
+    /** Heap offset of "folder code, file name", or NO_COVER. */
+    private int[] covers = new int[16];
+    private int[] versions = new int[16];
+    private long[] availableBits = new long[1];
+    /** {copies, copies on the shelf} for titles with more than one copy, by id. */
+    private final Map<Integer, int[]> copyCounts = new HashMap<>();
+
+    @Override
+    public void saveData(List<Book> books) {
+        // In id order, a bulk load of new books is all appends
+        List<Book> sorted = new ArrayList<>(books);
+        sorted.sort(Comparator.comparingInt(Book::getId));
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(size + sorted.size());
+            for (Book book : sorted) {
+                int slot = find(book.getId());
+                if (slot >= 0) {
+                    release(slot);
+                } else {
+                    slot = -slot - 1;
+                    insertSlot(slot);
+                    ids[slot] = book.getId();
+                }
+                write(slot, book);
+            }
+            compactHeapIfWasteful();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> readData() {
+        return readPage(0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Book> readPage(int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            int from = Math.min(Math.max(0, offset), size);
+            int to = (int) Math.min((long) from + Math.max(0, limit), size);
+            List<Book> books = new ArrayList<>(to - from);
+            for (int slot = from; slot < to; slot++) {
+                books.add(view(slot));
+            }
+            return books;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteData(int id) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(id);
+            if (slot < 0) {
+                return;
+            }
+            release(slot);
+            copyCounts.remove(id);
+            int tail = size - slot - 1;
+            System.arraycopy(ids, slot + 1, ids, slot, tail);
+            System.arraycopy(titles, slot + 1, titles, slot, tail);
+            System.arraycopy(authorCodes, slot + 1, authorCodes, slot, tail);
+            System.arraycopy(covers, slot + 1, covers, slot, tail);
+            System.arraycopy(versions, slot + 1, versions, slot, tail);
+            shiftBitsDown(slot);
+            size--;
+            compactHeapIfWasteful();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** A fresh Book for id, or null. */
+    public Book findById(int id) {
+        lock.readLock().lock();
+        try {
+            int slot = find(id);
+            return slot < 0 ? null : view(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Dead bytes in the string heap, left by replaced and deleted rows until it is compacted. */
+    int wastedHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return heap.wasted();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Titles with at least one copy on the shelf. */
+    public int countAvailable() {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (long word : availableBits) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Books whose title or author contains query, ignoring case, in id order.
+     * Authors are matched once per dictionary entry; for an ASCII query titles are
+     * matched on their UTF-8 bytes, so rows that do not match allocate nothing.
+     */
+    public List<Book> search(String query, int limit) {
+        String q = query.toLowerCase(Locale.ROOT);
+        byte[] asciiQuery = isAscii(q) ? q.getBytes(StandardCharsets.US_ASCII) : null;
+        lock.readLock().lock();
+        try {
+            BitSet authorMatches = authors.matching(q);
+            List<Book> matches = new ArrayList<>();
+            for (int slot = 0; slot < size && matches.size() < limit; slot++) {
+                boolean match = authorMatches.get(authorCodes[slot])
+                        || (asciiQuery != null ? heap.containsIgnoreAsciiCase(titles[slot], asciiQuery)
+                                : heap.string(titles[slot]).toLowerCase(Locale.ROOT).contains(q));
+                if (match) {
+                    matches.add(view(slot));
+                }
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean markBorrowedIfAvailable(int bookId) {
+        return moveCopy(bookId, -1);
+    }
+
+    @Override
+    public boolean markAvailableIfBorrowed(int bookId) {
+        return moveCopy(bookId, 1);
+    }
+
+    /**
+     * Takes a copy off the shelf (change -1) or puts one back (+1), if there is one to move.
+     * The columns are not part of the database transaction, so a unit of work that rolls
+     * back moves the copy back.
+     */
+    private boolean moveCopy(int bookId, int change) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(bookId);
+            if (slot < 0) {
+                return false;
+            }
+            int[] counts = copyCounts.get(bookId);
+            if (counts == null) {
+                if (isAvailable(slot) != (change < 0)) {
+                    return false;
+                }
+                setAvailable(slot, change > 0);
+            } else {
+                int shelved = counts[1] + change;
+                if (shelved < 0 || shelved > counts[0]) {
+                    return false;
+                }
+                counts[1] = shelved;
+                setAvailable(slot, shelved > 0);
+            }
+            versions[slot]++;
+            UnitOfWork.onRollback(() -> moveCopy(bookId, -change));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Slot of id, or -(insertion point) - 1. */
+    private int find(int id) {
+        // Appends are the common case
+        if (size > 0 && ids[size - 1] < id) {
+            return -size - 1;
+        }
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            // Grow by a quarter: the columns are the whole footprint, so slack matters
+            int grown = Math.max(capacity, ids.length + (ids.length >> 2));
+            ids = Arrays.copyOf(ids, grown);
+            titles = Arrays.copyOf(titles, grown);
+            authorCodes = Arrays.copyOf(authorCodes, grown);
+            covers = Arrays.copyOf(covers, grown);
+            versions = Arrays.copyOf(versions, grown);
+        }
+        int words = (capacity + 63) >>> 6;
+        if (words > availableBits.length) {
+            availableBits = Arrays.copyOf(availableBits, Math.max(words, availableBits.length + (availableBits.length >> 2)));
+        }
+    }
+
+    private void insertSlot(int slot) {
+        ensureCapacity(size + 1);
+        int tail = size - slot;
+        if (tail > 0) {
+            System.arraycopy(ids, slot, ids, slot + 1, tail);
+            System.arraycopy(titles, slot, titles, slot + 1, tail);
+            System.arraycopy(authorCodes, slot, authorCodes, slot + 1, tail);
+            System.arraycopy(covers, slot, covers, slot + 1, tail);
+            System.arraycopy(versions, slot, versions, slot + 1, tail);
+            shiftBitsUp(slot);
+        }
+        size++;
+    }
+
+    private void write(int slot, Book book) {
+        titles[slot] = heap.add(book.getTitle());
+        authorCodes[slot] = authors.code(book.getAuthor());
+        String coverPath = book.getCoverPath();
+        if (coverPath == null) {
+            covers[slot] = NO_COVER;
+        } else {
+            // Cover paths share long folder prefixes; each folder is stored once
+            int split = Math.max(coverPath.lastIndexOf('/'), coverPath.lastIndexOf('\\')) + 1;
+            covers[slot] = heap.add(coverFolders.code(coverPath.substring(0, split)), coverPath.substring(split));
+        }
+        versions[slot] = book.getVersion();
+        setAvailable(slot, book.isAvailable());
+        if (book.getCopies() > 1) {
+            copyCounts.put(book.getId(), new int[] {book.getCopies(), book.getAvailableCopies()});
+        } else {
+            copyCounts.remove(book.getId());
+        }
+    }
+
+    private void release(int slot) {
+        heap.release(titles[slot]);
+        if (covers[slot] != NO_COVER) {
+            heap.release(covers[slot]);
+        }
+    }
+
+    private Book view(int slot) {
+        Book book = new Book(ids[slot], heap.string(titles[slot]), authors.value(authorCodes[slot]));
+        int[] counts = copyCounts.get(ids[slot]);
+        if (counts != null) {
+            book.setCopies(counts[0]);
+            book.setAvailableCopies(counts[1]);
+        } else {
+            book.setAvailable(isAvailable(slot));
+        }
+        int cover = covers[slot];
+        if (cover != NO_COVER) {
+            book.setCoverPath(coverFolders.value(heap.prefix(cover)) + heap.string(cover));
+        }
+        book.setVersion(versions[slot]);
+        return book;
+    }
+
+    private boolean isAvailable(int slot) {
+        return (availableBits[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private void setAvailable(int slot, boolean value) {
+        if (value) {
+            availableBits[slot >>> 6] |= 1L << slot;
+        } else {
+            availableBits[slot >>> 6] &= ~(1L << slot);
+        }
+    }
+
+    /** Moves the bits from slot up by one, leaving slot clear. Capacity must allow size + 1. */
+    private void shiftBitsUp(int slot) {
+        for (int i = size; i > slot; i--) {
+            setAvailable(i, isAvailable(i - 1));
+        }
+        setAvailable(slot, false);
+    }
+
+    /** Moves the bits above slot down by one, dropping slot. */
+    private void shiftBitsDown(int slot) {
+        for (int i = slot; i < size - 1; i++) {
+            setAvailable(i, isAvailable(i + 1));
+        }
+        setAvailable(size - 1, false);
+    }
+
+    /** Replaced and deleted rows leave dead bytes behind; rewrite the heap once they are half of it. */
+    private void compactHeapIfWasteful() {
+        if (heap.wasted() > 1 << 16 && heap.wasted() > heap.used() / 2) {
+            ByteHeap.Compactor compactor = heap.compactor();
+            for (int slot = 0; slot < size; slot++) {
+                titles[slot] = compactor.move(titles[slot]);
+                if (covers[slot] != NO_COVER) {
+                    covers[slot] = compactor.move(covers[slot]);
+                }
+            }
+            compactor.finish();
+        }
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Distinct strings, each stored once and referred to by an int code. */
+    private static final class Dictionary {
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        int code(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        String value(int code) {
+            return values.get(code);
+        }
+
+        BitSet matching(String lowerCaseQuery) {
+            BitSet matches = new BitSet(values.size());
+            for (int code = 0; code < values.size(); code++) {
+                String value = values.get(code);
+                if (value != null && value.toLowerCase(Locale.ROOT).contains(lowerCaseQuery)) {
+                    matches.set(code);
+                }
+            }
+            return matches;
+        }
+    }
+
+    /**
+     * Strings in one growing byte array, addressed by offset. An entry is a varint
+     * prefix number (0 when unused), a varint length and the UTF-8 bytes.
+     */
+    private static final class ByteHeap {
+        private byte[] bytes = new byte[1 << 12];
+        private int used;
+        private int wasted;
+
+        int add(String value) {
+            return add(0, value);
+        }
+
+        int add(int prefix, String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            ensure(10 + utf8.length);
+            int offset = used;
+            int pos = writeVarint(prefix, offset);
+            pos = writeVarint(utf8.length, pos);
+            System.arraycopy(utf8, 0, bytes, pos, utf8.length);
+            used = pos + utf8.length;
+            return offset;
+        }
+
+        void release(int offset) {
+            wasted += entrySize(offset);
+        }
+
+        int prefix(int offset) {
+            return readVarint(offset);
+        }
+
+        String string(int offset) {
+            int lengthAt = skipVarint(offset);
+            return new String(bytes, skipVarint(lengthAt), readVarint(lengthAt), StandardCharsets.UTF_8);
+        }
+
+        boolean containsIgnoreAsciiCase(int offset, byte[] lowerCaseQuery) {
+            int lengthAt = skipVarint(offset);
+            int start = skipVarint(lengthAt);
+            int last = start + readVarint(lengthAt) - lowerCaseQuery.length;
+            outer:
+            for (int i = start; i <= last; i++) {
+                for (int j = 0; j < lowerCaseQuery.length; j++) {
+                    byte b = bytes[i + j];
+                    if (b >= 'A' && b <= 'Z') {
+                        b += 'a' - 'A';
+                    }
+                    if (b != lowerCaseQuery[j]) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        int used() {
+            return used;
+        }
+
+        int wasted() {
+            return wasted;
+        }
+
+        Compactor compactor() {
+            return new Compactor();
+        }
+
+        private int entrySize(int offset) {
+            int lengthAt = skipVarint(offset);
+            return skipVarint(lengthAt) - offset + readVarint(lengthAt);
+        }
+
+        private void ensure(int extra) {
+            if (used + extra > bytes.length) {
+                long capacity = Math.max(bytes.length + (bytes.length >> 2), (long) used + extra);
+                if (capacity > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Catalog string heap is full");
+                }
+                bytes = Arrays.copyOf(bytes, (int) capacity);
+            }
+        }
+
+        private int writeVarint(int value, int pos) {
+            while ((value & ~0x7F) != 0) {
+                bytes[pos++] = (byte) (value | 0x80);
+                value >>>= 7;
+            }
+            bytes[pos++] = (byte) value;
+            return pos;
+        }
+
+        private int readVarint(int pos) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[pos++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        private int skipVarint(int pos) {
+            while (bytes[pos] < 0) {
+                pos++;
+            }
+            return pos + 1;
+        }
+
+        /** Copies live entries into a fresh array; offsets change, so callers take the new ones. */
+        final class Compactor {
+            private final byte[] target = new byte[Math.max(1 << 12, used - wasted)];
+            private int position;
+
+            int move(int offset) {
+                int n = entrySize(offset);
+                System.arraycopy(bytes, offset, target, position, n);
+                position += n;
+                return position - n;
+            }
+
+            void finish() {
+                bytes = target;
+                used = position;
+                wasted = 0;
+            }
+        }
+    }
+}
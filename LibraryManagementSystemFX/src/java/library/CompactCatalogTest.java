@@ -0,0 +1,215 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Runs CompactCatalog and a plain List&lt;Book&gt; side by side through random saves,
+ * replacements, deletes and copy moves, and compares them all along. Ids are drawn from a
+ * small range, so most saves and deletes land in the middle and shift the columns and the
+ * availability bits. Long titles are replaced often enough for the string heap to be
+ * compacted several times, and searches by title and author (ASCII and not) must find
+ * the same books as a scan of the list. Exits with status 1 on the first failed check.
+ */
+public class CompactCatalogTest {
+
+    private static final int OPERATIONS = 40_000;
+    private static final int ID_RANGE = 3000;
+    private static final int COMPARE_EVERY = 1000;
+    private static final String[] WORDS = {"river", "Stone", "night", "Garden", "winter", "ÉTÉ", "château",
+            "Жизнь", "light", "SHADOW", "house", "sea", "crown", "glass", "ember", "road"};
+    private static final String[] AUTHORS = {"Jane Austen", "Frank Herbert", "Émile Zola", "Лев Толстой",
+            "Toni Morrison", "Ursula K. Le Guin", "Haruki Murakami", "Chimamanda Ngozi Adichie"};
+
+    public static void main(String[] args) {
+        Random random = new Random(37);
+        CompactCatalog catalog = new CompactCatalog();
+        List<Book> model = new ArrayList<>();
+
+        check("empty catalog", catalog.size() == 0 && catalog.readData().isEmpty() && catalog.findById(1) == null);
+
+        boolean same = true;
+        int middleInserts = 0;
+        int middleDeletes = 0;
+        int compactions = 0;
+        int searches = 0;
+        int searchMismatches = 0;
+        int lastWasted = 0;
+        for (int i = 1; i <= OPERATIONS && same; i++) {
+            int id = 1 + random.nextInt(ID_RANGE);
+            int slot = slotOf(model, id);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                // Insert, or replace the row with new strings (its old ones become heap waste)
+                long seed = random.nextLong();
+                Book book = randomBook(id, new Random(seed));
+                catalog.saveData(List.of(book));
+                if (slot >= 0) {
+                    model.set(slot, randomBook(id, new Random(seed)));
+                } else {
+                    if (-slot - 1 < model.size()) {
+                        middleInserts++;
+                    }
+                    model.add(-slot - 1, randomBook(id, new Random(seed)));
+                }
+            } else if (op < 7) {
+                catalog.deleteData(id);
+                if (slot >= 0) {
+                    if (slot < model.size() - 1) {
+                        middleDeletes++;
+                    }
+                    model.remove(slot);
+                }
+            } else if (op < 9) {
+                boolean take = random.nextBoolean();
+                boolean moved = take ? catalog.markBorrowedIfAvailable(id) : catalog.markAvailableIfBorrowed(id);
+                boolean expected = slot >= 0 && (take ? model.get(slot).takeCopy() : model.get(slot).returnCopy());
+                same = moved == expected;
+            } else {
+                String query = randomQuery(random, model);
+                List<Integer> found = ids(catalog.search(query, Integer.MAX_VALUE));
+                searches++;
+                if (!found.equals(ids(scan(model, query)))) {
+                    searchMismatches++;
+                }
+            }
+            int wasted = catalog.wastedHeapBytes();
+            // Waste only shrinks when the heap is rewritten
+            if (wasted < lastWasted) {
+                compactions++;
+            }
+            lastWasted = wasted;
+            if (i % COMPARE_EVERY == 0) {
+                same = sameBooks(catalog.readData(), model);
+            }
+        }
+        System.out.printf("      %d middle inserts, %d middle deletes, %d heap compactions, %d searches, %d rows%n",
+                middleInserts, middleDeletes, compactions, searches, model.size());
+        check("random changes match a List<Book>", same && sameBooks(catalog.readData(), model));
+        check("inserts and deletes in the middle were exercised", middleInserts > 1000 && middleDeletes > 1000);
+        check("the heap was compacted", compactions > 0);
+        check("searches match a scan of the list", searches > 1000 && searchMismatches == 0);
+        check("size and shelf count match", catalog.size() == model.size()
+                && catalog.countAvailable() == model.stream().filter(Book::isAvailable).count());
+
+        boolean pagesMatch = true;
+        for (int offset = 0; offset < model.size() + 100 && pagesMatch; offset += 97) {
+            List<Book> page = catalog.readPage(offset, 50);
+            pagesMatch = sameBooks(page, model.subList(Math.min(offset, model.size()), Math.min(offset + 50, model.size())));
+        }
+        check("pages match", pagesMatch);
+        boolean lookupsMatch = true;
+        for (int id = 0; id <= ID_RANGE + 1 && lookupsMatch; id++) {
+            int slot = slotOf(model, id);
+            Book found = catalog.findById(id);
+            lookupsMatch = slot >= 0 ? found != null && same(found, model.get(slot)) : found == null;
+        }
+        check("every id looks up the same book", lookupsMatch);
+        check("search limit stops early", catalog.search("", 5).size() == Math.min(5, model.size()));
+
+        for (Book book : new ArrayList<>(model)) {
+            catalog.deleteData(book.getId());
+        }
+        check("deleting everything leaves an empty catalog", catalog.size() == 0 && catalog.countAvailable() == 0
+                && catalog.readData().isEmpty());
+
+        TestSupport.finish("compact catalog");
+    }
+
+    /** Title of 1 to 12 words (long ones make heap waste add up quickly), sometimes several copies and a cover. */
+    private static Book randomBook(int id, Random random) {
+        StringBuilder title = new StringBuilder();
+        int words = 1 + random.nextInt(12);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                title.append(' ');
+            }
+            title.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        Book book = new Book(id, title.toString(), AUTHORS[random.nextInt(AUTHORS.length)]);
+        if (random.nextInt(4) == 0) {
+            book.setCopies(2 + random.nextInt(4));
+            book.setAvailableCopies(random.nextInt(book.getCopies() + 1));
+        } else {
+            book.setAvailable(random.nextInt(3) != 0);
+        }
+        switch (random.nextInt(3)) {
+            case 0 -> book.setCoverPath("covers/shelf-" + random.nextInt(5) + "/book-" + id + ".png");
+            case 1 -> book.setCoverPath("C:\\covers\\" + WORDS[random.nextInt(WORDS.length)] + "\\" + id + ".jpg");
+            default -> { }
+        }
+        return book;
+    }
+
+    /** A piece of a title or author in the list, with its case changed, or a word nobody uses. */
+    private static String randomQuery(Random random, List<Book> model) {
+        if (model.isEmpty() || random.nextInt(10) == 0) {
+            return "zzz";
+        }
+        Book book = model.get(random.nextInt(model.size()));
+        String text = random.nextBoolean() ? book.getTitle() : book.getAuthor();
+        int from = random.nextInt(text.length());
+        String piece = text.substring(from, Math.min(text.length(), from + 1 + random.nextInt(6)));
+        return random.nextBoolean() ? piece.toUpperCase(Locale.ROOT) : piece;
+    }
+
+    private static List<Book> scan(List<Book> model, String query) {
+        String q = query.toLowerCase(Locale.ROOT);
+        List<Book> matches = new ArrayList<>();
+        for (Book book : model) {
+            if (book.getTitle().toLowerCase(Locale.ROOT).contains(q) || book.getAuthor().toLowerCase(Locale.ROOT).contains(q)) {
+                matches.add(book);
+            }
+        }
+        return matches;
+    }
+
+    /** Position of id in the id-ordered list, or -(insertion point) - 1. */
+    private static int slotOf(List<Book> model, int id) {
+        int low = 0;
+        int high = model.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = model.get(mid).getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -low - 1;
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        List<Integer> ids = new ArrayList<>(books.size());
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
+
+    private static boolean sameBooks(List<Book> actual, List<Book> expected) {
+        if (actual.size() != expected.size()) {
+            return false;
+        }
+        for (int i = 0; i < actual.size(); i++) {
+            if (!same(actual.get(i), expected.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean same(Book a, Book b) {
+        return a.getId() == b.getId() && a.getTitle().equals(b.getTitle()) && a.getAuthor().equals(b.getAuthor())
+                && Objects.equals(a.getCoverPath(), b.getCoverPath()) && a.getCopies() == b.getCopies()
+                && a.getAvailableCopies() == b.getAvailableCopies() && a.isAvailable() == b.isAvailable();
+    }
+}
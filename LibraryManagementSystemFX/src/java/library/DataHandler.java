@@ -1,5 +1,6 @@
 package library;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -13,4 +14,24 @@ public interface DataHandler<T> {
     List<T> readData();
 
     void deleteData(int id);
+
+    /**
+     * Reads up to limit items in id order, skipping the first offset.
+     * Lets callers show the first screenful before the whole table is loaded.
+     * The default pages over readData(); database handlers override it with a LIMIT query.
+     */
+    default List<T> readPage(int offset, int limit) {
+        List<T> all = readData();
+        int from = Math.min(offset, all.size());
+        int to = (int) Math.min((long) from + limit, all.size());
+        return new ArrayList<>(all.subList(from, to));
+    }
+
+    /**
+     * Returns this handler viewed as an optional capability (e.g. BookCheckout), or null
+     * if it has none. Decorators forward to the handler they wrap, like JDBC unwrap.
+     */
+    default <X> X unwrap(Class<X> capability) {
+        return capability.isInstance(this) ? capability.cast(this) : null;
+    }
 }
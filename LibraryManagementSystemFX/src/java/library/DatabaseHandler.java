@@ -1,40 +1,181 @@
 package library;
 
-import java.sql.Connection;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
 
 /**
- * DataHandler implementation for database persistence.
- * Holds Connection per diagram; stub uses in-memory store when conn is null.
+ * DataHandler that keeps everything in memory.
+ * Without a journal (the plain constructor) it is a throwaway store for tests and benchmarks.
+ * Opened with open(), every saveData/deleteData is appended to &lt;base&gt;.journal before it
+ * returns: one length-prefixed, CRC-checked record per entity, written through a FileChannel
+ * and fsynced once per group of concurrent writers. When the journal outgrows the last
+ * snapshot it is compacted into &lt;base&gt;.snapshot and started afresh; open() loads the
+ * snapshot and replays the journal, dropping a torn tail left by a crash.
  * DIP: Callers depend on DataHandler, not this concrete class.
  */
 public class DatabaseHandler<T> implements DataHandler<T> {
 
-    @SuppressWarnings("unused")
-    private final Connection conn;
+    private static final int JOURNAL_MAGIC = 0x4C4D4A4C;   // "LMJL"
+    private static final int SNAPSHOT_MAGIC = 0x4C4D5353;  // "LMSS"
+    private static final int FORMAT_VERSION = 2;
+    /** magic, format version, generation */
+    private static final int JOURNAL_HEADER_BYTES = 16;
+    /** length and CRC32C in front of every record body */
+    private static final int RECORD_PREFIX_BYTES = 8;
+    /** A body is op, id and the encoded entity; anything larger is a torn length. */
+    private static final int MAX_RECORD_BYTES = 16 << 20;
+    private static final byte OP_SAVE = 1;
+    private static final byte OP_DELETE = 2;
+    /** Journals smaller than this are never compacted. */
+    static final long COMPACT_MIN_BYTES = 4L << 20;
+
     private final ConcurrentHashMap<Integer, T> store = new ConcurrentHashMap<>();
     private final IdAccessor<T> idAccessor;
 
+    private final Codec<T> codec;
+    private final File journalFile;
+    private final File snapshotFile;
+    /** Held while records are encoded, applied and appended, so map and journal agree on order. */
+    private final Object appendLock = new Object();
+    /** Held by the one thread issuing an fsync; later writers wait and usually find their bytes synced. */
+    private final Object syncLock = new Object();
+    private final ByteArrayOutputStream encodeBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream encoder = new DataOutputStream(encodeBuffer);
+    private FileChannel channel;
+    private long generation;
+    /** Journal length; guarded by appendLock. */
+    private long written;
+    private volatile long synced;
+    private long compactThreshold = COMPACT_MIN_BYTES;
+
     public interface IdAccessor<T> {
         int getId(T entity);
     }
 
-    public DatabaseHandler(Connection conn, IdAccessor<T> idAccessor) {
-        this.conn = conn;
-        this.idAccessor = idAccessor;
+    /** Turns an entity into journal bytes and back. */
+    public interface Codec<T> {
+        void write(T entity, DataOutput out) throws IOException;
+
+        T read(DataInput in) throws IOException;
     }
 
-    /** In-memory stub when no DB connection available. */
+    public static final Codec<Book> BOOK_CODEC = new Codec<>() {
+        @Override
+        public void write(Book book, DataOutput out) throws IOException {
+            out.writeInt(book.getId());
+            out.writeUTF(book.getTitle());
+            out.writeUTF(book.getAuthor());
+            out.writeInt(book.getCopies());
+            out.writeInt(book.getAvailableCopies());
+            writeNullable(out, book.getCoverPath());
+            out.writeInt(book.getVersion());
+        }
+
+        @Override
+        public Book read(DataInput in) throws IOException {
+            Book book = new Book(in.readInt(), in.readUTF(), in.readUTF());
+            book.setCopies(in.readInt());
+            book.setAvailableCopies(in.readInt());
+            book.setCoverPath(readNullable(in));
+            book.setVersion(in.readInt());
+            return book;
+        }
+    };
+
+    /** Loans are not part of a member record; they live in borrowed_books like with SQLite. */
+    public static final Codec<Member> MEMBER_CODEC = new Codec<>() {
+        @Override
+        public void write(Member member, DataOutput out) throws IOException {
+            out.writeInt(member.getId());
+            out.writeUTF(member.getName());
+            out.writeUTF(member.getPassword());
+            out.writeDouble(member.getBalance());
+            out.writeInt(member.getVersion());
+        }
+
+        @Override
+        public Member read(DataInput in) throws IOException {
+            Member member = new Member(in.readInt(), in.readUTF(), in.readUTF());
+            member.setBalance(in.readDouble());
+            member.setVersion(in.readInt());
+            return member;
+        }
+    };
+
+    /** In-memory store that is lost on exit. */
     public DatabaseHandler(IdAccessor<T> idAccessor) {
-        this(null, idAccessor);
+        this.idAccessor = idAccessor;
+        this.codec = null;
+        this.journalFile = null;
+        this.snapshotFile = null;
+    }
+
+    private DatabaseHandler(File base, IdAccessor<T> idAccessor, Codec<T> codec) {
+        this.idAccessor = idAccessor;
+        this.codec = codec;
+        this.journalFile = new File(base.getPath() + ".journal");
+        this.snapshotFile = new File(base.getPath() + ".snapshot");
+    }
+
+    /**
+     * Opens a durable store at base (base.snapshot and base.journal), recovering whatever
+     * an earlier run left there.
+     * @throws IOException if the snapshot is damaged or missing while its journal is not
+     */
+    public static <T> DatabaseHandler<T> open(File base, IdAccessor<T> idAccessor, Codec<T> codec) throws IOException {
+        DatabaseHandler<T> handler = new DatabaseHandler<>(base, idAccessor, codec);
+        handler.recover();
+        return handler;
     }
 
     @Override
     public void saveData(List<T> data) {
-        for (T entity : data) {
-            store.put(idAccessor.getId(entity), entity);
+        if (journalFile == null) {
+            for (T entity : data) {
+                store.put(idAccessor.getId(entity), entity);
+            }
+            return;
+        }
+        try {
+            long end;
+            synchronized (appendLock) {
+                ByteBuffer batch = ByteBuffer.allocate(0);
+                for (T entity : data) {
+                    encodeBuffer.reset();
+                    encoder.writeByte(OP_SAVE);
+                    encoder.writeInt(idAccessor.getId(entity));
+                    codec.write(entity, encoder);
+                    batch = appendRecord(batch, encodeBuffer);
+                }
+                batch.flip();
+                end = append(batch);
+                for (T entity : data) {
+                    store.put(idAccessor.getId(entity), entity);
+                }
+            }
+            syncTo(end);
+            compactIfLarge();
+        } catch (IOException e) {
+            System.err.println("Error writing journal " + journalFile + ": " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("DatabaseHandler.saveData", e);
         }
     }
 
@@ -45,6 +186,295 @@ public class DatabaseHandler<T> implements DataHandler<T> {
 
     @Override
     public void deleteData(int id) {
-        store.remove(id);
+        if (journalFile == null) {
+            store.remove(id);
+            return;
+        }
+        try {
+            long end;
+            synchronized (appendLock) {
+                encodeBuffer.reset();
+                encoder.writeByte(OP_DELETE);
+                encoder.writeInt(id);
+                ByteBuffer record = appendRecord(ByteBuffer.allocate(0), encodeBuffer);
+                record.flip();
+                end = append(record);
+                store.remove(id);
+            }
+            syncTo(end);
+        } catch (IOException e) {
+            System.err.println("Error writing journal " + journalFile + ": " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("DatabaseHandler.deleteData", e);
+        }
+    }
+
+    /**
+     * Writes every entity into a new snapshot and empties the journal. Saves wait meanwhile;
+     * reads do not. Called automatically once the journal is larger than the last snapshot.
+     */
+    public void compact() throws IOException {
+        if (journalFile == null) {
+            return;
+        }
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                if (channel == null) {
+                    throw new IOException("Journal is closed");
+                }
+                long start = System.nanoTime();
+                long next = generation + 1;
+                long snapshotBytes = writeSnapshot(next);
+                // A crash here leaves the new snapshot with the old journal, whose records it already holds
+                channel.close();
+                createJournal(next);
+                compactThreshold = Math.max(COMPACT_MIN_BYTES, snapshotBytes);
+                MetricsRegistry.getDefault().operation("DatabaseHandler.compact").record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /** Flushes and closes the journal; the handler keeps answering reads. */
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                if (channel != null) {
+                    channel.force(false);
+                    channel.close();
+                    channel = null;
+                }
+            }
+        }
+    }
+
+    private void compactIfLarge() throws IOException {
+        boolean large;
+        synchronized (appendLock) {
+            large = written > compactThreshold;
+        }
+        if (large) {
+            compact();
+        }
+    }
+
+    /** Appends body framed as length, CRC32C, body to batch, growing it as needed. */
+    private static ByteBuffer appendRecord(ByteBuffer batch, ByteArrayOutputStream body) {
+        int length = body.size();
+        if (batch.remaining() < RECORD_PREFIX_BYTES + length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + RECORD_PREFIX_BYTES + length));
+            batch.flip();
+            larger.put(batch);
+            batch = larger;
+        }
+        byte[] bytes = body.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, length);
+        batch.putInt(length).putInt((int) crc.getValue()).put(bytes, 0, length);
+        return batch;
+    }
+
+    /** Writes at the end of the journal. Caller holds appendLock. @return the new length */
+    private long append(ByteBuffer records) throws IOException {
+        if (channel == null) {
+            throw new IOException("Journal is closed");
+        }
+        while (records.hasRemaining()) {
+            written += channel.write(records, written);
+        }
+        return written;
+    }
+
+    /**
+     * Group commit: the first writer to arrive forces everything appended so far, so writers
+     * queued behind it find their records already synced and return without an fsync of their own.
+     */
+    private void syncTo(long position) throws IOException {
+        if (synced >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= position || channel == null) {
+                return;
+            }
+            long target;
+            synchronized (appendLock) {
+                target = written;
+            }
+            long start = System.nanoTime();
+            channel.force(false);
+            MetricsRegistry.getDefault().operation("DatabaseHandler.fsync").record(System.nanoTime() - start);
+            synced = target;
+        }
+    }
+
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        long snapshotGeneration = 0;
+        if (snapshotFile.isFile()) {
+            snapshotGeneration = readSnapshot();
+            compactThreshold = Math.max(COMPACT_MIN_BYTES, snapshotFile.length());
+        }
+        long journalGeneration = journalFile.isFile() ? readJournalGeneration() : -1;
+        if (journalGeneration > snapshotGeneration) {
+            throw new IOException("Snapshot " + snapshotFile + " is missing or older than its journal");
+        }
+        generation = snapshotGeneration;
+        if (journalGeneration == snapshotGeneration) {
+            long end = replayJournal();
+            channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE);
+            if (end < channel.size()) {
+                System.err.println("Discarding " + (channel.size() - end) + " bytes of torn journal tail in " + journalFile);
+                channel.truncate(end);
+                channel.force(false);
+            }
+            written = end;
+            synced = end;
+        } else {
+            // No journal yet, or one from before the last snapshot was written
+            createJournal(generation);
+        }
+        MetricsRegistry.getDefault().operation("DatabaseHandler.recover").record(System.nanoTime() - start);
+    }
+
+    /** Loads the snapshot into the store. @return its generation */
+    private long readSnapshot() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(snapshotFile.toPath()), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a store snapshot: " + snapshotFile);
+            }
+            long snapshotGeneration = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] body = readRecord(in);
+                if (body == null || body[0] != OP_SAVE) {
+                    throw new IOException("Snapshot " + snapshotFile + " is damaged at record " + i);
+                }
+                T entity = codec.read(new DataInputStream(new ByteArrayInputStream(body, 5, body.length - 5)));
+                store.put(idAccessor.getId(entity), entity);
+            }
+            return snapshotGeneration;
+        } catch (EOFException e) {
+            throw new IOException("Snapshot " + snapshotFile + " is truncated", e);
+        }
+    }
+
+    private long readJournalGeneration() throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(journalFile.toPath()))) {
+            if (in.readInt() != JOURNAL_MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a store journal: " + journalFile);
+            }
+            return in.readLong();
+        } catch (EOFException e) {
+            // Crashed while the header was written, before any record could follow it
+            return -1;
+        }
+    }
+
+    /** Applies journal records in order. @return the offset just past the last intact record */
+    private long replayJournal() throws IOException {
+        long end = JOURNAL_HEADER_BYTES;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(journalFile.toPath()), 1 << 16))) {
+            in.skipNBytes(JOURNAL_HEADER_BYTES);
+            byte[] body;
+            while ((body = readRecord(in)) != null) {
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                byte op = record.readByte();
+                int id = record.readInt();
+                if (op == OP_SAVE) {
+                    store.put(id, codec.read(record));
+                } else if (op == OP_DELETE) {
+                    store.remove(id);
+                } else {
+                    break;
+                }
+                end += RECORD_PREFIX_BYTES + body.length;
+            }
+        }
+        return end;
+    }
+
+    /** @return the record body, or null at end of input or at a torn or corrupt record */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        int crc;
+        try {
+            length = in.readInt();
+            crc = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 5 || length > MAX_RECORD_BYTES) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        if (in.readNBytes(body, 0, length) < length) {
+            return null;
+        }
+        CRC32C check = new CRC32C();
+        check.update(body);
+        return (int) check.getValue() == crc ? body : null;
+    }
+
+    /** Writes the whole store as generation next, atomically replacing the old snapshot. @return its size */
+    private long writeSnapshot(long next) throws IOException {
+        File part = new File(snapshotFile.getPath() + ".part");
+        try (RandomAccessFile raf = new RandomAccessFile(part, "rw"); FileChannel out = raf.getChannel()) {
+            raf.setLength(0);
+            List<T> entities = new ArrayList<>(store.values());
+            ByteBuffer header = ByteBuffer.allocate(20);
+            header.putInt(SNAPSHOT_MAGIC).putInt(FORMAT_VERSION).putLong(next).putInt(entities.size()).flip();
+            out.write(header);
+            ByteBuffer batch = ByteBuffer.allocate(1 << 16);
+            for (T entity : entities) {
+                encodeBuffer.reset();
+                encoder.writeByte(OP_SAVE);
+                encoder.writeInt(idAccessor.getId(entity));
+                codec.write(entity, encoder);
+                if (batch.remaining() < RECORD_PREFIX_BYTES + encodeBuffer.size()) {
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        out.write(batch);
+                    }
+                    batch.clear();
+                }
+                batch = appendRecord(batch, encodeBuffer);
+            }
+            batch.flip();
+            while (batch.hasRemaining()) {
+                out.write(batch);
+            }
+            out.force(true);
+        }
+        Files.move(part.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return snapshotFile.length();
+    }
+
+    /** Replaces the journal with an empty one of the given generation and opens it for appending. */
+    private void createJournal(long journalGeneration) throws IOException {
+        File part = new File(journalFile.getPath() + ".part");
+        try (RandomAccessFile raf = new RandomAccessFile(part, "rw"); FileChannel out = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_BYTES);
+            header.putInt(JOURNAL_MAGIC).putInt(FORMAT_VERSION).putLong(journalGeneration).flip();
+            out.write(header);
+            out.force(true);
+        }
+        Files.move(part.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE);
+        generation = journalGeneration;
+        written = JOURNAL_HEADER_BYTES;
+        synced = JOURNAL_HEADER_BYTES;
+    }
+
+    private static void writeNullable(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
     }
 }
@@ -0,0 +1,100 @@
+package library;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Starts and stops an in-app Java Flight Recording.
+ * Settings are the JDK "default" profile plus /jfr/library.jfc, so recordings carry the
+ * library's circulation and SQL events next to the usual CPU, GC and lock data.
+ * Files go to a "recordings" folder next to library.db.
+ */
+public final class FlightRecording {
+
+    private static final String PROFILE_RESOURCE = "/jfr/library.jfc";
+    private static final DateTimeFormatter STAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private static Recording recording;
+    private static File destination;
+
+    private FlightRecording() {}
+
+    public static synchronized boolean isRecording() {
+        return recording != null;
+    }
+
+    /**
+     * Starts a recording; does nothing if one is already running.
+     * @return the file the recording will be written to when stopped
+     */
+    public static synchronized File start() throws IOException {
+        if (recording != null) {
+            return destination;
+        }
+        File dir = new File(SQLiteConnectionManager.getDatabaseDirectory(), "recordings");
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File file = new File(dir, "library-" + LocalDateTime.now().format(STAMP_FORMATTER) + ".jfr");
+
+        Recording r = new Recording(loadSettings());
+        r.setName("Library");
+        r.setToDisk(true);
+        r.setDestination(file.toPath());
+        r.start();
+        recording = r;
+        destination = file;
+        return file;
+    }
+
+    /**
+     * Stops the running recording and writes it out.
+     * @return the .jfr file, or null if nothing was recording
+     */
+    public static synchronized File stop() {
+        if (recording == null) {
+            return null;
+        }
+        File file = destination;
+        try {
+            recording.stop(); // dumps to the destination
+        } finally {
+            recording.close();
+            recording = null;
+            destination = null;
+        }
+        return file;
+    }
+
+    /** JDK default settings with the library profile layered on top. */
+    static Map<String, String> loadSettings() throws IOException {
+        Map<String, String> settings = new HashMap<>();
+        try {
+            settings.putAll(Configuration.getConfiguration("default").getSettings());
+        } catch (ParseException e) {
+            System.err.println("Error reading JFR default profile: " + e.getMessage());
+        }
+        try (InputStream in = FlightRecording.class.getResourceAsStream(PROFILE_RESOURCE)) {
+            if (in == null) {
+                throw new IOException("JFR profile not found: " + PROFILE_RESOURCE);
+            }
+            Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+            settings.putAll(Configuration.create(reader).getSettings());
+        } catch (ParseException e) {
+            throw new IOException("Invalid JFR profile " + PROFILE_RESOURCE + ": " + e.getMessage(), e);
+        }
+        return settings;
+    }
+}
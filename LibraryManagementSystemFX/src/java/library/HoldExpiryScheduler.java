@@ -0,0 +1,44 @@
+package library;
+
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expires holds that were not collected in time, on a background thread.
+ * Each run passes the copies kept for them to the next hold or back to the shelf
+ * (see LibraryService.expireHolds).
+ */
+public class HoldExpiryScheduler {
+
+    private final LibraryService libraryService;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "library-hold-expiry");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    public HoldExpiryScheduler(LibraryService libraryService) {
+        this.libraryService = libraryService;
+    }
+
+    /** Checks every interval, the first check right away (holds may have lapsed while closed). */
+    public void scheduleExpiry(long interval, TimeUnit unit) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                long start = System.nanoTime();
+                libraryService.expireHolds(LocalDate.now());
+                MetricsRegistry.getDefault().operation("HoldExpiryScheduler.run").record(System.nanoTime() - start);
+            } catch (Exception e) {
+                System.err.println("Error expiring holds: " + e.getMessage());
+                MetricsRegistry.getDefault().recordError("HoldExpiryScheduler.run", e);
+            }
+        }, 0, interval, unit);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
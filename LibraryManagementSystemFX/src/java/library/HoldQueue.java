@@ -0,0 +1,377 @@
+package library;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Reservations for books that are out: one queue of waiting holds per book, priority holds
+ * first and then first come, first served.
+ * The holds table is the record (one row per hold, its status moving Waiting → Ready →
+ * Fulfilled, or to Cancelled / Expired); the open holds are also kept in memory, a priority
+ * heap per book id, so promoting the next hold when a copy comes back is a peek and an
+ * O(log n) removal rather than a query. Writes run on the current connection, i.e. inside
+ * the caller's UnitOfWork, and the in-memory queues only follow once it commits (or are
+ * put back if it rolls back).
+ */
+public class HoldQueue {
+
+    /** Hold states, stored by name so the table reads on its own. */
+    public enum Status {
+        WAITING("Waiting"),
+        READY("Ready"),
+        FULFILLED("Fulfilled"),
+        CANCELLED("Cancelled"),
+        EXPIRED("Expired");
+
+        private final String code;
+
+        Status(String code) {
+            this.code = code;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        static Status fromCode(String code) {
+            for (Status status : values()) {
+                if (status.code.equals(code)) {
+                    return status;
+                }
+            }
+            throw new IllegalArgumentException("Unknown hold status: " + code);
+        }
+    }
+
+    /** One member's hold on one book. Status and pickup date change as the hold moves on. */
+    public static final class Hold {
+        private final long id;
+        private final int bookId;
+        private final int memberId;
+        private final boolean priority;
+        private final long position;
+        private final LocalDate placedOn;
+        private volatile Status status;
+        private volatile LocalDate readyUntil;
+
+        Hold(long id, int bookId, int memberId, boolean priority, long position, LocalDate placedOn,
+             Status status, LocalDate readyUntil) {
+            this.id = id;
+            this.bookId = bookId;
+            this.memberId = memberId;
+            this.priority = priority;
+            this.position = position;
+            this.placedOn = placedOn;
+            this.status = status;
+            this.readyUntil = readyUntil;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public int getBookId() {
+            return bookId;
+        }
+
+        public int getMemberId() {
+            return memberId;
+        }
+
+        /** Staff-placed holds (e.g. course reserves) go ahead of ordinary ones. */
+        public boolean isPriority() {
+            return priority;
+        }
+
+        /** Place in line across all books; lower was placed earlier. */
+        public long getPosition() {
+            return position;
+        }
+
+        public LocalDate getPlacedOn() {
+            return placedOn;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /** Last day the book waits on the hold shelf; null unless Ready. */
+        public LocalDate getReadyUntil() {
+            return readyUntil;
+        }
+
+        @Override
+        public String toString() {
+            return "Hold #" + id + " book " + bookId + " member " + memberId + " " + status.getCode()
+                    + (readyUntil != null ? " until " + readyUntil : "");
+        }
+    }
+
+    /** Days a book waits on the hold shelf before it goes to the next hold. */
+    public static final int PICKUP_DAYS = 3;
+
+    private static final Comparator<Hold> QUEUE_ORDER =
+            Comparator.comparing((Hold hold) -> !hold.priority).thenComparingLong(hold -> hold.position);
+
+    private static final String COLUMNS = "id, book_id, member_id, priority, position, placed_on, status, ready_until";
+    static final String INSERT_SQL = "INSERT INTO holds (book_id, member_id, priority, position, placed_on, status) VALUES (?, ?, ?, ?, ?, 'Waiting')";
+    static final String PROMOTE_SQL = "UPDATE holds SET status = 'Ready', ready_until = ? WHERE id = ? AND status = 'Waiting'";
+    static final String TRANSITION_SQL = "UPDATE holds SET status = ? WHERE id = ? AND status = ?";
+    static final String MEMBER_HOLDS_SQL = "SELECT " + COLUMNS + " FROM holds WHERE member_id = ? ORDER BY id";
+    private static final String OPEN_HOLDS_SQL = "SELECT " + COLUMNS + " FROM holds WHERE status IN ('Waiting', 'Ready')";
+
+    private final Map<Integer, PriorityBlockingQueue<Hold>> waiting = new ConcurrentHashMap<>();
+    private final Map<Long, Hold> ready = new ConcurrentHashMap<>();
+    /** book id &lt;&lt; 32 | member id for every Waiting or Ready hold: one open hold per member and book. */
+    private final Set<Long> open = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<Hold>> readyListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong lastPosition = new AtomicLong();
+    private volatile boolean loaded;
+
+    /** Called with each hold that becomes ready for pickup, after the change has committed. */
+    public void addReadyListener(Consumer<Hold> listener) {
+        readyListeners.add(listener);
+    }
+
+    /**
+     * Adds a Waiting hold at the back of the book's queue (or behind the other priority holds).
+     * @throws IllegalStateException if the member already has an open hold on the book
+     */
+    public Hold place(int memberId, int bookId, boolean priority) throws SQLException {
+        ensureLoaded();
+        long key = key(bookId, memberId);
+        if (!open.add(key)) {
+            throw new IllegalStateException("Member already has a hold on this book.");
+        }
+        try {
+            long position = lastPosition.incrementAndGet();
+            LocalDate today = LocalDate.now();
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(INSERT_SQL)) {
+                pstmt.setInt(1, bookId);
+                pstmt.setInt(2, memberId);
+                pstmt.setInt(3, priority ? 1 : 0);
+                pstmt.setLong(4, position);
+                pstmt.setString(5, today.toString());
+                pstmt.executeUpdate();
+            }
+            long id;
+            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+                id = rs.next() ? rs.getLong(1) : -1;
+            }
+            Hold hold = new Hold(id, bookId, memberId, priority, position, today, Status.WAITING, null);
+            UnitOfWork.afterCommit(() -> queue(bookId).add(hold));
+            UnitOfWork.onRollback(() -> open.remove(key));
+            return hold;
+        } catch (SQLException | RuntimeException e) {
+            open.remove(key);
+            throw e;
+        }
+    }
+
+    /**
+     * Moves the first Waiting hold on the book to Ready, holding the book for PICKUP_DAYS
+     * from today. The caller keeps the copy off the shelf for it.
+     * @return the promoted hold, or null if nobody is waiting
+     */
+    public Hold promoteNext(int bookId, LocalDate today) throws SQLException {
+        ensureLoaded();
+        PriorityBlockingQueue<Hold> queue = waiting.get(bookId);
+        if (queue == null) {
+            return null;
+        }
+        LocalDate until = today.plusDays(PICKUP_DAYS);
+        Connection conn = SQLiteConnectionManager.getConnection();
+        Hold head;
+        while ((head = queue.peek()) != null) {
+            int updated;
+            try (PreparedStatement pstmt = conn.prepareStatement(PROMOTE_SQL)) {
+                pstmt.setString(1, until.toString());
+                pstmt.setLong(2, head.id);
+                updated = pstmt.executeUpdate();
+            }
+            if (updated == 1) {
+                Hold promoted = head;
+                UnitOfWork.afterCommit(() -> {
+                    // The head of a heap is removed in O(log n)
+                    queue.remove(promoted);
+                    promoted.readyUntil = until;
+                    promoted.status = Status.READY;
+                    ready.put(promoted.id, promoted);
+                    readyListeners.forEach(listener -> listener.accept(promoted));
+                });
+                return promoted;
+            }
+            // Another desk promoted or cancelled it, or this unit already promoted it: look past
+            // it, and put it back if the unit rolls back and it turns out to be Waiting after all
+            Hold stale = head;
+            queue.remove(stale);
+            UnitOfWork.onRollback(() -> queue.add(stale));
+        }
+        return null;
+    }
+
+    /** The member's Ready hold on the book, or null. */
+    public Hold readyFor(int memberId, int bookId) {
+        ensureLoaded();
+        if (!open.contains(key(bookId, memberId))) {
+            return null;
+        }
+        for (Hold hold : ready.values()) {
+            if (hold.bookId == bookId && hold.memberId == memberId) {
+                return hold;
+            }
+        }
+        return null;
+    }
+
+    /** Ready holds whose last pickup day is before today. */
+    public List<Hold> expiredBy(LocalDate today) {
+        ensureLoaded();
+        List<Hold> expired = new ArrayList<>();
+        for (Hold hold : ready.values()) {
+            if (hold.readyUntil.isBefore(today)) {
+                expired.add(hold);
+            }
+        }
+        return expired;
+    }
+
+    /** Ready → Fulfilled when the member borrows the book. @return false if it was no longer Ready */
+    public boolean fulfil(Hold hold) throws SQLException {
+        return close(hold, Status.READY, Status.FULFILLED);
+    }
+
+    /** Ready → Expired once the pickup days have passed. @return false if it was no longer Ready */
+    public boolean expire(Hold hold) throws SQLException {
+        return close(hold, Status.READY, Status.EXPIRED);
+    }
+
+    /**
+     * Cancels a Waiting or Ready hold. Removing a Waiting hold from the middle of its queue
+     * is O(n) in the queue length; cancellations are rare next to promotions.
+     * @return false if it was already closed
+     */
+    public boolean cancel(Hold hold) throws SQLException {
+        Status from = hold.status;
+        return (from == Status.WAITING || from == Status.READY) && close(hold, from, Status.CANCELLED);
+    }
+
+    /** Holds waiting on the book, not counting the one on the hold shelf. */
+    public int waitingCount(int bookId) {
+        ensureLoaded();
+        PriorityBlockingQueue<Hold> queue = waiting.get(bookId);
+        return queue != null ? queue.size() : 0;
+    }
+
+    /** A member's holds in every state, oldest first. */
+    public List<Hold> holdsForMember(int memberId) {
+        List<Hold> holds = new ArrayList<>();
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(MEMBER_HOLDS_SQL)) {
+                pstmt.setInt(1, memberId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        holds.add(mapHold(rs));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading holds: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("HoldQueue.holdsForMember", e);
+        }
+        return holds;
+    }
+
+    private boolean close(Hold hold, Status from, Status to) throws SQLException {
+        ensureLoaded();
+        Connection conn = SQLiteConnectionManager.getConnection();
+        try (PreparedStatement pstmt = conn.prepareStatement(TRANSITION_SQL)) {
+            pstmt.setString(1, to.getCode());
+            pstmt.setLong(2, hold.id);
+            pstmt.setString(3, from.getCode());
+            if (pstmt.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        UnitOfWork.afterCommit(() -> {
+            hold.status = to;
+            if (from == Status.WAITING) {
+                PriorityBlockingQueue<Hold> queue = waiting.get(hold.bookId);
+                if (queue != null) {
+                    queue.remove(hold);
+                }
+            } else {
+                ready.remove(hold.id);
+            }
+            open.remove(key(hold.bookId, hold.memberId));
+        });
+        return true;
+    }
+
+    /** Reads the open holds into memory on first use. */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            try {
+                Connection conn = SQLiteConnectionManager.getConnection();
+                try (Statement stmt = conn.createStatement()) {
+                    try (ResultSet rs = stmt.executeQuery(OPEN_HOLDS_SQL)) {
+                        while (rs.next()) {
+                            Hold hold = mapHold(rs);
+                            open.add(key(hold.bookId, hold.memberId));
+                            if (hold.status == Status.READY) {
+                                ready.put(hold.id, hold);
+                            } else {
+                                queue(hold.bookId).add(hold);
+                            }
+                        }
+                    }
+                    try (ResultSet rs = stmt.executeQuery("SELECT MAX(position) FROM holds")) {
+                        lastPosition.set(rs.next() ? rs.getLong(1) : 0);
+                    }
+                }
+                loaded = true;
+            } catch (SQLException e) {
+                System.err.println("Error loading holds: " + e.getMessage());
+                MetricsRegistry.getDefault().recordError("HoldQueue.load", e);
+            }
+        }
+    }
+
+    private PriorityBlockingQueue<Hold> queue(int bookId) {
+        return waiting.computeIfAbsent(bookId, id -> new PriorityBlockingQueue<>(11, QUEUE_ORDER));
+    }
+
+    private static Hold mapHold(ResultSet rs) throws SQLException {
+        String readyUntil = rs.getString(8);
+        return new Hold(rs.getLong(1), rs.getInt(2), rs.getInt(3), rs.getInt(4) != 0, rs.getLong(5),
+                LocalDate.parse(rs.getString(6)), Status.fromCode(rs.getString(7)),
+                readyUntil != null ? LocalDate.parse(readyUntil) : null);
+    }
+
+    private static long key(int bookId, int memberId) {
+        return (long) bookId << 32 | (memberId & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,171 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks a one-copy book through its hold queue: priority before first come, a return
+ * promotes the next hold and keeps the copy for it, only that member can borrow it, expiry
+ * and cancellation pass it on, a rolled-back unit leaves the queue as it was, and the queue
+ * reloads from the table in the same order.
+ * Ends with a best-seller queue of a few thousand holds. Runs against a throwaway
+ * database; exits with status 1 on the first failed check.
+ */
+public class HoldQueueTest {
+
+    private static final int BEST_SELLER_HOLDS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-holds-");
+        try {
+            MemberRepository members = new MemberRepository(new SQLiteMemberHandler());
+            BookRepository books = new BookRepository(new SQLiteBookHandler());
+            LibraryService service = new LibraryService(members, books);
+            HoldQueue holds = service.getHoldQueue();
+            List<HoldQueue.Hold> announced = new ArrayList<>();
+            holds.addReadyListener(announced::add);
+
+            Member ann = new Member(1, "Ann", "pw");
+            Member bob = new Member(2, "Bob", "pw");
+            Member cat = new Member(3, "Cat", "pw");
+            Member dan = new Member(4, "Dan", "pw");
+            for (Member member : List.of(ann, bob, cat, dan)) {
+                service.registerMember(member);
+            }
+            Book dune = new Book(1, "Dune", "Frank Herbert");
+            service.addBook(dune);
+
+            check("no hold while a copy is on the shelf", throwsIllegalState(() -> service.placeHold(bob, dune, false)));
+            service.borrowBook(ann, dune, LocalDate.now().plusDays(14));
+            HoldQueue.Hold bobs = service.placeHold(bob, dune, false);
+            HoldQueue.Hold cats = service.placeHold(cat, dune, false);
+            HoldQueue.Hold dans = service.placeHold(dan, dune, true);
+            check("one open hold per member and book", throwsIllegalState(() -> service.placeHold(bob, dune, false)));
+            check("three waiting", holds.waitingCount(1) == 3);
+
+            service.returnBook(ann, dune);
+            check("priority hold promoted first", dans.getStatus() == HoldQueue.Status.READY
+                    && dans.getReadyUntil().equals(LocalDate.now().plusDays(HoldQueue.PICKUP_DAYS)));
+            check("ready event sent once", announced.size() == 1 && announced.get(0) == dans);
+            check("copy kept off the shelf", !find(books, 1).isAvailable() && !dune.isAvailable());
+            check("others cannot take the held copy",
+                    service.tryBorrowBook(ann, dune, LocalDate.now().plusDays(14)).getStatus() == CheckoutResult.Status.UNAVAILABLE);
+            check("holder collects it", service.tryBorrowBook(dan, dune, LocalDate.now().plusDays(14)).getStatus()
+                    == CheckoutResult.Status.BORROWED && dans.getStatus() == HoldQueue.Status.FULFILLED);
+
+            service.returnBook(dan, dune);
+            check("then first come, first served", bobs.getStatus() == HoldQueue.Status.READY && holds.waitingCount(1) == 1);
+            check("nothing expires early", service.expireHolds(LocalDate.now().plusDays(HoldQueue.PICKUP_DAYS)) == 0);
+            check("expiry passes the copy on", service.expireHolds(LocalDate.now().plusDays(HoldQueue.PICKUP_DAYS + 1)) == 1
+                    && bobs.getStatus() == HoldQueue.Status.EXPIRED && cats.getStatus() == HoldQueue.Status.READY);
+
+            HoldQueue reloaded = new HoldQueue();
+            check("reload finds the ready hold", reloaded.readyFor(3, 1) != null && reloaded.waitingCount(1) == 0);
+            service.cancelHold(cats);
+            check("cancelling the last hold shelves the copy", find(books, 1).isAvailable()
+                    && cats.getStatus() == HoldQueue.Status.CANCELLED);
+            check("member history", holds.holdsForMember(2).size() == 1
+                    && holds.holdsForMember(2).get(0).getStatus() == HoldQueue.Status.EXPIRED);
+
+            checkRollback(service, holds);
+            checkBestSeller(service, holds, books);
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("hold queue");
+    }
+
+    /** A unit that rolls back leaves the in-memory queues as the table has them. */
+    private static void checkRollback(LibraryService service, HoldQueue holds) throws Exception {
+        Book atlas = new Book(3, "Atlas", "Nobody");
+        atlas.setAvailable(false);
+        service.addBook(atlas);
+        try {
+            UnitOfWork.execute(() -> {
+                holds.place(1, 3, false);
+                throw new SQLException("abandoned");
+            });
+        } catch (SQLException expected) {
+            // the unit rolled back
+        }
+        holds.place(1, 3, false);
+        holds.place(2, 3, false);
+        holds.place(3, 3, false);
+        check("a rolled-back hold does not block a new one", holds.waitingCount(3) == 3);
+
+        UnitOfWork.Action promoteTwo = () -> {
+            holds.promoteNext(3, LocalDate.now());
+            holds.promoteNext(3, LocalDate.now());
+        };
+        try {
+            UnitOfWork.execute(() -> {
+                promoteTwo.run();
+                throw new SQLException("abandoned");
+            });
+        } catch (SQLException expected) {
+            // the unit rolled back
+        }
+        check("rolled-back promotions keep every hold waiting", holds.waitingCount(3) == 3);
+        UnitOfWork.execute(promoteTwo);
+        check("committed promotions leave one waiting", holds.waitingCount(3) == 1
+                && holds.readyFor(1, 3) != null && holds.readyFor(2, 3) != null);
+    }
+
+    /** Thousands of holds on one title: placement and promotion stay cheap, order survives a reload. */
+    private static void checkBestSeller(LibraryService service, HoldQueue holds, BookRepository books) throws Exception {
+        Book hit = new Book(2, "Best Seller", "Popular Author");
+        hit.setAvailable(false);
+        service.addBook(hit);
+        long start = System.nanoTime();
+        UnitOfWork.execute(() -> {
+            for (int member = 1; member <= BEST_SELLER_HOLDS; member++) {
+                holds.place(1000 + member, 2, member % 100 == 0);
+            }
+        });
+        long placed = System.nanoTime() - start;
+
+        HoldQueue reloaded = new HoldQueue();
+        start = System.nanoTime();
+        List<Integer> order = new ArrayList<>();
+        UnitOfWork.execute(() -> {
+            HoldQueue.Hold next;
+            while ((next = reloaded.promoteNext(2, LocalDate.now())) != null) {
+                order.add(next.getMemberId());
+            }
+        });
+        long promoted = System.nanoTime() - start;
+        System.out.printf("      %d holds placed in %.1f ms, all promoted in %.1f ms%n",
+                BEST_SELLER_HOLDS, placed / 1e6, promoted / 1e6);
+
+        boolean inOrder = order.size() == BEST_SELLER_HOLDS;
+        int priorityHolds = BEST_SELLER_HOLDS / 100;
+        for (int i = 1; inOrder && i < order.size(); i++) {
+            int previous = order.get(i - 1) - 1000;
+            int current = order.get(i) - 1000;
+            boolean bothPriority = i < priorityHolds;
+            boolean crossing = i == priorityHolds;
+            inOrder = crossing ? previous % 100 == 0 && current % 100 != 0
+                    : previous < current && (bothPriority == (current % 100 == 0));
+        }
+        check("reloaded queue promotes priority holds, then the rest in order", inOrder);
+    }
+
+    private static Book find(BookRepository books, int id) {
+        return books.findById(id);
+    }
+
+    private static boolean throwsIllegalState(Runnable action) {
+        try {
+            action.run();
+            return false;
+        } catch (IllegalStateException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package library;
+
+import java.util.List;
+
+/**
+ * Timing decorator for any DataHandler.
+ * Records calls, errors and latency per method into a MetricsRegistry,
+ * named after the wrapped handler (e.g. "SQLiteBookHandler.saveData").
+ */
+public class InstrumentedDataHandler<T> implements DataHandler<T> {
+
+    private final DataHandler<T> delegate;
+    private final OperationMetrics saveMetrics;
+    private final OperationMetrics readMetrics;
+    private final OperationMetrics deleteMetrics;
+    private final OperationMetrics readPageMetrics;
+
+    public InstrumentedDataHandler(DataHandler<T> delegate, MetricsRegistry registry) {
+        this.delegate = delegate;
+        String prefix = delegate.getClass().getSimpleName() + ".";
+        this.saveMetrics = registry.operation(prefix + "saveData");
+        this.readMetrics = registry.operation(prefix + "readData");
+        this.deleteMetrics = registry.operation(prefix + "deleteData");
+        this.readPageMetrics = registry.operation(prefix + "readPage");
+    }
+
+    @Override
+    public void saveData(List<T> data) {
+        long start = System.nanoTime();
+        try {
+            delegate.saveData(data);
+            saveMetrics.record(System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            saveMetrics.recordError(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<T> readData() {
+        long start = System.nanoTime();
+        try {
+            List<T> result = delegate.readData();
+            readMetrics.record(System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            readMetrics.recordError(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<T> readPage(int offset, int limit) {
+        long start = System.nanoTime();
+        try {
+            List<T> result = delegate.readPage(offset, limit);
+            readPageMetrics.record(System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            readPageMetrics.recordError(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <X> X unwrap(Class<X> capability) {
+        return capability.isInstance(this) ? capability.cast(this) : delegate.unwrap(capability);
+    }
+
+    @Override
+    public void deleteData(int id) {
+        long start = System.nanoTime();
+        try {
+            delegate.deleteData(id);
+            deleteMetrics.record(System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            deleteMetrics.recordError(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+}
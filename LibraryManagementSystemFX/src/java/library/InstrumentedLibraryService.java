@@ -0,0 +1,180 @@
+package library;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Timing decorator for LibraryService.
+ * Every operation records calls, errors and latency ("LibraryService.borrowBook", ...).
+ * Business rules stay in LibraryService; this class only measures.
+ */
+public class InstrumentedLibraryService extends LibraryService {
+
+    private final OperationMetrics registerMember;
+    private final OperationMetrics addBook;
+    private final OperationMetrics updateBook;
+    private final OperationMetrics addCopies;
+    private final OperationMetrics removeBook;
+    private final OperationMetrics removeMember;
+    private final OperationMetrics borrowBook;
+    private final OperationMetrics calculateFine;
+    private final OperationMetrics updateMemberFines;
+    private final OperationMetrics returnBook;
+    private final OperationMetrics clearFine;
+    private final OperationMetrics payFine;
+    private final OperationMetrics placeHold;
+    private final OperationMetrics cancelHold;
+    private final OperationMetrics expireHolds;
+    private final OperationMetrics getAllBooks;
+    private final OperationMetrics getAllMembers;
+    private final OperationMetrics getBooksPage;
+    private final OperationMetrics getMembersPage;
+    private final OperationMetrics getReport;
+
+    public InstrumentedLibraryService(MemberRepository memberRepository,
+                                      BookRepository bookRepository,
+                                      MetricsRegistry registry) {
+        super(memberRepository, bookRepository);
+        this.registerMember = registry.operation("LibraryService.registerMember");
+        this.addBook = registry.operation("LibraryService.addBook");
+        this.updateBook = registry.operation("LibraryService.updateBook");
+        this.addCopies = registry.operation("LibraryService.addCopies");
+        this.removeBook = registry.operation("LibraryService.removeBook");
+        this.removeMember = registry.operation("LibraryService.removeMember");
+        this.borrowBook = registry.operation("LibraryService.borrowBook");
+        this.calculateFine = registry.operation("LibraryService.calculateFine");
+        this.updateMemberFines = registry.operation("LibraryService.updateMemberFines");
+        this.returnBook = registry.operation("LibraryService.returnBook");
+        this.clearFine = registry.operation("LibraryService.clearFine");
+        this.payFine = registry.operation("LibraryService.payFine");
+        this.placeHold = registry.operation("LibraryService.placeHold");
+        this.cancelHold = registry.operation("LibraryService.cancelHold");
+        this.expireHolds = registry.operation("LibraryService.expireHolds");
+        this.getAllBooks = registry.operation("LibraryService.getAllBooks");
+        this.getAllMembers = registry.operation("LibraryService.getAllMembers");
+        this.getBooksPage = registry.operation("LibraryService.getBooksPage");
+        this.getMembersPage = registry.operation("LibraryService.getMembersPage");
+        this.getReport = registry.operation("LibraryService.getReport");
+    }
+
+    private static <R> R time(OperationMetrics metrics, Supplier<R> operation) {
+        long start = System.nanoTime();
+        try {
+            R result = operation.get();
+            metrics.record(System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            metrics.recordError(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    private static void time(OperationMetrics metrics, Runnable operation) {
+        time(metrics, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    @Override
+    public void registerMember(Member member) {
+        time(registerMember, () -> super.registerMember(member));
+    }
+
+    @Override
+    public void addBook(Book book) {
+        time(addBook, () -> super.addBook(book));
+    }
+
+    @Override
+    public void updateBook(Book book) {
+        time(updateBook, () -> super.updateBook(book));
+    }
+
+    @Override
+    public void addCopies(Book book, List<String> barcodes) {
+        time(addCopies, () -> super.addCopies(book, barcodes));
+    }
+
+    @Override
+    public void removeBook(Book book) {
+        time(removeBook, () -> super.removeBook(book));
+    }
+
+    @Override
+    public void removeMember(Member member) {
+        time(removeMember, () -> super.removeMember(member));
+    }
+
+    /** borrowBook goes through here too, so every checkout is timed once. */
+    @Override
+    public CheckoutResult tryBorrowBook(Member member, Book book, LocalDate dueDate) {
+        return time(borrowBook, () -> super.tryBorrowBook(member, book, dueDate));
+    }
+
+    @Override
+    public double calculateFine(BorrowedBook borrowedBook) {
+        return time(calculateFine, () -> super.calculateFine(borrowedBook));
+    }
+
+    @Override
+    public void updateMemberFines(Member member) {
+        time(updateMemberFines, () -> super.updateMemberFines(member));
+    }
+
+    @Override
+    public void returnBook(Member member, BorrowedBook borrowedBook) {
+        time(returnBook, () -> super.returnBook(member, borrowedBook));
+    }
+
+    @Override
+    public void clearFine(Member member) {
+        time(clearFine, () -> super.clearFine(member));
+    }
+
+    @Override
+    public void payFine(Member member, double amount) {
+        time(payFine, () -> super.payFine(member, amount));
+    }
+
+    @Override
+    public HoldQueue.Hold placeHold(Member member, Book book, boolean priority) {
+        return time(placeHold, () -> super.placeHold(member, book, priority));
+    }
+
+    @Override
+    public void cancelHold(HoldQueue.Hold hold) {
+        time(cancelHold, () -> super.cancelHold(hold));
+    }
+
+    @Override
+    public int expireHolds(LocalDate today) {
+        return time(expireHolds, () -> super.expireHolds(today));
+    }
+
+    @Override
+    public List<Book> getAllBooks() {
+        return time(getAllBooks, super::getAllBooks);
+    }
+
+    @Override
+    public List<Member> getAllMembers() {
+        return time(getAllMembers, super::getAllMembers);
+    }
+
+    @Override
+    public List<Book> getBooksPage(int offset, int limit) {
+        return time(getBooksPage, () -> super.getBooksPage(offset, limit));
+    }
+
+    @Override
+    public List<Member> getMembersPage(int offset, int limit) {
+        return time(getMembersPage, () -> super.getMembersPage(offset, limit));
+    }
+
+    @Override
+    public LibraryReport getReport() {
+        return time(getReport, super::getReport);
+    }
+}
@@ -0,0 +1,115 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exercises the journal behind a durable DatabaseHandler: saves and deletes survive a
+ * reopen, a torn tail is dropped, compaction keeps the data and shrinks the journal, and
+ * concurrent writers share fsyncs. Works in a temp directory; exits with status 1 on the
+ * first failed check.
+ */
+public class JournalStoreTest {
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("library-journal-").toFile();
+        File base = new File(dir, "books");
+        File journal = new File(dir, "books.journal");
+        try {
+            DatabaseHandler<Book> store = open(base);
+            Book dune = new Book(1, "Dune", "Frank Herbert");
+            dune.setCoverPath("covers/dune.png");
+            Book emma = new Book(2, "Emma", "Jane Austen");
+            emma.setAvailable(false);
+            store.saveData(List.of(dune, emma, new Book(3, "Ænéid", "Virgil")));
+            store.deleteData(3);
+            store.close();
+
+            store = open(base);
+            check("saves and deletes survive a reopen", store.readData().size() == 2);
+            Book reloaded = find(store, 2);
+            check("fields survive", reloaded != null && reloaded.getTitle().equals("Emma") && !reloaded.isAvailable()
+                    && "covers/dune.png".equals(find(store, 1).getCoverPath()));
+            store.close();
+
+            long intact = journal.length();
+            try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+                raf.seek(intact);
+                raf.writeInt(64);            // a record header whose body never made it to disk
+                raf.writeInt(0x12345678);
+                raf.write(new byte[10]);
+            }
+            store = open(base);
+            check("torn tail dropped", journal.length() == intact && store.readData().size() == 2);
+            store.saveData(List.of(new Book(4, "Persuasion", "Jane Austen")));
+            store.close();
+            store = open(base);
+            check("appends after the tail was dropped", find(store, 4) != null);
+
+            List<Book> many = new ArrayList<>();
+            for (int id = 100; id < 600; id++) {
+                many.add(new Book(id, "Title " + id, "Author"));
+            }
+            for (int round = 0; round < 5; round++) {
+                store.saveData(many);
+            }
+            store.compact();
+            check("compaction empties the journal", journal.length() == 16);
+            store.deleteData(100);
+            store.close();
+            store = open(base);
+            check("snapshot plus journal after compaction", store.readData().size() == 502 && find(store, 100) == null
+                    && find(store, 599) != null);
+
+            OperationMetrics fsyncs = MetricsRegistry.getDefault().operation("DatabaseHandler.fsync");
+            long before = fsyncs.getCalls();
+            DatabaseHandler<Book> shared = store;
+            int threads = 8;
+            int savesPerThread = 100;
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = 1000 + t * savesPerThread;
+                Thread writer = new Thread(() -> {
+                    for (int id = first; id < first + savesPerThread; id++) {
+                        shared.saveData(List.of(new Book(id, "Concurrent " + id, "Author")));
+                    }
+                });
+                writers.add(writer);
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            long syncs = fsyncs.getCalls() - before;
+            System.out.println("      " + threads * savesPerThread + " concurrent saves, " + syncs + " fsyncs");
+            check("group commit shares fsyncs", syncs < threads * savesPerThread);
+            store.close();
+            store = open(base);
+            check("concurrent saves survive", store.readData().size() == 502 + threads * savesPerThread);
+            store.close();
+        } finally {
+            TestSupport.deleteTree(dir);
+        }
+
+        TestSupport.finish("journal store");
+    }
+
+    private static DatabaseHandler<Book> open(File base) throws IOException {
+        return DatabaseHandler.open(base, Book::getId, DatabaseHandler.BOOK_CODEC);
+    }
+
+    private static Book find(DatabaseHandler<Book> store, int id) {
+        for (Book book : store.readData()) {
+            if (book.getId() == id) {
+                return book;
+            }
+        }
+        return null;
+    }
+}
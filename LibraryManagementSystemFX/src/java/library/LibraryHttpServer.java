@@ -0,0 +1,510 @@
+package library;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless JSON/HTTP front end for LibraryService, so several desks and kiosks can
+ * share one library database. No JavaFX; start with
+ *   java -cp library-app.jar library.LibraryHttpServer --port=8085 [--db=/path/library.db] [--store=journal]
+ * --store=journal keeps books and members in journalled in-memory stores (DatabaseHandler)
+ * beside the database instead of in SQLite; loans are in SQLite either way.
+ * --cdc=DIR ships every change to DIR (see CdcExporter); capture stays installed in the
+ * database until a run with --cdc-off=DIR ships what is left to DIR and removes it.
+ *
+ * Endpoints (all responses are JSON):
+ *   GET  /api/health
+ *   GET  /api/books?q=term&amp;offset=0&amp;limit=50   search by title or author
+ *   GET  /api/books/{id}
+ *   GET  /api/members/{id}                        member with balance and current loans
+ *   GET  /api/report
+ *   POST /api/borrow        {"memberId":1,"bookId":2,"dueDate":"2026-01-31"}  (dueDate optional)
+ *   POST /api/return        {"memberId":1,"bookId":2}
+ *   POST /api/fines/pay     {"memberId":1,"amount":2.5}
+ *   POST /api/fines/update  {"memberId":1}
+ *   POST /api/batch         [{"op":"borrow","memberId":1,"bookId":2}, {"op":"report"}, ...]
+ *
+ * Each request runs on its own virtual thread when the JDK has them (21+), otherwise
+ * on a cached pool. Responses always carry a Content-Length, so HTTP/1.1 clients keep
+ * their connections open between requests.
+ *
+ * Books and members are held in memory, loaded once at start; this server must be the
+ * only writer to the database. Requests do not lock each other out: Book and Member are
+ * thread-safe, and LibraryService locks only the member and book a change touches, so
+ * checkouts for different members run side by side. Lookups, searches and reports read
+ * the service's immutable snapshot, one per request, so a long search never sees a
+ * checkout half applied.
+ */
+public class LibraryHttpServer {
+
+    public static final int DEFAULT_PORT = 8085;
+    /** Loan length when a borrow request has no dueDate. */
+    public static final int DEFAULT_LOAN_DAYS = 14;
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+    private static final long HOLD_EXPIRY_INTERVAL_MINUTES = 15;
+    /** Seconds between shipments of captured changes (--cdc=DIR). */
+    private static final long CDC_SHIP_INTERVAL_SECONDS = 5;
+    /** Seconds between shipments to the standby copy (--standby=PATH). */
+    private static final long STANDBY_SHIP_INTERVAL_SECONDS = 2;
+
+    private final LibraryService libraryService;
+    private final SQLiteBorrowedBookHandler borrowedBookHandler = new SQLiteBorrowedBookHandler();
+    /** The objects changes go through; filled once by start, before requests are served. */
+    private final Map<Integer, Book> books = new HashMap<>();
+    private final Map<Integer, Member> members = new HashMap<>();
+    private final OperationMetrics batchMetrics = MetricsRegistry.getDefault().operation("HTTP batch");
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public LibraryHttpServer(LibraryService libraryService) {
+        this.libraryService = libraryService;
+    }
+
+    /**
+     * Loads the library into memory and starts listening.
+     * @param port port to bind, or 0 for any free port
+     * @return the bound address
+     */
+    public synchronized InetSocketAddress start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Server already started.");
+        }
+        loadState();
+        executor = newRequestExecutor();
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/api/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        return server.getAddress();
+    }
+
+    /** Stops accepting requests, letting in-flight ones finish for up to a second. */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+    }
+
+    /**
+     * One virtual thread per request where available. Looked up reflectively so the
+     * app still builds and runs on JDK 17, where a cached pool does the same job.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "library-http-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /** Reads books, members and the loans still out, and links them up. */
+    private void loadState() {
+        books.clear();
+        members.clear();
+        for (Book book : libraryService.getAllBooks()) {
+            books.put(book.getId(), book);
+        }
+        for (Member member : libraryService.getAllMembers()) {
+            members.put(member.getId(), member);
+        }
+        for (ActiveLoan loan : borrowedBookHandler.loadAllActiveLoans()) {
+            Book book = books.get(loan.getBookId());
+            Member member = members.get(loan.getMemberId());
+            if (book == null || member == null) {
+                continue;
+            }
+            LocalDate dueDate = loan.getDueDate() != null ? loan.getDueDate()
+                    : loan.getBorrowDate().plusDays(DEFAULT_LOAN_DAYS);
+            member.borrowBook(new BorrowedBook(book, loan.getBorrowDate(), dueDate, null));
+        }
+        libraryService.resetSnapshot(books.values(), members.values());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status;
+        Object body;
+        try (InputStream in = exchange.getRequestBody()) {
+            String requestBody = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            body = route(exchange.getRequestMethod(), exchange.getRequestURI(), requestBody);
+            status = 200;
+        } catch (RuntimeException e) {
+            status = statusFor(e);
+            body = errorBody(e);
+        }
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private Object route(String method, URI uri, String requestBody) {
+        String path = uri.getPath();
+        Map<String, String> query = parseQuery(uri.getRawQuery());
+        if (method.equals("GET")) {
+            if (path.equals("/api/health")) {
+                return Map.of("status", "ok");
+            }
+            if (path.equals("/api/report")) {
+                return execute("report", Map.of());
+            }
+            if (path.equals("/api/books")) {
+                return execute("search", new HashMap<>(query));
+            }
+            if (path.startsWith("/api/books/")) {
+                return execute("book", Map.of("id", pathId(path, "/api/books/")));
+            }
+            if (path.startsWith("/api/members/")) {
+                return execute("member", Map.of("id", pathId(path, "/api/members/")));
+            }
+        } else if (method.equals("POST")) {
+            if (path.equals("/api/batch")) {
+                return batch(Json.parse(requestBody));
+            }
+            String op = switch (path) {
+                case "/api/borrow" -> "borrow";
+                case "/api/return" -> "return";
+                case "/api/fines/pay" -> "payFine";
+                case "/api/fines/update" -> "updateFines";
+                default -> null;
+            };
+            if (op != null) {
+                return execute(op, asObject(requestBody.isBlank() ? Map.of() : Json.parse(requestBody)));
+            }
+        }
+        throw new NoSuchElementException("No endpoint " + method + " " + path);
+    }
+
+    /**
+     * Runs a list of operations in order, in one request. A failing entry does not stop
+     * the rest; each result carries its own status.
+     */
+    private List<Object> batch(Object parsed) {
+        if (!(parsed instanceof List<?> operations)) {
+            throw new IllegalArgumentException("Batch body must be a JSON array.");
+        }
+        long start = System.nanoTime();
+        List<Object> results = new ArrayList<>(operations.size());
+        for (Object entry : operations) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            try {
+                Map<String, Object> params = asObject(entry);
+                result.put("status", 200);
+                result.put("body", execute(stringParam(params, "op"), params));
+            } catch (RuntimeException e) {
+                result.put("status", statusFor(e));
+                result.put("body", errorBody(e));
+            }
+            results.add(result);
+        }
+        batchMetrics.record(System.nanoTime() - start);
+        return results;
+    }
+
+    /** One API operation; shared by the single endpoints and batch. */
+    private Object execute(String op, Map<String, ?> params) {
+        return switch (op) {
+            case "search" -> {
+                String term = params.containsKey("q") ? String.valueOf(params.get("q")).toLowerCase(Locale.ROOT) : "";
+                int offset = params.containsKey("offset") ? intParam(params, "offset") : 0;
+                int limit = params.containsKey("limit") ? intParam(params, "limit") : DEFAULT_SEARCH_LIMIT;
+                List<Object> hits = new ArrayList<>();
+                for (LibrarySnapshot.BookView book : libraryService.getSnapshot().searchBooks(term, offset, limit)) {
+                    hits.add(bookJson(book));
+                }
+                yield hits;
+            }
+            case "book" -> {
+                int id = intParam(params, "id");
+                LibrarySnapshot.BookView book = libraryService.getSnapshot().getBook(id);
+                if (book == null) {
+                    throw new NoSuchElementException("Book not found: " + id);
+                }
+                yield bookJson(book);
+            }
+            case "member" -> memberJson(requireMember(intParam(params, "id")).getId());
+            case "report" -> {
+                LibraryReport report = libraryService.getSnapshot().getReport();
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("totalBooks", report.getTotalBooks());
+                json.put("totalMembers", report.getTotalMembers());
+                yield json;
+            }
+            case "borrow" -> {
+                Member member = requireMember(intParam(params, "memberId"));
+                Book book = requireBook(intParam(params, "bookId"));
+                LocalDate dueDate = params.get("dueDate") != null
+                        ? LocalDate.parse(stringParam(params, "dueDate"))
+                        : LocalDate.now().plusDays(DEFAULT_LOAN_DAYS);
+                libraryService.borrowBook(member, book, dueDate);
+                yield memberJson(member.getId());
+            }
+            case "return" -> {
+                Member member = requireMember(intParam(params, "memberId"));
+                libraryService.returnBook(member, requireBook(intParam(params, "bookId")));
+                yield memberJson(member.getId());
+            }
+            case "payFine" -> {
+                Member member = requireMember(intParam(params, "memberId"));
+                libraryService.payFine(member, doubleParam(params, "amount"));
+                yield memberJson(member.getId());
+            }
+            case "updateFines" -> {
+                Member member = requireMember(intParam(params, "memberId"));
+                libraryService.updateMemberFines(member);
+                yield memberJson(member.getId());
+            }
+            default -> throw new IllegalArgumentException("Unknown operation: " + op);
+        };
+    }
+
+    private Book requireBook(int id) {
+        Book book = books.get(id);
+        if (book == null) {
+            throw new NoSuchElementException("Book not found: " + id);
+        }
+        return book;
+    }
+
+    private Member requireMember(int id) {
+        Member member = members.get(id);
+        if (member == null) {
+            throw new NoSuchElementException("Member not found: " + id);
+        }
+        return member;
+    }
+
+    private static Map<String, Object> bookJson(LibrarySnapshot.BookView book) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", book.getId());
+        json.put("title", book.getTitle());
+        json.put("author", book.getAuthor());
+        json.put("available", book.isAvailable());
+        json.put("copies", book.getCopies());
+        json.put("availableCopies", book.getAvailableCopies());
+        return json;
+    }
+
+    /** Member as of the current snapshot, without the password. */
+    private Map<String, Object> memberJson(int memberId) {
+        LibrarySnapshot snapshot = libraryService.getSnapshot();
+        LibrarySnapshot.MemberView member = snapshot.getMember(memberId);
+        if (member == null) {
+            throw new NoSuchElementException("Member not found: " + memberId);
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", member.getId());
+        json.put("name", member.getName());
+        json.put("balance", member.getBalance());
+        List<Object> loans = new ArrayList<>();
+        for (ActiveLoan loan : member.getLoans()) {
+            LibrarySnapshot.BookView book = snapshot.getBook(loan.getBookId());
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("bookId", loan.getBookId());
+            entry.put("title", book != null ? book.getTitle() : "");
+            entry.put("borrowDate", loan.getBorrowDate().toString());
+            entry.put("dueDate", loan.getDueDate().toString());
+            entry.put("overdue", LocalDate.now().isAfter(loan.getDueDate()));
+            loans.add(entry);
+        }
+        json.put("loans", loans);
+        return json;
+    }
+
+    private static int statusFor(RuntimeException e) {
+        if (e instanceof NoSuchElementException) {
+            return 404;
+        }
+        if (e instanceof IllegalStateException) {
+            return 409; // business rule, e.g. book already out or fine outstanding
+        }
+        if (e instanceof IllegalArgumentException || e instanceof java.time.format.DateTimeParseException) {
+            return 400;
+        }
+        System.err.println("Error handling request: " + e);
+        return 500;
+    }
+
+    private static Map<String, Object> errorBody(RuntimeException e) {
+        return Map.of("error", String.valueOf(e.getMessage()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(Object parsed) {
+        if (!(parsed instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object.");
+        }
+        return (Map<String, Object>) parsed;
+    }
+
+    private static int pathId(String path, String prefix) {
+        try {
+            return Integer.parseInt(path.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad id in " + path);
+        }
+    }
+
+    private static String stringParam(Map<String, ?> params, String name) {
+        Object value = params.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return String.valueOf(value);
+    }
+
+    private static int intParam(Map<String, ?> params, String name) {
+        Object value = params.get(name);
+        if (value instanceof Number n) {
+            return n.intValue();
+        }
+        try {
+            return Integer.parseInt(stringParam(params, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + name + ": " + value);
+        }
+    }
+
+    private static double doubleParam(Map<String, ?> params, String name) {
+        Object value = params.get(name);
+        if (value instanceof Number n) {
+            return n.doubleValue();
+        }
+        try {
+            return Double.parseDouble(stringParam(params, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + name + ": " + value);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            query.put(key, value);
+        }
+        return query;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        boolean journal = false;
+        String cdcDir = null;
+        String cdcOffDir = null;
+        String standbyPath = null;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--db=")) {
+                SQLiteConnectionManager.useDatabaseFile(arg.substring("--db=".length()));
+            } else if (arg.startsWith("--standby=")) {
+                standbyPath = arg.substring("--standby=".length());
+            } else if (arg.startsWith("--cdc-off=")) {
+                cdcOffDir = arg.substring("--cdc-off=".length());
+            } else if (arg.startsWith("--cdc=")) {
+                cdcDir = arg.substring("--cdc=".length());
+            } else if (arg.equals("--store=journal")) {
+                journal = true;
+            } else if (!arg.equals("--store=sqlite")) {
+                System.err.println("Ignoring argument (expected --port=N, --db=PATH, --cdc=DIR, --cdc-off=DIR, --standby=PATH or --store=sqlite|journal): " + arg);
+            }
+        }
+        if (cdcOffDir != null) {
+            try (CdcExporter last = new CdcExporter(new File(cdcOffDir), CdcExporter.DEFAULT_SEGMENT_BYTES)) {
+                int shipped = last.removeCapture();
+                System.out.println("Change capture removed; " + shipped + " pending changes shipped to " + cdcOffDir);
+            } catch (SQLException e) {
+                throw new IOException("Cannot remove change logging: " + e.getMessage(), e);
+            }
+        }
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        DataHandler<Member> members;
+        DataHandler<Book> books;
+        if (journal) {
+            // Books and members in memory, journalled beside the database; loans stay in SQLite
+            File dir = new File(SQLiteConnectionManager.getDatabaseDirectory());
+            members = DatabaseHandler.open(new File(dir, "members"), Member::getId, DatabaseHandler.MEMBER_CODEC);
+            books = DatabaseHandler.open(new File(dir, "books"), Book::getId, DatabaseHandler.BOOK_CODEC);
+        } else {
+            members = new SQLiteMemberHandler();
+            books = new SQLiteBookHandler();
+        }
+        LibraryService libraryService = new InstrumentedLibraryService(
+                new MemberRepository(new InstrumentedDataHandler<>(members, metrics)),
+                new BookRepository(new InstrumentedDataHandler<>(books, metrics)),
+                metrics);
+        LibraryHttpServer server = new LibraryHttpServer(libraryService);
+        InetSocketAddress address = server.start(port);
+        HoldExpiryScheduler holdExpiry = new HoldExpiryScheduler(libraryService);
+        holdExpiry.scheduleExpiry(HOLD_EXPIRY_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        CdcExporter cdc = cdcDir != null ? new CdcExporter(new File(cdcDir), CdcExporter.DEFAULT_SEGMENT_BYTES) : null;
+        StandbyReplica standby = standbyPath != null ? new StandbyReplica(new File(standbyPath)) : null;
+        try {
+            if (cdc != null) {
+                cdc.start(CDC_SHIP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+            if (standby != null) {
+                standby.start(STANDBY_SHIP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Cannot install change logging: " + e.getMessage(), e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            holdExpiry.shutdown();
+            if (cdc != null) {
+                cdc.close();
+            }
+            if (standby != null) {
+                standby.close();
+            }
+            server.stop();
+            SQLiteConnectionManager.closeConnection();
+        }, "library-http-shutdown"));
+        System.out.println("Library server listening on http://localhost:" + address.getPort()
+                + "/api/ (database " + SQLiteConnectionManager.getDatabasePath() + ")");
+    }
+}
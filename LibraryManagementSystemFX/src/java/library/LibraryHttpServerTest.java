@@ -0,0 +1,110 @@
+package library;
+
+import static library.TestSupport.fail;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drives LibraryHttpServer over localhost with one keep-alive HttpClient:
+ * search, borrow, double borrow (conflict), member lookup, batch, return and report, and
+ * returns by every borrower of a title whose copies were all out when the server started.
+ * Runs against a throwaway database; exits with status 1 on the first failed check.
+ */
+public class LibraryHttpServerTest {
+
+    private static HttpClient client;
+    private static String base;
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-http-");
+        LibraryHttpServer server = null;
+        try {
+            LibraryService libraryService = TestSupport.newService();
+            libraryService.addBook(new Book(1, "Dune", "Frank Herbert"));
+            libraryService.addBook(new Book(2, "Emma", "Jane Austen"));
+            libraryService.addBook(new Book(3, "Persuasion", "Jane Austen"));
+            libraryService.registerMember(new Member(7, "Ada", "secret"));
+            // Both copies of one title out before the server starts; it must load both loans
+            Book sea = new Book(4, "The Sea", "Iris Murdoch");
+            libraryService.addBook(sea);
+            libraryService.addCopies(sea, List.of("SEA-0002"));
+            Member bo = new Member(8, "Bo", "pw");
+            Member cy = new Member(9, "Cy", "pw");
+            libraryService.registerMember(bo);
+            libraryService.registerMember(cy);
+            libraryService.borrowBook(bo, sea, LocalDate.now().plusDays(14));
+            libraryService.borrowBook(cy, sea, LocalDate.now().plusDays(7));
+
+            server = new LibraryHttpServer(libraryService);
+            InetSocketAddress address = server.start(0);
+            base = "http://localhost:" + address.getPort() + "/api";
+            client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+            check("health", get("/health"), 200, "\"ok\"");
+            check("search by author", get("/books?q=austen"), 200, "\"Emma\"");
+            check("unknown book", get("/books/99"), 404, "Book not found");
+            check("borrow", post("/borrow", "{\"memberId\":7,\"bookId\":2}"), 200, "\"bookId\":2");
+            check("borrow again", post("/borrow", "{\"memberId\":7,\"bookId\":2}"), 409, "not available");
+            check("member lookup hides password", get("/members/7"), 200, "\"Emma\"");
+            if (get("/members/7").body().contains("secret")) {
+                fail("member lookup exposed the password");
+            }
+
+            HttpResponse<String> batch = post("/batch",
+                    "[{\"op\":\"borrow\",\"memberId\":7,\"bookId\":3},"
+                            + "{\"op\":\"borrow\",\"memberId\":7,\"bookId\":3},"
+                            + "{\"op\":\"report\"}]");
+            check("batch", batch, 200, "\"totalBooks\":4");
+            List<?> results = (List<?>) Json.parse(batch.body());
+            int[] expected = {200, 409, 200};
+            for (int i = 0; i < expected.length; i++) {
+                Object status = ((Map<?, ?>) results.get(i)).get("status");
+                if (((Number) status).intValue() != expected[i]) {
+                    fail("batch entry " + i + " status " + status + ", expected " + expected[i]);
+                }
+            }
+
+            check("return", post("/return", "{\"memberId\":7,\"bookId\":2}"), 200, "\"id\":7");
+            check("returned book available", get("/books/2"), 200, "\"available\":true");
+            check("later-due borrower of a shared title has the loan", get("/members/8"), 200, "\"The Sea\"");
+            check("later-due borrower returns", post("/return", "{\"memberId\":8,\"bookId\":4}"), 200, "\"id\":8");
+            check("earlier-due borrower returns", post("/return", "{\"memberId\":9,\"bookId\":4}"), 200, "\"id\":9");
+            check("bad json", post("/borrow", "{memberId"), 400, "Invalid JSON");
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("HTTP API");
+    }
+
+    private static HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(base + path)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> post(String path, String json) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(base + path))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(json)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void check(String name, HttpResponse<String> response, int status, String expectedText) {
+        if (response.statusCode() != status || !response.body().contains(expectedText)) {
+            fail(name + ": got " + response.statusCode() + " " + response.body());
+        } else {
+            System.out.println("OK    " + name);
+        }
+    }
+}
@@ -2,15 +2,34 @@ package library;
 
 /**
  * DTO holding report data. No UI logic—presentation is the caller's responsibility.
+ * Loan figures (open, overdue, outstanding fines) come from the loan history; reports
+ * built from counts alone (snapshot, standby, branch federation) leave them out.
  */
 public final class LibraryReport {
 
     private final int totalBooks;
     private final int totalMembers;
+    private final boolean loanFigures;
+    private final int openLoans;
+    private final int overdueLoans;
+    private final double outstandingFines;
 
     public LibraryReport(int totalBooks, int totalMembers) {
         this.totalBooks = totalBooks;
         this.totalMembers = totalMembers;
+        this.loanFigures = false;
+        this.openLoans = 0;
+        this.overdueLoans = 0;
+        this.outstandingFines = 0;
+    }
+
+    public LibraryReport(int totalBooks, int totalMembers, int openLoans, int overdueLoans, double outstandingFines) {
+        this.totalBooks = totalBooks;
+        this.totalMembers = totalMembers;
+        this.loanFigures = true;
+        this.openLoans = openLoans;
+        this.overdueLoans = overdueLoans;
+        this.outstandingFines = outstandingFines;
     }
 
     public int getTotalBooks() {
@@ -20,4 +39,22 @@ public final class LibraryReport {
     public int getTotalMembers() {
         return totalMembers;
     }
+
+    /** Whether the loan figures below were computed; they are 0 otherwise. */
+    public boolean hasLoanFigures() {
+        return loanFigures;
+    }
+
+    public int getOpenLoans() {
+        return openLoans;
+    }
+
+    public int getOverdueLoans() {
+        return overdueLoans;
+    }
+
+    /** Fines accrued on loans still out, at LibraryService.DAILY_FINE per day overdue. */
+    public double getOutstandingFines() {
+        return outstandingFines;
+    }
 }
@@ -1,68 +1,234 @@
 package library;
 
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 /**
  * Central service layer coordinating library operations.
  * SRP: Business rules only.
  * DIP: Depends on repository abstractions.
+ * Circulation operations emit a CirculationEvent for Flight Recorder.
+ * Each circulation operation writes inside one UnitOfWork: it commits once, or not at all,
+ * and the in-memory objects are only updated after the commit. The same unit appends the
+ * operation to the CirculationLog, so the log and the tables never disagree.
+ *
+ * Safe for concurrent callers (HTTP server, kiosks, background jobs): an operation locks
+ * the stripes of the member and book it changes (see StripedLocks) before it opens its
+ * unit of work, so operations on unrelated members do not wait for each other here, and
+ * two desks cannot interleave a borrow and a return of the same member.
+ *
+ * Readers that want a consistent view without locks use getSnapshot: each committed change
+ * publishes a new immutable LibrarySnapshot, and a change rolled back publishes nothing.
  */
 public class LibraryService {
 
     public static final double DAILY_FINE = 0.50;
+    /** Conditional UPDATEs tried while the database reports busy, before a checkout gives up. */
+    public static final int MAX_CHECKOUT_ATTEMPTS = 5;
+    private static final long RETRY_BACKOFF_MILLIS = 2;
     
     private final MemberRepository memberRepository;
     private final BookRepository bookRepository;
     private final SQLiteBorrowedBookHandler borrowedBookHandler;
+    private final CirculationLog circulationLog;
+    private final HoldQueue holdQueue;
+    private final StripedLocks locks = new StripedLocks(StripedLocks.DEFAULT_STRIPES);
+    private final AtomicReference<LibrarySnapshot> snapshot = new AtomicReference<>(LibrarySnapshot.EMPTY);
 
     public LibraryService(MemberRepository memberRepository,
                           BookRepository bookRepository) {
         this.memberRepository = memberRepository;
         this.bookRepository = bookRepository;
         this.borrowedBookHandler = new SQLiteBorrowedBookHandler();
+        this.circulationLog = new CirculationLog();
+        this.holdQueue = new HoldQueue();
+        holdQueue.addReadyListener(hold ->
+                CirculationEvent.start(CirculationEvent.HOLD_READY, hold.getMemberId(), hold.getBookId()).commit());
+    }
+
+    /** Append-only history of borrows, returns and fine changes. */
+    public CirculationLog getCirculationLog() {
+        return circulationLog;
+    }
+
+    /** Reservations; add a ready listener here to tell members their book is in. */
+    public HoldQueue getHoldQueue() {
+        return holdQueue;
+    }
+
+    /**
+     * The catalog and members as of the last committed change. Immutable: take it once and
+     * use it for a whole search or report. Holds what resetSnapshot loaded plus every change
+     * made through this service since.
+     */
+    public LibrarySnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /** Starts the snapshot over from these books and members (with their loans linked up). */
+    public void resetSnapshot(Collection<Book> books, Collection<Member> members) {
+        snapshot.getAndUpdate(previous -> LibrarySnapshot.of(previous.getVersion() + 1, books, members));
+    }
+
+    /**
+     * Applies change to the snapshot once the unit of work open on this thread commits (now
+     * if none is open). Changes are applied to whichever snapshot is current at the time,
+     * so two desks publishing at once both land.
+     */
+    private void publish(UnaryOperator<LibrarySnapshot> change) {
+        UnitOfWork.afterCommit(() -> snapshot.updateAndGet(previous -> {
+            LibrarySnapshot next = change.apply(previous);
+            return next == previous ? previous : next.nextVersion();
+        }));
     }
 
     public void registerMember(Member member) {
         memberRepository.save(member);
+        publish(s -> s.withMember(member));
     }
 
     public void addBook(Book book) {
         bookRepository.save(book);
+        publish(s -> s.withBook(book));
+    }
+
+    /**
+     * Saves a changed title, author or cover over the book's row. Copies, barcodes and
+     * loans stay as they are: the counts only change through checkouts, returns and addCopies.
+     * @throws IllegalStateException if the book changed elsewhere since it was loaded
+     */
+    public void updateBook(Book book) {
+        try {
+            UnitOfWork.execute(() -> {
+                bookRepository.save(book);
+                publish(s -> s.withBook(book));
+            });
+        } catch (SQLException e) {
+            throw new IllegalStateException("Updating the book failed: " + e.getMessage(), e);
+        }
+    }
+
+    /** Adds barcoded copies to a title already in the catalog, instead of a row per copy. */
+    public void addCopies(Book book, List<String> barcodes) {
+        try {
+            bookRepository.addCopies(book, barcodes);
+            publish(s -> s.withCopies(book.getId(), barcodes.size(), barcodes.size()));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Adding copies failed: " + e.getMessage(), e);
+        }
     }
 
     public void removeBook(Book book) {
         bookRepository.deleteData(book.getId());
+        publish(s -> s.withoutBook(book.getId()));
     }
 
     public void removeMember(Member member) {
         memberRepository.deleteData(member.getId());
+        publish(s -> s.withoutMember(member.getId()));
     }
 
     /**
      * Borrows a book for a member with specified due date.
      * Follows domain rules: sets borrowDate = today, creates BorrowedBook with dueDate.
+     * @throws IllegalStateException if the book is out or the database stayed busy
      */
-    public BorrowedBook borrowBook(Member member, Book book, java.time.LocalDate dueDate) {
-        // Validate book availability
-        if (!book.isAvailable()) {
-            throw new IllegalStateException("Book is not available for borrowing.");
+    public BorrowedBook borrowBook(Member member, Book book, LocalDate dueDate) {
+        CheckoutResult result = tryBorrowBook(member, book, dueDate);
+        return switch (result.getStatus()) {
+            case BORROWED -> result.getBorrowedBook();
+            case UNAVAILABLE -> throw new IllegalStateException("Book is not available for borrowing.");
+            case CONFLICT -> throw new IllegalStateException("The library database is busy; please try again.");
+        };
+    }
+
+    /**
+     * Optimistic checkout. The book is claimed with one conditional UPDATE in the database
+     * rather than by checking the in-memory copy, so two desks can never lend the same book
+     * and no lock is held. Losing the race is a normal UNAVAILABLE result; SQLITE_BUSY is
+     * retried with a short backoff up to MAX_CHECKOUT_ATTEMPTS times.
+     * The claim and the loan row commit together, so a crash cannot leave a book marked
+     * borrowed without a loan.
+     */
+    public CheckoutResult tryBorrowBook(Member member, Book book, LocalDate dueDate) {
+        StripedLocks.Held held = locks.lockMemberAndBook(member.getId(), book.getId());
+        try {
+            CirculationEvent event = CirculationEvent.start(CirculationEvent.BORROW, member.getId(), book.getId());
+            try {
+                // Create borrowed book with domain logic (rejects a bad due date before anything is claimed)
+                BorrowedBook borrowedBook = new BorrowedBook(book, dueDate);
+
+                int attempt = 0;
+                while (true) {
+                    attempt++;
+                    try {
+                        boolean claimed = UnitOfWork.call(() -> {
+                            // A member collecting a hold takes the copy kept for them, not one from the shelf
+                            HoldQueue.Hold hold = holdQueue.readyFor(member.getId(), book.getId());
+                            if (hold != null ? !holdQueue.fulfil(hold) : !bookRepository.markBorrowedIfAvailable(book)) {
+                                return false;
+                            }
+                            borrowedBookHandler.saveBorrowedBook(member.getId(), borrowedBook);
+                            circulationLog.borrowed(member.getId(), book.getId(), borrowedBook.getDueDate());
+                            ActiveLoan loan = new ActiveLoan(book.getId(), member.getId(),
+                                    borrowedBook.getBorrowDate(), borrowedBook.getDueDate());
+                            publish(s -> s.withCopies(book.getId(), 0, hold != null ? 0 : -1).withLoan(loan));
+                            return true;
+                        });
+                        if (claimed) {
+                            break;
+                        }
+                        // Other desks have every copy, or our count was stale; either way none is left
+                        book.setAvailableCopies(0);
+                        publish(s -> s.withNoneOnShelf(book.getId()));
+                        event.fail("Unavailable");
+                        return CheckoutResult.unavailable(attempt);
+                    } catch (SQLException e) {
+                        if (!isBusy(e)) {
+                            throw new IllegalStateException("Checkout failed: " + e.getMessage(), e);
+                        }
+                        if (attempt >= MAX_CHECKOUT_ATTEMPTS || !backOff(attempt)) {
+                            event.fail("Conflict after " + attempt + " attempts");
+                            return CheckoutResult.conflict(attempt);
+                        }
+                    }
+                }
+
+                // Committed (the book's copy count followed); the member row does not change on a checkout
+                member.borrowBook(borrowedBook);
+                return CheckoutResult.borrowed(borrowedBook, attempt);
+            } catch (RuntimeException e) {
+                event.fail(e);
+                throw e;
+            } finally {
+                event.commit();
+            }
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /** SQLITE_BUSY / SQLITE_LOCKED, including their extended codes. */
+    private static boolean isBusy(SQLException e) {
+        int primary = e.getErrorCode() & 0xff;
+        return primary == 5 || primary == 6;
+    }
+
+    /** Sleeps 2, 4, 8 ... ms with jitter. @return false if interrupted */
+    private static boolean backOff(int attempt) {
+        long base = RETRY_BACKOFF_MILLIS << (attempt - 1);
+        try {
+            Thread.sleep(base + ThreadLocalRandom.current().nextLong(base + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
-        
-        // Create borrowed book with domain logic
-        BorrowedBook borrowedBook = new BorrowedBook(book, dueDate);
-        
-        // Update book availability
-        book.setAvailable(false);
-        
-        // Register with member
-        member.borrowBook(borrowedBook);
-
-        // Persist to database
-        borrowedBookHandler.saveBorrowedBook(member.getId(), borrowedBook);
-        memberRepository.save(member);
-        bookRepository.save(book);
-        
-        return borrowedBook;
     }
 
     /**
@@ -81,12 +247,40 @@ public class LibraryService {
      * Recalculates total fine (does NOT accumulate repeatedly).
      */
     public void updateMemberFines(Member member) {
-        double totalFine = member.getBorrowedBooks().stream()
-                .filter(BorrowedBook::isOverdue)
-                .mapToDouble(this::calculateFine)
-                .sum();
-        member.setBalance(totalFine);
-        memberRepository.save(member);
+        StripedLocks.Held held = locks.lockMember(member.getId());
+        try {
+            CirculationEvent event = CirculationEvent.start(CirculationEvent.UPDATE_FINES, member.getId(), 0);
+            try {
+                double totalFine = member.getBorrowedBooks().stream()
+                        .filter(BorrowedBook::isOverdue)
+                        .mapToDouble(this::calculateFine)
+                        .sum();
+                event.setAmount(totalFine);
+                double previous = member.getBalance();
+                member.setBalance(totalFine);
+                try {
+                    UnitOfWork.execute(() -> {
+                        // A return joins this to its own unit, which may still roll back after we finish
+                        UnitOfWork.onRollback(() -> member.setBalance(previous));
+                        memberRepository.save(member);
+                        if (totalFine != previous) {
+                            circulationLog.fineAssessed(member.getId(), totalFine - previous);
+                        }
+                        publish(s -> s.withBalance(member.getId(), totalFine));
+                    });
+                } catch (SQLException e) {
+                    member.setBalance(previous);
+                    throw new IllegalStateException("Updating fines failed: " + e.getMessage(), e);
+                }
+            } catch (RuntimeException e) {
+                event.fail(e);
+                throw e;
+            } finally {
+                event.commit();
+            }
+        } finally {
+            held.unlock();
+        }
     }
 
     /**
@@ -95,26 +289,148 @@ public class LibraryService {
      * A book CANNOT be returned if the member has an outstanding fine.
      */
     public void returnBook(Member member, BorrowedBook borrowedBook) {
-        // Update fines first
-        updateMemberFines(member);
-        
-        // Check for outstanding fines
-        if (member.getBalance() > 0) {
-            throw new IllegalStateException("Cannot return book with outstanding fine of $" + 
-                String.format("%.2f", member.getBalance()));
+        StripedLocks.Held held = locks.lockMemberAndBook(member.getId(), borrowedBook.getBook().getId());
+        try {
+            CirculationEvent event = CirculationEvent.start(CirculationEvent.RETURN,
+                    member.getId(), borrowedBook.getBook().getId());
+            try {
+                // Another desk may have returned it while this one waited for the lock
+                if (borrowedBook.isReturned() || !member.getBorrowedBooks().contains(borrowedBook)) {
+                    throw new IllegalStateException("This book was not borrowed by the member.");
+                }
+                try {
+                    UnitOfWork.execute(() -> {
+                        // Update fines first; a refused return still keeps the new fine
+                        updateMemberFines(member);
+                        if (member.getBalance() > 0) {
+                            return;
+                        }
+                        int bookId = borrowedBook.getBook().getId();
+                        boolean shelved = releaseCopy(borrowedBook.getBook());
+                        borrowedBookHandler.markBookAsReturned(member.getId(), bookId);
+                        circulationLog.returned(member.getId(), bookId);
+                        publish(s -> s.withCopies(bookId, 0, shelved ? 1 : 0)
+                                .withoutLoan(member.getId(), bookId, borrowedBook.getBorrowDate()));
+                    });
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Return failed: " + e.getMessage(), e);
+                }
+
+                // Check for outstanding fines
+                if (member.getBalance() > 0) {
+                    event.setAmount(member.getBalance());
+                    throw new IllegalStateException("Cannot return book with outstanding fine of $" +
+                        String.format("%.2f", member.getBalance()));
+                }
+
+                // Mark as returned
+                borrowedBook.markReturned();
+                member.returnBook(borrowedBook);
+            } catch (RuntimeException e) {
+                event.fail(e);
+                throw e;
+            } finally {
+                event.commit();
+            }
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /**
+     * A copy coming back goes to the next hold on the book, or back on the shelf with a
+     * conditional UPDATE (false there only means it was already in).
+     * @return true if the copy went back on the shelf
+     */
+    private boolean releaseCopy(Book book) throws SQLException {
+        if (holdQueue.promoteNext(book.getId(), LocalDate.now()) == null) {
+            return bookRepository.markAvailableIfBorrowed(book);
+        }
+        return false;
+    }
+
+    /**
+     * Puts a member in line for a book that is out. Priority holds go ahead of the others.
+     * @throws IllegalStateException if a copy is on the shelf or the member already holds the book
+     */
+    public HoldQueue.Hold placeHold(Member member, Book book, boolean priority) {
+        StripedLocks.Held held = locks.lockMemberAndBook(member.getId(), book.getId());
+        try {
+            CirculationEvent event = CirculationEvent.start(CirculationEvent.PLACE_HOLD, member.getId(), book.getId());
+            try {
+                if (book.isAvailable()) {
+                    throw new IllegalStateException("A copy is on the shelf; borrow it instead.");
+                }
+                try {
+                    return UnitOfWork.call(() -> holdQueue.place(member.getId(), book.getId(), priority));
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Placing the hold failed: " + e.getMessage(), e);
+                }
+            } catch (RuntimeException e) {
+                event.fail(e);
+                throw e;
+            } finally {
+                event.commit();
+            }
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /** Cancels a hold; a copy kept for it goes to the next hold or back on the shelf. */
+    public void cancelHold(HoldQueue.Hold hold) {
+        StripedLocks.Held held = locks.lockMemberAndBook(hold.getMemberId(), hold.getBookId());
+        try {
+            try {
+                UnitOfWork.execute(() -> {
+                    boolean wasReady = hold.getStatus() == HoldQueue.Status.READY;
+                    if (holdQueue.cancel(hold) && wasReady) {
+                        releaseHeldCopy(hold.getBookId());
+                    }
+                });
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cancelling the hold failed: " + e.getMessage(), e);
+            }
+        } finally {
+            held.unlock();
+        }
+    }
+
+    /**
+     * Expires Ready holds not collected by their last pickup day and passes each copy on.
+     * Run periodically by HoldExpiryScheduler.
+     * @return the number of holds expired
+     */
+    public int expireHolds(LocalDate today) {
+        int expired = 0;
+        for (HoldQueue.Hold hold : holdQueue.expiredBy(today)) {
+            StripedLocks.Held held = locks.lockMemberAndBook(hold.getMemberId(), hold.getBookId());
+            try {
+                boolean done = UnitOfWork.call(() -> {
+                    if (!holdQueue.expire(hold)) {
+                        return false;
+                    }
+                    releaseHeldCopy(hold.getBookId());
+                    return true;
+                });
+                if (done) {
+                    expired++;
+                }
+            } catch (SQLException e) {
+                System.err.println("Error expiring hold: " + e.getMessage());
+                MetricsRegistry.getDefault().recordError("LibraryService.expireHolds", e);
+            } finally {
+                held.unlock();
+            }
+        }
+        return expired;
+    }
+
+    private void releaseHeldCopy(int bookId) throws SQLException {
+        Book book = bookRepository.findById(bookId);
+        if (book != null && releaseCopy(book)) {
+            publish(s -> s.withCopies(bookId, 0, 1));
         }
-        
-        // Mark as returned
-        borrowedBook.markReturned();
-        member.returnBook(borrowedBook);
-        
-        // Update book availability
-        borrowedBook.getBook().setAvailable(true);
-
-        // Persist changes
-        borrowedBookHandler.markBookAsReturned(borrowedBook.getBook().getId());
-        memberRepository.save(member);
-        bookRepository.save(borrowedBook.getBook());
     }
 
     /**
@@ -132,19 +448,73 @@ public class LibraryService {
      * Clears a member's fine (librarian action).
      */
     public void clearFine(Member member) {
-        member.setBalance(0.0);
-        memberRepository.save(member);
+        StripedLocks.Held held = locks.lockMember(member.getId());
+        try {
+            CirculationEvent event = CirculationEvent.start(CirculationEvent.CLEAR_FINE, member.getId(), 0);
+            double previous = member.getBalance();
+            event.setAmount(previous);
+            try {
+                member.setBalance(0.0);
+                try {
+                    UnitOfWork.execute(() -> {
+                        memberRepository.save(member);
+                        if (previous > 0) {
+                            circulationLog.fineCleared(member.getId(), previous);
+                        }
+                        publish(s -> s.withBalance(member.getId(), 0.0));
+                    });
+                } catch (SQLException e) {
+                    member.setBalance(previous);
+                    throw new IllegalStateException("Clearing the fine failed: " + e.getMessage(), e);
+                }
+            } catch (RuntimeException e) {
+                event.fail(e);
+                throw e;
+            } finally {
+                event.commit();
+            }
+        } finally {
+            held.unlock();
+        }
     }
 
     /**
      * Processes a fine payment for a member.
      */
     public void payFine(Member member, double amount) {
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Payment amount must be positive.");
+        StripedLocks.Held held = locks.lockMember(member.getId());
+        try {
+            CirculationEvent event = CirculationEvent.start(CirculationEvent.PAY_FINE, member.getId(), 0);
+            event.setAmount(amount);
+            try {
+                if (amount <= 0) {
+                    throw new IllegalArgumentException("Payment amount must be positive.");
+                }
+                double previous = member.getBalance();
+                member.payFine(amount);
+                double balance = member.getBalance();
+                double paid = previous - balance;
+                try {
+                    UnitOfWork.execute(() -> {
+                        memberRepository.save(member);
+                        if (paid > 0) {
+                            circulationLog.finePaid(member.getId(), paid);
+                        }
+                        publish(s -> s.withBalance(member.getId(), balance));
+                    });
+                } catch (SQLException e) {
+                    member.setBalance(previous);
+                    throw new IllegalStateException("Payment failed: " + e.getMessage(), e);
+                }
+            } catch (RuntimeException e) {
+                event.fail(e);
+                throw e;
+            } finally {
+                event.commit();
+            }
+        } finally {
+            held.unlock();
         }
-        member.payFine(amount);
-        memberRepository.save(member);
     }
 
     public List<Book> getAllBooks() {
@@ -155,12 +525,33 @@ public class LibraryService {
         return memberRepository.findAll();
     }
 
+    /** Books in id order, a page at a time (startup shows the first page before loading the rest). */
+    public List<Book> getBooksPage(int offset, int limit) {
+        return bookRepository.findPage(offset, limit);
+    }
+
+    public List<Member> getMembersPage(int offset, int limit) {
+        return memberRepository.findPage(offset, limit);
+    }
+
     /**
      * Builds report data from the database only.
      */
     public LibraryReport getReport() {
-        int totalBooks = bookRepository.findAll().size();
-        int totalMembers = memberRepository.findAll().size();
-        return new LibraryReport(totalBooks, totalMembers);
+        CirculationEvent event = CirculationEvent.start(CirculationEvent.REPORT, 0, 0);
+        try {
+            int totalBooks = bookRepository.findAll().size();
+            int totalMembers = memberRepository.findAll().size();
+            // Loan figures walk the ledger's arrays, not a BorrowedBook per loan
+            LoanLedger ledger = borrowedBookHandler.loadLoanLedger();
+            if (ledger == null) {
+                throw new IllegalStateException("Report failed: the loan history could not be read.");
+            }
+            LocalDate today = LocalDate.now();
+            return new LibraryReport(totalBooks, totalMembers, ledger.openLoanCount(),
+                    ledger.overdueCount(today), ledger.totalFines(today));
+        } finally {
+            event.commit();
+        }
     }
 }
@@ -0,0 +1,268 @@
+package library;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable point-in-time view of the catalog, the members and their open loans, for
+ * readers that must not see a change half made: search, lookups and reports.
+ * LibraryService keeps the current one behind a single reference and swaps in a new one
+ * after each committed change (see LibraryService.getSnapshot); a reader takes the
+ * reference once and uses it for the whole request, with no locking, while checkouts
+ * carry on. A new snapshot shares all unchanged entries with the one before, so a swap
+ * copies a few small trie nodes, not the catalog.
+ */
+public final class LibrarySnapshot {
+
+    public static final LibrarySnapshot EMPTY = new LibrarySnapshot(0, PersistentIntMap.empty(), PersistentIntMap.empty());
+
+    private final long version;
+    private final PersistentIntMap<BookView> books;
+    private final PersistentIntMap<MemberView> members;
+
+    private LibrarySnapshot(long version, PersistentIntMap<BookView> books, PersistentIntMap<MemberView> members) {
+        this.version = version;
+        this.books = books;
+        this.members = members;
+    }
+
+    /** Snapshot of the given books and members with their current loans. */
+    static LibrarySnapshot of(long version, Collection<Book> books, Collection<Member> members) {
+        PersistentIntMap<BookView> bookViews = PersistentIntMap.empty();
+        for (Book book : books) {
+            bookViews = bookViews.with(book.getId(), BookView.of(book));
+        }
+        PersistentIntMap<MemberView> memberViews = PersistentIntMap.empty();
+        for (Member member : members) {
+            memberViews = memberViews.with(member.getId(), MemberView.of(member));
+        }
+        return new LibrarySnapshot(version, bookViews, memberViews);
+    }
+
+    /** Goes up by one with every change published; 0 until the service publishes anything. */
+    public long getVersion() {
+        return version;
+    }
+
+    /** @return the book, or null */
+    public BookView getBook(int id) {
+        return books.get(id);
+    }
+
+    /** @return the member, or null */
+    public MemberView getMember(int id) {
+        return members.get(id);
+    }
+
+    /** Every book, in id order. */
+    public List<BookView> getBooks() {
+        return books.values();
+    }
+
+    /** Every member, in id order. */
+    public List<MemberView> getMembers() {
+        return members.values();
+    }
+
+    /**
+     * Books whose title or author contains term (any case), in id order.
+     * @param term lower-case search term; empty matches every book
+     */
+    public List<BookView> searchBooks(String term, int offset, int limit) {
+        List<BookView> hits = new ArrayList<>();
+        int skipped = 0;
+        for (BookView book : books.values()) {
+            if (hits.size() >= limit) {
+                break;
+            }
+            if (!term.isEmpty()
+                    && !book.getTitle().toLowerCase(Locale.ROOT).contains(term)
+                    && !book.getAuthor().toLowerCase(Locale.ROOT).contains(term)) {
+                continue;
+            }
+            if (skipped++ < offset) {
+                continue;
+            }
+            hits.add(book);
+        }
+        return hits;
+    }
+
+    public LibraryReport getReport() {
+        return new LibraryReport(books.size(), members.size());
+    }
+
+    LibrarySnapshot withBook(Book book) {
+        return next(books.with(book.getId(), BookView.of(book)), members);
+    }
+
+    LibrarySnapshot withoutBook(int bookId) {
+        return next(books.without(bookId), members);
+    }
+
+    /** Moves copies of a book between the shelf and loans or holds, or adds new ones. */
+    LibrarySnapshot withCopies(int bookId, int copiesAdded, int shelfChange) {
+        return next(books.update(bookId, book -> book.withCopies(book.getCopies() + copiesAdded,
+                book.getAvailableCopies() + shelfChange)), members);
+    }
+
+    /** The book with none on the shelf, after a checkout found our count stale. */
+    LibrarySnapshot withNoneOnShelf(int bookId) {
+        return next(books.update(bookId, book -> book.withCopies(book.getCopies(), 0)), members);
+    }
+
+    LibrarySnapshot withMember(Member member) {
+        return next(books, members.with(member.getId(), MemberView.of(member)));
+    }
+
+    LibrarySnapshot withoutMember(int memberId) {
+        return next(books, members.without(memberId));
+    }
+
+    LibrarySnapshot withBalance(int memberId, double balance) {
+        return next(books, members.update(memberId, member -> member.withBalance(balance)));
+    }
+
+    LibrarySnapshot withLoan(ActiveLoan loan) {
+        return next(books, members.update(loan.getMemberId(), member -> member.withLoan(loan)));
+    }
+
+    LibrarySnapshot withoutLoan(int memberId, int bookId, LocalDate borrowDate) {
+        return next(books, members.update(memberId, member -> member.withoutLoan(bookId, borrowDate)));
+    }
+
+    /** The same contents one version on; a published change calls this once, however many steps it took. */
+    LibrarySnapshot nextVersion() {
+        return new LibrarySnapshot(version + 1, books, members);
+    }
+
+    private LibrarySnapshot next(PersistentIntMap<BookView> books, PersistentIntMap<MemberView> members) {
+        if (books == this.books && members == this.members) {
+            return this;
+        }
+        return new LibrarySnapshot(version, books, members);
+    }
+
+    /** A book as of one snapshot. */
+    public static final class BookView {
+
+        private final int id;
+        private final String title;
+        private final String author;
+        private final int copies;
+        private final int availableCopies;
+        private final String coverPath;
+
+        private BookView(int id, String title, String author, int copies, int availableCopies, String coverPath) {
+            this.id = id;
+            this.title = title;
+            this.author = author;
+            this.copies = copies;
+            this.availableCopies = availableCopies;
+            this.coverPath = coverPath;
+        }
+
+        static BookView of(Book book) {
+            return new BookView(book.getId(), book.getTitle(), book.getAuthor(), book.getCopies(),
+                    book.getAvailableCopies(), book.getCoverPath());
+        }
+
+        BookView withCopies(int copies, int availableCopies) {
+            return new BookView(id, title, author, copies, Math.max(0, Math.min(copies, availableCopies)), coverPath);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public int getCopies() {
+            return copies;
+        }
+
+        public int getAvailableCopies() {
+            return availableCopies;
+        }
+
+        /** At least one copy is on the shelf. */
+        public boolean isAvailable() {
+            return availableCopies > 0;
+        }
+
+        public String getCoverPath() {
+            return coverPath;
+        }
+    }
+
+    /** A member and their open loans as of one snapshot; no password. */
+    public static final class MemberView {
+
+        private final int id;
+        private final String name;
+        private final double balance;
+        private final List<ActiveLoan> loans;
+
+        private MemberView(int id, String name, double balance, List<ActiveLoan> loans) {
+            this.id = id;
+            this.name = name;
+            this.balance = balance;
+            this.loans = loans;
+        }
+
+        static MemberView of(Member member) {
+            List<ActiveLoan> loans = new ArrayList<>();
+            for (BorrowedBook loan : member.getBorrowedBooks()) {
+                loans.add(new ActiveLoan(loan.getBook().getId(), member.getId(), loan.getBorrowDate(), loan.getDueDate()));
+            }
+            return new MemberView(member.getId(), member.getName(), member.getBalance(), List.copyOf(loans));
+        }
+
+        MemberView withBalance(double balance) {
+            return new MemberView(id, name, balance, loans);
+        }
+
+        MemberView withLoan(ActiveLoan loan) {
+            List<ActiveLoan> changed = new ArrayList<>(loans);
+            changed.add(loan);
+            return new MemberView(id, name, balance, List.copyOf(changed));
+        }
+
+        MemberView withoutLoan(int bookId, LocalDate borrowDate) {
+            List<ActiveLoan> changed = new ArrayList<>(loans);
+            for (int i = 0; i < changed.size(); i++) {
+                if (changed.get(i).getBookId() == bookId && changed.get(i).getBorrowDate().equals(borrowDate)) {
+                    changed.remove(i);
+                    return new MemberView(id, name, balance, List.copyOf(changed));
+                }
+            }
+            return this;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getBalance() {
+            return balance;
+        }
+
+        /** Open loans, oldest first; a member has only a handful, so a plain list is copied on change. */
+        public List<ActiveLoan> getLoans() {
+            return loans;
+        }
+    }
+}
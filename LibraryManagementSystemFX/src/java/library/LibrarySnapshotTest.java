@@ -0,0 +1,222 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks PersistentIntMap against a TreeMap under random changes (old versions must not
+ * move), then the snapshots LibraryService publishes: each committed change shows up, a
+ * rolled-back one does not, and a snapshot already taken never changes. Finally readers
+ * scan snapshots while several desks borrow and return, and every scan must add up: for
+ * each book, the copies off the shelf equal the loans the members hold.
+ * Works in a temp directory; exits with status 1 on the first failed check.
+ */
+public class LibrarySnapshotTest {
+
+    private static final int RANDOM_CHANGES = 50_000;
+    private static final int DESKS = 4;
+    private static final int CHECKOUTS_PER_DESK = 150;
+    private static final int SHARED_BOOK = 100;
+
+    public static void main(String[] args) throws Exception {
+        checkPersistentMap();
+
+        File db = TestSupport.useTempDatabase("library-snapshot-");
+        try {
+            LibraryService service = TestSupport.newService();
+            Member ann = new Member(1, "Ann", "pw");
+            Book dune = new Book(1, "Dune", "Frank Herbert");
+            service.registerMember(ann);
+            service.addBook(dune);
+            service.resetSnapshot(List.of(dune), List.of(ann));
+            LibrarySnapshot before = service.getSnapshot();
+
+            service.borrowBook(ann, dune, LocalDate.now().plusDays(14));
+            LibrarySnapshot borrowed = service.getSnapshot();
+            check("a checkout is one new version", borrowed.getVersion() == before.getVersion() + 1
+                    && !borrowed.getBook(1).isAvailable() && borrowed.getMember(1).getLoans().size() == 1);
+            check("a snapshot taken earlier does not change", before.getBook(1).isAvailable()
+                    && before.getMember(1).getLoans().isEmpty());
+
+            try {
+                UnitOfWork.execute(() -> {
+                    service.registerMember(new Member(2, "Rolled back", "pw"));
+                    throw new SQLException("abandoned");
+                });
+            } catch (SQLException expected) {
+                // the unit rolled back
+            }
+            check("a rolled-back change publishes nothing", service.getSnapshot() == borrowed);
+
+            service.returnBook(ann, dune);
+            service.addCopies(dune, List.of("DUNE-2"));
+            ann.addFine(3.0);
+            service.payFine(ann, 1.0);
+            LibrarySnapshot.BookView book = service.getSnapshot().getBook(1);
+            LibrarySnapshot.MemberView member = service.getSnapshot().getMember(1);
+            check("returns, copies and payments show up", book.getCopies() == 2 && book.getAvailableCopies() == 2
+                    && member.getLoans().isEmpty() && member.getBalance() == 2.0);
+            service.clearFine(ann);
+            service.removeBook(dune);
+            check("removals show up", service.getSnapshot().getBook(1) == null
+                    && service.getSnapshot().getReport().getTotalBooks() == 0
+                    && service.getSnapshot().getMember(1).getBalance() == 0.0);
+
+            checkReadersDuringCheckouts(service, db);
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("library snapshot");
+    }
+
+    private static void checkPersistentMap() {
+        Random random = new Random(49);
+        PersistentIntMap<Integer> map = PersistentIntMap.empty();
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+        PersistentIntMap<Integer> kept = null;
+        TreeMap<Integer, Integer> keptModel = null;
+        boolean same = true;
+        for (int i = 0; i < RANDOM_CHANGES && same; i++) {
+            // Small ids collide high in the trie, large ones spread over every level
+            int id = random.nextBoolean() ? random.nextInt(2000) : random.nextInt(Integer.MAX_VALUE);
+            if (random.nextInt(3) == 0) {
+                map = map.without(id);
+                model.remove(id);
+            } else {
+                map = map.with(id, i);
+                model.put(id, i);
+            }
+            if (i == RANDOM_CHANGES / 2) {
+                kept = map;
+                keptModel = new TreeMap<>(model);
+            }
+            same = map.size() == model.size() && Objects.equals(map.get(id), model.get(id));
+        }
+        check("random changes match a TreeMap", same && map.values().equals(new ArrayList<>(model.values())));
+        check("an old version keeps its contents", kept != null && kept.values().equals(new ArrayList<>(keptModel.values()))
+                && kept.size() == keptModel.size());
+        for (Integer id : new ArrayList<>(model.keySet())) {
+            map = map.without(id);
+        }
+        check("removing everything leaves an empty map", map.isEmpty() && map.values().isEmpty() && map.get(0) == null);
+    }
+
+    /** Readers must never see a book taken without its loan, or a loan without its book. */
+    private static void checkReadersDuringCheckouts(LibraryService service, File db) throws Exception {
+        List<Member> members = new ArrayList<>();
+        List<Book> books = new ArrayList<>();
+        for (int i = 10; i < 10 + DESKS; i++) {
+            Member member = new Member(i, "Desk " + i, "pw");
+            Book book = new Book(i, "Own " + i, "Author " + i);
+            service.registerMember(member);
+            service.addBook(book);
+            members.add(member);
+            books.add(book);
+        }
+        Book shared = new Book(SHARED_BOOK, "Shared", "Everyone");
+        service.addBook(shared);
+        service.addCopies(shared, List.of("SHARED-2", "SHARED-3"));
+        books.add(shared);
+        service.resetSnapshot(books, members);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger scans = new AtomicInteger();
+        AtomicInteger torn = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                if (!addsUp(service.getSnapshot())) {
+                    torn.incrementAndGet();
+                }
+                scans.incrementAndGet();
+            }
+        });
+        reader.start();
+
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> desks = new ArrayList<>();
+        for (int t = 0; t < DESKS; t++) {
+            Member member = members.get(t);
+            Book own = books.get(t);
+            Thread desk = new Thread(() -> {
+                Random random = new Random(member.getId());
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < CHECKOUTS_PER_DESK; i++) {
+                    Book book = random.nextBoolean() ? shared : own;
+                    if (member.getBorrowedBooks().stream().anyMatch(bb -> bb.getBook() == book)) {
+                        service.returnBook(member, book);
+                    } else {
+                        service.tryBorrowBook(member, book, LocalDate.now().plusDays(14));
+                    }
+                }
+            });
+            desk.start();
+            desks.add(desk);
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread desk : desks) {
+            desk.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running.set(false);
+        reader.join();
+        System.out.printf("      %d snapshot scans in %.2f s beside %d checkouts%n",
+                scans.get(), seconds, DESKS * CHECKOUTS_PER_DESK);
+        check("every scan adds up while desks check out", torn.get() == 0 && scans.get() > 0);
+        check("the last snapshot matches the database", matchesDatabase(service.getSnapshot(), db));
+    }
+
+    private static boolean addsUp(LibrarySnapshot snapshot) {
+        Map<Integer, Integer> loans = new TreeMap<>();
+        for (LibrarySnapshot.MemberView member : snapshot.getMembers()) {
+            for (ActiveLoan loan : member.getLoans()) {
+                loans.merge(loan.getBookId(), 1, Integer::sum);
+            }
+        }
+        for (LibrarySnapshot.BookView book : snapshot.getBooks()) {
+            if (book.getCopies() - book.getAvailableCopies() != loans.getOrDefault(book.getId(), 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesDatabase(LibrarySnapshot snapshot, File db) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+             Statement stmt = conn.createStatement()) {
+            for (LibrarySnapshot.BookView book : snapshot.getBooks()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT available_copies,"
+                        + " (SELECT COUNT(*) FROM borrowed_books WHERE book_id = books.id AND return_date IS NULL)"
+                        + " FROM books WHERE id = " + book.getId())) {
+                    if (!rs.next() || rs.getInt(1) != book.getAvailableCopies()
+                            || rs.getInt(2) != book.getCopies() - book.getAvailableCopies()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+}
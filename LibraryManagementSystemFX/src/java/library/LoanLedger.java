@@ -0,0 +1,234 @@
+package library;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only loan history held in parallel primitive arrays, one slot per borrowed_books row.
+ * Dates are epoch days and an open loan has NOT_RETURNED as its return day. Two index
+ * arrays list the rows sorted by member and by book, so per-member and per-book questions
+ * are a binary search plus a contiguous run.
+ *
+ * Aggregates walk the arrays without creating objects per loan; over PARALLEL_THRESHOLD
+ * rows they run as parallel streams. Fines here count the full days past the due date at
+ * LibraryService.DAILY_FINE, like calculateFine does for a single BorrowedBook.
+ */
+public final class LoanLedger {
+
+    public static final int NOT_RETURNED = Integer.MIN_VALUE;
+    /** Below this many rows a sequential loop beats forking. */
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private final int size;
+    private final int[] bookIds;
+    private final int[] memberIds;
+    private final int[] borrowDays;
+    private final int[] dueDays;
+    private final int[] returnDays;
+    private final int[] byMember;
+    private final int[] byBook;
+
+    private LoanLedger(int size, int[] bookIds, int[] memberIds, int[] borrowDays, int[] dueDays, int[] returnDays) {
+        this.size = size;
+        this.bookIds = bookIds;
+        this.memberIds = memberIds;
+        this.borrowDays = borrowDays;
+        this.dueDays = dueDays;
+        this.returnDays = returnDays;
+        this.byMember = sortedRows(memberIds, size);
+        this.byBook = sortedRows(bookIds, size);
+    }
+
+    /** Width of one epoch day in a packed days column; covers 1970 to the 7700s. */
+    static final int DAY_BITS = 21;
+    /** Packed return day of an open loan. */
+    static final long OPEN_DAY = (1L << DAY_BITS) - 1;
+    private static final long DAY_MASK = (1L << DAY_BITS) - 1;
+
+    /**
+     * Reads rows of two packed integers: (book_id << 32 | member_id) and
+     * (borrow_day | due_day << DAY_BITS | return_day << 2 * DAY_BITS), days in epoch days
+     * and OPEN_DAY for an open loan. Two getLong calls per row instead of five getInt
+     * calls roughly halve the load time, which is dominated by per-column driver calls.
+     * @param expectedRows sizing hint; the arrays grow if there are more
+     */
+    static LoanLedger read(ResultSet rs, int expectedRows) throws SQLException {
+        int capacity = Math.max(16, expectedRows);
+        int[] bookIds = new int[capacity];
+        int[] memberIds = new int[capacity];
+        int[] borrowDays = new int[capacity];
+        int[] dueDays = new int[capacity];
+        int[] returnDays = new int[capacity];
+        int n = 0;
+        while (rs.next()) {
+            if (n == capacity) {
+                capacity += capacity >> 1;
+                bookIds = Arrays.copyOf(bookIds, capacity);
+                memberIds = Arrays.copyOf(memberIds, capacity);
+                borrowDays = Arrays.copyOf(borrowDays, capacity);
+                dueDays = Arrays.copyOf(dueDays, capacity);
+                returnDays = Arrays.copyOf(returnDays, capacity);
+            }
+            long ids = rs.getLong(1);
+            long days = rs.getLong(2);
+            bookIds[n] = (int) (ids >>> 32);
+            memberIds[n] = (int) ids;
+            borrowDays[n] = (int) (days & DAY_MASK);
+            dueDays[n] = (int) ((days >>> DAY_BITS) & DAY_MASK);
+            long returned = days >>> (2 * DAY_BITS);
+            returnDays[n] = returned == OPEN_DAY ? NOT_RETURNED : (int) returned;
+            n++;
+        }
+        return new LoanLedger(n, bookIds, memberIds, borrowDays, dueDays, returnDays);
+    }
+
+    /** Row numbers ordered by key, then by row (i.e. load order). */
+    private static int[] sortedRows(int[] keys, int size) {
+        long[] packed = new long[size];
+        for (int row = 0; row < size; row++) {
+            packed[row] = ((long) keys[row] << 32) | row;
+        }
+        if (size > PARALLEL_THRESHOLD) {
+            Arrays.parallelSort(packed);
+        } else {
+            Arrays.sort(packed);
+        }
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = (int) packed[i];
+        }
+        return rows;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getBookId(int row) {
+        return bookIds[row];
+    }
+
+    public int getMemberId(int row) {
+        return memberIds[row];
+    }
+
+    public LocalDate getBorrowDate(int row) {
+        return LocalDate.ofEpochDay(borrowDays[row]);
+    }
+
+    public LocalDate getDueDate(int row) {
+        return LocalDate.ofEpochDay(dueDays[row]);
+    }
+
+    /** Null while the book is still out. */
+    public LocalDate getReturnDate(int row) {
+        return returnDays[row] == NOT_RETURNED ? null : LocalDate.ofEpochDay(returnDays[row]);
+    }
+
+    public boolean isOpen(int row) {
+        return returnDays[row] == NOT_RETURNED;
+    }
+
+    /** Full days an open loan is past due on today; 0 if returned or not yet due. */
+    public int daysOverdue(int row, int todayEpochDay) {
+        return isOpen(row) ? Math.max(0, todayEpochDay - dueDays[row]) : 0;
+    }
+
+    /** Outstanding fine for one member on today. */
+    public double fineFor(int memberId, LocalDate today) {
+        int day = (int) today.toEpochDay();
+        long days = 0;
+        int end = rangeEnd(byMember, memberIds, memberId);
+        for (int i = rangeStart(byMember, memberIds, memberId); i < end; i++) {
+            days += daysOverdue(byMember[i], day);
+        }
+        return days * LibraryService.DAILY_FINE;
+    }
+
+    /** Outstanding fines of all members on today. */
+    public double totalFines(LocalDate today) {
+        int day = (int) today.toEpochDay();
+        return rows().mapToLong(row -> daysOverdue(row, day)).sum() * LibraryService.DAILY_FINE;
+    }
+
+    public int overdueCount(LocalDate today) {
+        int day = (int) today.toEpochDay();
+        return (int) rows().filter(row -> daysOverdue(row, day) > 0).count();
+    }
+
+    public int openLoanCount() {
+        return (int) rows().filter(this::isOpen).count();
+    }
+
+    /** Loans that started between from and to, inclusive. */
+    public int checkoutsBetween(LocalDate from, LocalDate to) {
+        int first = (int) from.toEpochDay();
+        int last = (int) to.toEpochDay();
+        return (int) rows().filter(row -> borrowDays[row] >= first && borrowDays[row] <= last).count();
+    }
+
+    /** Times the book has been borrowed. */
+    public int timesBorrowed(int bookId) {
+        return rangeEnd(byBook, bookIds, bookId) - rangeStart(byBook, bookIds, bookId);
+    }
+
+    /** Loans ever made by the member. */
+    public int loanCount(int memberId) {
+        return rangeEnd(byMember, memberIds, memberId) - rangeStart(byMember, memberIds, memberId);
+    }
+
+    /** Member holding the book now, or -1. */
+    public int currentBorrower(int bookId) {
+        int end = rangeEnd(byBook, bookIds, bookId);
+        for (int i = rangeStart(byBook, bookIds, bookId); i < end; i++) {
+            if (isOpen(byBook[i])) {
+                return memberIds[byBook[i]];
+            }
+        }
+        return -1;
+    }
+
+    /** Rows of one member's loans in load order, for callers that want the details. */
+    public int[] rowsForMember(int memberId) {
+        return Arrays.copyOfRange(byMember, rangeStart(byMember, memberIds, memberId),
+                rangeEnd(byMember, memberIds, memberId));
+    }
+
+    private IntStream rows() {
+        IntStream rows = IntStream.range(0, size);
+        return size > PARALLEL_THRESHOLD ? rows.parallel() : rows;
+    }
+
+    /** First position in index whose key is >= key. */
+    private int rangeStart(int[] index, int[] keys, int key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[index[mid]] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** First position in index whose key is > key. */
+    private int rangeEnd(int[] index, int[] keys, int key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[index[mid]] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
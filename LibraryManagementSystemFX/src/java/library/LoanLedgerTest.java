@@ -0,0 +1,133 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Loads borrowed_books into a LoanLedger and checks every aggregate against the same
+ * question asked in SQL: open and overdue loans, fines in total and per member (and per
+ * member against calculateFine on the BorrowedBooks), checkouts in a date range, times
+ * borrowed and current borrowers. A history large enough for the parallel paths is
+ * generated at random, and the report must carry the ledger's figures.
+ * Runs against a throwaway database; exits with status 1 on the first failed check.
+ */
+public class LoanLedgerTest {
+
+    private static final int MEMBERS = 500;
+    private static final int BOOKS = 2000;
+    private static final int HISTORY = LoanLedger.PARALLEL_THRESHOLD * 2;
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-ledger-");
+        try {
+            LibraryService service = TestSupport.newService();
+            SQLiteBorrowedBookHandler handler = new SQLiteBorrowedBookHandler();
+            Member ann = new Member(1, "Ann", "pw");
+            Member bob = new Member(2, "Bob", "pw");
+            service.registerMember(ann);
+            service.registerMember(bob);
+            Book dune = new Book(1, "Dune", "Frank Herbert");
+            Book emma = new Book(2, "Emma", "Jane Austen");
+            service.addBook(dune);
+            service.addBook(emma);
+
+            LocalDate today = LocalDate.now();
+            service.borrowBook(ann, dune, today.plusDays(14));
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (Statement stmt = conn.createStatement()) {
+                // Bob: Emma six days overdue, and an earlier loan of Dune returned late
+                stmt.executeUpdate("INSERT INTO borrowed_books (book_id, member_id, borrow_date, due_date, return_date) VALUES"
+                        + " (2, 2, '" + today.minusDays(20) + "', '" + today.minusDays(6) + "', NULL),"
+                        + " (1, 2, '" + today.minusDays(60) + "', '" + today.minusDays(46) + "', '" + today.minusDays(40) + "')");
+            }
+
+            LoanLedger ledger = handler.loadLoanLedger();
+            check("ledger loads every row", ledger != null && ledger.size() == 3);
+            check("open and overdue loans", ledger.openLoanCount() == 2 && ledger.overdueCount(today) == 1);
+            check("fines count full days past due on open loans", ledger.fineFor(2, today) == 6 * LibraryService.DAILY_FINE
+                    && ledger.fineFor(1, today) == 0 && ledger.totalFines(today) == 6 * LibraryService.DAILY_FINE);
+            double objectFine = service.calculateFine(new BorrowedBook(emma, today.minusDays(20), today.minusDays(6), null));
+            check("ledger fine matches calculateFine", ledger.fineFor(2, today) == objectFine);
+            check("per-book history", ledger.timesBorrowed(1) == 2 && ledger.currentBorrower(1) == 1
+                    && ledger.currentBorrower(2) == 2 && ledger.currentBorrower(3) == -1);
+            check("per-member history", ledger.loanCount(2) == 2 && ledger.rowsForMember(2).length == 2
+                    && ledger.getReturnDate(ledger.rowsForMember(2)[1]) != null);
+
+            LibraryReport report = service.getReport();
+            check("report carries the loan figures", report.hasLoanFigures() && report.getOpenLoans() == 2
+                    && report.getOverdueLoans() == 1 && report.getOutstandingFines() == 6 * LibraryService.DAILY_FINE);
+
+            insertHistory(today);
+            long start = System.nanoTime();
+            ledger = handler.loadLoanLedger();
+            long loaded = System.nanoTime() - start;
+            System.out.printf("      %d loans loaded in %.1f ms%n", ledger.size(), loaded / 1e6);
+            check("random history: size", ledger.size() == count(conn, "SELECT COUNT(*) FROM borrowed_books"));
+            check("random history: open loans", ledger.openLoanCount()
+                    == count(conn, "SELECT COUNT(*) FROM borrowed_books WHERE return_date IS NULL"));
+            check("random history: overdue loans", ledger.overdueCount(today) == count(conn,
+                    "SELECT COUNT(*) FROM borrowed_books WHERE return_date IS NULL AND due_date < '" + today + "'"));
+            String daysOverdue = "CAST(julianday('" + today + "') - julianday(due_date) AS INTEGER)";
+            long overdueDays = count(conn, "SELECT TOTAL(" + daysOverdue + ") FROM borrowed_books"
+                    + " WHERE return_date IS NULL AND due_date < '" + today + "'");
+            check("random history: total fines", ledger.totalFines(today) == overdueDays * LibraryService.DAILY_FINE);
+            boolean membersMatch = true;
+            for (int member = 1; member <= MEMBERS && membersMatch; member += 7) {
+                long days = count(conn, "SELECT TOTAL(" + daysOverdue + ") FROM borrowed_books WHERE member_id = " + member
+                        + " AND return_date IS NULL AND due_date < '" + today + "'");
+                membersMatch = ledger.fineFor(member, today) == days * LibraryService.DAILY_FINE
+                        && ledger.loanCount(member) == count(conn, "SELECT COUNT(*) FROM borrowed_books WHERE member_id = " + member);
+            }
+            check("random history: per-member fines and loan counts", membersMatch);
+            boolean booksMatch = true;
+            for (int book = 1; book <= BOOKS && booksMatch; book += 13) {
+                booksMatch = ledger.timesBorrowed(book) == count(conn, "SELECT COUNT(*) FROM borrowed_books WHERE book_id = " + book);
+            }
+            check("random history: times borrowed", booksMatch);
+            LocalDate from = today.minusDays(200);
+            LocalDate to = today.minusDays(100);
+            check("random history: checkouts in a range", ledger.checkoutsBetween(from, to) == count(conn,
+                    "SELECT COUNT(*) FROM borrowed_books WHERE borrow_date BETWEEN '" + from + "' AND '" + to + "'"));
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("loan ledger");
+    }
+
+    /** Random loans over the last two years, most returned, some still out and overdue. */
+    private static void insertHistory(LocalDate today) throws SQLException {
+        Random random = new Random(38);
+        UnitOfWork.execute(() -> {
+            try (PreparedStatement pstmt = UnitOfWork.currentConnection().prepareStatement(
+                    "INSERT INTO borrowed_books (book_id, member_id, borrow_date, due_date, return_date) VALUES (?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < HISTORY; i++) {
+                    LocalDate borrowed = today.minusDays(random.nextInt(730));
+                    LocalDate due = borrowed.plusDays(7 + random.nextInt(21));
+                    LocalDate returned = random.nextInt(10) == 0 ? null : borrowed.plusDays(random.nextInt(40));
+                    pstmt.setInt(1, 1 + random.nextInt(BOOKS));
+                    pstmt.setInt(2, 1 + random.nextInt(MEMBERS));
+                    pstmt.setString(3, borrowed.toString());
+                    pstmt.setString(4, due.toString());
+                    pstmt.setString(5, returned != null ? returned.toString() : null);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+        });
+    }
+
+    private static long count(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? (long) rs.getDouble(1) : -1;
+        }
+    }
+}
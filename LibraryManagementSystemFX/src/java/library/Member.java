@@ -1,22 +1,29 @@
 package library;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
 
 /**
  * Library member.
  * Inherits from User and maintains a list of borrowed books.
  * Business rules are delegated to LibraryService.
+ * Safe to share between threads: the loan list is copy-on-write (a member has a handful
+ * of loans, read far more often than changed) and the balance changes atomically.
+ * LibraryService still locks the member so a multi-step change is not interleaved.
  */
 public class Member extends User {
 
-    private double balance;
-    private final List<BorrowedBook> borrowedBooks = new ArrayList<>();
+    /** Balance as the bits of a double, so fines and payments can compare-and-set it. */
+    private final AtomicLong balanceBits = new AtomicLong(Double.doubleToLongBits(0.0));
+    /** Row version as last read or written; every write bumps it, and a save from an older version is refused. */
+    private volatile int version;
+    private final List<BorrowedBook> borrowedBooks = new CopyOnWriteArrayList<>();
 
     public Member(int id, String name, String password) {
         super(id, name, password);
-        this.balance = 0.0;
     }
 
     /**
@@ -43,23 +50,40 @@ public class Member extends User {
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount must be positive.");
         }
-        balance = Math.max(0, balance - amount);
+        updateBalance(balance -> Math.max(0, balance - amount));
     }
 
     public void addFine(double amount) {
         if (amount < 0) {
             throw new IllegalArgumentException("Fine amount cannot be negative.");
         }
-        balance += amount;
+        updateBalance(balance -> balance + amount);
+    }
+
+    private void updateBalance(DoubleUnaryOperator change) {
+        long bits;
+        do {
+            bits = balanceBits.get();
+        } while (!balanceBits.compareAndSet(bits,
+                Double.doubleToLongBits(change.applyAsDouble(Double.longBitsToDouble(bits)))));
     }
 
     public double getBalance() {
-        return balance;
+        return Double.longBitsToDouble(balanceBits.get());
     }
 
     /** Used when loading member from database. */
     public void setBalance(double balance) {
-        this.balance = balance >= 0 ? balance : 0;
+        balanceBits.set(Double.doubleToLongBits(balance >= 0 ? balance : 0));
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /** Used when loading member from database. */
+    public void setVersion(int version) {
+        this.version = version;
     }
 
     public List<BorrowedBook> getBorrowedBooks() {
@@ -1,8 +1,6 @@
 package library;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Repository for managing Member persistence.
@@ -17,16 +15,9 @@ public class MemberRepository {
         this.dataHandler = dataHandler;
     }
 
+    /** Inserts or updates one member; every DataHandler saves by id, so the rest is left alone. */
     public void save(Member member) {
-        List<Member> all = new ArrayList<>(dataHandler.readData());
-
-        // Remove existing instance if present
-        all = all.stream()
-                .filter(m -> m.getId() != member.getId())
-                .collect(Collectors.toList());
-
-        all.add(member);
-        dataHandler.saveData(all);
+        dataHandler.saveData(List.of(member));
     }
 
     public void deleteData(int id) {
@@ -36,4 +27,8 @@ public class MemberRepository {
     public List<Member> findAll() {
         return dataHandler.readData();
     }
+
+    public List<Member> findPage(int offset, int limit) {
+        return dataHandler.readPage(offset, limit);
+    }
 }
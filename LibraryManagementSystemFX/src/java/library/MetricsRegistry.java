@@ -0,0 +1,72 @@
+package library;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of operation metrics, keyed by name ("SQLiteBookHandler.readData").
+ * Lookups are lock-free; decorators resolve their OperationMetrics once and keep them.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, OperationMetrics> metrics = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /** Returns the metrics for name, creating them on first use. */
+    public OperationMetrics operation(String name) {
+        OperationMetrics existing = metrics.get(name);
+        return existing != null ? existing : metrics.computeIfAbsent(name, OperationMetrics::new);
+    }
+
+    /**
+     * Counts an error that was handled (logged and swallowed) where it happened,
+     * so it still shows up next to the operation's timings.
+     */
+    public void recordError(String name, Throwable error) {
+        operation(name).recordError(-1, error);
+    }
+
+    /** Snapshots of all operations, sorted by name. */
+    public List<MetricsSnapshot> snapshot() {
+        List<MetricsSnapshot> result = new ArrayList<>(metrics.size());
+        for (OperationMetrics m : metrics.values()) {
+            result.add(m.snapshot());
+        }
+        result.sort(Comparator.comparing(MetricsSnapshot::getName));
+        return result;
+    }
+
+    public Duration getUptime() {
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+
+    /** Plain-text table of all metrics, for export or pasting into a bug report. */
+    public String formatSnapshot() {
+        double seconds = Math.max(1e-9, getUptime().toNanos() / 1e9);
+        StringBuilder out = new StringBuilder();
+        out.append("Library metrics snapshot ").append(LocalDateTime.now())
+                .append(" (uptime ").append(getUptime().toSeconds()).append(" s)\n");
+        out.append(String.format(Locale.ROOT, "%-40s %10s %8s %9s %10s %10s %10s %10s %10s%n",
+                "operation", "calls", "errors", "avg/s", "mean us", "p50 us", "p99 us", "p999 us", "max us"));
+        for (MetricsSnapshot s : snapshot()) {
+            out.append(String.format(Locale.ROOT, "%-40s %10d %8d %9.2f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    s.getName(), s.getCalls(), s.getErrors(), s.getCalls() / seconds, s.getMeanMicros(),
+                    s.getP50Micros(), s.getP99Micros(), s.getP999Micros(), s.getMaxMicros()));
+            if (s.getLastError() != null) {
+                out.append("    last error: ").append(s.getLastError()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
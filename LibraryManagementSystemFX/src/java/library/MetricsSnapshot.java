@@ -0,0 +1,68 @@
+package library;
+
+/**
+ * DTO holding a point-in-time copy of one operation's metrics. Latencies are in microseconds.
+ */
+public final class MetricsSnapshot {
+
+    private final String name;
+    private final long calls;
+    private final long errors;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+    private final String lastError;
+
+    public MetricsSnapshot(String name, long calls, long errors, double meanMicros,
+                           double p50Micros, double p99Micros, double p999Micros, double maxMicros,
+                           String lastError) {
+        this.name = name;
+        this.calls = calls;
+        this.errors = errors;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+        this.lastError = lastError;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getP999Micros() {
+        return p999Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    /** Last error message, or null if the operation never failed. */
+    public String getLastError() {
+        return lastError;
+    }
+}
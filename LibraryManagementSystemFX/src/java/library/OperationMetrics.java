@@ -0,0 +1,67 @@
+package library;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histogram for one named operation.
+ * All updates are lock-free (LongAdder and atomic histogram buckets).
+ */
+public class OperationMetrics {
+
+    private final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile String lastError;
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    /** Records a completed call and how long it took. */
+    public void record(long nanos) {
+        calls.increment();
+        latency.record(nanos);
+    }
+
+    /** Records a call that failed (timed or not). */
+    public void recordError(long nanos, Throwable error) {
+        if (nanos >= 0) {
+            record(nanos);
+        }
+        errors.increment();
+        lastError = error.getClass().getSimpleName() + ": " + error.getMessage();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /** Point-in-time copy for display and export. */
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(name, calls.sum(), errors.sum(),
+                latency.getMeanNanos() / 1000.0,
+                latency.getPercentile(50, TimeUnit.MICROSECONDS),
+                latency.getPercentile(99, TimeUnit.MICROSECONDS),
+                latency.getPercentile(99.9, TimeUnit.MICROSECONDS),
+                latency.getMaxNanos() / 1000.0,
+                lastError);
+    }
+}
@@ -0,0 +1,91 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * Loads two copies of the same member and of the same book, as two desks would, and saves
+ * both: the first save wins and the stale one is refused instead of overwriting it. A
+ * refused save inside a unit of work rolls the unit back, and LibraryService reports it as
+ * a failed operation with the member's balance restored. Checkouts move the row version
+ * too, so the Book that was checked out must still save afterwards. Runs against a
+ * throwaway database; exits with status 1 on the first failed check.
+ */
+public class OptimisticLockingTest {
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-versions-");
+        try {
+            SQLiteMemberHandler memberHandler = new SQLiteMemberHandler();
+            SQLiteBookHandler bookHandler = new SQLiteBookHandler();
+            MemberRepository members = new MemberRepository(memberHandler);
+            BookRepository books = new BookRepository(bookHandler);
+            members.save(new Member(1, "Ann", "pw"));
+            books.save(new Book(1, "Dune", "Frank Herbert"));
+
+            Member deskA = memberHandler.readData().get(0);
+            Member deskB = memberHandler.readData().get(0);
+            deskA.setBalance(5.0);
+            members.save(deskA);
+            deskB.setBalance(1.0);
+            members.save(deskB);
+            Member stored = memberHandler.readData().get(0);
+            check("stale member save is refused", stored.getBalance() == 5.0 && stored.getVersion() == 1);
+            check("the winner follows its row", deskA.getVersion() == 1 && deskB.getVersion() == 0);
+            deskA.setBalance(4.0);
+            members.save(deskA);
+            check("the winner saves again", memberHandler.readData().get(0).getBalance() == 4.0);
+            check("a stale save fails its unit of work", rolledBack(() -> members.save(deskB)));
+
+            Book bookA = bookHandler.readData().get(0);
+            Book bookB = bookHandler.readData().get(0);
+            bookA.setCoverPath("covers/dune.png");
+            books.save(bookA);
+            bookB.setAvailable(false);
+            books.save(bookB);
+            Book storedBook = bookHandler.readData().get(0);
+            check("stale book save is refused", "covers/dune.png".equals(storedBook.getCoverPath())
+                    && storedBook.isAvailable() && storedBook.getVersion() == 1);
+
+            LibraryService service = new LibraryService(members, books);
+            Member current = memberHandler.readData().get(0);
+            Member stale = memberHandler.readData().get(0);
+            service.payFine(current, 2.0);
+            boolean refused = false;
+            try {
+                service.payFine(stale, 2.0);
+            } catch (IllegalStateException e) {
+                refused = e.getMessage().contains("changed elsewhere");
+            }
+            check("a stale payment is reported, not applied", refused && stale.getBalance() == 4.0
+                    && memberHandler.readData().get(0).getBalance() == 2.0);
+
+            Book onShelf = bookHandler.readData().get(0);
+            service.clearFine(current);
+            service.borrowBook(current, onShelf, LocalDate.now().plusDays(14));
+            service.returnBook(current, onShelf);
+            onShelf.setCoverPath("covers/dune-ace.png");
+            books.save(onShelf);
+            Book reread = bookHandler.readData().get(0);
+            check("checkouts keep the Book's version in step", "covers/dune-ace.png".equals(reread.getCoverPath())
+                    && onShelf.getVersion() == reread.getVersion());
+            check("stale copies stay refused after checkouts", rolledBack(() -> books.save(bookA)));
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("optimistic locking");
+    }
+
+    private static boolean rolledBack(UnitOfWork.Action save) {
+        try {
+            UnitOfWork.execute(save);
+            return false;
+        } catch (SQLException e) {
+            return e.getMessage().contains("changed elsewhere");
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable map from non-negative int ids to values, iterated in id order.
+ * A change returns a new map that shares everything but the path to the changed entry:
+ * a bitmapped trie of 32-way nodes indexed by five bits of the id at a time, high bits
+ * first, so the old map stays valid for whoever still reads it and a change copies at
+ * most seven small nodes. An id sits as high up as it can (the first level where no other
+ * id shares its slot), so small maps are shallow.
+ */
+public final class PersistentIntMap<V> {
+
+    private static final int BITS = 5;
+    private static final int TOP_SHIFT = 30;
+
+    private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(new Node(0, new Object[0]), 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentIntMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return the value for id, or null */
+    @SuppressWarnings("unchecked")
+    public V get(int id) {
+        Node node = root;
+        for (int shift = TOP_SHIFT; ; shift -= BITS) {
+            int bit = bit(id, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = node.slots[node.index(bit)];
+            if (slot instanceof Leaf leaf) {
+                return leaf.id == id ? (V) leaf.value : null;
+            }
+            node = (Node) slot;
+        }
+    }
+
+    public boolean containsKey(int id) {
+        return get(id) != null;
+    }
+
+    /** This map with id set to value (not null). */
+    public PersistentIntMap<V> with(int id, V value) {
+        if (id < 0 || value == null) {
+            throw new IllegalArgumentException("Id must not be negative and value not null: " + id);
+        }
+        boolean[] added = new boolean[1];
+        Node root = with(this.root, TOP_SHIFT, new Leaf(id, value), added);
+        return root == this.root ? this : new PersistentIntMap<>(root, added[0] ? size + 1 : size);
+    }
+
+    /** This map with the value for id replaced by change(value); unchanged if id is absent. */
+    public PersistentIntMap<V> update(int id, UnaryOperator<V> change) {
+        V value = get(id);
+        return value == null ? this : with(id, change.apply(value));
+    }
+
+    /** This map without id. */
+    public PersistentIntMap<V> without(int id) {
+        if (get(id) == null) {
+            return this;
+        }
+        Object root = without(this.root, TOP_SHIFT, id);
+        if (root == null) {
+            return empty();
+        }
+        // The root stays a node, even with a single entry left
+        return new PersistentIntMap<>(root instanceof Node node ? node : with(new Node(0, new Object[0]),
+                TOP_SHIFT, (Leaf) root, new boolean[1]), size - 1);
+    }
+
+    /** Visits the values in id order. */
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super V> action) {
+        forEach(root, leaf -> action.accept((V) leaf.value));
+    }
+
+    /** The values in id order. */
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size);
+        forEach(values::add);
+        return values;
+    }
+
+    private static void forEach(Node node, Consumer<Leaf> action) {
+        for (Object slot : node.slots) {
+            if (slot instanceof Leaf leaf) {
+                action.accept(leaf);
+            } else {
+                forEach((Node) slot, action);
+            }
+        }
+    }
+
+    private static Node with(Node node, int shift, Leaf leaf, boolean[] added) {
+        int bit = bit(leaf.id, shift);
+        int index = node.index(bit);
+        if ((node.bitmap & bit) == 0) {
+            added[0] = true;
+            return node.insert(bit, index, leaf);
+        }
+        Object slot = node.slots[index];
+        if (slot instanceof Node child) {
+            Node changed = with(child, shift - BITS, leaf, added);
+            return changed == child ? node : node.replace(index, changed);
+        }
+        Leaf existing = (Leaf) slot;
+        if (existing.id == leaf.id) {
+            return existing.value == leaf.value ? node : node.replace(index, leaf);
+        }
+        // Two ids share this slot: push both one level down
+        Node child = with(with(new Node(0, new Object[0]), shift - BITS, existing, added), shift - BITS, leaf, added);
+        added[0] = true;
+        return node.replace(index, child);
+    }
+
+    /** @return the node without id, or the single leaf left in it, or null if nothing is left */
+    private static Object without(Node node, int shift, int id) {
+        int bit = bit(id, shift);
+        int index = node.index(bit);
+        Object slot = node.slots[index];
+        Object changed = slot instanceof Node child ? without(child, shift - BITS, id) : null;
+        Node result = changed == null ? node.remove(bit, index) : node.replace(index, changed);
+        if (result.slots.length == 0) {
+            return null;
+        }
+        if (result.slots.length == 1 && result.slots[0] instanceof Leaf only) {
+            // Collapse, so an id moves back up once it no longer shares a slot
+            return only;
+        }
+        return result;
+    }
+
+    private static int bit(int id, int shift) {
+        return 1 << ((id >>> shift) & 0x1F);
+    }
+
+    private static final class Leaf {
+        final int id;
+        final Object value;
+
+        Leaf(int id, Object value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    /** Slots for the set bits only, in bit order: each a Leaf or a deeper Node. Never changed once built. */
+    private static final class Node {
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        Node insert(int bit, int index, Object slot) {
+            Object[] slots = new Object[this.slots.length + 1];
+            System.arraycopy(this.slots, 0, slots, 0, index);
+            slots[index] = slot;
+            System.arraycopy(this.slots, index, slots, index + 1, this.slots.length - index);
+            return new Node(bitmap | bit, slots);
+        }
+
+        Node replace(int index, Object slot) {
+            Object[] slots = this.slots.clone();
+            slots[index] = slot;
+            return new Node(bitmap, slots);
+        }
+
+        Node remove(int bit, int index) {
+            Object[] slots = new Object[this.slots.length - 1];
+            System.arraycopy(this.slots, 0, slots, 0, index);
+            System.arraycopy(this.slots, index + 1, slots, index, slots.length - index);
+            return new Node(bitmap & ~bit, slots);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package library;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the hot per-row queries are served by an index, not a full table scan.
+ * Runs against a throwaway database; exits with status 1 if any plan scans a table.
+ */
+public class QueryPlanTest {
+
+    private static final String[] HOT_QUERIES = {
+            SQLiteBookHandler.DELETE_BOOK_SQL,
+            SQLiteBookHandler.BOOK_EXISTS_SQL,
+            SQLiteBookHandler.UPDATE_BOOK_SQL,
+            SQLiteBookHandler.CHECKOUT_SQL,
+            SQLiteBookHandler.CHECKIN_SQL,
+            SQLiteBookHandler.ADD_COPIES_SQL,
+            SQLiteBookHandler.BARCODE_SQL,
+            SQLiteBookHandler.BARCODES_FOR_BOOK_SQL,
+            SQLiteMemberHandler.DELETE_MEMBER_SQL,
+            SQLiteMemberHandler.MEMBER_EXISTS_SQL,
+            SQLiteMemberHandler.UPDATE_MEMBER_SQL,
+            SQLiteBorrowedBookHandler.MARK_RETURNED_SQL,
+            SQLiteBorrowedBookHandler.MARK_MEMBER_RETURNED_SQL,
+            SQLiteBorrowedBookHandler.IS_BORROWED_SQL,
+            SQLiteBorrowedBookHandler.CURRENT_BORROWER_SQL,
+            SQLiteBorrowedBookHandler.LAST_BORROWER_SQL,
+            SQLiteBorrowedBookHandler.DUE_DATE_SQL,
+            SQLiteBorrowedBookHandler.LOANS_FOR_MEMBER_SQL,
+            CirculationLog.MEMBER_EVENTS_SQL,
+            CirculationLog.BOOK_EVENTS_SQL,
+            CirculationLog.EVENTS_AFTER_SQL,
+            CirculationLog.SNAPSHOT_AT_SQL,
+            HoldQueue.PROMOTE_SQL,
+            HoldQueue.TRANSITION_SQL,
+            HoldQueue.MEMBER_HOLDS_SQL,
+    };
+
+    public static void main(String[] args) throws Exception {
+        File db = File.createTempFile("library-plan-", ".db");
+        db.delete();
+        SQLiteConnectionManager.useDatabaseFile(db.getPath());
+        List<String> failures = new ArrayList<>();
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            for (String sql : HOT_QUERIES) {
+                List<String> plan = SqlTracer.explain(conn, sql);
+                boolean scans = plan.stream().anyMatch(SqlTracer::isFullScan);
+                System.out.println((scans ? "SCAN  " : "OK    ") + sql + "\n      " + String.join("\n      ", plan));
+                if (scans) {
+                    failures.add(sql);
+                }
+            }
+        } finally {
+            SQLiteConnectionManager.closeConnection();
+            db.delete();
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("SUCCESS: all " + HOT_QUERIES.length + " hot queries use an index.");
+        } else {
+            System.out.println("FAILURE: " + failures.size() + " hot queries scan a table:");
+            failures.forEach(sql -> System.out.println("  " + sql));
+            System.exit(1);
+        }
+    }
+}
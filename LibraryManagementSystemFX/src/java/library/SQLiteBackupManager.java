@@ -0,0 +1,275 @@
+package library;
+
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.DB;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Online (hot) backup of library.db using SQLite's backup API.
+ * Copies run on a background thread over a dedicated connection, a bounded number
+ * of pages per step with a short pause between steps, so desk writes are not starved.
+ * Snapshots are timestamped files in a "backups" folder next to the database; only
+ * the newest ones are kept.
+ */
+public class SQLiteBackupManager {
+
+    public static final int DEFAULT_PAGES_PER_STEP = 256;
+    public static final long DEFAULT_STEP_PAUSE_MILLIS = 10;
+    public static final int DEFAULT_SNAPSHOTS_TO_KEEP = 7;
+
+    /** Sleep and retry budget when a step finds the source locked by a writer. */
+    private static final int BUSY_SLEEP_MILLIS = 50;
+    private static final int BUSY_RETRIES = 200;
+    /**
+     * Writes from other connections restart the copy. After this many restarts the
+     * pause is dropped so the backup can finish even under a steady stream of writes.
+     */
+    private static final int MAX_THROTTLED_RESTARTS = 3;
+
+    private static final String SNAPSHOT_PREFIX = "library-";
+    private static final String SNAPSHOT_SUFFIX = ".db";
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("library-\\d{8}-\\d{6}\\.db");
+    private static final DateTimeFormatter STAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final File backupDir;
+    private final int pagesPerStep;
+    private final long stepPauseMillis;
+    private final int snapshotsToKeep;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "library-backup");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    public SQLiteBackupManager() {
+        this(new File(SQLiteConnectionManager.getDatabaseDirectory(), "backups"),
+                DEFAULT_PAGES_PER_STEP, DEFAULT_STEP_PAUSE_MILLIS, DEFAULT_SNAPSHOTS_TO_KEEP);
+    }
+
+    public SQLiteBackupManager(File backupDir, int pagesPerStep, long stepPauseMillis, int snapshotsToKeep) {
+        if (pagesPerStep <= 0 || stepPauseMillis < 0 || snapshotsToKeep <= 0) {
+            throw new IllegalArgumentException("Invalid backup settings.");
+        }
+        this.backupDir = backupDir;
+        this.pagesPerStep = pagesPerStep;
+        this.stepPauseMillis = stepPauseMillis;
+        this.snapshotsToKeep = snapshotsToKeep;
+    }
+
+    /**
+     * Starts a backup on the background thread.
+     * @return future completed with the new snapshot file
+     */
+    public CompletableFuture<File> backupAsync() {
+        CompletableFuture<File> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                result.complete(backupNow());
+            } catch (Exception e) {
+                System.err.println("Error backing up database: " + e.getMessage());
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /** Runs a backup every interval on the background thread, first one after one interval. */
+    public void scheduleBackups(long interval, TimeUnit unit) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                backupNow();
+            } catch (Exception e) {
+                System.err.println("Error in scheduled backup: " + e.getMessage());
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Takes a snapshot on the calling thread and prunes old ones.
+     * The copy is written to a ".part" file and renamed only once complete,
+     * so a crash never leaves a torn snapshot that looks valid.
+     */
+    public File backupNow() throws SQLException, IOException {
+        ensureBackupDirectoryExists();
+        File target = new File(backupDir, SNAPSHOT_PREFIX + LocalDateTime.now().format(STAMP_FORMATTER) + SNAPSHOT_SUFFIX);
+        File partial = new File(backupDir, target.getName() + ".part");
+
+        try (Connection source = SQLiteConnectionManager.openDedicatedConnection()) {
+            DB db = source.unwrap(SQLiteConnection.class).getDatabase();
+            int rc = db.backup("main", partial.getAbsolutePath(), new ThrottlingObserver(),
+                    BUSY_SLEEP_MILLIS, BUSY_RETRIES, pagesPerStep);
+            if (rc != 0) {
+                throw new SQLException("Backup failed with SQLite result code " + rc);
+            }
+        } catch (SQLException e) {
+            Files.deleteIfExists(partial.toPath());
+            throw e;
+        }
+
+        Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        pruneOldSnapshots();
+        return target;
+    }
+
+    /** Returns rotated snapshots, newest first. */
+    public List<File> listSnapshots() {
+        File[] files = backupDir.listFiles((dir, name) -> SNAPSHOT_NAME.matcher(name).matches());
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<File> snapshots = new ArrayList<>(Arrays.asList(files));
+        // Timestamped names sort chronologically
+        snapshots.sort(Comparator.comparing(File::getName).reversed());
+        return snapshots;
+    }
+
+    /**
+     * Restores the live database from a snapshot.
+     * The snapshot is checked first, and the current contents are saved as a
+     * "pre-restore" copy (outside rotation) so a wrong restore can be undone.
+     */
+    public void restore(File snapshot) throws SQLException, IOException {
+        if (!snapshot.isFile()) {
+            throw new IllegalArgumentException("Snapshot not found: " + snapshot.getAbsolutePath());
+        }
+        verifySnapshot(snapshot);
+
+        ensureBackupDirectoryExists();
+        File safetyCopy = new File(backupDir, "pre-restore-" + LocalDateTime.now().format(STAMP_FORMATTER) + SNAPSHOT_SUFFIX);
+        // No restore without the copy that undoes it
+        try (Connection source = SQLiteConnectionManager.openDedicatedConnection()) {
+            int rc = source.unwrap(SQLiteConnection.class).getDatabase()
+                    .backup("main", safetyCopy.getAbsolutePath(), null, BUSY_SLEEP_MILLIS, BUSY_RETRIES, pagesPerStep);
+            if (rc != 0) {
+                throw new SQLException("Pre-restore copy failed with SQLite result code " + rc + "; nothing restored");
+            }
+        } catch (SQLException e) {
+            Files.deleteIfExists(safetyCopy.toPath());
+            throw e;
+        }
+
+        // Restore through the shared connection so the running app sees the restored data
+        DB db = SQLiteConnectionManager.getConnection().unwrap(SQLiteConnection.class).getDatabase();
+        int rc = db.restore("main", snapshot.getAbsolutePath(), null, BUSY_SLEEP_MILLIS, BUSY_RETRIES, pagesPerStep);
+        if (rc != 0) {
+            throw new SQLException("Restore failed with SQLite result code " + rc);
+        }
+        // The restored change counters may match a snapshot of different data
+        CatalogSnapshot.defaultFile().delete();
+    }
+
+    /** Stops scheduled backups; a backup already running is allowed to finish. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void verifySnapshot(File snapshot) throws SQLException {
+        String url = "jdbc:sqlite:" + snapshot.getAbsolutePath().replace("\\", "/");
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA quick_check")) {
+            String result = rs.next() ? rs.getString(1) : "no result";
+            if (!"ok".equalsIgnoreCase(result)) {
+                throw new SQLException("Snapshot failed integrity check: " + result);
+            }
+        }
+    }
+
+    private void pruneOldSnapshots() {
+        List<File> snapshots = listSnapshots();
+        for (int i = snapshotsToKeep; i < snapshots.size(); i++) {
+            File old = snapshots.get(i);
+            if (!old.delete()) {
+                System.err.println("Could not delete old backup: " + old.getAbsolutePath());
+            }
+        }
+    }
+
+    private void ensureBackupDirectoryExists() {
+        if (!backupDir.exists()) {
+            backupDir.mkdirs();
+        }
+    }
+
+    /**
+     * Called by SQLite after each step: pauses the backup thread so foreground
+     * writers can take the lock between steps.
+     */
+    private class ThrottlingObserver implements DB.ProgressObserver {
+        private int lastRemaining = Integer.MAX_VALUE;
+        private int restarts = 0;
+
+        @Override
+        public void progress(int remaining, int pageCount) {
+            if (remaining > lastRemaining) {
+                restarts++;
+            }
+            lastRemaining = remaining;
+            if (remaining == 0 || restarts > MAX_THROTTLED_RESTARTS || stepPauseMillis == 0) {
+                return;
+            }
+            try {
+                Thread.sleep(stepPauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Command line entry point:
+     *   backup            take a snapshot now
+     *   list              list rotated snapshots, newest first
+     *   restore FILE      restore library.db from FILE
+     */
+    public static void main(String[] args) {
+        SQLiteBackupManager manager = new SQLiteBackupManager();
+        try {
+            String command = args.length > 0 ? args[0] : "backup";
+            switch (command) {
+                case "backup" -> System.out.println("Backup written: " + manager.backupNow().getAbsolutePath());
+                case "list" -> manager.listSnapshots().forEach(f ->
+                        System.out.println(f.getName() + "  (" + (f.length() / 1024) + " KB)"));
+                case "restore" -> {
+                    if (args.length < 2) {
+                        System.err.println("Usage: restore <snapshot file>");
+                        System.exit(2);
+                    }
+                    manager.restore(new File(args[1]));
+                    System.out.println("Restored " + SQLiteConnectionManager.getDatabasePath() + " from " + args[1]);
+                }
+                default -> {
+                    System.err.println("Unknown command: " + command + " (expected backup, list or restore)");
+                    System.exit(2);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Backup command failed: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            manager.shutdown();
+            SQLiteConnectionManager.closeConnection();
+        }
+    }
+}
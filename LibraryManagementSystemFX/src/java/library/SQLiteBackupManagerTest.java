@@ -0,0 +1,124 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Backs up a populated database, changes it, and restores the snapshot: the rows must be
+ * back as they were, and the changed contents must be kept in a pre-restore copy outside
+ * rotation. Also checks that only the newest snapshots are kept and that a missing or
+ * corrupt snapshot is refused without touching the live data, and that nothing is restored
+ * when the pre-restore copy cannot be written. Runs against a throwaway
+ * database; exits with status 1 on the first failed check.
+ */
+public class SQLiteBackupManagerTest {
+
+    private static final int SNAPSHOTS_TO_KEEP = 2;
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-backup-");
+        File backupDir = new File(db.getParentFile(), "backups");
+        SQLiteBackupManager manager = new SQLiteBackupManager(backupDir, 8, 0, SNAPSHOTS_TO_KEEP);
+        try {
+            LibraryService service = TestSupport.newService();
+            Member ann = new Member(1, "Ann", "pw");
+            Member bob = new Member(2, "Bob", "pw");
+            Book dune = new Book(1, "Dune", "Frank Herbert");
+            service.registerMember(ann);
+            service.registerMember(bob);
+            service.addBook(dune);
+            service.addBook(new Book(2, "Emma", "Jane Austen"));
+            service.borrowBook(ann, dune, LocalDate.now().plusDays(14));
+
+            // Older snapshots from earlier days; the new one must push the oldest out
+            backupDir.mkdirs();
+            for (String stamp : List.of("20240101-090000", "20240102-090000", "20240103-090000")) {
+                Files.writeString(new File(backupDir, "library-" + stamp + ".db").toPath(), "old");
+            }
+            Files.writeString(new File(backupDir, "notes.txt").toPath(), "not a snapshot");
+            File snapshot = manager.backupNow();
+            List<File> snapshots = manager.listSnapshots();
+            check("backup written", snapshot.isFile() && !new File(backupDir, snapshot.getName() + ".part").exists());
+            check("rotation keeps the newest", snapshots.size() == SNAPSHOTS_TO_KEEP
+                    && snapshots.get(0).equals(snapshot) && snapshots.get(1).getName().equals("library-20240103-090000.db")
+                    && !new File(backupDir, "library-20240101-090000.db").exists());
+            check("other files are left alone", new File(backupDir, "notes.txt").isFile());
+            check("snapshot holds the rows", count(snapshot, "books") == 2 && count(snapshot, "members") == 2
+                    && count(snapshot, "borrowed_books") == 1);
+
+            service.returnBook(ann, dune);
+            service.addBook(new Book(3, "Persuasion", "Jane Austen"));
+            service.removeMember(bob);
+            check("changed before restore", count("books") == 3 && count("members") == 1);
+
+            manager.restore(snapshot);
+            check("restore brings the rows back", count("books") == 2 && count("members") == 2
+                    && count("SELECT COUNT(*) FROM borrowed_books WHERE return_date IS NULL") == 1
+                    && count("SELECT available FROM books WHERE id = 1") == 0);
+            File[] safetyCopies = backupDir.listFiles((dir, name) -> name.startsWith("pre-restore-"));
+            check("pre-restore copy has the replaced contents", safetyCopies != null && safetyCopies.length == 1
+                    && count(safetyCopies[0], "books") == 3 && count(safetyCopies[0], "members") == 1);
+            check("pre-restore copy is outside rotation",
+                    manager.listSnapshots().size() == SNAPSHOTS_TO_KEEP && safetyCopies[0].isFile());
+
+            File corrupt = new File(backupDir, "library-20240104-090000.db");
+            Files.writeString(corrupt.toPath(), "this is not a database file, only some text long enough to read");
+            check("missing snapshot refused", refused(manager, new File(backupDir, "missing.db")));
+            check("corrupt snapshot refused", refused(manager, corrupt) && count("books") == 2);
+
+            // A directory where the pre-restore copy would go makes the copy fail
+            service.addBook(new Book(4, "Emma", "Jane Austen"));
+            LocalDateTime now = LocalDateTime.now();
+            for (int s = 0; s < 10; s++) {
+                String stamp = now.plusSeconds(s).format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+                File blocked = new File(backupDir, "pre-restore-" + stamp + ".db");
+                Files.deleteIfExists(blocked.toPath()); // the earlier restore may have used this second
+                Files.createDirectory(blocked.toPath());
+            }
+            check("no restore without a pre-restore copy", refused(manager, snapshot) && count("books") == 3);
+        } finally {
+            manager.shutdown();
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("backup");
+    }
+
+    private static boolean refused(SQLiteBackupManager manager, File snapshot) throws IOException {
+        try {
+            manager.restore(snapshot);
+            return false;
+        } catch (IllegalArgumentException | SQLException e) {
+            return true;
+        }
+    }
+
+    /** Row count of a table in the live database, or the single value of a query. */
+    private static int count(String tableOrQuery) throws SQLException {
+        String sql = tableOrQuery.startsWith("SELECT") ? tableOrQuery : "SELECT COUNT(*) FROM " + tableOrQuery;
+        try (Statement stmt = SQLiteConnectionManager.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    private static int count(File file, String table) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+}
@@ -6,57 +6,208 @@ import java.util.List;
 
 /**
  * SQLite-specific DataHandler implementation for Book entities.
+ * Copies of a title share its books row: copies and available_copies count them and the
+ * barcodes are in book_copies. available mirrors available_copies &gt; 0 for older readers.
  */
-public class SQLiteBookHandler implements DataHandler<Book> {
+public class SQLiteBookHandler implements DataHandler<Book>, BookCheckout, BookCopies {
+
+    // Hot queries; package-visible so QueryPlanTest can check they stay indexed
+    static final String DELETE_BOOK_SQL = "DELETE FROM books WHERE id = ?";
+    static final String BOOK_EXISTS_SQL = "SELECT COUNT(*) FROM books WHERE id = ?";
+    // Only if the row is still at the version the Book was read at; see updateBook.
+    // Copy counts are left alone: they change only through the conditional UPDATEs below
+    static final String UPDATE_BOOK_SQL = "UPDATE books SET title = ?, author = ?, cover_path = ?, "
+            + "version = version + 1 WHERE id = ? AND version = ?";
+    // Right-hand sides see the old row, so available is whether a copy is left after this one
+    static final String CHECKOUT_SQL = "UPDATE books SET available_copies = available_copies - 1, "
+            + "available = available_copies > 1, version = version + 1 WHERE id = ? AND available_copies > 0";
+    static final String CHECKIN_SQL = "UPDATE books SET available_copies = available_copies + 1, "
+            + "available = 1, version = version + 1 WHERE id = ? AND available_copies < copies";
+    static final String ADD_COPIES_SQL = "UPDATE books SET copies = copies + ?, available_copies = available_copies + ?, "
+            + "available = 1, version = version + 1 WHERE id = ?";
+    static final String BARCODE_SQL = "SELECT book_id FROM book_copies WHERE barcode = ?";
+    static final String BARCODES_FOR_BOOK_SQL = "SELECT barcode FROM book_copies WHERE book_id = ? ORDER BY barcode";
+    private static final String COLUMNS = "id, title, author, available, copies, available_copies, cover_path, version";
+    private static final String SEARCH_SQL = "SELECT " + COLUMNS + " FROM books"
+            + " WHERE title LIKE ? ESCAPE '\\' OR author LIKE ? ESCAPE '\\' ORDER BY id";
 
     @Override
     public void saveData(List<Book> books) {
         try {
-            Connection conn = SQLiteConnectionManager.getConnection();
-            for (Book book : books) {
-                if (bookExists(conn, book.getId())) {
-                    updateBook(conn, book);
-                } else {
-                    insertBook(conn, book);
+            // One transaction for the whole list (joins the caller's unit of work if there is one)
+            UnitOfWork.execute(() -> {
+                Connection conn = SQLiteConnectionManager.getConnection();
+                for (Book book : books) {
+                    if (bookExists(conn, book.getId())) {
+                        updateBook(conn, book);
+                    } else {
+                        insertBook(conn, book);
+                    }
                 }
-            }
+            });
         } catch (SQLException e) {
             System.err.println("Error saving books: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBookHandler.saveData", e);
+            UnitOfWork.markRollbackOnly(e);
         }
     }
 
     @Override
     public List<Book> readData() {
         List<Book> books = new ArrayList<>();
-        String sql = "SELECT id, title, author, available, cover_path FROM books ORDER BY id";
+        String sql = "SELECT " + COLUMNS + " FROM books ORDER BY id";
 
         try {
             Connection conn = SQLiteConnectionManager.getConnection();
             try (Statement stmt = conn.createStatement();
                  ResultSet rs = stmt.executeQuery(sql)) {
                 while (rs.next()) {
-                    int id = rs.getInt("id");
-                    String title = rs.getString("title");
-                    String author = rs.getString("author");
-                    boolean available = rs.getInt("available") != 0;
-                    String coverPath = rs.getString("cover_path");
-
-                    Book book = new Book(id, title, author);
-                    book.setAvailable(available);
-                    if (coverPath != null && !coverPath.isBlank()) book.setCoverPath(coverPath);
-                    books.add(book);
+                    books.add(mapBook(rs));
                 }
             }
         } catch (SQLException e) {
             System.err.println("Error reading books: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBookHandler.readData", e);
+        }
+
+        return books;
+    }
+
+    @Override
+    public List<Book> readPage(int offset, int limit) {
+        List<Book> books = new ArrayList<>();
+        String sql = "SELECT " + COLUMNS + " FROM books ORDER BY id LIMIT ? OFFSET ?";
+
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, limit);
+                pstmt.setInt(2, offset);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        books.add(mapBook(rs));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading page of books: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBookHandler.readPage", e);
         }
 
         return books;
     }
 
+    /**
+     * Books whose title or author contains term (case-insensitive for ASCII), in id order.
+     * A substring match cannot use an index; this reads the whole table.
+     */
+    public List<Book> search(String term) {
+        List<Book> books = new ArrayList<>();
+        String pattern = "%" + term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(SEARCH_SQL)) {
+                pstmt.setString(1, pattern);
+                pstmt.setString(2, pattern);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        books.add(mapBook(rs));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error searching books: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBookHandler.search", e);
+        }
+        return books;
+    }
+
+    private static Book mapBook(ResultSet rs) throws SQLException {
+        int id = rs.getInt("id");
+        String title = rs.getString("title");
+        String author = rs.getString("author");
+        String coverPath = rs.getString("cover_path");
+
+        Book book = new Book(id, title, author);
+        book.setCopies(rs.getInt("copies"));
+        book.setAvailableCopies(rs.getInt("available_copies"));
+        if (coverPath != null && !coverPath.isBlank()) book.setCoverPath(coverPath);
+        book.setVersion(rs.getInt("version"));
+        return book;
+    }
+
+    /** Single conditional UPDATE: only one desk can take the last copy off the shelf. */
+    @Override
+    public boolean markBorrowedIfAvailable(int bookId) throws SQLException {
+        return executeConditional(CHECKOUT_SQL, bookId);
+    }
+
+    @Override
+    public boolean markAvailableIfBorrowed(int bookId) throws SQLException {
+        return executeConditional(CHECKIN_SQL, bookId);
+    }
+
+    /** Registers new copies with their barcodes; they go straight onto the shelf. */
+    @Override
+    public void addCopies(int bookId, List<String> barcodes) throws SQLException {
+        UnitOfWork.execute(() -> {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO book_copies (barcode, book_id) VALUES (?, ?)")) {
+                for (String barcode : barcodes) {
+                    pstmt.setString(1, barcode);
+                    pstmt.setInt(2, bookId);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(ADD_COPIES_SQL)) {
+                pstmt.setInt(1, barcodes.size());
+                pstmt.setInt(2, barcodes.size());
+                pstmt.setInt(3, bookId);
+                if (pstmt.executeUpdate() != 1) {
+                    throw new SQLException("No book with id " + bookId);
+                }
+            }
+        });
+    }
+
+    @Override
+    public int findBookIdByBarcode(String barcode) throws SQLException {
+        Connection conn = SQLiteConnectionManager.getConnection();
+        try (PreparedStatement pstmt = conn.prepareStatement(BARCODE_SQL)) {
+            pstmt.setString(1, barcode);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    @Override
+    public List<String> barcodesFor(int bookId) throws SQLException {
+        List<String> barcodes = new ArrayList<>();
+        Connection conn = SQLiteConnectionManager.getConnection();
+        try (PreparedStatement pstmt = conn.prepareStatement(BARCODES_FOR_BOOK_SQL)) {
+            pstmt.setInt(1, bookId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    barcodes.add(rs.getString(1));
+                }
+            }
+        }
+        return barcodes;
+    }
+
+    private static boolean executeConditional(String sql, int bookId) throws SQLException {
+        Connection conn = SQLiteConnectionManager.getConnection();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, bookId);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
     @Override
     public void deleteData(int id) {
-        String sql = "DELETE FROM books WHERE id = ?";
+        String sql = DELETE_BOOK_SQL;
 
         try {
             Connection conn = SQLiteConnectionManager.getConnection();
@@ -66,11 +217,13 @@ public class SQLiteBookHandler implements DataHandler<Book> {
             }
         } catch (SQLException e) {
             System.err.println("Error deleting book: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBookHandler.deleteData", e);
+            UnitOfWork.markRollbackOnly(e);
         }
     }
 
     private boolean bookExists(Connection conn, int id) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM books WHERE id = ?";
+        String sql = BOOK_EXISTS_SQL;
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, id);
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -80,26 +233,40 @@ public class SQLiteBookHandler implements DataHandler<Book> {
     }
 
     private void insertBook(Connection conn, Book book) throws SQLException {
-        String sql = "INSERT INTO books (id, title, author, available, cover_path) VALUES (?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO books (id, title, author, available, copies, available_copies, cover_path, version)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, book.getId());
             pstmt.setString(2, book.getTitle());
             pstmt.setString(3, book.getAuthor());
             pstmt.setInt(4, book.isAvailable() ? 1 : 0);
-            pstmt.setString(5, book.getCoverPath());
+            pstmt.setInt(5, book.getCopies());
+            pstmt.setInt(6, book.getAvailableCopies());
+            pstmt.setString(7, book.getCoverPath());
+            pstmt.setInt(8, book.getVersion());
             pstmt.executeUpdate();
         }
     }
 
+    /**
+     * Optimistic update: a Book read before someone else saved, borrowed or returned it
+     * must not overwrite their change.
+     * @throws SQLException if the row has moved on; the unit of work rolls back
+     */
     private void updateBook(Connection conn, Book book) throws SQLException {
-        String sql = "UPDATE books SET title = ?, author = ?, available = ?, cover_path = ? WHERE id = ?";
+        String sql = UPDATE_BOOK_SQL;
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, book.getTitle());
             pstmt.setString(2, book.getAuthor());
-            pstmt.setInt(3, book.isAvailable() ? 1 : 0);
-            pstmt.setString(4, book.getCoverPath());
-            pstmt.setInt(5, book.getId());
-            pstmt.executeUpdate();
+            pstmt.setString(3, book.getCoverPath());
+            pstmt.setInt(4, book.getId());
+            int version = book.getVersion();
+            pstmt.setInt(5, version);
+            if (pstmt.executeUpdate() != 1) {
+                throw new SQLException("Book " + book.getId() + " was changed elsewhere since it was loaded (version "
+                        + version + "); reload it and try again.");
+            }
+            UnitOfWork.afterCommit(() -> book.setVersion(version + 1));
         }
     }
 }
@@ -4,13 +4,27 @@ import java.sql.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * SQLite-specific handler for BorrowedBook operations.
  * Manages the borrowed_books table relationships between members and books.
  */
 public class SQLiteBorrowedBookHandler {
+
+    // Hot queries; package-visible so QueryPlanTest can check they stay indexed
+    static final String MARK_RETURNED_SQL = "UPDATE borrowed_books SET return_date = ? WHERE book_id = ? AND return_date IS NULL";
+    // With several copies out, only the returning member's loan (the oldest if they have two) closes
+    static final String MARK_MEMBER_RETURNED_SQL = "UPDATE borrowed_books SET return_date = ? WHERE id = "
+            + "(SELECT id FROM borrowed_books WHERE book_id = ? AND member_id = ? AND return_date IS NULL ORDER BY id LIMIT 1)";
+    static final String IS_BORROWED_SQL = "SELECT COUNT(*) FROM borrowed_books WHERE book_id = ? AND return_date IS NULL";
+    static final String CURRENT_BORROWER_SQL = "SELECT member_id FROM borrowed_books WHERE book_id = ? AND return_date IS NULL LIMIT 1";
+    // The circulation log is in seq order already; its (book_id, seq) index is read backwards, no sort
+    static final String LAST_BORROWER_SQL = "SELECT member_id FROM circulation_events WHERE book_id = ? AND type = 'Borrowed' ORDER BY seq DESC LIMIT 1";
+    static final String DUE_DATE_SQL = "SELECT due_date FROM borrowed_books WHERE book_id = ? AND return_date IS NULL LIMIT 1";
+    static final String LOANS_FOR_MEMBER_SQL = "SELECT book_id, borrow_date, due_date, return_date FROM borrowed_books WHERE member_id = ?";
     
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     
@@ -35,15 +49,17 @@ public class SQLiteBorrowedBookHandler {
             }
         } catch (SQLException e) {
             System.err.println("Error saving borrowed book: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBorrowedBookHandler.saveBorrowedBook", e);
+            UnitOfWork.markRollbackOnly(e);
         }
     }
     
     /**
-     * Marks a book as returned in the database by setting the return_date.
+     * Marks a book as returned in the database by setting the return_date on every open loan of it.
      * @param bookId The ID of the book being returned
      */
     public void markBookAsReturned(int bookId) {
-        String sql = "UPDATE borrowed_books SET return_date = ? WHERE book_id = ? AND return_date IS NULL";
+        String sql = MARK_RETURNED_SQL;
         
         try {
             Connection conn = SQLiteConnectionManager.getConnection();
@@ -54,16 +70,39 @@ public class SQLiteBorrowedBookHandler {
             }
         } catch (SQLException e) {
             System.err.println("Error marking book as returned: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBorrowedBookHandler.markBookAsReturned", e);
+            UnitOfWork.markRollbackOnly(e);
         }
     }
     
+    /**
+     * Closes one member's open loan of a book; other copies of the title stay out.
+     * @param memberId The ID of the member returning it
+     * @param bookId The ID of the book being returned
+     */
+    public void markBookAsReturned(int memberId, int bookId) {
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(MARK_MEMBER_RETURNED_SQL)) {
+                pstmt.setString(1, LocalDate.now().format(DATE_FORMATTER));
+                pstmt.setInt(2, bookId);
+                pstmt.setInt(3, memberId);
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error marking book as returned: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBorrowedBookHandler.markBookAsReturned", e);
+            UnitOfWork.markRollbackOnly(e);
+        }
+    }
+
     /**
      * Checks if a book is currently borrowed (has an active borrowing record).
      * @param bookId The ID of the book to check
      * @return true if the book is currently borrowed, false otherwise
      */
     public boolean isBookCurrentlyBorrowed(int bookId) {
-        String sql = "SELECT COUNT(*) FROM borrowed_books WHERE book_id = ? AND return_date IS NULL";
+        String sql = IS_BORROWED_SQL;
         
         try {
             Connection conn = SQLiteConnectionManager.getConnection();
@@ -75,6 +114,7 @@ public class SQLiteBorrowedBookHandler {
             }
         } catch (SQLException e) {
             System.err.println("Error checking if book is borrowed: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBorrowedBookHandler.isBookCurrentlyBorrowed", e);
             return false;
         }
     }
@@ -85,7 +125,7 @@ public class SQLiteBorrowedBookHandler {
      * @return The member ID if the book is borrowed, -1 otherwise
      */
     public int getCurrentBorrowerId(int bookId) {
-        String sql = "SELECT member_id FROM borrowed_books WHERE book_id = ? AND return_date IS NULL LIMIT 1";
+        String sql = CURRENT_BORROWER_SQL;
         
         try {
             Connection conn = SQLiteConnectionManager.getConnection();
@@ -99,17 +139,18 @@ public class SQLiteBorrowedBookHandler {
             }
         } catch (SQLException e) {
             System.err.println("Error getting current borrower: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBorrowedBookHandler.getCurrentBorrowerId", e);
         }
         return -1; // Return -1 if no current borrower or error
     }
     
     /**
-     * Finds the borrower ID for a specific book (including historical records).
+     * Finds the borrower ID for a specific book (including historical records), from the circulation log.
      * @param bookId The ID of the book
      * @return The borrower ID if found, null otherwise
      */
     public Integer findBorrowerIdForBook(int bookId) {
-        String sql = "SELECT member_id FROM borrowed_books WHERE book_id = ? ORDER BY borrow_date DESC LIMIT 1";
+        String sql = LAST_BORROWER_SQL;
         
         try {
             Connection conn = SQLiteConnectionManager.getConnection();
@@ -123,6 +164,7 @@ public class SQLiteBorrowedBookHandler {
             }
         } catch (SQLException e) {
             System.err.println("Error finding borrower ID for book: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBorrowedBookHandler.findBorrowerIdForBook", e);
         }
         return null;
     }
@@ -133,7 +175,7 @@ public class SQLiteBorrowedBookHandler {
      * @return The due date if the book is borrowed, null otherwise
      */
     public LocalDate getDueDateForBook(int bookId) {
-        String sql = "SELECT due_date FROM borrowed_books WHERE book_id = ? AND return_date IS NULL LIMIT 1";
+        String sql = DUE_DATE_SQL;
         
         try {
             Connection conn = SQLiteConnectionManager.getConnection();
@@ -150,10 +192,92 @@ public class SQLiteBorrowedBookHandler {
             }
         } catch (SQLException e) {
             System.err.println("Error getting due date for book: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBorrowedBookHandler.getDueDateForBook", e);
         }
         return null;
     }
     
+    /**
+     * One loan per title, for the books table's borrower and due date columns.
+     * @return active loans keyed by book id; for a title with several copies out, the one due first
+     */
+    public Map<Integer, ActiveLoan> loadActiveLoans() {
+        Map<Integer, ActiveLoan> loans = new HashMap<>();
+        for (ActiveLoan loan : loadAllActiveLoans()) {
+            loans.merge(loan.getBookId(), loan, SQLiteBorrowedBookHandler::dueFirst);
+        }
+        return loans;
+    }
+
+    /**
+     * Loads every loan that has not been returned, in one query; several per title when
+     * several copies are out. Use this to give members their loans.
+     */
+    public List<ActiveLoan> loadAllActiveLoans() {
+        List<ActiveLoan> loans = new ArrayList<>();
+        String sql = "SELECT book_id, member_id, borrow_date, due_date FROM borrowed_books WHERE return_date IS NULL";
+
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    int bookId = rs.getInt("book_id");
+                    String dueDateStr = rs.getString("due_date");
+                    LocalDate dueDate = dueDateStr != null ? LocalDate.parse(dueDateStr, DATE_FORMATTER) : null;
+                    LocalDate borrowDate = LocalDate.parse(rs.getString("borrow_date"), DATE_FORMATTER);
+                    loans.add(new ActiveLoan(bookId, rs.getInt("member_id"), borrowDate, dueDate));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error loading active loans: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBorrowedBookHandler.loadAllActiveLoans", e);
+        }
+        return loans;
+    }
+
+    private static ActiveLoan dueFirst(ActiveLoan a, ActiveLoan b) {
+        if (a.getDueDate() == null || b.getDueDate() == null) {
+            return a.getDueDate() == null ? b : a;
+        }
+        return b.getDueDate().isBefore(a.getDueDate()) ? b : a;
+    }
+
+    /**
+     * Loads the whole loan history into a LoanLedger in one pass.
+     * SQLite turns the dates into epoch days and packs each row into two integers (see
+     * LoanLedger.read), so no String or LocalDate is made per row.
+     * Rows from before due dates were stored are due two weeks after borrowing.
+     * @return the ledger, or null if it could not be read
+     */
+    public LoanLedger loadLoanLedger() {
+        String borrowDay = "CAST(julianday(borrow_date) - 2440587.5 AS INTEGER)";
+        String dueDay = "CAST(COALESCE(julianday(due_date), julianday(borrow_date) + 14) - 2440587.5 AS INTEGER)";
+        String returnDay = "IFNULL(CAST(julianday(return_date) - 2440587.5 AS INTEGER), " + LoanLedger.OPEN_DAY + ")";
+        String sql = "SELECT (book_id << 32) | member_id, "
+                + borrowDay + " | (" + dueDay + " << " + LoanLedger.DAY_BITS + ") | ("
+                + returnDay + " << " + (2 * LoanLedger.DAY_BITS) + ") "
+                + "FROM borrowed_books ORDER BY id";
+
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (Statement stmt = conn.createStatement()) {
+                // Sizing hint: MAX(id) comes straight from the rowid b-tree, COUNT(*) would scan
+                int rows;
+                try (ResultSet count = stmt.executeQuery("SELECT MAX(id) FROM borrowed_books")) {
+                    rows = count.next() ? count.getInt(1) : 0;
+                }
+                try (ResultSet rs = stmt.executeQuery(sql)) {
+                    return LoanLedger.read(rs, rows);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error loading loan ledger: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBorrowedBookHandler.loadLoanLedger", e);
+            return null;
+        }
+    }
+
     /**
      * Loads all borrowed books for a member from the database.
      * @param memberId The ID of the member
@@ -162,7 +286,7 @@ public class SQLiteBorrowedBookHandler {
      */
     public List<BorrowedBook> loadBorrowedBooksForMember(int memberId, BookRepository bookRepository) {
         List<BorrowedBook> borrowedBooks = new ArrayList<>();
-        String sql = "SELECT book_id, borrow_date, due_date, return_date FROM borrowed_books WHERE member_id = ?";
+        String sql = LOANS_FOR_MEMBER_SQL;
         
         try {
             Connection conn = SQLiteConnectionManager.getConnection();
@@ -200,6 +324,7 @@ public class SQLiteBorrowedBookHandler {
             }
         } catch (SQLException e) {
             System.err.println("Error loading borrowed books for member: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteBorrowedBookHandler.loadBorrowedBooksForMember", e);
         }
         
         return borrowedBooks;
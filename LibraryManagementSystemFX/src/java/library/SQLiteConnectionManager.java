@@ -3,23 +3,59 @@ package library;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * SQLite database connection manager.
  * Uses a fixed absolute path so data persists after closing the IDE or rebuilding.
  * Database file is stored in user home (e.g. C:\Users\YourName\LibraryManagementSystem\library.db).
+ * The location can be overridden with -Dlibrary.db.path=... or useDatabaseFile (tests, benchmarks).
+ * The database runs in WAL mode so readers on the shared connection are not blocked while
+ * a UnitOfWork writes on its own connection; every connection waits out locks (busy_timeout).
+ *
+ * Other files (one per branch, see Branch) get the same treatment: callOnDatabase binds the
+ * calling thread to one for the duration of a call, and getConnection, UnitOfWork and
+ * openDedicatedConnection use that file until it returns.
+ * With -Dlibrary.changeFeed=true, every connection reports its committed row changes to ChangeFeed.getDefault().
  */
 public class SQLiteConnectionManager {
     /** Fixed absolute path: avoids in-memory DB and build/output folders. Data persists across restarts. */
-    private static final String DB_DIR = System.getProperty("user.home") + File.separator + "LibraryManagementSystem";
-    private static final String DB_PATH = DB_DIR + File.separator + "library.db";
-    /** JDBC URL with forward slashes so SQLite finds the same file on Windows after IDE restart. */
-    private static final String DB_URL = "jdbc:sqlite:" + new File(DB_PATH).getAbsolutePath().replace("\\", "/");
+    private static final String DEFAULT_DB_PATH = System.getProperty("user.home") + File.separator
+            + "LibraryManagementSystem" + File.separator + "library.db";
 
-    private static Connection connection;
-    private static boolean initialized = false;
+    /** How long a connection waits for another writer before reporting SQLITE_BUSY. */
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+    /** Idle connections kept for units of work, per database file. */
+    private static final int MAX_IDLE_TRANSACTION_CONNECTIONS = 4;
+
+    /** One database file: its shared connection and the idle unit-of-work connections. Guarded by the class lock. */
+    private static final class Database {
+        final String path;
+        final String dir;
+        /** JDBC URL with forward slashes so SQLite finds the same file on Windows after IDE restart. */
+        final String url;
+        Connection connection;
+        boolean initialized;
+        final Deque<Connection> idleTransactionConnections = new ArrayDeque<>();
+
+        Database(String path) {
+            File file = new File(path).getAbsoluteFile();
+            this.path = file.getPath();
+            this.dir = file.getParent();
+            this.url = "jdbc:sqlite:" + this.path.replace("\\", "/");
+        }
+    }
+
+    private static volatile Database main;
+    /** Files other than main that a thread has been bound to, by absolute path. */
+    private static final Map<String, Database> others = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Database> BOUND = new ThreadLocal<>();
 
     static {
         try {
@@ -27,31 +63,113 @@ public class SQLiteConnectionManager {
         } catch (ClassNotFoundException e) {
             System.err.println("SQLite JDBC driver not found: " + e.getMessage());
         }
+        main = new Database(System.getProperty("library.db.path", DEFAULT_DB_PATH));
     }
 
     private SQLiteConnectionManager() {}
 
     /**
      * Gets the database connection, creating it if necessary.
+     * Inside a UnitOfWork this is the unit's connection, so handler calls join its transaction.
      * @return Connection to SQLite database
      * @throws SQLException if connection fails
      */
-    public static synchronized Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed()) {
-            ensureDatabaseDirectoryExists();
-            connection = DriverManager.getConnection(DB_URL);
-            connection.setAutoCommit(true);
-            if (!initialized) {
-                initializeDatabase();
-                initialized = true;
+    public static Connection getConnection() throws SQLException {
+        Connection transaction = UnitOfWork.currentConnection();
+        return transaction != null ? transaction : getSharedConnection(current());
+    }
+
+    /**
+     * Runs work with this thread bound to the database file at path (created on first use,
+     * with the full schema), then restores the previous binding.
+     * @throws IllegalStateException if a unit of work on another file is open on this thread
+     */
+    public static <T> T callOnDatabase(String path, UnitOfWork.Work<T> work) throws SQLException {
+        Database target = database(path);
+        Database previous = BOUND.get();
+        Connection transaction = UnitOfWork.currentConnection();
+        if (transaction != null && !target.url.equals(transaction.getMetaData().getURL())) {
+            throw new IllegalStateException("A unit of work cannot span database files: " + target.path);
+        }
+        BOUND.set(target);
+        try {
+            return work.run();
+        } finally {
+            if (previous != null) {
+                BOUND.set(previous);
+            } else {
+                BOUND.remove();
+            }
+        }
+    }
+
+    private static Database database(String path) {
+        String absolute = new File(path).getAbsolutePath();
+        Database current = main;
+        return current.path.equals(absolute) ? current : others.computeIfAbsent(absolute, Database::new);
+    }
+
+    /** The file this thread is bound to, or the main one. */
+    private static Database current() {
+        Database bound = BOUND.get();
+        return bound != null ? bound : main;
+    }
+
+    private static synchronized Connection getSharedConnection(Database db) throws SQLException {
+        if (db.connection == null || db.connection.isClosed()) {
+            ensureDatabaseDirectoryExists(db);
+            db.connection = open(db);
+            if (!db.initialized) {
+                initializeDatabase(db.connection);
+                db.initialized = true;
+            }
+        }
+        return db.connection;
+    }
+
+    private static Connection open(Database db) throws SQLException {
+        Connection raw = DriverManager.getConnection(db.url);
+        raw.setAutoCommit(true);
+        try (Statement stmt = raw.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+        }
+        ChangeFeed.getDefault().attach(raw);
+        return SqlTracer.wrap(raw);
+    }
+
+    /** Connection for a new UnitOfWork; reuses an idle one when available. */
+    static Connection acquireTransactionConnection() throws SQLException {
+        Database db = current();
+        getSharedConnection(db); // make sure the file and schema exist first
+        synchronized (SQLiteConnectionManager.class) {
+            Connection idle = db.idleTransactionConnections.poll();
+            if (idle != null) {
+                return idle;
             }
         }
-        return connection;
+        return open(db);
+    }
+
+    /** Returns a unit's connection to the pool; closes it if the pool is full or the file changed meanwhile. */
+    static void releaseTransactionConnection(Connection conn) {
+        try {
+            Database db = current();
+            synchronized (SQLiteConnectionManager.class) {
+                if (db.idleTransactionConnections.size() < MAX_IDLE_TRANSACTION_CONNECTIONS
+                        && !conn.isClosed() && db.url.equals(conn.getMetaData().getURL())) {
+                    db.idleTransactionConnections.push(conn);
+                    return;
+                }
+            }
+            conn.close();
+        } catch (SQLException e) {
+            System.err.println("Error releasing connection: " + e.getMessage());
+        }
     }
 
     /** Creates the database directory if it does not exist (required for absolute path). */
-    private static void ensureDatabaseDirectoryExists() {
-        File dir = new File(DB_DIR);
+    private static void ensureDatabaseDirectoryExists(Database db) {
+        File dir = new File(db.dir);
         if (!dir.exists()) {
             dir.mkdirs();
         }
@@ -59,35 +177,119 @@ public class SQLiteConnectionManager {
 
     /** Returns the absolute path where the database file is stored (for debugging / user info). */
     public static String getDatabasePath() {
-        return DB_PATH;
+        return current().path;
+    }
+
+    /** Returns the folder holding library.db; backups and other data files live next to it. */
+    public static String getDatabaseDirectory() {
+        return current().dir;
     }
 
     /**
-     * Closes the database connection.
+     * Points the manager at another database file, closing the current connection.
+     * The schema is created on the next getConnection().
+     */
+    public static synchronized void useDatabaseFile(String path) {
+        closeConnection();
+        main = new Database(path);
+    }
+
+    /**
+     * Opens a separate connection to the same database file.
+     * For background work (e.g. backups) that must not hold the shared connection.
+     * Caller is responsible for closing it.
+     */
+    public static Connection openDedicatedConnection() throws SQLException {
+        Database db = current();
+        getSharedConnection(db); // make sure the file and schema exist first
+        return open(db);
+    }
+
+    /**
+     * Closes the database connections, those to branch files included.
      */
     public static synchronized void closeConnection() {
+        close(main);
+        others.values().forEach(SQLiteConnectionManager::close);
+    }
+
+    private static void close(Database db) {
+        for (Connection idle : db.idleTransactionConnections) {
+            try {
+                idle.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing connection: " + e.getMessage());
+            }
+        }
+        db.idleTransactionConnections.clear();
         try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                connection = null;
+            if (db.connection != null && !db.connection.isClosed()) {
+                db.connection.close();
+                db.connection = null;
             }
         } catch (SQLException e) {
             System.err.println("Error closing connection: " + e.getMessage());
         }
     }
 
+    /**
+     * Append-only circulation event log (see CirculationLog) and its projection snapshots.
+     * seq is the rowid: events are never deleted, so it only grows. A database from before
+     * the log gets one Borrowed/Returned pair per borrowed_books row and one FineAssessed
+     * per outstanding balance, so replaying the log reproduces the current state.
+     */
+    private static void createCirculationLog(Statement stmt) throws SQLException {
+        boolean exists;
+        try (ResultSet rs = stmt.executeQuery(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'circulation_events'")) {
+            exists = rs.next();
+        }
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS circulation_events (
+                seq INTEGER PRIMARY KEY,
+                type TEXT NOT NULL,
+                member_id INTEGER NOT NULL,
+                book_id INTEGER NOT NULL DEFAULT 0,
+                amount REAL NOT NULL DEFAULT 0,
+                due_date TEXT,
+                occurred_on TEXT NOT NULL
+            )
+        """);
+        stmt.execute("CREATE TABLE IF NOT EXISTS circulation_snapshots (seq INTEGER PRIMARY KEY, state BLOB NOT NULL)");
+        if (!exists) {
+            stmt.execute("""
+                INSERT INTO circulation_events (type, member_id, book_id, amount, due_date, occurred_on)
+                SELECT type, member_id, book_id, amount, due_date, day FROM (
+                    SELECT 'Borrowed' AS type, member_id, book_id, 0 AS amount, due_date, borrow_date AS day, 0 AS k, id
+                    FROM borrowed_books
+                    UNION ALL
+                    SELECT 'Returned', member_id, book_id, 0, NULL, return_date, 1, id
+                    FROM borrowed_books WHERE return_date IS NOT NULL
+                    UNION ALL
+                    SELECT 'FineAssessed', id, 0, balance, NULL, date('now', 'localtime'), 2, id
+                    FROM members WHERE balance > 0
+                ) ORDER BY day, id, k
+            """);
+        }
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_circulation_events_book ON circulation_events(book_id, seq)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_circulation_events_member ON circulation_events(member_id, seq)");
+    }
+
     /**
      * Initializes database tables if they don't exist.
      * Schema matches Book, Member and borrowed_books usage.
      */
-    private static void initializeDatabase() throws SQLException {
+    private static void initializeDatabase(Connection connection) throws SQLException {
         String createBooksTable = """
             CREATE TABLE IF NOT EXISTS books (
                 id INTEGER PRIMARY KEY AUTOINCREMENT,
                 title TEXT NOT NULL,
                 author TEXT NOT NULL,
                 available INTEGER NOT NULL DEFAULT 1,
-                cover_path TEXT
+                copies INTEGER NOT NULL DEFAULT 1,
+                available_copies INTEGER NOT NULL DEFAULT 1,
+                cover_path TEXT,
+                version INTEGER NOT NULL DEFAULT 0
             )
         """;
 
@@ -96,7 +298,8 @@ public class SQLiteConnectionManager {
                 id INTEGER PRIMARY KEY AUTOINCREMENT,
                 name TEXT NOT NULL,
                 password TEXT NOT NULL,
-                balance REAL NOT NULL DEFAULT 0
+                balance REAL NOT NULL DEFAULT 0,
+                version INTEGER NOT NULL DEFAULT 0
             )
         """;
 
@@ -114,6 +317,8 @@ public class SQLiteConnectionManager {
         """;
 
         try (Statement stmt = connection.createStatement()) {
+            // Persistent per file; lets readers and one writer work at the same time
+            stmt.execute("PRAGMA journal_mode = WAL");
             stmt.execute(createBooksTable);
             stmt.execute(createMembersTable);
             stmt.execute(createBorrowedBooksTable);
@@ -129,6 +334,56 @@ public class SQLiteConnectionManager {
             } catch (SQLException e) {
                 // Column already exists on existing DB
             }
+            // Row versions for optimistic concurrency (checkout is a conditional UPDATE)
+            try {
+                stmt.execute("ALTER TABLE books ADD COLUMN version INTEGER NOT NULL DEFAULT 0");
+            } catch (SQLException e) {
+                // Column already exists on existing DB
+            }
+            try {
+                stmt.execute("ALTER TABLE members ADD COLUMN version INTEGER NOT NULL DEFAULT 0");
+            } catch (SQLException e) {
+                // Column already exists on existing DB
+            }
+            // Copies per title; available stays as "a copy is on the shelf" for older readers
+            try {
+                stmt.execute("ALTER TABLE books ADD COLUMN copies INTEGER NOT NULL DEFAULT 1");
+                stmt.execute("ALTER TABLE books ADD COLUMN available_copies INTEGER NOT NULL DEFAULT 1");
+                stmt.execute("UPDATE books SET available_copies = available WHERE available = 0");
+            } catch (SQLException e) {
+                // Columns already exist on existing DB
+            }
+            stmt.execute("CREATE TABLE IF NOT EXISTS book_copies (barcode TEXT PRIMARY KEY, book_id INTEGER NOT NULL REFERENCES books(id))");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_book_copies_book ON book_copies(book_id)");
+            // Per-book and per-member loan lookups run for every table row; keep them off full scans
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_borrowed_books_book ON borrowed_books(book_id, borrow_date)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_borrowed_books_member ON borrowed_books(member_id)");
+            createCirculationLog(stmt);
+            // Reservations (see HoldQueue); position orders a book's queue, priority holds first
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS holds (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    book_id INTEGER NOT NULL,
+                    member_id INTEGER NOT NULL,
+                    priority INTEGER NOT NULL DEFAULT 0,
+                    position INTEGER NOT NULL,
+                    placed_on TEXT NOT NULL,
+                    status TEXT NOT NULL,
+                    ready_until TEXT
+                )
+            """);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_holds_book ON holds(book_id, position)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_holds_member ON holds(member_id)");
+            // Change counters kept by triggers: the books one stamps the catalog snapshot, and
+            // ChangeDetector reads them all to tell which tables another connection changed
+            stmt.execute("CREATE TABLE IF NOT EXISTS change_counters (name TEXT PRIMARY KEY, value INTEGER NOT NULL DEFAULT 0)");
+            for (String table : ChangeDetector.WATCHED_TABLES) {
+                stmt.execute("INSERT OR IGNORE INTO change_counters (name, value) VALUES ('" + table + "', 0)");
+                for (String event : new String[] {"INSERT", "UPDATE", "DELETE"}) {
+                    stmt.execute("CREATE TRIGGER IF NOT EXISTS " + table + "_changed_" + event.toLowerCase() + " AFTER " + event
+                            + " ON " + table + " BEGIN UPDATE change_counters SET value = value + 1 WHERE name = '" + table + "'; END");
+                }
+            }
         }
     }
 }
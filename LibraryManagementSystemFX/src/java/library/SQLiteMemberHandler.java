@@ -9,52 +9,94 @@ import java.util.List;
  */
 public class SQLiteMemberHandler implements DataHandler<Member> {
 
+    // Hot queries; package-visible so QueryPlanTest can check they stay indexed
+    static final String DELETE_MEMBER_SQL = "DELETE FROM members WHERE id = ?";
+    static final String MEMBER_EXISTS_SQL = "SELECT COUNT(*) FROM members WHERE id = ?";
+    // Only if the row is still at the version the Member was read at; see updateMember
+    static final String UPDATE_MEMBER_SQL =
+            "UPDATE members SET name = ?, password = ?, balance = ?, version = version + 1 WHERE id = ? AND version = ?";
+
     @Override
     public void saveData(List<Member> members) {
         try {
-            Connection conn = SQLiteConnectionManager.getConnection();
-            for (Member member : members) {
-                if (memberExists(conn, member.getId())) {
-                    updateMember(conn, member);
-                } else {
-                    insertMember(conn, member);
+            // One transaction for the whole list (joins the caller's unit of work if there is one)
+            UnitOfWork.execute(() -> {
+                Connection conn = SQLiteConnectionManager.getConnection();
+                for (Member member : members) {
+                    if (memberExists(conn, member.getId())) {
+                        updateMember(conn, member);
+                    } else {
+                        insertMember(conn, member);
+                    }
                 }
-            }
+            });
         } catch (SQLException e) {
             System.err.println("Error saving members: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteMemberHandler.saveData", e);
+            UnitOfWork.markRollbackOnly(e);
         }
     }
 
     @Override
     public List<Member> readData() {
         List<Member> members = new ArrayList<>();
-        String sql = "SELECT id, name, password, balance FROM members ORDER BY id";
+        String sql = "SELECT id, name, password, balance, version FROM members ORDER BY id";
 
         try {
             Connection conn = SQLiteConnectionManager.getConnection();
             try (Statement stmt = conn.createStatement();
                  ResultSet rs = stmt.executeQuery(sql)) {
                 while (rs.next()) {
-                    int id = rs.getInt("id");
-                    String name = rs.getString("name");
-                    String password = rs.getString("password");
-                    double balance = rs.getDouble("balance");
-
-                    Member member = new Member(id, name, password);
-                    member.setBalance(balance);
-                    members.add(member);
+                    members.add(mapMember(rs));
                 }
             }
         } catch (SQLException e) {
             System.err.println("Error reading members: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteMemberHandler.readData", e);
+        }
+
+        return members;
+    }
+
+    @Override
+    public List<Member> readPage(int offset, int limit) {
+        List<Member> members = new ArrayList<>();
+        String sql = "SELECT id, name, password, balance, version FROM members ORDER BY id LIMIT ? OFFSET ?";
+
+        try {
+            Connection conn = SQLiteConnectionManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, limit);
+                pstmt.setInt(2, offset);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        members.add(mapMember(rs));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error reading page of members: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteMemberHandler.readPage", e);
         }
 
         return members;
     }
 
+    private static Member mapMember(ResultSet rs) throws SQLException {
+        int id = rs.getInt("id");
+        String name = rs.getString("name");
+        String password = rs.getString("password");
+        double balance = rs.getDouble("balance");
+
+        Member member = new Member(id, name, password);
+        member.setBalance(balance);
+        member.setVersion(rs.getInt("version"));
+        return member;
+    }
+
     @Override
     public void deleteData(int id) {
-        String sql = "DELETE FROM members WHERE id = ?";
+        String sql = DELETE_MEMBER_SQL;
 
         try {
             Connection conn = SQLiteConnectionManager.getConnection();
@@ -64,11 +106,13 @@ public class SQLiteMemberHandler implements DataHandler<Member> {
             }
         } catch (SQLException e) {
             System.err.println("Error deleting member: " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("SQLiteMemberHandler.deleteData", e);
+            UnitOfWork.markRollbackOnly(e);
         }
     }
 
     private boolean memberExists(Connection conn, int id) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM members WHERE id = ?";
+        String sql = MEMBER_EXISTS_SQL;
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, id);
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -78,24 +122,36 @@ public class SQLiteMemberHandler implements DataHandler<Member> {
     }
 
     private void insertMember(Connection conn, Member member) throws SQLException {
-        String sql = "INSERT INTO members (id, name, password, balance) VALUES (?, ?, ?, ?)";
+        String sql = "INSERT INTO members (id, name, password, balance, version) VALUES (?, ?, ?, ?, ?)";
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, member.getId());
             pstmt.setString(2, member.getName());
             pstmt.setString(3, member.getPassword());
             pstmt.setDouble(4, member.getBalance());
+            pstmt.setInt(5, member.getVersion());
             pstmt.executeUpdate();
         }
     }
 
+    /**
+     * Optimistic update: a Member read before someone else saved it must not overwrite
+     * their change (a payment taken at another desk, say).
+     * @throws SQLException if the row has moved on; the unit of work rolls back
+     */
     private void updateMember(Connection conn, Member member) throws SQLException {
-        String sql = "UPDATE members SET name = ?, password = ?, balance = ? WHERE id = ?";
+        String sql = UPDATE_MEMBER_SQL;
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, member.getName());
             pstmt.setString(2, member.getPassword());
             pstmt.setDouble(3, member.getBalance());
             pstmt.setInt(4, member.getId());
-            pstmt.executeUpdate();
+            int version = member.getVersion();
+            pstmt.setInt(5, version);
+            if (pstmt.executeUpdate() != 1) {
+                throw new SQLException("Member " + member.getId() + " was changed elsewhere since it was loaded (version "
+                        + version + "); reload it and try again.");
+            }
+            UnitOfWork.afterCommit(() -> member.setVersion(version + 1));
         }
     }
 }
@@ -0,0 +1,159 @@
+package library;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * DataHandler spread over branches: one handler (e.g. SQLiteBookHandler) run against each
+ * branch's file. Writes go to the branch owning the row's id, on the calling thread, so
+ * they join a unit of work open on that branch. Reads run on every branch in parallel and
+ * are concatenated in branch order, which is id order because branches own consecutive id
+ * blocks; they see committed data only.
+ * BookCheckout and BookCopies are routed the same way when the wrapped handler has them.
+ */
+public class ShardedDataHandler<T> implements DataHandler<T> {
+
+    private final Map<Integer, Branch> branches = new LinkedHashMap<>();
+    private final DataHandler<T> handler;
+    private final DatabaseHandler.IdAccessor<T> idAccessor;
+    private final Executor executor;
+
+    public ShardedDataHandler(List<Branch> branches, DataHandler<T> handler,
+                              DatabaseHandler.IdAccessor<T> idAccessor, Executor executor) {
+        for (Branch branch : branches) {
+            this.branches.put(branch.getIndex(), branch);
+        }
+        this.handler = handler;
+        this.idAccessor = idAccessor;
+        this.executor = executor;
+    }
+
+    /** Branch owning id. @throws IllegalArgumentException if no configured branch does */
+    public Branch owner(int id) {
+        Branch branch = branches.get(Branch.indexOf(id));
+        if (branch == null) {
+            throw new IllegalArgumentException("No branch owns id " + id);
+        }
+        return branch;
+    }
+
+    @Override
+    public void saveData(List<T> data) {
+        Map<Branch, List<T>> byBranch = new LinkedHashMap<>();
+        for (T item : data) {
+            byBranch.computeIfAbsent(owner(idAccessor.getId(item)), b -> new ArrayList<>()).add(item);
+        }
+        byBranch.forEach((branch, items) -> on(branch, "saveData", () -> {
+            handler.saveData(items);
+            return null;
+        }));
+    }
+
+    @Override
+    public List<T> readData() {
+        List<T> all = new ArrayList<>();
+        for (List<T> part : fanOut("readData", handler::readData)) {
+            if (part != null) {
+                all.addAll(part);
+            }
+        }
+        return all;
+    }
+
+    /** Reads offset + limit rows from every branch, since how many each one has is not known up front. */
+    @Override
+    public List<T> readPage(int offset, int limit) {
+        int wanted = (int) Math.min((long) Math.max(0, offset) + Math.max(0, limit), Integer.MAX_VALUE);
+        List<T> all = new ArrayList<>();
+        for (List<T> part : fanOut("readPage", () -> handler.readPage(0, wanted))) {
+            if (part != null) {
+                all.addAll(part);
+            }
+        }
+        int from = Math.min(Math.max(0, offset), all.size());
+        return new ArrayList<>(all.subList(from, Math.min(all.size(), from + Math.max(0, limit))));
+    }
+
+    @Override
+    public void deleteData(int id) {
+        on(owner(id), "deleteData", () -> {
+            handler.deleteData(id);
+            return null;
+        });
+    }
+
+    @Override
+    public <X> X unwrap(Class<X> capability) {
+        if (capability == BookCheckout.class) {
+            BookCheckout checkout = handler.unwrap(BookCheckout.class);
+            return checkout == null ? null : capability.cast(new BookCheckout() {
+                @Override
+                public boolean markBorrowedIfAvailable(int bookId) throws SQLException {
+                    return owner(bookId).call(() -> checkout.markBorrowedIfAvailable(bookId));
+                }
+
+                @Override
+                public boolean markAvailableIfBorrowed(int bookId) throws SQLException {
+                    return owner(bookId).call(() -> checkout.markAvailableIfBorrowed(bookId));
+                }
+            });
+        }
+        if (capability == BookCopies.class) {
+            BookCopies copies = handler.unwrap(BookCopies.class);
+            return copies == null ? null : capability.cast(new BookCopies() {
+                @Override
+                public void addCopies(int bookId, List<String> barcodes) throws SQLException {
+                    owner(bookId).execute(() -> copies.addCopies(bookId, barcodes));
+                }
+
+                @Override
+                public int findBookIdByBarcode(String barcode) {
+                    for (Integer id : fanOut("findBookIdByBarcode", () -> copies.findBookIdByBarcode(barcode))) {
+                        if (id != null && id >= 0) {
+                            return id;
+                        }
+                    }
+                    return -1;
+                }
+
+                @Override
+                public List<String> barcodesFor(int bookId) throws SQLException {
+                    return owner(bookId).call(() -> copies.barcodesFor(bookId));
+                }
+            });
+        }
+        return DataHandler.super.unwrap(capability);
+    }
+
+    /**
+     * Runs work on every branch at once on the executor.
+     * @return the results in branch order; null for a branch that failed
+     */
+    <R> List<R> fanOut(String operation, UnitOfWork.Work<R> work) {
+        List<CompletableFuture<R>> futures = new ArrayList<>(branches.size());
+        for (Branch branch : branches.values()) {
+            futures.add(CompletableFuture.supplyAsync(() -> on(branch, operation, work), executor));
+        }
+        List<R> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<R> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    private static <R> R on(Branch branch, String operation, UnitOfWork.Work<R> work) {
+        try {
+            return branch.call(work);
+        } catch (SQLException e) {
+            System.err.println("Error in " + operation + " on branch " + branch.getName() + ": " + e.getMessage());
+            MetricsRegistry.getDefault().recordError("ShardedDataHandler." + operation, e);
+            UnitOfWork.markRollbackOnly(e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package library;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one SQL statement, from execute until its ResultSet is closed.
+ * Emitted by SqlTracer, so it covers every statement the SQLite handlers run.
+ */
+@Name("library.SqlStatement")
+@Label("SQL Statement")
+@Category({"Library", "Database"})
+@Description("A statement run on a SQLiteConnectionManager connection")
+public class SqlStatementEvent extends Event {
+
+    @Label("SQL")
+    String sql;
+
+    @Label("Rows")
+    @Description("Rows read from the ResultSet; 0 for updates")
+    long rows;
+
+    @Label("Failure")
+    String failure;
+}
@@ -0,0 +1,336 @@
+package library;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * JDBC tracing for connections handed out by SQLiteConnectionManager.
+ * Every statement is timed (execute plus time spent reading its ResultSet) and
+ * aggregated by normalized SQL text into MetricsRegistry ("SQL: SELECT ... WHERE id = ?").
+ * Statements slower than the threshold are logged with their EXPLAIN QUERY PLAN,
+ * and plans that scan a whole table are flagged. Transaction control (BEGIN IMMEDIATE,
+ * COMMIT, ...) is timed too, but its time is mostly waiting for the write lock, so it is
+ * never logged as slow SQL. Each execution is also a SqlStatementEvent for Flight Recorder.
+ *
+ * Configuration: -Dlibrary.sql.trace=false disables tracing,
+ * -Dlibrary.sql.slowMillis=N sets the slow-query threshold (default 50 ms).
+ */
+public final class SqlTracer {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("library.sql.trace", "true"));
+    private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Long.getLong("library.sql.slowMillis", 50L));
+    private static final int SLOW_LOG_CAPACITY = 200;
+    /** Prepared SQL is a fixed set of strings; ad-hoc SQL with literals is normalized each time once this is full. */
+    private static final int NORMALIZED_CACHE_CAPACITY = 1024;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final Set<String> explained = ConcurrentHashMap.newKeySet();
+    private static final Map<String, String> normalizedCache = new ConcurrentHashMap<>();
+    private static final Deque<String> slowLog = new ArrayDeque<>();
+
+    private SqlTracer() {}
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /** Wraps a connection so its statements are traced; returns it unchanged when tracing is off. */
+    public static Connection wrap(Connection connection) {
+        if (!ENABLED || connection == null || Proxy.isProxyClass(connection.getClass())) {
+            return connection;
+        }
+        return (Connection) Proxy.newProxyInstance(SqlTracer.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new ConnectionHandler(connection));
+    }
+
+    /** Collapses literals and whitespace so the same statement with different values aggregates together. */
+    public static String normalize(String sql) {
+        String s = STRING_LITERAL.matcher(sql).replaceAll("?");
+        s = NUMBER_LITERAL.matcher(s).replaceAll("?");
+        return WHITESPACE.matcher(s).replaceAll(" ").trim();
+    }
+
+    /**
+     * Runs EXPLAIN QUERY PLAN for sql on the given (untraced) connection.
+     * Parameters are left unbound; SQLite plans the statement the same way.
+     * @return plan detail lines, top to bottom
+     */
+    public static List<String> explain(Connection raw, String sql) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (Statement stmt = raw.createStatement();
+             ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) {
+                plan.add(rs.getString("detail"));
+            }
+        }
+        return plan;
+    }
+
+    /** True if a plan line reads a whole table ("SCAN books" or, on older SQLite, "SCAN TABLE books"). */
+    public static boolean isFullScan(String planDetail) {
+        return planDetail.startsWith("SCAN ") && !planDetail.contains(" USING ");
+    }
+
+    /** Recent slow statements with their plans, oldest first. */
+    public static List<String> getSlowLog() {
+        synchronized (slowLog) {
+            return new ArrayList<>(slowLog);
+        }
+    }
+
+    public static String formatSlowLog() {
+        StringBuilder out = new StringBuilder("Slow SQL (threshold ")
+                .append(TimeUnit.NANOSECONDS.toMillis(SLOW_NANOS)).append(" ms)\n");
+        for (String entry : getSlowLog()) {
+            out.append(entry).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void record(Connection raw, String sql, long nanos, long rows, Throwable error) {
+        if (sql == null || isSchemaChange(sql)) {
+            // Migrations run once at startup and expect "duplicate column" errors; keep them out of the metrics
+            return;
+        }
+        String normalized = normalizedCache.get(sql);
+        if (normalized == null) {
+            normalized = normalize(sql);
+            if (normalizedCache.size() < NORMALIZED_CACHE_CAPACITY) {
+                normalizedCache.put(sql, normalized);
+            }
+        }
+        OperationMetrics metrics = MetricsRegistry.getDefault().operation("SQL: " + normalized);
+        if (error != null) {
+            metrics.recordError(nanos, error);
+        } else {
+            metrics.record(nanos);
+        }
+        if (nanos >= SLOW_NANOS && !isTransactionControl(sql)) {
+            logSlow(raw, sql, normalized, nanos, rows);
+        }
+    }
+
+    private static void logSlow(Connection raw, String sql, String normalized, long nanos, long rows) {
+        StringBuilder entry = new StringBuilder();
+        entry.append(LocalDateTime.now())
+                .append(String.format(Locale.ROOT, " %.1f ms, %d rows  ", nanos / 1e6, rows))
+                .append(normalized);
+        // The plan of a statement does not change between runs; capture it once
+        if (isExplainable(sql) && explained.add(normalized)) {
+            try {
+                for (String detail : explain(raw, sql)) {
+                    entry.append("\n    plan: ").append(detail);
+                    if (isFullScan(detail)) {
+                        entry.append("   <-- full table scan");
+                    }
+                }
+            } catch (SQLException e) {
+                entry.append("\n    plan unavailable: ").append(e.getMessage());
+            }
+        }
+        System.err.println("Slow SQL: " + entry);
+        synchronized (slowLog) {
+            if (slowLog.size() == SLOW_LOG_CAPACITY) {
+                slowLog.removeFirst();
+            }
+            slowLog.addLast(entry.toString());
+        }
+    }
+
+    private static boolean isExplainable(String sql) {
+        return startsWith(sql, "SELECT") || startsWith(sql, "UPDATE")
+                || startsWith(sql, "DELETE") || startsWith(sql, "INSERT") || startsWith(sql, "WITH");
+    }
+
+    private static boolean isTransactionControl(String sql) {
+        return startsWith(sql, "BEGIN") || startsWith(sql, "COMMIT") || startsWith(sql, "END")
+                || startsWith(sql, "ROLLBACK") || startsWith(sql, "SAVEPOINT") || startsWith(sql, "RELEASE");
+    }
+
+    private static boolean isSchemaChange(String sql) {
+        return startsWith(sql, "CREATE") || startsWith(sql, "ALTER") || startsWith(sql, "DROP");
+    }
+
+    /** Case-insensitive keyword test that does not copy the statement text. */
+    private static boolean startsWith(String sql, String keyword) {
+        int i = 0;
+        while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+            i++;
+        }
+        return sql.regionMatches(true, i, keyword, 0, keyword.length());
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Hands out traced statements. */
+    private static final class ConnectionHandler implements InvocationHandler {
+        private final Connection raw;
+
+        ConnectionHandler(Connection raw) {
+            this.raw = raw;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = SqlTracer.invoke(raw, method, args);
+            String name = method.getName();
+            if (result instanceof PreparedStatement ps && name.equals("prepareStatement")) {
+                return Proxy.newProxyInstance(SqlTracer.class.getClassLoader(),
+                        new Class<?>[] {PreparedStatement.class}, new StatementHandler(raw, ps, (String) args[0]));
+            }
+            if (result instanceof Statement stmt && name.equals("createStatement")) {
+                return Proxy.newProxyInstance(SqlTracer.class.getClassLoader(),
+                        new Class<?>[] {Statement.class}, new StatementHandler(raw, stmt, null));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Times execute* calls. Queries are finished when their ResultSet is closed
+     * (or the statement is), so row iteration counts toward the statement's time.
+     */
+    private static final class StatementHandler implements InvocationHandler {
+        private final Connection raw;
+        private final Statement target;
+        private final String preparedSql;
+        private Execution open;
+
+        StatementHandler(Connection raw, Statement target, String preparedSql) {
+            this.raw = raw;
+            this.target = target;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                finishOpen();
+                return SqlTracer.invoke(target, method, args);
+            }
+            if (!name.startsWith("execute")) {
+                return SqlTracer.invoke(target, method, args);
+            }
+            finishOpen();
+            String sql = (args != null && args.length > 0 && args[0] instanceof String s) ? s : preparedSql;
+            Execution execution = new Execution(raw, sql);
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = SqlTracer.invoke(target, method, args);
+            } catch (Throwable t) {
+                execution.add(System.nanoTime() - start);
+                execution.finish(t);
+                throw t;
+            }
+            execution.add(System.nanoTime() - start);
+            if (result instanceof ResultSet rs) {
+                open = execution;
+                return Proxy.newProxyInstance(SqlTracer.class.getClassLoader(),
+                        new Class<?>[] {ResultSet.class}, new ResultSetHandler(rs, execution));
+            }
+            execution.finish(null);
+            return result;
+        }
+
+        private void finishOpen() {
+            if (open != null) {
+                open.finish(null);
+                open = null;
+            }
+        }
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final Execution execution;
+
+        ResultSetHandler(ResultSet target, Execution execution) {
+            this.target = target;
+            this.execution = execution;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("next")) {
+                long start = System.nanoTime();
+                Object result = SqlTracer.invoke(target, method, args);
+                execution.add(System.nanoTime() - start);
+                if (Boolean.TRUE.equals(result)) {
+                    execution.rows++;
+                }
+                return result;
+            }
+            if (name.equals("close")) {
+                Object result = SqlTracer.invoke(target, method, args);
+                execution.finish(null);
+                return result;
+            }
+            return SqlTracer.invoke(target, method, args);
+        }
+    }
+
+    /** One statement execution; recorded exactly once. */
+    private static final class Execution {
+        private final Connection raw;
+        private final String sql;
+        private final SqlStatementEvent event = new SqlStatementEvent();
+        private long nanos;
+        private long rows;
+        private boolean finished;
+
+        Execution(Connection raw, String sql) {
+            this.raw = raw;
+            this.sql = sql;
+            event.begin();
+        }
+
+        void add(long elapsed) {
+            nanos += elapsed;
+        }
+
+        void finish(Throwable error) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (event.shouldCommit()) {
+                event.sql = sql;
+                event.rows = rows;
+                event.failure = error == null ? null : error.getMessage();
+                event.commit();
+            }
+            record(raw, sql, nanos, rows, error);
+        }
+    }
+}
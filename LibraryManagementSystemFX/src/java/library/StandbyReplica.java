@@ -0,0 +1,380 @@
+package library;
+
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.DB;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot standby copy of library.db on another disk, kept a few seconds behind the primary.
+ *
+ * Triggers (installed by installLogging) note the table and rowid of every changed row in
+ * replication_log, inside the writing transaction and whichever process writes. A
+ * background thread ships the log in batches: in one read transaction on the primary it
+ * takes the pending entries and the current version of each row they name, then writes
+ * those rows (or deletes them) on the standby in one transaction that also records the
+ * last shipped seq. The standby is therefore always a state the primary was in. Writers
+ * pay for one small log insert per row; reading and shipping happen off their path.
+ *
+ * The first shipment, or one after the schema changed, seeds the standby with an online
+ * backup instead. Lag (oldest shipped change to standby commit) goes to MetricsRegistry
+ * as "StandbyReplica.lag". Reports can run on the standby through openReadOnlyConnection
+ * and getReport. After losing the primary, point -Dlibrary.db.path at the standby.
+ */
+public class StandbyReplica implements AutoCloseable {
+
+    /** Tables that are kept by triggers, local to one side, or bookkeeping for this class. */
+    private static final Set<String> NOT_REPLICATED = Set.of("change_counters", "cdc_log", "replication_log", "replica_state");
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+    private static final int BUSY_SLEEP_MILLIS = 50;
+    private static final int BUSY_RETRIES = 200;
+    private static final int PAGES_PER_STEP = 256;
+
+    private final File standby;
+    private final String url;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "library-standby");
+        t.setDaemon(true);
+        return t;
+    });
+    /** Last seq applied on the standby; -1 until it has been checked or seeded. */
+    private long shippedSeq = -1;
+    private volatile long lastLagMillis;
+
+    public StandbyReplica(File standby) {
+        this.standby = standby.getAbsoluteFile();
+        this.url = "jdbc:sqlite:" + this.standby.getPath().replace("\\", "/");
+    }
+
+    public File getFile() {
+        return standby;
+    }
+
+    /**
+     * Creates replication_log and a logging trigger per replicated table, if missing.
+     * From then on every write also logs, so only install it where a standby is shipped.
+     */
+    public static void installLogging() throws SQLException {
+        Connection conn = SQLiteConnectionManager.getConnection();
+        try (Statement stmt = conn.createStatement()) {
+            // AUTOINCREMENT: seqs are never reused after shipped entries are deleted
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS replication_log (
+                    seq INTEGER PRIMARY KEY AUTOINCREMENT,
+                    table_name TEXT NOT NULL,
+                    row_id INTEGER NOT NULL,
+                    logged_at INTEGER NOT NULL DEFAULT (CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER))
+                )
+            """);
+            for (String table : replicatedTables(conn).keySet()) {
+                String log = "INSERT INTO replication_log (table_name, row_id) ";
+                stmt.execute("CREATE TRIGGER IF NOT EXISTS repl_" + table + "_insert AFTER INSERT ON " + table
+                        + " BEGIN " + log + "VALUES ('" + table + "', NEW.rowid); END");
+                stmt.execute("CREATE TRIGGER IF NOT EXISTS repl_" + table + "_update AFTER UPDATE ON " + table
+                        + " BEGIN " + log + "SELECT '" + table + "', OLD.rowid WHERE OLD.rowid <> NEW.rowid; "
+                        + log + "VALUES ('" + table + "', NEW.rowid); END");
+                stmt.execute("CREATE TRIGGER IF NOT EXISTS repl_" + table + "_delete AFTER DELETE ON " + table
+                        + " BEGIN " + log + "VALUES ('" + table + "', OLD.rowid); END");
+            }
+        }
+    }
+
+    /** Replicated tables and their CREATE statements. */
+    private static Map<String, String> replicatedTables(Connection conn) throws SQLException {
+        Map<String, String> tables = new LinkedHashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name, sql FROM sqlite_master WHERE type = 'table' ORDER BY name")) {
+            while (rs.next()) {
+                String name = rs.getString(1);
+                if (!name.startsWith("sqlite_") && !NOT_REPLICATED.contains(name)) {
+                    tables.put(name, rs.getString(2));
+                }
+            }
+        }
+        return tables;
+    }
+
+    /** Installs logging and ships every interval on the background thread. */
+    public void start(long interval, TimeUnit unit) throws SQLException {
+        installLogging();
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                shipPending();
+            } catch (Exception e) {
+                System.err.println("Error shipping to standby: " + e.getMessage());
+                MetricsRegistry.getDefault().recordError("StandbyReplica.ship", e);
+                recheck();
+            }
+        }, 0, interval, unit);
+    }
+
+    /**
+     * Brings the standby up to date on the calling thread, seeding it first if needed.
+     * @return the number of log entries shipped
+     */
+    public synchronized int shipPending() throws SQLException, IOException {
+        seedIfNeeded();
+        long start = System.nanoTime();
+        try (Connection primary = SQLiteConnectionManager.openDedicatedConnection();
+             Connection replica = openReplica();
+             Statement primaryStmt = primary.createStatement();
+             Statement replicaStmt = replica.createStatement()) {
+            primaryStmt.execute("BEGIN");
+            Map<String, Set<Long>> changed = new LinkedHashMap<>();
+            long lastSeq = shippedSeq;
+            long oldest = Long.MAX_VALUE;
+            int entries = 0;
+            try {
+                try (PreparedStatement select = primary.prepareStatement(
+                        "SELECT seq, table_name, row_id, logged_at FROM replication_log WHERE seq > ? ORDER BY seq")) {
+                    select.setLong(1, shippedSeq);
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            lastSeq = rs.getLong(1);
+                            changed.computeIfAbsent(rs.getString(2), t -> new LinkedHashSet<>()).add(rs.getLong(3));
+                            oldest = Math.min(oldest, rs.getLong(4));
+                            entries++;
+                        }
+                    }
+                }
+                if (entries == 0) {
+                    return 0;
+                }
+                replicaStmt.execute("BEGIN IMMEDIATE");
+                try {
+                    for (Map.Entry<String, Set<Long>> table : changed.entrySet()) {
+                        copyRows(primary, replica, table.getKey(), table.getValue());
+                    }
+                    try (PreparedStatement state = replica.prepareStatement(
+                            "UPDATE replica_state SET shipped_seq = ?, shipped_at = ? WHERE id = 1")) {
+                        state.setLong(1, lastSeq);
+                        state.setLong(2, System.currentTimeMillis());
+                        state.executeUpdate();
+                    }
+                    replicaStmt.execute("COMMIT");
+                } catch (SQLException e) {
+                    replicaStmt.execute("ROLLBACK");
+                    throw e;
+                }
+            } finally {
+                primaryStmt.execute("COMMIT");
+            }
+            shippedSeq = lastSeq;
+            lastLagMillis = Math.max(0, System.currentTimeMillis() - oldest);
+            MetricsRegistry metrics = MetricsRegistry.getDefault();
+            metrics.operation("StandbyReplica.lag").record(TimeUnit.MILLISECONDS.toNanos(lastLagMillis));
+            metrics.operation("StandbyReplica.ship").record(System.nanoTime() - start);
+            // Applied on the standby; a crash before this delete is skipped by seq next time
+            try (PreparedStatement delete = primary.prepareStatement("DELETE FROM replication_log WHERE seq <= ?")) {
+                delete.setLong(1, lastSeq);
+                delete.executeUpdate();
+            }
+            return entries;
+        }
+    }
+
+    /** Writes the primary's current version of each row to the standby, or deletes it there. */
+    private static void copyRows(Connection primary, Connection replica, String table, Set<Long> rowIds) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement stmt = primary.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+            }
+        }
+        String columnList = String.join(", ", columns);
+        String placeholders = "?" + ", ?".repeat(columns.size());
+        try (PreparedStatement read = primary.prepareStatement("SELECT rowid, " + columnList + " FROM " + table + " WHERE rowid = ?");
+             PreparedStatement write = replica.prepareStatement(
+                     "INSERT OR REPLACE INTO " + table + " (rowid, " + columnList + ") VALUES (" + placeholders + ")");
+             PreparedStatement delete = replica.prepareStatement("DELETE FROM " + table + " WHERE rowid = ?")) {
+            for (long rowId : rowIds) {
+                read.setLong(1, rowId);
+                try (ResultSet rs = read.executeQuery()) {
+                    if (rs.next()) {
+                        for (int i = 1; i <= columns.size() + 1; i++) {
+                            write.setObject(i, rs.getObject(i));
+                        }
+                        write.executeUpdate();
+                    } else {
+                        delete.setLong(1, rowId);
+                        delete.executeUpdate();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Seeds the standby from an online backup if it is missing, was never seeded, or its
+     * tables no longer match the primary's.
+     * @return true if it was (re)seeded
+     */
+    synchronized boolean seedIfNeeded() throws SQLException, IOException {
+        if (shippedSeq >= 0) {
+            return false;
+        }
+        installLogging();
+        if (standby.isFile()) {
+            try (Connection primary = SQLiteConnectionManager.openDedicatedConnection(); Connection replica = openReplica()) {
+                Long seq = replicaSeq(replica);
+                if (seq != null && replicatedTables(primary).equals(replicatedTables(replica))) {
+                    shippedSeq = seq;
+                    return false;
+                }
+            }
+        }
+        seed();
+        return true;
+    }
+
+    /** After a failed shipment, check the standby (and reseed it if needed) before the next one. */
+    private synchronized void recheck() {
+        shippedSeq = -1;
+    }
+
+    private static Long replicaSeq(Connection replica) throws SQLException {
+        try (Statement stmt = replica.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT shipped_seq FROM replica_state WHERE id = 1")) {
+            return rs.next() ? rs.getLong(1) : null;
+        } catch (SQLException e) {
+            return null; // not a seeded standby
+        }
+    }
+
+    /**
+     * Copies the primary with the backup API (logging triggers included, so the copy and its
+     * sqlite_sequence entry for replication_log agree), then turns the copy into a standby:
+     * no logging triggers, empty logs, and the seq it starts from.
+     */
+    private void seed() throws SQLException, IOException {
+        Files.createDirectories(standby.getParentFile().toPath());
+        File partial = new File(standby.getPath() + ".part");
+        Files.deleteIfExists(partial.toPath());
+        try (Connection source = SQLiteConnectionManager.openDedicatedConnection()) {
+            DB db = source.unwrap(SQLiteConnection.class).getDatabase();
+            int rc = db.backup("main", partial.getAbsolutePath(), null, BUSY_SLEEP_MILLIS, BUSY_RETRIES, PAGES_PER_STEP);
+            if (rc != 0) {
+                throw new SQLException("Standby seed failed with SQLite result code " + rc);
+            }
+        }
+        long seq;
+        try (Connection copy = DriverManager.getConnection("jdbc:sqlite:" + partial.getAbsolutePath().replace("\\", "/"));
+             Statement stmt = copy.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT seq FROM sqlite_sequence WHERE name = 'replication_log'")) {
+                seq = rs.next() ? rs.getLong(1) : 0;
+            }
+            List<String> triggers = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'trigger'"
+                    + " AND (name LIKE 'repl\\_%' ESCAPE '\\' OR name LIKE 'cdc\\_%' ESCAPE '\\')")) {
+                while (rs.next()) {
+                    triggers.add(rs.getString(1));
+                }
+            }
+            for (String trigger : triggers) {
+                stmt.execute("DROP TRIGGER " + trigger);
+            }
+            stmt.execute("DELETE FROM replication_log");
+            try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'cdc_log'")) {
+                if (rs.next()) {
+                    stmt.execute("DELETE FROM cdc_log"); // the primary's exporter ships those
+                }
+            }
+            stmt.execute("CREATE TABLE IF NOT EXISTS replica_state (id INTEGER PRIMARY KEY CHECK (id = 1),"
+                    + " shipped_seq INTEGER NOT NULL, shipped_at INTEGER NOT NULL)");
+            stmt.execute("INSERT OR REPLACE INTO replica_state (id, shipped_seq, shipped_at) VALUES (1, " + seq + ", "
+                    + System.currentTimeMillis() + ")");
+        } catch (SQLException e) {
+            Files.deleteIfExists(partial.toPath());
+            throw e;
+        }
+        Files.deleteIfExists(new File(standby.getPath() + "-wal").toPath());
+        Files.deleteIfExists(new File(standby.getPath() + "-shm").toPath());
+        Files.move(partial.toPath(), standby.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        shippedSeq = seq;
+    }
+
+    private Connection openReplica() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+        }
+        return conn;
+    }
+
+    /**
+     * A read-only connection to the standby for reports, so they never touch the primary.
+     * Caller is responsible for closing it.
+     */
+    public Connection openReadOnlyConnection() throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        config.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+        return DriverManager.getConnection(url, config.toProperties());
+    }
+
+    /** Totals as of the last shipment, read from the standby. */
+    public LibraryReport getReport() throws SQLException {
+        Map<String, Integer> counts = new HashMap<>();
+        try (Connection conn = openReadOnlyConnection(); Statement stmt = conn.createStatement()) {
+            for (String table : List.of("books", "members")) {
+                try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+                    counts.put(table, rs.next() ? rs.getInt(1) : 0);
+                }
+            }
+        }
+        return new LibraryReport(counts.get("books"), counts.get("members"));
+    }
+
+    /** Seq of the last change applied on the standby, or -1 before the first shipment. */
+    public synchronized long getShippedSeq() {
+        return shippedSeq;
+    }
+
+    /** How long the oldest change of the last shipment waited, in milliseconds. */
+    public long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+    /** Changes logged on the primary and not yet on the standby. */
+    public int getPendingChanges() throws SQLException {
+        try (Connection conn = SQLiteConnectionManager.openDedicatedConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM replication_log WHERE seq > ?")) {
+            stmt.setLong(1, getShippedSeq());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /** Stops shipping; what is still logged goes out on the next start. */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Seeds a standby in a second directory, ships circulation, deletes, copies and another
+ * process's writes to it, and compares every replicated table row for row. Also checks the
+ * read-only report path, resuming without a reseed, and reseeding after a schema change.
+ * Works in a temp directory; exits with status 1 on the first failed check.
+ */
+public class StandbyReplicaTest {
+
+    private static final List<String> TABLES = List.of("books", "members", "borrowed_books", "holds",
+            "book_copies", "circulation_events");
+    private static final int TIMED_CHECKOUTS = 300;
+
+    public static void main(String[] args) throws Exception {
+        File db = TestSupport.useTempDatabase("library-standby-");
+        File standbyFile = new File(new File(db.getParentFile(), "second-disk"), "library-standby.db");
+        try {
+            LibraryService service = TestSupport.newService();
+            Member ann = new Member(1, "Ann", "pw");
+            Member bob = new Member(2, "Bob", "pw");
+            Book dune = new Book(1, "Dune", "Frank Herbert");
+            Book emma = new Book(2, "Emma", "Jane Austen");
+            service.registerMember(ann);
+            service.registerMember(bob);
+            service.addBook(dune);
+            service.addBook(emma);
+            service.borrowBook(ann, dune, LocalDate.now().plusDays(14));
+
+            checkoutMicros(service, bob, emma); // warm-up
+            double before = checkoutMicros(service, bob, emma);
+            StandbyReplica standby = new StandbyReplica(standbyFile);
+            check("first shipment seeds the standby", standby.seedIfNeeded() && standbyFile.isFile());
+            double after = checkoutMicros(service, bob, emma);
+            System.out.printf("      borrow + return: %.0f us without logging, %.0f us with%n", before, after);
+            standby.shipPending();
+            check("seed and checkouts match", sameRows(db, standbyFile));
+
+            service.placeHold(bob, dune, false);
+            service.returnBook(ann, dune);
+            service.addCopies(dune, List.of("DUNE-2", "DUNE-3"));
+            service.removeMember(new Member(2, "Bob", "pw"));
+            try (Connection other = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+                 Statement stmt = other.createStatement()) {
+                stmt.executeUpdate("INSERT INTO books (id, title, author) VALUES (3, 'Imported', 'Batch')");
+                stmt.executeUpdate("UPDATE books SET id = 30 WHERE id = 3");
+            }
+            check("changes pending", standby.getPendingChanges() > 0);
+            standby.shipPending();
+            check("every table matches after shipping", sameRows(db, standbyFile) && standby.getPendingChanges() == 0);
+            check("lag measured", standby.getLastLagMillis() >= 0
+                    && MetricsRegistry.getDefault().operation("StandbyReplica.lag").getCalls() == 2);
+
+            LibraryReport report = standby.getReport();
+            check("reports run on the standby", report.getTotalBooks() == 3 && report.getTotalMembers() == 1);
+            boolean refused;
+            try (Connection readOnly = standby.openReadOnlyConnection(); Statement stmt = readOnly.createStatement()) {
+                stmt.executeUpdate("DELETE FROM books");
+                refused = false;
+            } catch (SQLException e) {
+                refused = true;
+            }
+            check("read-only connection refuses writes", refused);
+            check("standby has no logging of its own", count(standbyFile, "sqlite_master WHERE name LIKE 'repl\\_%' ESCAPE '\\'") == 0);
+
+            StandbyReplica restarted = new StandbyReplica(standbyFile);
+            service.addBook(new Book(4, "After restart", "Nobody"));
+            check("restart resumes without a reseed", !restarted.seedIfNeeded() && restarted.shipPending() == 1
+                    && sameRows(db, standbyFile));
+
+            try (Statement stmt = SQLiteConnectionManager.getConnection().createStatement()) {
+                stmt.execute("ALTER TABLE members ADD COLUMN email TEXT");
+            }
+            StandbyReplica afterUpgrade = new StandbyReplica(standbyFile);
+            check("schema change reseeds", afterUpgrade.seedIfNeeded() && sameRows(db, standbyFile));
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("standby replica");
+    }
+
+    private static double checkoutMicros(LibraryService service, Member member, Book book) {
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMED_CHECKOUTS; i++) {
+            service.borrowBook(member, book, LocalDate.now().plusDays(14));
+            service.returnBook(member, book);
+        }
+        return (System.nanoTime() - start) / 1e3 / TIMED_CHECKOUTS;
+    }
+
+    private static boolean sameRows(File primary, File standby) throws SQLException {
+        for (String table : TABLES) {
+            List<String> expected = rows(primary, table);
+            List<String> actual = rows(standby, table);
+            if (!expected.equals(actual)) {
+                System.out.println("      " + table + " differs: " + expected.size() + " rows vs " + actual.size());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> rows(File db, String table) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT rowid, * FROM " + table + " ORDER BY rowid")) {
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    row.append(rs.getObject(i)).append('|');
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    private static int count(File db, String from) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + from)) {
+            return rs.getInt(1);
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+package library;
+
+import static library.TestSupport.check;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers one LibraryService from many threads, as the HTTP server does: members borrowing
+ * and returning their own book and a contended shared title, several desks returning the
+ * same loan, fines and payments on one member. Then checks the database and the shared
+ * in-memory objects agree. Also checks crossed stripe pairs cannot deadlock.
+ * Works in a temp directory; exits with status 1 on the first failed check.
+ */
+public class StripedLockingTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 150;
+    private static final int SHARED_COPIES = 3;
+    private static final int SHARED_BOOK = 100;
+
+    public static void main(String[] args) throws Exception {
+        checkStripeOrder();
+
+        File db = TestSupport.useTempDatabase("library-striped-");
+        try {
+            LibraryService service = TestSupport.newService();
+            List<Member> members = new ArrayList<>();
+            List<Book> own = new ArrayList<>();
+            for (int i = 1; i <= THREADS; i++) {
+                Member member = new Member(i, "Member " + i, "pw");
+                Book book = new Book(i, "Own " + i, "Author " + i);
+                service.registerMember(member);
+                service.addBook(book);
+                members.add(member);
+                own.add(book);
+            }
+            Book shared = new Book(SHARED_BOOK, "Shared", "Everyone");
+            service.addBook(shared);
+            List<String> barcodes = new ArrayList<>();
+            for (int i = 2; i <= SHARED_COPIES; i++) {
+                barcodes.add("SHARED-" + i);
+            }
+            service.addCopies(shared, barcodes);
+
+            AtomicInteger unexpected = new AtomicInteger();
+            runThreads(t -> {
+                Member member = members.get(t);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    // Everyone borrows the shared title; a member's own book only they touch
+                    Book book = random.nextBoolean() ? shared : own.get(t);
+                    boolean onLoan = member.getBorrowedBooks().stream().anyMatch(bb -> bb.getBook() == book);
+                    try {
+                        if (onLoan) {
+                            service.returnBook(member, book);
+                        } else {
+                            service.tryBorrowBook(member, book, LocalDate.now().plusDays(14));
+                        }
+                    } catch (RuntimeException e) {
+                        System.out.println("      " + e.getMessage());
+                        unexpected.incrementAndGet();
+                    }
+                }
+            });
+            check("no unexpected failures under contention", unexpected.get() == 0);
+            check("copies out match the loans", copiesMatchLoans(db, List.of(shared, own.get(0), own.get(THREADS - 1))));
+            check("in-memory loans match the database", loansMatch(db, members));
+
+            Member ann = members.get(0);
+            for (BorrowedBook loan : List.copyOf(ann.getBorrowedBooks())) {
+                service.returnBook(ann, loan);
+            }
+            BorrowedBook loan = service.borrowBook(ann, own.get(0), LocalDate.now().plusDays(14));
+            AtomicInteger returned = new AtomicInteger();
+            AtomicInteger refused = new AtomicInteger();
+            runThreads(t -> {
+                try {
+                    service.returnBook(ann, loan);
+                    returned.incrementAndGet();
+                } catch (IllegalStateException e) {
+                    refused.incrementAndGet();
+                }
+            });
+            check("a loan returned at several desks at once comes back once",
+                    returned.get() == 1 && refused.get() == THREADS - 1
+                    && copiesMatchLoans(db, List.of(own.get(0))) && own.get(0).getAvailableCopies() == 1);
+
+            Member bob = members.get(1);
+            bob.setBalance(0);
+            runThreads(t -> {
+                for (int i = 0; i < 1000; i++) {
+                    bob.addFine(0.5);
+                }
+            });
+            check("concurrent fines add up exactly", bob.getBalance() == THREADS * 1000 * 0.5);
+            runThreads(t -> {
+                for (int i = 0; i < 1000; i++) {
+                    bob.payFine(0.25);
+                }
+            });
+            check("concurrent payments add up exactly", bob.getBalance() == THREADS * 1000 * 0.25);
+            bob.setBalance(0);
+        } finally {
+            TestSupport.cleanUp(db);
+        }
+
+        TestSupport.finish("striped locking");
+    }
+
+    /** Two threads taking crossed stripes over and over would deadlock without the ordering. */
+    private static void checkStripeOrder() throws InterruptedException {
+        StripedLocks locks = new StripedLocks(2);
+        int[] crossed = null;
+        for (int m = 1; m < 100 && crossed == null; m++) {
+            for (int b = 1; b < 100 && crossed == null; b++) {
+                if (locks.memberStripe(m) == 0 && locks.bookStripe(b) == 1) {
+                    for (int m2 = 1; m2 < 100 && crossed == null; m2++) {
+                        for (int b2 = 1; b2 < 100 && crossed == null; b2++) {
+                            if (locks.memberStripe(m2) == 1 && locks.bookStripe(b2) == 0) {
+                                crossed = new int[] {m, b, m2, b2};
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        check("ids spread over both stripes", crossed != null);
+        if (crossed == null) {
+            return;
+        }
+        int[] pairs = crossed;
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < 2; t++) {
+            int member = pairs[t * 2];
+            int book = pairs[t * 2 + 1];
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 200_000; i++) {
+                    StripedLocks.Held held = locks.lockMemberAndBook(member, book);
+                    try {
+                        Thread.onSpinWait();
+                    } finally {
+                        held.unlock();
+                    }
+                }
+            });
+            threads[t].setDaemon(true);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30_000);
+        }
+        check("crossed member and book stripes never deadlock", !threads[0].isAlive() && !threads[1].isAlive());
+    }
+
+    private interface Work {
+        void run(int thread);
+    }
+
+    /** Starts all threads together and waits for them. */
+    private static void runThreads(Work work) throws InterruptedException {
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int index = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    go.await();
+                    work.run(index);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[t].start();
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /** For each book: copies on the shelf in the database and in memory equal copies minus open loans. */
+    private static boolean copiesMatchLoans(File db, List<Book> books) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+             Statement stmt = conn.createStatement()) {
+            for (Book book : books) {
+                try (ResultSet rs = stmt.executeQuery("SELECT copies - available_copies,"
+                        + " (SELECT COUNT(*) FROM borrowed_books WHERE book_id = books.id AND return_date IS NULL),"
+                        + " available_copies FROM books WHERE id = " + book.getId())) {
+                    if (rs.getInt(1) != rs.getInt(2) || rs.getInt(3) != book.getAvailableCopies()) {
+                        System.out.println("      " + book.getTitle() + ": " + rs.getInt(1) + " out, "
+                                + rs.getInt(2) + " loans, " + book.getAvailableCopies() + " in memory");
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean loansMatch(File db, List<Member> members) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+             Statement stmt = conn.createStatement()) {
+            for (Member member : members) {
+                try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM borrowed_books WHERE return_date IS NULL"
+                        + " AND member_id = " + member.getId())) {
+                    if (rs.getInt(1) != member.getBorrowedBooks().size()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+}
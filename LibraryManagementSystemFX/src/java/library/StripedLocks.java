@@ -0,0 +1,86 @@
+package library;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared by all members and books: an id maps to one stripe, so
+ * operations on unrelated members rarely wait for each other, and memory stays fixed
+ * however many members there are. An operation on a member and a book takes both stripes
+ * in stripe order, so two such operations can never deadlock, and a stripe both map to is
+ * taken once. Locks are reentrant: a return may update the member's fines under the same
+ * stripe it already holds.
+ */
+public final class StripedLocks {
+
+    /** Enough that two of a few dozen busy desks rarely share a stripe. */
+    public static final int DEFAULT_STRIPES = 256;
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public StripedLocks(int stripes) {
+        if (stripes < 1 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Stripes must be a power of two: " + stripes);
+        }
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = stripes - 1;
+    }
+
+    /** Held stripes; unlock them in a finally block, as with a plain Lock. */
+    public interface Held {
+        void unlock();
+    }
+
+    public Held lockMember(int memberId) {
+        return lockIndex(memberStripe(memberId));
+    }
+
+    public Held lockBook(int bookId) {
+        return lockIndex(bookStripe(bookId));
+    }
+
+    /** Both stripes, lower index first. */
+    public Held lockMemberAndBook(int memberId, int bookId) {
+        int a = memberStripe(memberId);
+        int b = bookStripe(bookId);
+        if (a == b) {
+            return lockIndex(a);
+        }
+        ReentrantLock first = stripes[Math.min(a, b)];
+        ReentrantLock second = stripes[Math.max(a, b)];
+        first.lock();
+        try {
+            second.lock();
+        } catch (RuntimeException e) {
+            first.unlock();
+            throw e;
+        }
+        return () -> {
+            second.unlock();
+            first.unlock();
+        };
+    }
+
+    private Held lockIndex(int index) {
+        ReentrantLock lock = stripes[index];
+        lock.lock();
+        return lock::unlock;
+    }
+
+    int memberStripe(int memberId) {
+        return spread(memberId * 2) & mask;
+    }
+
+    int bookStripe(int bookId) {
+        return spread(bookId * 2 + 1) & mask;
+    }
+
+    /** Scatters consecutive ids (and branch id ranges) over all stripes. */
+    private static int spread(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,73 @@
+package library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Shared scaffolding for the main()-style checks: a throwaway database, a service over it,
+ * and the OK/FAIL lines with the closing SUCCESS/FAILURE line the build looks for.
+ * Each check runs in its own JVM, so the failure count is simply static.
+ */
+final class TestSupport {
+
+    private static int failures;
+
+    private TestSupport() {
+    }
+
+    /**
+     * Points SQLiteConnectionManager at library.db in a new temp directory.
+     * @return the database file; its directory is free for other files the check needs
+     */
+    static File useTempDatabase(String prefix) throws IOException {
+        File db = new File(Files.createTempDirectory(prefix).toFile(), "library.db");
+        SQLiteConnectionManager.useDatabaseFile(db.getPath());
+        return db;
+    }
+
+    /** A service over the SQLite handlers, as App builds it without instrumentation. */
+    static LibraryService newService() {
+        return new LibraryService(new MemberRepository(new SQLiteMemberHandler()),
+                new BookRepository(new SQLiteBookHandler()));
+    }
+
+    /** Closes the shared connection and deletes the directory useTempDatabase made. */
+    static void cleanUp(File db) {
+        SQLiteConnectionManager.closeConnection();
+        deleteTree(db.getParentFile());
+    }
+
+    static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    static void check(String name, boolean ok) {
+        if (ok) {
+            System.out.println("OK    " + name);
+        } else {
+            fail(name);
+        }
+    }
+
+    static void fail(String message) {
+        failures++;
+        System.out.println("FAIL  " + message);
+    }
+
+    /** Prints the summary line, and exits with status 1 if any check failed. */
+    static void finish(String what) {
+        if (failures == 0) {
+            System.out.println("SUCCESS: " + what + " checks passed.");
+        } else {
+            System.out.println("FAILURE: " + failures + " " + what + " checks failed.");
+            System.exit(1);
+        }
+    }
+}
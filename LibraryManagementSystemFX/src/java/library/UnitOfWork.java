@@ -0,0 +1,228 @@
+package library;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One database transaction spanning several handler calls.
+ * While a unit is open, SQLiteConnectionManager.getConnection() on the same thread returns
+ * the unit's connection, so the SQLite handlers join it without any change to their API.
+ * The transaction starts with BEGIN IMMEDIATE (the write lock is taken up front, so it
+ * cannot fail half way with SQLITE_BUSY) and commits once, i.e. one disk sync.
+ *
+ * Handlers swallow their SQLExceptions; they call markRollbackOnly so a failed write
+ * inside a unit rolls the whole unit back instead of committing half of it.
+ * Units nest: an inner begin() joins the outer unit and only the outer one commits.
+ * afterCommit defers in-memory changes until the data they mirror has committed;
+ * onRollback undoes changes a store made outside the transaction (CompactCatalog, say).
+ *
+ * <pre>
+ * try (UnitOfWork uow = UnitOfWork.begin()) {
+ *     ...handler calls...
+ *     uow.commit();
+ * }
+ * </pre>
+ */
+public final class UnitOfWork implements AutoCloseable {
+
+    /** Work returning a value; see call. */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run() throws SQLException;
+    }
+
+    /** Work without a result; see execute. */
+    @FunctionalInterface
+    public interface Action {
+        void run() throws SQLException;
+    }
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final UnitOfWork outer;
+    private final Connection connection;
+    private SQLException rollbackCause;
+    private boolean finished;
+    private boolean rolledBack;
+    /** Run after COMMIT, dropped on rollback; only the outermost unit keeps them. */
+    private List<Runnable> afterCommit;
+    /** Run, newest first, after ROLLBACK, dropped on commit; only the outermost unit keeps them. */
+    private List<Runnable> onRollback;
+
+    private UnitOfWork(UnitOfWork outer, Connection connection) {
+        this.outer = outer;
+        this.connection = connection;
+    }
+
+    /** Starts a unit on this thread, or joins the one already open. */
+    public static UnitOfWork begin() throws SQLException {
+        UnitOfWork current = CURRENT.get();
+        if (current != null) {
+            return new UnitOfWork(current, current.connection);
+        }
+        Connection conn = SQLiteConnectionManager.acquireTransactionConnection();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("BEGIN IMMEDIATE");
+        } catch (SQLException e) {
+            SQLiteConnectionManager.releaseTransactionConnection(conn);
+            throw e;
+        }
+        UnitOfWork unit = new UnitOfWork(null, conn);
+        CURRENT.set(unit);
+        return unit;
+    }
+
+    /** Runs work in a unit and commits it; rolls back and rethrows if anything failed. */
+    public static <T> T call(Work<T> work) throws SQLException {
+        try (UnitOfWork unit = begin()) {
+            T result;
+            try {
+                result = work.run();
+            } catch (SQLException e) {
+                // A joined unit would otherwise only report that it was not committed
+                markRollbackOnly(e);
+                throw e;
+            }
+            unit.commit();
+            return result;
+        }
+    }
+
+    public static void execute(Action action) throws SQLException {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /** Connection of the unit open on this thread, or null. */
+    static Connection currentConnection() {
+        UnitOfWork current = CURRENT.get();
+        return current == null ? null : current.connection;
+    }
+
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /** Makes the unit open on this thread (if any) roll back instead of committing. */
+    public static void markRollbackOnly(SQLException cause) {
+        UnitOfWork current = CURRENT.get();
+        if (current != null && current.rollbackCause == null) {
+            current.rollbackCause = cause;
+        }
+    }
+
+    /**
+     * Runs action once the unit open on this thread commits, or now if none is open.
+     * For in-memory state that must only change when the database did.
+     */
+    public static void afterCommit(Runnable action) {
+        UnitOfWork current = CURRENT.get();
+        if (current == null) {
+            action.run();
+            return;
+        }
+        while (current.outer != null) {
+            current = current.outer;
+        }
+        if (current.afterCommit == null) {
+            current.afterCommit = new ArrayList<>(2);
+        }
+        current.afterCommit.add(action);
+    }
+
+    /**
+     * Runs undo if the unit open on this thread rolls back; dropped if it commits or none is open.
+     * For stores outside the database that changed at once and must follow a rollback.
+     */
+    public static void onRollback(Runnable undo) {
+        UnitOfWork current = CURRENT.get();
+        if (current == null) {
+            return;
+        }
+        while (current.outer != null) {
+            current = current.outer;
+        }
+        if (current.onRollback == null) {
+            current.onRollback = new ArrayList<>(2);
+        }
+        current.onRollback.add(undo);
+    }
+
+    /**
+     * Commits the transaction; a joined unit leaves that to the outer one.
+     * @throws SQLException if a handler failed inside the unit (it has been rolled back)
+     */
+    public void commit() throws SQLException {
+        if (finished) {
+            throw new IllegalStateException("Unit of work already finished");
+        }
+        finished = true;
+        if (outer != null) {
+            return;
+        }
+        try {
+            if (rollbackCause != null) {
+                rollback();
+                throw new SQLException("Unit of work rolled back: " + rollbackCause.getMessage(),
+                        rollbackCause.getSQLState(), rollbackCause.getErrorCode(), rollbackCause);
+            }
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("COMMIT");
+            } catch (SQLException e) {
+                rollback();
+                throw e;
+            }
+        } finally {
+            end();
+        }
+        if (afterCommit != null) {
+            afterCommit.forEach(Runnable::run);
+        }
+    }
+
+    /** Rolls back unless committed; a joined unit marks the outer one rollback-only instead. */
+    @Override
+    public void close() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (outer != null) {
+            if (outer.rollbackCause == null) {
+                outer.rollbackCause = new SQLException("Nested unit of work was not committed");
+            }
+            return;
+        }
+        try {
+            rollback();
+        } finally {
+            end();
+        }
+    }
+
+    private void rollback() {
+        rolledBack = true;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ROLLBACK");
+        } catch (SQLException e) {
+            // Nothing left to undo when SQLite already rolled back on the error
+            System.err.println("Error rolling back unit of work: " + e.getMessage());
+        }
+    }
+
+    private void end() {
+        CURRENT.remove();
+        SQLiteConnectionManager.releaseTransactionConnection(connection);
+        // Outside the unit, so an undo that writes does not join the rolled-back one
+        if (rolledBack && onRollback != null) {
+            for (int i = onRollback.size() - 1; i >= 0; i--) {
+                onRollback.get(i).run();
+            }
+        }
+    }
+}
@@ -3,21 +3,53 @@ package libraryui.ui;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
+import javafx.scene.layout.Region;
 import javafx.stage.Stage;
 import library.*;
 
+import java.io.File;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
 public class App extends Application {
+    /** Hours between online backups of library.db (taken in the background while the desk runs). */
+    private static final long BACKUP_INTERVAL_HOURS = 24;
+
+    /** Seconds between checks whether the catalog snapshot needs rewriting. */
+    private static final long CATALOG_SNAPSHOT_INTERVAL_SECONDS = 30;
+
+    /** Minutes between sweeps for holds whose pickup days have run out. */
+    private static final long HOLD_EXPIRY_INTERVAL_MINUTES = 15;
+
+    /** Milliseconds between checks whether another desk or process changed the database. */
+    private static final long CHANGE_POLL_INTERVAL_MILLIS = 500;
+
+    /** Seconds between shipments of captured changes, when -Dlibrary.cdc.dir is set. */
+    private static final long CDC_SHIP_INTERVAL_SECONDS = 5;
+
+    /** Seconds between shipments to the standby copy, when -Dlibrary.standby.path is set. */
+    private static final long STANDBY_SHIP_INTERVAL_SECONDS = 2;
+
+    private SQLiteBackupManager backupManager;
+    private CatalogSnapshotWriter catalogSnapshotWriter;
+    private HoldExpiryScheduler holdExpiryScheduler;
+    private ChangeDetector changeDetector;
+    private CdcExporter cdcExporter;
+    private StandbyReplica standbyReplica;
+
     @Override
     public void start(Stage stage) throws Exception {
-        // Use SQLite database for persistence
-        DataHandler<Book> bookDataHandler = new SQLiteBookHandler();
-        DataHandler<Member> memberDataHandler = new SQLiteMemberHandler();
+        // Use SQLite database for persistence, timed into the metrics shown in Diagnostics
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        DataHandler<Book> bookDataHandler = new InstrumentedDataHandler<>(new SQLiteBookHandler(), metrics);
+        DataHandler<Member> memberDataHandler = new InstrumentedDataHandler<>(new SQLiteMemberHandler(), metrics);
 
         BookRepository bookRepository = new BookRepository(bookDataHandler);
         MemberRepository memberRepository = new MemberRepository(memberDataHandler);
-        LibraryService libraryService = new LibraryService(memberRepository, bookRepository);
+        LibraryService libraryService = new InstrumentedLibraryService(memberRepository, bookRepository, metrics);
+
+        // Database open, first pages and image decoding run in the background while FXML loads
+        StartupPipeline startup = StartupPipeline.begin(libraryService);
 
         // Load FXML: same package as App (libraryui.ui) then classpath root
         URL fxmlUrl = App.class.getResource("library.fxml");
@@ -28,14 +60,76 @@ public class App extends Application {
             throw new IllegalStateException("FXML not found: library.fxml. Ensure src/resources is marked as Resources and rebuild.");
         }
         FXMLLoader loader = new FXMLLoader(fxmlUrl);
-        Scene scene = new Scene(loader.load(), 1000, 650);
+        Region root = loader.load();
+        Scene scene = new Scene(root, 1000, 650);
+        startup.mark("FXML loaded");
+        startup.applyBackground(root);
 
         LibraryController controller = loader.getController();
-        controller.setLibraryService(libraryService);
+        controller.setLibraryService(libraryService, startup);
+        changeDetector = new ChangeDetector();
+        controller.setChangeDetector(changeDetector);
+        changeDetector.start(CHANGE_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        startup.mark("Controller ready");
 
         stage.setTitle("Library Management Dashboard");
         stage.setScene(scene);
+        startup.markFirstFrame(scene);
         stage.show();
+
+        backupManager = new SQLiteBackupManager();
+        backupManager.scheduleBackups(BACKUP_INTERVAL_HOURS, TimeUnit.HOURS);
+
+        catalogSnapshotWriter = new CatalogSnapshotWriter();
+        catalogSnapshotWriter.scheduleRefresh(CATALOG_SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        holdExpiryScheduler = new HoldExpiryScheduler(libraryService);
+        holdExpiryScheduler.scheduleExpiry(HOLD_EXPIRY_INTERVAL_MINUTES, TimeUnit.MINUTES);
+
+        // Incremental export for the reporting warehouse, only where one is configured
+        String cdcDir = System.getProperty("library.cdc.dir");
+        if (cdcDir != null) {
+            cdcExporter = new CdcExporter(new File(cdcDir), CdcExporter.DEFAULT_SEGMENT_BYTES);
+            cdcExporter.start(CDC_SHIP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+
+        // Hot standby on a second disk, only where one is configured
+        String standbyPath = System.getProperty("library.standby.path");
+        if (standbyPath != null) {
+            standbyReplica = new StandbyReplica(new File(standbyPath));
+            standbyReplica.start(STANDBY_SHIP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (backupManager != null) {
+            backupManager.shutdown();
+        }
+        if (holdExpiryScheduler != null) {
+            holdExpiryScheduler.shutdown();
+        }
+        if (changeDetector != null) {
+            changeDetector.close();
+        }
+        if (cdcExporter != null) {
+            cdcExporter.close();
+        }
+        if (standbyReplica != null) {
+            standbyReplica.close();
+        }
+        if (catalogSnapshotWriter != null) {
+            catalogSnapshotWriter.shutdown();
+            // Leave a current snapshot behind so the next start is warm
+            try {
+                catalogSnapshotWriter.refreshIfStale();
+            } catch (Exception e) {
+                System.err.println("Error writing catalog snapshot: " + e.getMessage());
+            }
+        }
+        // Keep a recording the user forgot to stop
+        FlightRecording.stop();
+        SQLiteConnectionManager.closeConnection();
     }
 
     public static void main(String[] args) {
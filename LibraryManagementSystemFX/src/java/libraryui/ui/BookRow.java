@@ -0,0 +1,69 @@
+package libraryui.ui;
+
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import library.Book;
+
+/**
+ * What the books table shows for one book, as properties made once per book and updated
+ * in place. Cell value factories hand out these properties instead of allocating new
+ * ones each time a cell is laid out, and the borrower and due date are worked out once
+ * per reload rather than on every scroll. FX thread only.
+ */
+final class BookRow {
+
+    private final ReadOnlyObjectWrapper<Integer> id = new ReadOnlyObjectWrapper<>();
+    private final ReadOnlyStringWrapper title = new ReadOnlyStringWrapper();
+    private final ReadOnlyStringWrapper author = new ReadOnlyStringWrapper();
+    private final ReadOnlyStringWrapper status = new ReadOnlyStringWrapper();
+    private final ReadOnlyStringWrapper borrower = new ReadOnlyStringWrapper();
+    private final ReadOnlyStringWrapper dueDate = new ReadOnlyStringWrapper();
+
+    private Book book;
+    private long generation = -1;
+
+    /** True if the row was filled from this book object since the tables were last reloaded. */
+    boolean isCurrent(Book book, long generation) {
+        return this.book == book && this.generation == generation;
+    }
+
+    /** Refills the properties; unchanged values fire no change events. */
+    void update(Book book, long generation, String borrower, String dueDate) {
+        this.book = book;
+        this.generation = generation;
+        id.set(book.getId());
+        title.set(book.getTitle());
+        author.set(book.getAuthor());
+        status.set(book.getCopies() > 1
+                ? book.getAvailableCopies() + " of " + book.getCopies() + " available"
+                : book.isAvailable() ? "Available" : "Borrowed");
+        this.borrower.set(borrower);
+        this.dueDate.set(dueDate);
+    }
+
+    ReadOnlyObjectProperty<Integer> idProperty() {
+        return id.getReadOnlyProperty();
+    }
+
+    ReadOnlyStringProperty titleProperty() {
+        return title.getReadOnlyProperty();
+    }
+
+    ReadOnlyStringProperty authorProperty() {
+        return author.getReadOnlyProperty();
+    }
+
+    ReadOnlyStringProperty statusProperty() {
+        return status.getReadOnlyProperty();
+    }
+
+    ReadOnlyStringProperty borrowerProperty() {
+        return borrower.getReadOnlyProperty();
+    }
+
+    ReadOnlyStringProperty dueDateProperty() {
+        return dueDate.getReadOnlyProperty();
+    }
+}
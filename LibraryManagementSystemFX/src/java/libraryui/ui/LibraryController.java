@@ -6,24 +6,36 @@ import javafx.collections.FXCollections;
 import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
-import javafx.beans.property.SimpleIntegerProperty;
+import javafx.application.Platform;
+import library.ActiveLoan;
 import library.Book;
 import library.BorrowedBook;
+import library.ChangeDetector;
+import library.FlightRecording;
 import library.LibraryReport;
 import library.LibraryService;
 import library.Member;
+import library.MetricsRegistry;
+import library.MetricsSnapshot;
 import library.SQLiteBorrowedBookHandler;
 import library.SQLiteConnectionManager;
+import library.SqlTracer;
 import libraryui.ui.dialogs.EditBookDialog;
 import libraryui.ui.dialogs.EditMemberDialog;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import javafx.stage.FileChooser;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.util.Duration;
 
 public class LibraryController {
 
@@ -34,6 +46,7 @@ public class LibraryController {
     @FXML private VBox addBookView;
     @FXML private VBox registerMemberView;
     @FXML private VBox borrowReturnView;
+    @FXML private VBox diagnosticsView;
 
     // Books tab
     @FXML private TextField bookSearchField;
@@ -81,6 +94,20 @@ public class LibraryController {
     @FXML private TextField dueDateBookIdField;
     @FXML private Label dueDateLabel;
 
+    // Diagnostics
+    @FXML private Label diagnosticsSummaryLabel;
+    @FXML private Button recordingButton;
+    @FXML private TableView<MetricsSnapshot> metricsTable;
+    @FXML private TableColumn<MetricsSnapshot, String> metricNameColumn;
+    @FXML private TableColumn<MetricsSnapshot, Number> metricCallsColumn;
+    @FXML private TableColumn<MetricsSnapshot, Number> metricErrorsColumn;
+    @FXML private TableColumn<MetricsSnapshot, String> metricRateColumn;
+    @FXML private TableColumn<MetricsSnapshot, String> metricP50Column;
+    @FXML private TableColumn<MetricsSnapshot, String> metricP99Column;
+    @FXML private TableColumn<MetricsSnapshot, String> metricP999Column;
+    @FXML private TableColumn<MetricsSnapshot, String> metricMaxColumn;
+    @FXML private TableColumn<MetricsSnapshot, String> metricLastErrorColumn;
+
     // Output areas for each view
     @FXML private TextArea outputArea;
     @FXML private TextArea membersOutputArea;
@@ -101,87 +128,47 @@ public class LibraryController {
     
     // Session-level borrowing tracking (fallback when borrower not in member's list)
     private final java.util.Map<Integer, Integer> bookBorrowerMap = new java.util.HashMap<>(); // bookId -> memberId
+    /** Unreturned loans by book id, read in one query; reloaded with the books table. */
+    private java.util.Map<Integer, ActiveLoan> activeLoans = new java.util.HashMap<>();
+    private final SQLiteBorrowedBookHandler borrowedBookHandler = new SQLiteBorrowedBookHandler();
+    /** When set, tables reload only when their rows changed, by this desk or any other process. */
+    private ChangeDetector changeDetector;
+    /** False while startup is still appending rows after the first page. */
+    private boolean booksLoaded = true;
+    private boolean membersLoaded = true;
+    /** Row adapters by id, made when a row is first shown and updated in place after that. */
+    private final java.util.Map<Integer, BookRow> bookRows = new java.util.HashMap<>();
+    private final java.util.Map<Integer, MemberRow> memberRows = new java.util.HashMap<>();
+    /** Bumped by every table reload; a row filled before it is refilled when next shown. */
+    private long rowGeneration;
+    /** Member names by id for the borrower column, rebuilt once per generation. */
+    private java.util.Map<Integer, String> memberNames;
+    private long memberNamesGeneration = -1;
     /** Selected cover image path when adding a book (FileChooser). */
     private String selectedCoverPath;
 
+    /** Refreshes the diagnostics table once per second while it is visible. */
+    private final Timeline metricsRefresh = new Timeline(new KeyFrame(Duration.seconds(1), e -> refreshMetrics()));
+    /** Call counts at the previous refresh, to show current (not lifetime) rates. */
+    private final java.util.Map<String, Long> previousMetricCalls = new java.util.HashMap<>();
+    private final java.util.Map<String, Double> metricRates = new java.util.HashMap<>();
+    private long previousMetricsNanos;
+
     @FXML
     private void initialize() {
         // Setup table columns
-        bookIdColumn.setCellValueFactory(data -> new SimpleIntegerProperty(data.getValue().getId()).asObject());
-        bookTitleColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(data.getValue().getTitle()));
-        bookAuthorColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(data.getValue().getAuthor()));
-        bookStatusColumn.setCellValueFactory(data -> {
-            String status = data.getValue().isAvailable() ? "Available" : "Borrowed";
-            return new javafx.beans.property.SimpleStringProperty(status);
-        });
-        // Show borrower information by looking up who borrowed this book
-        bookBorrowerColumn.setCellValueFactory(data -> {
-            Book book = data.getValue();
-            if (book.isAvailable() || libraryService == null) {
-                return new javafx.beans.property.SimpleStringProperty("");
-            }
-            
-            // First try: Get current borrower directly from database (most reliable)
-            SQLiteBorrowedBookHandler borrowedBookHandler = new SQLiteBorrowedBookHandler();
-            int currentBorrowerId = borrowedBookHandler.getCurrentBorrowerId(book.getId());
-            if (currentBorrowerId != -1) {
-                // Find the member by ID
-                for (Member member : libraryService.getAllMembers()) {
-                    if (member.getId() == currentBorrowerId) {
-                        return new javafx.beans.property.SimpleStringProperty(member.getName());
-                    }
-                }
-            }
-            
-            // Second try: Use session-level tracking map as fallback
-            Integer borrowerId = bookBorrowerMap.get(book.getId());
-            if (borrowerId != null) {
-                // Find the member by ID
-                for (Member member : libraryService.getAllMembers()) {
-                    if (member.getId() == borrowerId) {
-                        return new javafx.beans.property.SimpleStringProperty(member.getName());
-                    }
-                }
-            }
-            
-            // Third try: Find which member borrowed this book through normal relationships
-            for (Member member : libraryService.getAllMembers()) {
-                for (BorrowedBook borrowedBook : member.getBorrowedBooks()) {
-                    if (borrowedBook.getBook().getId() == book.getId()) {
-                        return new javafx.beans.property.SimpleStringProperty(member.getName());
-                    }
-                }
-            }
-            
-            // Fallback: Book is marked as borrowed but we can't determine the borrower
-            if (!book.isAvailable()) {
-                return new javafx.beans.property.SimpleStringProperty("Unknown");
-            }
-            
-            return new javafx.beans.property.SimpleStringProperty("");
-        });
-        
-        // Due date column: show due date for borrowed books from database
-        bookDueDateColumn.setCellValueFactory(data -> {
-            Book book = data.getValue();
-            if (book.isAvailable() || libraryService == null) {
-                return new javafx.beans.property.SimpleStringProperty("");
-            }
-            
-            // Get due date from database for persistence
-            SQLiteBorrowedBookHandler borrowedBookHandler = new SQLiteBorrowedBookHandler();
-            LocalDate dueDate = borrowedBookHandler.getDueDateForBook(book.getId());
-            if (dueDate != null) {
-                return new javafx.beans.property.SimpleStringProperty(dueDate.toString());
-            }
-            
-            return new javafx.beans.property.SimpleStringProperty("");
-        });
-
-        memberIdColumn.setCellValueFactory(data -> new SimpleIntegerProperty(data.getValue().getId()).asObject());
-        memberNameColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(data.getValue().getName()));
-        memberPasswordColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(data.getValue().getPassword()));
-        memberBalanceColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleDoubleProperty(data.getValue().getBalance()).asObject());
+        // Cells share each row's properties (see BookRow), so layout and scrolling allocate nothing
+        bookIdColumn.setCellValueFactory(data -> bookRow(data.getValue()).idProperty());
+        bookTitleColumn.setCellValueFactory(data -> bookRow(data.getValue()).titleProperty());
+        bookAuthorColumn.setCellValueFactory(data -> bookRow(data.getValue()).authorProperty());
+        bookStatusColumn.setCellValueFactory(data -> bookRow(data.getValue()).statusProperty());
+        bookBorrowerColumn.setCellValueFactory(data -> bookRow(data.getValue()).borrowerProperty());
+        bookDueDateColumn.setCellValueFactory(data -> bookRow(data.getValue()).dueDateProperty());
+
+        memberIdColumn.setCellValueFactory(data -> memberRow(data.getValue()).idProperty());
+        memberNameColumn.setCellValueFactory(data -> memberRow(data.getValue()).nameProperty());
+        memberPasswordColumn.setCellValueFactory(data -> memberRow(data.getValue()).passwordProperty());
+        memberBalanceColumn.setCellValueFactory(data -> memberRow(data.getValue()).balanceProperty());
 
         // Cover column: display ImageView from cover file path
         setupBookCoverColumn();
@@ -190,6 +177,7 @@ public class LibraryController {
         setupBookDeleteColumn();
         setupMemberEditColumn();
         setupMemberDeleteColumn();
+        setupMetricsColumns();
         
         // Show books view by default
         showBooksView();
@@ -197,17 +185,46 @@ public class LibraryController {
     }
 
     public void setLibraryService(LibraryService libraryService) {
+        setLibraryService(libraryService, null);
+    }
+
+    /**
+     * Connects the service. With a startup pipeline the tables open on its prefetched
+     * first page and the remaining rows are appended when they arrive.
+     */
+    public void setLibraryService(LibraryService libraryService, StartupPipeline startup) {
         this.libraryService = libraryService;
 
         // Load table data from SQLite (persistent DB path shown so user knows where data is stored)
-        bookItems = FXCollections.observableArrayList(libraryService.getAllBooks());
+        bookItems = FXCollections.observableArrayList(
+                startup != null ? startup.getFirstBooks() : libraryService.getAllBooks());
         filteredBooks = new FilteredList<>(bookItems, p -> true);
         booksTable.setItems(filteredBooks);
 
-        memberItems = FXCollections.observableArrayList(libraryService.getAllMembers());
+        memberItems = FXCollections.observableArrayList(
+                startup != null ? startup.getFirstMembers() : libraryService.getAllMembers());
         filteredMembers = new FilteredList<>(memberItems, p -> true);
         membersTable.setItems(filteredMembers);
 
+        activeLoans = startup != null ? startup.getActiveLoans() : borrowedBookHandler.loadActiveLoans();
+        if (startup != null) {
+            booksLoaded = false;
+            membersLoaded = false;
+            startup.getRemainingBooks().thenAccept(rest -> Platform.runLater(() -> {
+                // A refresh in the meantime already loaded everything
+                if (!booksLoaded) {
+                    bookItems.addAll(rest);
+                    booksLoaded = true;
+                }
+            }));
+            startup.getRemainingMembers().thenAccept(rest -> Platform.runLater(() -> {
+                if (!membersLoaded) {
+                    memberItems.addAll(rest);
+                    membersLoaded = true;
+                }
+            }));
+        }
+
         // Connect search fields
         bookSearchField.textProperty().addListener((obs, old, nw) -> {
             String query = nw == null ? "" : nw.trim().toLowerCase();
@@ -258,12 +275,21 @@ public class LibraryController {
         borrowReturnView.setVisible(true);
     }
 
+    @FXML private void showDiagnosticsView() {
+        hideAllViews();
+        diagnosticsView.setVisible(true);
+        refreshMetrics();
+        metricsRefresh.play();
+    }
+
     private void hideAllViews() {
         booksView.setVisible(false);
         membersView.setVisible(false);
         addBookView.setVisible(false);
         registerMemberView.setVisible(false);
         borrowReturnView.setVisible(false);
+        diagnosticsView.setVisible(false);
+        metricsRefresh.stop();
     }
 
     // Helper methods for reducing duplication
@@ -438,28 +464,156 @@ public class LibraryController {
             appendOutputToAll("Report generated:");
             appendOutputToAll("  Total books: " + report.getTotalBooks());
             appendOutputToAll("  Total members: " + report.getTotalMembers());
+            if (report.hasLoanFigures()) {
+                appendOutputToAll("  Books out: " + report.getOpenLoans() + " (" + report.getOverdueLoans() + " overdue)");
+                appendOutputToAll("  Outstanding fines: $" + String.format("%.2f", report.getOutstandingFines()));
+            }
         } catch (Exception e) {
             appendOutputToAll("Error generating report: " + e.getMessage());
         }
     }
 
+    /**
+     * Reloads the tables whose data changed. Reloads come from the change detector when
+     * there is one (a poll right away here, since this desk just wrote), else straight away.
+     */
+    public void setChangeDetector(ChangeDetector changeDetector) {
+        this.changeDetector = changeDetector;
+        changeDetector.addListener(tables -> Platform.runLater(() -> {
+            if (tables.contains("books") || tables.contains("borrowed_books") || tables.contains("holds")) {
+                reloadBooksTable();
+            }
+            if (tables.contains("members")) {
+                reloadMembersTable();
+            }
+        }));
+    }
+
     private void refreshBooksTable() {
+        if (changeDetector != null) {
+            changeDetector.checkSoon();
+        } else {
+            reloadBooksTable();
+        }
+    }
+
+    private void refreshMembersTable() {
+        if (changeDetector != null) {
+            changeDetector.checkSoon();
+        } else {
+            reloadMembersTable();
+        }
+    }
+
+    private void reloadBooksTable() {
         if (libraryService == null) return;
         bookItems.setAll(libraryService.getAllBooks());
+        booksLoaded = true;
+        activeLoans = borrowedBookHandler.loadActiveLoans();
+        rowGeneration++;
+        bookRows.keySet().retainAll(bookIds(bookItems));
         // filteredBooks already wraps bookItems; just keep predicate
         booksTable.setItems(filteredBooks);
         // Force refresh of the table to update borrower column
         booksTable.refresh();
     }
 
-    private void refreshMembersTable() {
+    private void reloadMembersTable() {
         if (libraryService == null) return;
         memberItems.setAll(libraryService.getAllMembers());
+        membersLoaded = true;
+        // Borrower names in the books table come from the members too
+        rowGeneration++;
+        java.util.Set<Integer> ids = new java.util.HashSet<>();
+        for (Member member : memberItems) {
+            ids.add(member.getId());
+        }
+        memberRows.keySet().retainAll(ids);
+        booksTable.refresh();
         membersTable.setItems(filteredMembers);
         // Force refresh of the table
         membersTable.refresh();
     }
 
+    private static java.util.Set<Integer> bookIds(java.util.List<Book> books) {
+        java.util.Set<Integer> ids = new java.util.HashSet<>();
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
+
+    /** The row adapter for a book, refilled if the book was reloaded since it was last shown. */
+    private BookRow bookRow(Book book) {
+        BookRow row = bookRows.computeIfAbsent(book.getId(), id -> new BookRow());
+        if (!row.isCurrent(book, rowGeneration)) {
+            ActiveLoan loan = book.isAvailable() || libraryService == null ? null : activeLoans.get(book.getId());
+            String dueDate = "";
+            if (!book.isAvailable() && libraryService != null) {
+                // The active loans read with the table, or the database for a loan made since
+                LocalDate due = loan != null ? loan.getDueDate() : borrowedBookHandler.getDueDateForBook(book.getId());
+                dueDate = due != null ? due.toString() : "";
+            }
+            row.update(book, rowGeneration, borrowerName(book, loan), dueDate);
+        }
+        return row;
+    }
+
+    private MemberRow memberRow(Member member) {
+        MemberRow row = memberRows.computeIfAbsent(member.getId(), id -> new MemberRow());
+        if (!row.isCurrent(member, rowGeneration)) {
+            row.update(member, rowGeneration);
+        }
+        return row;
+    }
+
+    /** Who has a book that is out: the active loan, else the database, else this session's own record. */
+    private String borrowerName(Book book, ActiveLoan loan) {
+        if (book.isAvailable() || libraryService == null) {
+            return "";
+        }
+        int borrowerId = loan != null ? loan.getMemberId() : borrowedBookHandler.getCurrentBorrowerId(book.getId());
+        if (borrowerId == -1) {
+            borrowerId = bookBorrowerMap.getOrDefault(book.getId(), -1);
+        }
+        if (borrowerId != -1) {
+            String name = memberName(borrowerId);
+            if (name != null) {
+                return name;
+            }
+        }
+        // Members who borrowed in this session know their books
+        for (Member member : memberItems) {
+            for (BorrowedBook borrowedBook : member.getBorrowedBooks()) {
+                if (borrowedBook.getBook().getId() == book.getId()) {
+                    return member.getName();
+                }
+            }
+        }
+        // Book is marked as borrowed but we can't determine the borrower
+        return "Unknown";
+    }
+
+    private String memberName(int memberId) {
+        if (memberNamesGeneration != rowGeneration) {
+            memberNames = new java.util.HashMap<>();
+            for (Member member : memberItems) {
+                memberNames.put(member.getId(), member.getName());
+            }
+            memberNamesGeneration = rowGeneration;
+        }
+        String name = memberNames.get(memberId);
+        if (name == null && !membersLoaded) {
+            // Startup is still appending members; ask the database
+            for (Member member : libraryService.getAllMembers()) {
+                if (member.getId() == memberId) {
+                    return member.getName();
+                }
+            }
+        }
+        return name;
+    }
+
     /** Opens FileChooser to select a book cover image; stores path in field and selectedCoverPath. */
     @FXML
     private void handleChooseCover() {
@@ -495,8 +649,8 @@ public class LibraryController {
         bookCoverColumn.setCellFactory(param -> new TableCell<>() {
             private final ImageView imageView = new ImageView();
             {
-                imageView.setFitWidth(48);
-                imageView.setFitHeight(64);
+                imageView.setFitWidth(TableImages.COVER_WIDTH);
+                imageView.setFitHeight(TableImages.COVER_HEIGHT);
                 imageView.setPreserveRatio(true);
             }
 
@@ -514,8 +668,8 @@ public class LibraryController {
                     return;
                 }
                 try {
-                    Image img = new Image(new File(path).toURI().toString());
-                    imageView.setImage(img);
+                    // Decoded once at thumbnail size, off the FX thread; shared with other cells
+                    imageView.setImage(TableImages.cover(path));
                     setGraphic(imageView);
                 } catch (Exception e) {
                     setGraphic(null);
@@ -527,7 +681,7 @@ public class LibraryController {
     private void setupBookEditColumn() {
         bookEditColumn.setCellFactory(param -> new TableCell<>() {
             private final Button editButton = new Button();
-            private final ImageView editIcon = new ImageView(new Image("/icons/edit.png"));
+            private final ImageView editIcon = new ImageView(TableImages.editIcon());
             {
                 editIcon.setFitWidth(16);
                 editIcon.setFitHeight(16);
@@ -555,7 +709,7 @@ public class LibraryController {
     private void setupMemberEditColumn() {
         memberEditColumn.setCellFactory(param -> new TableCell<>() {
             private final Button editButton = new Button();
-            private final ImageView editIcon = new ImageView(new Image("/icons/edit.png"));
+            private final ImageView editIcon = new ImageView(TableImages.editIcon());
             {
                 editIcon.setFitWidth(16);
                 editIcon.setFitHeight(16);
@@ -586,9 +740,7 @@ public class LibraryController {
             Book updatedBook = dialog.showDialog();
             
             if (updatedBook != null) {
-                // Remove old book and add updated one
-                libraryService.removeBook(book);
-                libraryService.addBook(updatedBook);
+                libraryService.updateBook(updatedBook);
                 refreshBooksTable();
                 appendOutputToAll("Book updated: " + updatedBook.getTitle());
             }
@@ -616,7 +768,7 @@ public class LibraryController {
     private void setupBookDeleteColumn() {
         bookDeleteColumn.setCellFactory(param -> new TableCell<>() {
             private final Button deleteButton = new Button();
-            private final ImageView deleteIcon = new ImageView(new Image("/icons/delete.png"));
+            private final ImageView deleteIcon = new ImageView(TableImages.deleteIcon());
             {
                 deleteIcon.setFitWidth(16);
                 deleteIcon.setFitHeight(16);
@@ -644,7 +796,7 @@ public class LibraryController {
     private void setupMemberDeleteColumn() {
         memberDeleteColumn.setCellFactory(param -> new TableCell<>() {
             private final Button deleteButton = new Button();
-            private final ImageView deleteIcon = new ImageView(new Image("/icons/delete.png"));
+            private final ImageView deleteIcon = new ImageView(TableImages.deleteIcon());
             {
                 deleteIcon.setFitWidth(16);
                 deleteIcon.setFitHeight(16);
@@ -671,8 +823,8 @@ public class LibraryController {
     
     private void handleDeleteBook(Book book) {
         try {
-            // Check if book is borrowed
-            if (!book.isAvailable()) {
+            // Check if any copy of the book is borrowed
+            if (book.getAvailableCopies() < book.getCopies()) {
                 appendOutputToAll("Cannot delete book '" + book.getTitle() + "' - it is currently borrowed.");
                 return;
             }
@@ -708,6 +860,77 @@ public class LibraryController {
         return LocalDateTime.now().format(timestampFormatter) + message;
     }
     
+    // Diagnostics: live view of MetricsRegistry
+    private void setupMetricsColumns() {
+        metricsRefresh.setCycleCount(Animation.INDEFINITE);
+        metricNameColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(data.getValue().getName()));
+        metricCallsColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleLongProperty(data.getValue().getCalls()));
+        metricErrorsColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleLongProperty(data.getValue().getErrors()));
+        metricRateColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(
+                String.format("%.1f", metricRates.getOrDefault(data.getValue().getName(), 0.0))));
+        metricP50Column.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(String.format("%.1f", data.getValue().getP50Micros())));
+        metricP99Column.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(String.format("%.1f", data.getValue().getP99Micros())));
+        metricP999Column.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(String.format("%.1f", data.getValue().getP999Micros())));
+        metricMaxColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(String.format("%.1f", data.getValue().getMaxMicros())));
+        metricLastErrorColumn.setCellValueFactory(data -> new javafx.beans.property.SimpleStringProperty(
+                data.getValue().getLastError() == null ? "" : data.getValue().getLastError()));
+    }
+
+    private void refreshMetrics() {
+        MetricsRegistry registry = MetricsRegistry.getDefault();
+        java.util.List<MetricsSnapshot> snapshots = registry.snapshot();
+        long now = System.nanoTime();
+        double seconds = previousMetricsNanos == 0 ? 0 : (now - previousMetricsNanos) / 1e9;
+        long totalErrors = 0;
+        for (MetricsSnapshot snapshot : snapshots) {
+            Long before = previousMetricCalls.put(snapshot.getName(), snapshot.getCalls());
+            double rate = (before == null || seconds == 0) ? 0.0 : (snapshot.getCalls() - before) / seconds;
+            metricRates.put(snapshot.getName(), rate);
+            totalErrors += snapshot.getErrors();
+        }
+        previousMetricsNanos = now;
+        metricsTable.getItems().setAll(snapshots);
+        diagnosticsSummaryLabel.setText("Uptime " + registry.getUptime().toMinutes() + " min, "
+                + snapshots.size() + " operations, " + totalErrors + " errors");
+    }
+
+    @FXML
+    private void handleExportMetrics() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export Metrics Snapshot");
+        chooser.setInitialFileName("library-metrics.txt");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text files", "*.txt"));
+        File file = chooser.showSaveDialog(metricsTable.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        try {
+            String report = MetricsRegistry.getDefault().formatSnapshot() + "\n" + SqlTracer.formatSlowLog();
+            Files.writeString(file.toPath(), report, StandardCharsets.UTF_8);
+            appendOutputToAll("Metrics snapshot exported to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            appendOutputToAll("Error exporting metrics: " + e.getMessage());
+        }
+    }
+
+    /** Starts or stops a Flight Recording with the library events, saved next to the database. */
+    @FXML
+    private void handleToggleRecording() {
+        if (FlightRecording.isRecording()) {
+            File file = FlightRecording.stop();
+            recordingButton.setText("⏺ Start Recording");
+            appendOutputToAll("Flight recording saved to " + file.getAbsolutePath());
+            return;
+        }
+        try {
+            File file = FlightRecording.start();
+            recordingButton.setText("⏹ Stop Recording");
+            appendOutputToAll("Flight recording started; will be saved to " + file.getAbsolutePath());
+        } catch (IOException | RuntimeException e) {
+            appendOutputToAll("Error starting flight recording: " + e.getMessage());
+        }
+    }
+
     // Fine Management Handlers
     @FXML
     private void handleAddFine() {
@@ -0,0 +1,48 @@
+package libraryui.ui;
+
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import library.Member;
+
+/** What the members table shows for one member; see BookRow. FX thread only. */
+final class MemberRow {
+
+    private final ReadOnlyObjectWrapper<Integer> id = new ReadOnlyObjectWrapper<>();
+    private final ReadOnlyStringWrapper name = new ReadOnlyStringWrapper();
+    private final ReadOnlyStringWrapper password = new ReadOnlyStringWrapper();
+    private final ReadOnlyObjectWrapper<Double> balance = new ReadOnlyObjectWrapper<>();
+
+    private Member member;
+    private long generation = -1;
+
+    boolean isCurrent(Member member, long generation) {
+        return this.member == member && this.generation == generation;
+    }
+
+    void update(Member member, long generation) {
+        this.member = member;
+        this.generation = generation;
+        id.set(member.getId());
+        name.set(member.getName());
+        password.set(member.getPassword());
+        balance.set(member.getBalance());
+    }
+
+    ReadOnlyObjectProperty<Integer> idProperty() {
+        return id.getReadOnlyProperty();
+    }
+
+    ReadOnlyStringProperty nameProperty() {
+        return name.getReadOnlyProperty();
+    }
+
+    ReadOnlyStringProperty passwordProperty() {
+        return password.getReadOnlyProperty();
+    }
+
+    ReadOnlyObjectProperty<Double> balanceProperty() {
+        return balance.getReadOnlyProperty();
+    }
+}
@@ -0,0 +1,213 @@
+package libraryui.ui;
+
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.image.Image;
+import javafx.scene.layout.Background;
+import javafx.scene.layout.BackgroundImage;
+import javafx.scene.layout.BackgroundPosition;
+import javafx.scene.layout.BackgroundRepeat;
+import javafx.scene.layout.BackgroundSize;
+import javafx.scene.layout.Region;
+import library.ActiveLoan;
+import library.Book;
+import library.CatalogSnapshot;
+import library.LibraryService;
+import library.Member;
+import library.MetricsRegistry;
+import library.SQLiteBorrowedBookHandler;
+import library.SQLiteConnectionManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Staged application startup.
+ * While the FX thread loads library.fxml, background threads open the database
+ * (running the schema migration), read the first page of books and members and the
+ * active loans, and decode the window background. The controller then starts from
+ * that data and the rest of each table streams in afterwards.
+ * Books come from the memory-mapped catalog snapshot when it matches the database,
+ * so a large catalog is not read through JDBC at all; otherwise from SQLite.
+ *
+ * Each phase is timed from JVM start; the summary is printed once the first frame
+ * has been drawn and the timings show up as "Startup: ..." rows in Diagnostics.
+ */
+public final class StartupPipeline {
+
+    /** Rows shown before the rest of the table arrives; comfortably more than one screen. */
+    public static final int FIRST_PAGE_SIZE = 200;
+
+    private static final String BACKGROUND_IMAGE = "/images/background.png";
+
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    private final ExecutorService executor;
+
+    private final CompletableFuture<Void> database;
+    private final CompletableFuture<CatalogSnapshot> catalog;
+    private final CompletableFuture<List<Book>> firstBooks;
+    private final CompletableFuture<List<Member>> firstMembers;
+    private final CompletableFuture<Map<Integer, ActiveLoan>> activeLoans;
+    private final CompletableFuture<List<Book>> remainingBooks;
+    private final CompletableFuture<List<Member>> remainingMembers;
+    private final CompletableFuture<Image> background;
+
+    private StartupPipeline(LibraryService libraryService) {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "library-startup-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        mark("Launch");
+
+        database = CompletableFuture.runAsync(() -> {
+            try {
+                SQLiteConnectionManager.getConnection();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+            mark("Database open and migrated");
+        }, executor);
+
+        // Mapped and checksummed while the database opens; used only if the change counter still matches
+        catalog = CompletableFuture.supplyAsync(this::mapSnapshot, executor)
+                .thenCombineAsync(database, (snapshot, v) -> currentOrNull(snapshot), executor);
+
+        firstBooks = catalog.thenApplyAsync(snapshot -> snapshot != null
+                ? timed("Books first page (snapshot)", snapshot.page(0, FIRST_PAGE_SIZE))
+                : timed("Books first page", libraryService.getBooksPage(0, FIRST_PAGE_SIZE)), executor);
+        firstMembers = database.thenApplyAsync(v -> timed("Members first page",
+                libraryService.getMembersPage(0, FIRST_PAGE_SIZE)), executor);
+        activeLoans = database.thenApplyAsync(v -> timed("Active loans",
+                new SQLiteBorrowedBookHandler().loadActiveLoans()), executor);
+
+        // Only go back to the database when the first page was full
+        remainingBooks = firstBooks.thenCombineAsync(catalog, (first, snapshot) -> first.size() < FIRST_PAGE_SIZE
+                ? List.<Book>of()
+                : snapshot != null
+                ? timed("Books remaining (snapshot)", snapshot.page(FIRST_PAGE_SIZE, Integer.MAX_VALUE))
+                : timed("Books remaining", libraryService.getBooksPage(FIRST_PAGE_SIZE, Integer.MAX_VALUE)), executor);
+        remainingMembers = firstMembers.thenApplyAsync(first -> first.size() < FIRST_PAGE_SIZE ? List.<Member>of()
+                : timed("Members remaining", libraryService.getMembersPage(FIRST_PAGE_SIZE, Integer.MAX_VALUE)), executor);
+
+        // Image decoding is thread-safe; doing it here keeps the 1.5 MB PNG off the FX thread
+        background = CompletableFuture.supplyAsync(() -> timed("Background decoded",
+                new Image(StartupPipeline.class.getResource(BACKGROUND_IMAGE).toExternalForm())), executor);
+
+        CompletableFuture.allOf(remainingBooks, remainingMembers, activeLoans, background)
+                .whenComplete((v, e) -> executor.shutdown());
+    }
+
+    /** Starts the background phases; call before loading FXML so they overlap with it. */
+    public static StartupPipeline begin(LibraryService libraryService) {
+        return new StartupPipeline(libraryService);
+    }
+
+    /** Records that a phase finished now. */
+    public void mark(String phase) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long sinceJvmStart = System.currentTimeMillis() - jvmStartMillis;
+        synchronized (phaseMillis) {
+            phaseMillis.put(phase, sinceJvmStart);
+        }
+        MetricsRegistry.getDefault().operation("Startup: " + phase).record(elapsedNanos);
+    }
+
+    private <T> T timed(String phase, T result) {
+        mark(phase);
+        return result;
+    }
+
+    private CatalogSnapshot mapSnapshot() {
+        File file = CatalogSnapshot.defaultFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return timed("Catalog snapshot mapped", CatalogSnapshot.open(file));
+        } catch (IOException e) {
+            System.err.println("Ignoring catalog snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static CatalogSnapshot currentOrNull(CatalogSnapshot snapshot) {
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return snapshot.isCurrent(SQLiteConnectionManager.getConnection()) ? snapshot : null;
+        } catch (SQLException e) {
+            System.err.println("Error checking catalog snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public List<Book> getFirstBooks() {
+        return firstBooks.join();
+    }
+
+    public List<Member> getFirstMembers() {
+        return firstMembers.join();
+    }
+
+    public Map<Integer, ActiveLoan> getActiveLoans() {
+        return activeLoans.join();
+    }
+
+    /** Books after the first page; completes off the FX thread. */
+    public CompletableFuture<List<Book>> getRemainingBooks() {
+        return remainingBooks;
+    }
+
+    public CompletableFuture<List<Member>> getRemainingMembers() {
+        return remainingMembers;
+    }
+
+    /** Sets the decoded background on root once it is ready, without waiting for it. */
+    public void applyBackground(Region root) {
+        background.thenAccept(image -> Platform.runLater(() -> root.setBackground(new Background(new BackgroundImage(
+                image, BackgroundRepeat.NO_REPEAT, BackgroundRepeat.NO_REPEAT, BackgroundPosition.CENTER,
+                new BackgroundSize(BackgroundSize.AUTO, BackgroundSize.AUTO, false, false, false, true))))))
+                .exceptionally(e -> {
+                    System.err.println("Error loading background image: " + e.getMessage());
+                    return null;
+                });
+    }
+
+    /** Marks the first frame drawn for scene and prints the phase summary. */
+    public void markFirstFrame(Scene scene) {
+        Runnable[] listener = new Runnable[1];
+        listener[0] = () -> {
+            scene.removePostLayoutPulseListener(listener[0]);
+            // The pulse that lays out the scene is the one that renders it
+            mark("First frame");
+            System.out.print(formatSummary());
+        };
+        scene.addPostLayoutPulseListener(listener[0]);
+    }
+
+    public String formatSummary() {
+        StringBuilder out = new StringBuilder("Startup phases (ms since JVM start):\n");
+        synchronized (phaseMillis) {
+            for (Map.Entry<String, Long> phase : phaseMillis.entrySet()) {
+                out.append(String.format(Locale.ROOT, "  %-28s %6d%n", phase.getKey(), phase.getValue()));
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package libraryui.ui;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javafx.scene.image.Image;
+
+/**
+ * Images shared by all table cells: the edit and delete icons, decoded once, and book
+ * covers, decoded in the background at thumbnail size and kept for the covers shown
+ * most recently. FX thread only.
+ */
+final class TableImages {
+
+    static final int COVER_WIDTH = 48;
+    static final int COVER_HEIGHT = 64;
+    /** About three screens of rows; a thumbnail is only ~12 KB once decoded. */
+    private static final int MAX_COVERS = 256;
+
+    private static Image editIcon;
+    private static Image deleteIcon;
+    private static final Map<String, Image> covers = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > MAX_COVERS;
+        }
+    };
+
+    private TableImages() {
+    }
+
+    static Image editIcon() {
+        if (editIcon == null) {
+            editIcon = new Image("/icons/edit.png");
+        }
+        return editIcon;
+    }
+
+    static Image deleteIcon() {
+        if (deleteIcon == null) {
+            deleteIcon = new Image("/icons/delete.png");
+        }
+        return deleteIcon;
+    }
+
+    /** Cover thumbnail for a file path; blank until it has loaded, and if it cannot be read. */
+    static Image cover(String path) {
+        Image image = covers.get(path);
+        if (image == null) {
+            image = new Image(new File(path).toURI().toString(), COVER_WIDTH, COVER_HEIGHT, true, true, true);
+            covers.put(path, image);
+        }
+        return image;
+    }
+}
@@ -130,9 +130,12 @@ public class EditBookDialog {
         return confirmed ? createUpdatedBook() : null;
     }
     
+    /** Only title, author and cover are edited; copy counts and row version carry over. */
     private Book createUpdatedBook() {
         Book updated = new Book(book.getId(), titleField.getText().trim(), authorField.getText().trim());
-        updated.setAvailable(book.isAvailable());
+        updated.setCopies(book.getCopies());
+        updated.setAvailableCopies(book.getAvailableCopies());
+        updated.setVersion(book.getVersion());
         String path = coverPathField.getText();
         if (path != null && !path.isBlank()) updated.setCoverPath(path.trim());
         return updated;
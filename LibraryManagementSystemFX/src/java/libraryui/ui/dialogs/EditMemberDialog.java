@@ -103,8 +103,13 @@ public class EditMemberDialog {
         return confirmed ? createUpdatedMember() : null;
     }
     
+    /** Only name and password are edited; balance, loans and row version carry over. */
     private Member createUpdatedMember() {
-        return new Member(member.getId(), nameField.getText().trim(), passwordField.getText().trim());
+        Member updated = new Member(member.getId(), nameField.getText().trim(), passwordField.getText().trim());
+        updated.setBalance(member.getBalance());
+        updated.setVersion(member.getVersion());
+        member.getBorrowedBooks().forEach(updated::borrowBook);
+        return updated;
     }
     
     public boolean isConfirmed() {
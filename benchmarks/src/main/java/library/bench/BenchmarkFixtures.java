@@ -0,0 +1,185 @@
+package library.bench;
+
+import library.Book;
+import library.CompactCatalog;
+import library.DataHandler;
+import library.DatabaseHandler;
+import library.Member;
+import library.SQLiteBookHandler;
+import library.SQLiteConnectionManager;
+import library.SQLiteMemberHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared setup for the benchmarks: a throw-away SQLite file and seeded catalogs.
+ * Seeding goes straight through JDBC in one transaction; going through the
+ * handlers would take hours at a million rows, which is exactly what we measure.
+ */
+final class BenchmarkFixtures {
+
+    static final String BACKEND_MEMORY = "memory";
+    static final String BACKEND_SQLITE = "sqlite";
+    /** Books in a CompactCatalog, members in memory. */
+    static final String BACKEND_COMPACT = "compact";
+    /** Books and members in journalled DatabaseHandlers next to the temp database. */
+    static final String BACKEND_JOURNAL = "journal";
+
+    private BenchmarkFixtures() {}
+
+    /** Points SQLiteConnectionManager at a fresh temp file and returns it. */
+    static File useTempDatabase() throws IOException {
+        File file = Files.createTempFile("library-bench-", ".db").toFile();
+        file.delete(); // let SQLite create it with the app schema
+        SQLiteConnectionManager.useDatabaseFile(file.getAbsolutePath());
+        return file;
+    }
+
+    static void deleteDatabase(File file) {
+        SQLiteConnectionManager.closeConnection();
+        for (String suffix : new String[] {"", "-journal", "-wal", "-shm",
+                ".books.journal", ".books.snapshot", ".members.journal", ".members.snapshot"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    static Book book(int id) {
+        // A few thousand distinct authors, like a real catalog
+        return new Book(id, "Title " + id, "Author " + (id % 5000));
+    }
+
+    static List<Book> books(int count) {
+        List<Book> books = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            books.add(book(id));
+        }
+        return books;
+    }
+
+    static List<Member> members(int count) {
+        List<Member> members = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            members.add(new Member(id, "Member " + id, "pw" + id));
+        }
+        return members;
+    }
+
+    static DataHandler<Book> bookHandler(String backend, int catalogSize) throws SQLException, IOException {
+        if (BACKEND_JOURNAL.equals(backend)) {
+            DatabaseHandler<Book> handler = DatabaseHandler.open(journalBase("books"), Book::getId, DatabaseHandler.BOOK_CODEC);
+            handler.saveData(books(catalogSize));
+            return handler;
+        }
+        if (BACKEND_MEMORY.equals(backend)) {
+            DatabaseHandler<Book> handler = new DatabaseHandler<>(Book::getId);
+            handler.saveData(books(catalogSize));
+            return handler;
+        }
+        if (BACKEND_COMPACT.equals(backend)) {
+            CompactCatalog catalog = new CompactCatalog();
+            catalog.saveData(books(catalogSize));
+            return catalog;
+        }
+        seedBooks(catalogSize);
+        return new SQLiteBookHandler();
+    }
+
+    static DataHandler<Member> memberHandler(String backend, int memberCount) throws SQLException, IOException {
+        if (BACKEND_JOURNAL.equals(backend)) {
+            DatabaseHandler<Member> handler = DatabaseHandler.open(journalBase("members"), Member::getId, DatabaseHandler.MEMBER_CODEC);
+            handler.saveData(members(memberCount));
+            return handler;
+        }
+        if (BACKEND_MEMORY.equals(backend) || BACKEND_COMPACT.equals(backend)) {
+            DatabaseHandler<Member> handler = new DatabaseHandler<>(Member::getId);
+            handler.saveData(members(memberCount));
+            return handler;
+        }
+        seedMembers(memberCount);
+        return new SQLiteMemberHandler();
+    }
+
+    /** Journal files sit beside the temp database so deleteDatabase removes them too. */
+    private static File journalBase(String name) {
+        return new File(SQLiteConnectionManager.getDatabasePath() + "." + name);
+    }
+
+    static void seedBooks(int count) throws SQLException {
+        String sql = "INSERT INTO books (id, title, author, available, cover_path) VALUES (?, ?, ?, 1, NULL)";
+        inTransaction(sql, count, (pstmt, id) -> {
+            Book book = book(id);
+            pstmt.setInt(1, id);
+            pstmt.setString(2, book.getTitle());
+            pstmt.setString(3, book.getAuthor());
+        });
+    }
+
+    /** Inserts the given books as-is (ids, titles, authors from the caller). */
+    static void seedBooks(List<Book> books) throws SQLException {
+        String sql = "INSERT INTO books (id, title, author, available, cover_path) VALUES (?, ?, ?, 1, NULL)";
+        inTransaction(sql, books.size(), (pstmt, i) -> {
+            Book book = books.get(i - 1);
+            pstmt.setInt(1, book.getId());
+            pstmt.setString(2, book.getTitle());
+            pstmt.setString(3, book.getAuthor());
+        });
+    }
+
+    static void seedMembers(int count) throws SQLException {
+        String sql = "INSERT INTO members (id, name, password, balance) VALUES (?, ?, ?, 0)";
+        inTransaction(sql, count, (pstmt, id) -> {
+            pstmt.setInt(1, id);
+            pstmt.setString(2, "Member " + id);
+            pstmt.setString(3, "pw" + id);
+        });
+    }
+
+    /** Marks every other book as borrowed with an open borrowed_books row and its Borrowed event. */
+    static void seedLoans(int bookCount, int memberCount) throws SQLException {
+        String sql = "INSERT INTO borrowed_books (member_id, book_id, borrow_date, due_date, return_date) "
+                + "VALUES (?, ?, date('now'), date('now', '+14 days'), NULL)";
+        inTransaction(sql, bookCount / 2, (pstmt, i) -> {
+            int bookId = i * 2;
+            pstmt.setInt(1, 1 + (bookId % memberCount));
+            pstmt.setInt(2, bookId);
+        });
+        Connection conn = SQLiteConnectionManager.getConnection();
+        try (PreparedStatement pstmt = conn.prepareStatement("UPDATE books SET available = 0 WHERE id % 2 = 0")) {
+            pstmt.executeUpdate();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO circulation_events "
+                + "(type, member_id, book_id, due_date, occurred_on) SELECT 'Borrowed', member_id, book_id, due_date, borrow_date "
+                + "FROM borrowed_books ORDER BY id")) {
+            pstmt.executeUpdate();
+        }
+    }
+
+    private interface RowBinder {
+        void bind(PreparedStatement pstmt, int id) throws SQLException;
+    }
+
+    private static void inTransaction(String sql, int count, RowBinder binder) throws SQLException {
+        Connection conn = SQLiteConnectionManager.getConnection();
+        conn.setAutoCommit(false);
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int id = 1; id <= count; id++) {
+                binder.bind(pstmt, id);
+                pstmt.addBatch();
+                if (id % 10_000 == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+}
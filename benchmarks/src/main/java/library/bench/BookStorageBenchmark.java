@@ -0,0 +1,82 @@
+package library.bench;
+
+import library.Book;
+import library.BookRepository;
+import library.DataHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BookRepository.save and DataHandler.saveData / readData: in-memory, compact columnar and SQLite.
+ * save() writes one row whatever the catalog size; readData reads the whole catalog, so
+ * large SQLite catalogs mostly cost setup and handlerReadAll time. Narrow with -p catalogSize=...
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookStorageBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int catalogSize;
+
+    @Param({BenchmarkFixtures.BACKEND_MEMORY, BenchmarkFixtures.BACKEND_COMPACT,
+            BenchmarkFixtures.BACKEND_JOURNAL, BenchmarkFixtures.BACKEND_SQLITE})
+    public String backend;
+
+    private File databaseFile;
+    private DataHandler<Book> handler;
+    private BookRepository repository;
+    private List<Book> loaded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        databaseFile = BenchmarkFixtures.useTempDatabase();
+        handler = BenchmarkFixtures.bookHandler(backend, catalogSize);
+        repository = new BookRepository(handler);
+        // Saves go back over books read from the store, as the desk does; SQLite refuses a stale version
+        loaded = handler.readData();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.deleteDatabase(databaseFile);
+    }
+
+    private Book randomExistingBook() {
+        return loaded.get(ThreadLocalRandom.current().nextInt(loaded.size()));
+    }
+
+    @Benchmark
+    public void repositorySave() {
+        repository.save(randomExistingBook());
+    }
+
+    @Benchmark
+    public void handlerSaveOne() {
+        handler.saveData(List.of(randomExistingBook()));
+    }
+
+    @Benchmark
+    public List<Book> handlerReadAll() {
+        return handler.readData();
+    }
+}
@@ -0,0 +1,79 @@
+package library.bench;
+
+import library.SQLiteBorrowedBookHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-book lookups the books table runs for every visible row
+ * (borrower and due date columns). Half of the catalog is on loan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BorrowedBookLookupBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int catalogSize;
+
+    private File databaseFile;
+    private SQLiteBorrowedBookHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        databaseFile = BenchmarkFixtures.useTempDatabase();
+        int memberCount = Math.max(100, catalogSize / 20);
+        BenchmarkFixtures.seedBooks(catalogSize);
+        BenchmarkFixtures.seedMembers(memberCount);
+        BenchmarkFixtures.seedLoans(catalogSize, memberCount);
+        handler = new SQLiteBorrowedBookHandler();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.deleteDatabase(databaseFile);
+    }
+
+    private int randomBookId() {
+        return 1 + ThreadLocalRandom.current().nextInt(catalogSize);
+    }
+
+    @Benchmark
+    public int currentBorrowerId() {
+        return handler.getCurrentBorrowerId(randomBookId());
+    }
+
+    @Benchmark
+    public LocalDate dueDateForBook() {
+        return handler.getDueDateForBook(randomBookId());
+    }
+
+    @Benchmark
+    public boolean isBookCurrentlyBorrowed() {
+        return handler.isBookCurrentlyBorrowed(randomBookId());
+    }
+
+    @Benchmark
+    public Integer findBorrowerIdForBook() {
+        return handler.findBorrowerIdForBook(randomBookId());
+    }
+}
@@ -0,0 +1,86 @@
+package library.bench;
+
+import library.Book;
+import library.BookRepository;
+import library.CatalogSnapshot;
+import library.CatalogSnapshotWriter;
+import library.SQLiteBookHandler;
+import library.SQLiteConnectionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warm start: the first page of the catalog from the mapped snapshot (map, checksum,
+ * version check, decode) vs from SQLite, and the whole catalog both ways.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CatalogSnapshotBenchmark {
+
+    private static final int FIRST_PAGE_SIZE = 200;
+
+    @Param({"100000", "1000000"})
+    public int catalogSize;
+
+    private File databaseFile;
+    private File snapshotFile;
+    private BookRepository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        databaseFile = BenchmarkFixtures.useTempDatabase();
+        BenchmarkFixtures.seedBooks(catalogSize);
+        snapshotFile = CatalogSnapshot.defaultFile();
+        new CatalogSnapshotWriter(snapshotFile).refreshIfStale();
+        repository = new BookRepository(new SQLiteBookHandler());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        snapshotFile.delete();
+        BenchmarkFixtures.deleteDatabase(databaseFile);
+    }
+
+    @Benchmark
+    public List<Book> snapshotFirstPage() throws Exception {
+        CatalogSnapshot snapshot = CatalogSnapshot.open(snapshotFile);
+        if (!snapshot.isCurrent(SQLiteConnectionManager.getConnection())) {
+            throw new IllegalStateException("Snapshot went stale");
+        }
+        return snapshot.page(0, FIRST_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Book> sqliteFirstPage() {
+        return repository.findPage(0, FIRST_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Book> snapshotAll() throws Exception {
+        return CatalogSnapshot.open(snapshotFile).page(0, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<Book> sqliteAll() {
+        return repository.findAll();
+    }
+}
@@ -0,0 +1,308 @@
+package library.bench;
+
+import library.Book;
+import library.BookRepository;
+import library.CompactCatalog;
+import library.DataHandler;
+import library.DatabaseHandler;
+import library.Json;
+import library.LatencyHistogram;
+import library.LibraryService;
+import library.Member;
+import library.MemberRepository;
+import library.SQLiteBookHandler;
+import library.SQLiteMemberHandler;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless end-to-end load generator for LibraryService (no JavaFX).
+ * Seeds a synthetic library, then runs a weighted mix of borrow, return, search,
+ * fine payment and report operations from many threads, recording per-operation
+ * latency histograms. Prints a summary and writes the full result as JSON.
+ *
+ * Usage (after mvn package):
+ *   java -cp benchmarks/target/benchmarks.jar library.bench.CirculationSimulator \
+ *        --books=100000 --members=5000 --threads=8 --duration=60 --warmup=10 \
+ *        --mix=borrow:30,return:25,search:30,fine:10,report:5 --backend=sqlite --out=sim.json
+ * Backends: sqlite, memory (DatabaseHandler) or compact (books in a CompactCatalog).
+ */
+public final class CirculationSimulator {
+
+    enum Operation { BORROW, RETURN, SEARCH, FINE, REPORT }
+
+    private static final class OperationStats {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        /** First few distinct error messages, to make failures actionable. */
+        final Set<String> errorSamples = ConcurrentHashMap.newKeySet();
+    }
+
+    private record Loan(Member member, Book book) {}
+
+    private final Map<String, String> options;
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final Queue<Loan> openLoans = new ConcurrentLinkedQueue<>();
+    private Operation[] mixTable;
+    private LibraryService libraryService;
+    private List<Book> books;
+    private List<Member> members;
+    private SyntheticLibrary.ZipfSampler bookPopularity;
+
+    private CirculationSimulator(Map<String, String> options) {
+        this.options = options;
+        for (Operation op : Operation.values()) {
+            stats.put(op, new OperationStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("books", "10000");
+        options.put("members", "1000");
+        options.put("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        options.put("duration", "30");
+        options.put("warmup", "5");
+        options.put("mix", "borrow:30,return:25,search:30,fine:10,report:5");
+        options.put("backend", BenchmarkFixtures.BACKEND_SQLITE);
+        options.put("seed", "42");
+        options.put("out", "simulation-results.json");
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Ignoring argument (expected --key=value): " + arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        new CirculationSimulator(options).run();
+    }
+
+    private int intOption(String key) {
+        return Integer.parseInt(options.get(key));
+    }
+
+    private void run() throws Exception {
+        mixTable = parseMix(options.get("mix"));
+        File databaseFile = BenchmarkFixtures.useTempDatabase();
+        try {
+            seed();
+            Map<String, Object> result = drive();
+            String json = Json.write(result);
+            Files.writeString(new File(options.get("out")).toPath(), json, StandardCharsets.UTF_8);
+            System.out.println("Results written to " + new File(options.get("out")).getAbsolutePath());
+        } finally {
+            BenchmarkFixtures.deleteDatabase(databaseFile);
+        }
+    }
+
+    private void seed() throws Exception {
+        int bookCount = intOption("books");
+        int memberCount = intOption("members");
+        long seed = Long.parseLong(options.get("seed"));
+        long start = System.nanoTime();
+
+        List<Book> catalog = SyntheticLibrary.books(bookCount, seed);
+        List<Member> people = SyntheticLibrary.members(memberCount, seed);
+        DataHandler<Book> bookHandler;
+        DataHandler<Member> memberHandler;
+        String backend = options.get("backend");
+        if (BenchmarkFixtures.BACKEND_MEMORY.equals(backend) || BenchmarkFixtures.BACKEND_COMPACT.equals(backend)) {
+            bookHandler = BenchmarkFixtures.BACKEND_COMPACT.equals(backend)
+                    ? new CompactCatalog() : new DatabaseHandler<>(Book::getId);
+            memberHandler = new DatabaseHandler<>(Member::getId);
+            bookHandler.saveData(catalog);
+            memberHandler.saveData(people);
+        } else {
+            BenchmarkFixtures.seedBooks(catalog);
+            BenchmarkFixtures.seedMembers(memberCount);
+            bookHandler = new SQLiteBookHandler();
+            memberHandler = new SQLiteMemberHandler();
+        }
+
+        libraryService = new LibraryService(new MemberRepository(memberHandler), new BookRepository(bookHandler));
+        books = libraryService.getAllBooks();
+        members = libraryService.getAllMembers();
+        bookPopularity = new SyntheticLibrary.ZipfSampler(books.size(), 0.9);
+        System.out.printf(Locale.ROOT, "Seeded %d books, %d members (%s) in %d ms%n", books.size(), members.size(),
+                options.get("backend"), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private Map<String, Object> drive() throws InterruptedException {
+        int threads = intOption("threads");
+        long warmupNanos = TimeUnit.SECONDS.toNanos(intOption("warmup"));
+        long durationNanos = TimeUnit.SECONDS.toNanos(intOption("duration"));
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        Operation op = mixTable[random.nextInt(mixTable.length)];
+                        execute(op, random, now >= measureFrom);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "simulator-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+        double seconds = durationNanos / 1e9;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("timestamp", Instant.now().toString());
+        result.put("config", new LinkedHashMap<>(options));
+        Map<String, Object> perOperation = new LinkedHashMap<>();
+        long totalOps = 0;
+        System.out.printf(Locale.ROOT, "%-8s %10s %8s %8s %10s %10s %10s %10s %10s%n",
+                "op", "count", "errors", "skipped", "ops/s", "p50 us", "p99 us", "p999 us", "max us");
+        for (Operation op : Operation.values()) {
+            OperationStats s = stats.get(op);
+            LatencyHistogram h = s.histogram;
+            totalOps += h.getCount();
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("count", h.getCount());
+            entry.put("errors", s.errors.get());
+            entry.put("skipped", s.skipped.get());
+            entry.put("throughputPerSec", h.getCount() / seconds);
+            entry.put("meanMicros", h.getMeanNanos() / 1000.0);
+            entry.put("p50Micros", h.getPercentile(50, TimeUnit.MICROSECONDS));
+            entry.put("p90Micros", h.getPercentile(90, TimeUnit.MICROSECONDS));
+            entry.put("p99Micros", h.getPercentile(99, TimeUnit.MICROSECONDS));
+            entry.put("p999Micros", h.getPercentile(99.9, TimeUnit.MICROSECONDS));
+            entry.put("maxMicros", h.getMaxNanos() / 1000.0);
+            entry.put("errorSamples", new ArrayList<>(s.errorSamples));
+            perOperation.put(op.name().toLowerCase(Locale.ROOT), entry);
+            System.out.printf(Locale.ROOT, "%-8s %10d %8d %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    op.name().toLowerCase(Locale.ROOT), h.getCount(), s.errors.get(), s.skipped.get(),
+                    h.getCount() / seconds,
+                    h.getPercentile(50, TimeUnit.MICROSECONDS), h.getPercentile(99, TimeUnit.MICROSECONDS),
+                    h.getPercentile(99.9, TimeUnit.MICROSECONDS), h.getMaxNanos() / 1000.0);
+        }
+        result.put("operations", perOperation);
+        result.put("totalOperations", totalOps);
+        result.put("totalThroughputPerSec", totalOps / seconds);
+        System.out.printf(Locale.ROOT, "Total: %d ops, %.1f ops/s over %.0f s with %d threads%n",
+                totalOps, totalOps / seconds, seconds, threads);
+        return result;
+    }
+
+    private void execute(Operation op, ThreadLocalRandom random, boolean measured) {
+        OperationStats s = stats.get(op);
+        long start = System.nanoTime();
+        try {
+            boolean performed = switch (op) {
+                case BORROW -> borrow(random);
+                case RETURN -> giveBack();
+                case SEARCH -> search(random);
+                case FINE -> payFine(random);
+                case REPORT -> libraryService.getReport() != null;
+            };
+            if (measured) {
+                if (performed) {
+                    s.histogram.record(System.nanoTime() - start);
+                } else {
+                    s.skipped.incrementAndGet();
+                }
+            }
+        } catch (RuntimeException e) {
+            if (measured) {
+                s.errors.incrementAndGet();
+                if (s.errorSamples.size() < 5) {
+                    s.errorSamples.add(e.getClass().getSimpleName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Popular titles are requested more often; gives up if three picks are all out. */
+    private boolean borrow(ThreadLocalRandom random) {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Book book = books.get(bookPopularity.sample(random));
+            if (!book.isAvailable()) {
+                continue;
+            }
+            Member member = members.get(random.nextInt(members.size()));
+            libraryService.borrowBook(member, book, LocalDate.now().plusWeeks(2));
+            openLoans.add(new Loan(member, book));
+            return true;
+        }
+        return false;
+    }
+
+    private boolean giveBack() {
+        Loan loan = openLoans.poll();
+        if (loan == null) {
+            return false;
+        }
+        try {
+            libraryService.returnBook(loan.member(), loan.book());
+        } catch (RuntimeException e) {
+            // Still out (fine owed, database busy): keep it for a later return
+            openLoans.add(loan);
+            throw e;
+        }
+        return true;
+    }
+
+    /** Same work the books tab search box does: scan the catalog for a word. */
+    private boolean search(ThreadLocalRandom random) {
+        String term = SyntheticLibrary.SEARCH_TERMS[random.nextInt(SyntheticLibrary.SEARCH_TERMS.length)];
+        long hits = libraryService.getAllBooks().stream()
+                .filter(b -> b.getTitle().toLowerCase().contains(term) || b.getAuthor().toLowerCase().contains(term))
+                .count();
+        return hits >= 0;
+    }
+
+    private boolean payFine(ThreadLocalRandom random) {
+        Member member = members.get(random.nextInt(members.size()));
+        libraryService.payFine(member, 0.50);
+        return true;
+    }
+
+    /** Expands "borrow:30,return:25,..." into a lookup table of 100-ish slots. */
+    private static Operation[] parseMix(String mix) {
+        List<Operation> table = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split(":");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Bad mix entry: " + part);
+            }
+            Operation op = Operation.valueOf(kv[0].trim().toUpperCase(Locale.ROOT));
+            int weight = Integer.parseInt(kv[1].trim());
+            for (int i = 0; i < weight; i++) {
+                table.add(op);
+            }
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("Operation mix is empty.");
+        }
+        return table.toArray(new Operation[0]);
+    }
+}
@@ -0,0 +1,79 @@
+package library.bench;
+
+import library.Book;
+import library.BookRepository;
+import library.LibraryService;
+import library.Member;
+import library.MemberRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LibraryService.borrowBook followed by returnBook, so the catalog stays in the
+ * same state between invocations. Loans always go to SQLite (LibraryService owns
+ * its SQLiteBorrowedBookHandler); the backend switches books and members.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LibraryServiceBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int catalogSize;
+
+    @Param({BenchmarkFixtures.BACKEND_MEMORY, BenchmarkFixtures.BACKEND_COMPACT,
+            BenchmarkFixtures.BACKEND_JOURNAL, BenchmarkFixtures.BACKEND_SQLITE})
+    public String backend;
+
+    private File databaseFile;
+    private LibraryService libraryService;
+    private List<Book> books;
+    private List<Member> members;
+    private LocalDate dueDate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        databaseFile = BenchmarkFixtures.useTempDatabase();
+        int memberCount = Math.max(100, catalogSize / 20);
+        BookRepository bookRepository = new BookRepository(BenchmarkFixtures.bookHandler(backend, catalogSize));
+        MemberRepository memberRepository = new MemberRepository(BenchmarkFixtures.memberHandler(backend, memberCount));
+        libraryService = new LibraryService(memberRepository, bookRepository);
+        books = libraryService.getAllBooks();
+        members = libraryService.getAllMembers();
+        dueDate = LocalDate.now().plusWeeks(2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.deleteDatabase(databaseFile);
+    }
+
+    @Benchmark
+    public void borrowAndReturn() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Book book = books.get(random.nextInt(books.size()));
+        Member member = members.get(random.nextInt(members.size()));
+        libraryService.borrowBook(member, book, dueDate);
+        libraryService.returnBook(member, book);
+    }
+}
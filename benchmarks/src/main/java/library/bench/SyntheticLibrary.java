@@ -0,0 +1,120 @@
+package library.bench;
+
+import library.Book;
+import library.Member;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a believable catalog: word-built titles and a Zipf-skewed author
+ * pool (a few prolific authors, a long tail), plus members with plain names.
+ * Deterministic for a given seed so runs are comparable.
+ */
+final class SyntheticLibrary {
+
+    private static final String[] ADJECTIVES = {
+        "Silent", "Hidden", "Last", "Golden", "Broken", "Secret", "Lost", "Burning", "Quiet", "Final",
+        "Forgotten", "Distant", "Crimson", "Winter", "Summer", "Wild", "Little", "Great", "Dark", "Bright"
+    };
+    private static final String[] NOUNS = {
+        "River", "Garden", "House", "Kingdom", "Storm", "Letter", "Island", "Road", "Mountain", "City",
+        "Promise", "Shadow", "Empire", "Voyage", "Orchard", "Machine", "Algorithm", "Harbor", "Forest", "Night"
+    };
+    private static final String[] SUBJECTS = {
+        "Databases", "Algorithms", "History", "Economics", "Physics", "Gardening", "Cooking", "Philosophy",
+        "Statistics", "Networks", "Biology", "Architecture", "Music", "Poetry", "Chemistry"
+    };
+    private static final String[] FIRST_NAMES = {
+        "Anna", "Ben", "Chloe", "David", "Elena", "Farid", "Grace", "Hiro", "Ines", "James",
+        "Kofi", "Lena", "Mateo", "Nadia", "Omar", "Priya", "Quinn", "Rosa", "Sam", "Tariq"
+    };
+    private static final String[] LAST_NAMES = {
+        "Abebe", "Brown", "Chen", "Diaz", "Evans", "Fischer", "Garcia", "Haddad", "Ito", "Jensen",
+        "Kim", "Lopez", "Martin", "Nguyen", "Okafor", "Petrov", "Rossi", "Singh", "Tanaka", "Walker"
+    };
+
+    /** Words the search operation looks for; all occur in generated titles. */
+    static final String[] SEARCH_TERMS = {
+        "river", "garden", "secret", "algorithms", "night", "empire", "introduction", "winter", "databases", "lost"
+    };
+
+    private SyntheticLibrary() {}
+
+    static List<Book> books(int count, long seed) {
+        Random random = new Random(seed);
+        String[] authors = authors(Math.max(50, count / 20), random);
+        ZipfSampler authorPopularity = new ZipfSampler(authors.length, 1.1);
+        List<Book> books = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            books.add(new Book(id, title(random), authors[authorPopularity.sample(random)]));
+        }
+        return books;
+    }
+
+    static List<Member> members(int count, long seed) {
+        Random random = new Random(seed ^ 0x5DEECE66DL);
+        List<Member> members = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " "
+                    + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            members.add(new Member(id, name, "pw" + id));
+        }
+        return members;
+    }
+
+    private static String[] authors(int count, Random random) {
+        String[] authors = new String[count];
+        for (int i = 0; i < count; i++) {
+            authors[i] = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " "
+                    + (char) ('A' + random.nextInt(26)) + ". "
+                    + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        }
+        return authors;
+    }
+
+    private static String title(Random random) {
+        String adjective = ADJECTIVES[random.nextInt(ADJECTIVES.length)];
+        String noun = NOUNS[random.nextInt(NOUNS.length)];
+        return switch (random.nextInt(5)) {
+            case 0 -> "The " + adjective + " " + noun;
+            case 1 -> noun + " of the " + NOUNS[random.nextInt(NOUNS.length)];
+            case 2 -> "Introduction to " + SUBJECTS[random.nextInt(SUBJECTS.length)];
+            case 3 -> "A " + adjective + " " + noun + " in " + (1900 + random.nextInt(125));
+            default -> adjective + " " + noun + ": A Novel";
+        };
+    }
+
+    /** Samples ranks 0..n-1 with probability proportional to 1/(rank+1)^s. */
+    static final class ZipfSampler {
+        private final double[] cumulative;
+
+        ZipfSampler(int n, double s) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, s);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        int sample(Random random) {
+            double u = random.nextDouble();
+            int lo = 0;
+            int hi = cumulative.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cumulative[mid] < u) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}